@@ -1,42 +1,229 @@
 package com.phuongheh.samples.portfolio;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * A user's positions, safe for concurrent trading.
+ *
+ * <p>Positions are held in an immutable {@link State} that is swapped with a
+ * compare-and-set on every change, so concurrent buys and sells on the same
+ * portfolio never lose an update and readers always see a consistent view
+ * without locking.
+ *
+ * <p>Every change advances the portfolio sequence number. The deltas of the
+ * most recent trades are kept in a small ring so a client that already holds
+ * the portfolio as of some sequence can catch up with just what it missed.
+ * The ring is only allocated on the first trade, since most portfolios
+ * loaded at startup are never traded again.
+ */
 public class Portfolio {
-    private final Map<String, PortfolioPosition> positionLookup = new LinkedHashMap<>();
+    private static final int DELTA_HISTORY = 64;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.EMPTY);
+    private volatile AtomicReferenceArray<PositionDelta> recentDeltas;
+    private volatile PositionListener listener;
+
+    public Portfolio() {
+    }
+
+    /**
+     * Create a portfolio holding the given positions as of the given sequence,
+     * for example when loading it from a snapshot.
+     */
+    public Portfolio(List<PortfolioPosition> positions, long sequence) {
+        LinkedHashMap<String, PortfolioPosition> lookup = new LinkedHashMap<>();
+        for (PortfolioPosition position : positions) {
+            lookup.put(position.getTicker(), position);
+        }
+        this.state.set(new State(lookup, sequence));
+    }
+
+    public void setPositionListener(PositionListener listener) {
+        this.listener = listener;
+    }
+
+    public PositionListener getPositionListener() {
+        return this.listener;
+    }
 
     public List<PortfolioPosition> getPositions() {
-        return new ArrayList<PortfolioPosition>(positionLookup.values());
+        return this.state.get().positionList;
+    }
+
+    public long getSequence() {
+        return this.state.get().sequence;
+    }
+
+    public PortfolioSnapshot getSnapshot() {
+        State current = this.state.get();
+        return PortfolioSnapshot.full(current.sequence, current.positionList);
+    }
+
+    /**
+     * Return the deltas applied after the given sequence, in order, or
+     * {@code null} if they are no longer all available and the caller needs
+     * a full snapshot instead.
+     */
+    public List<PositionDelta> getDeltasSince(long sequence) {
+        long current = this.state.get().sequence;
+        if (sequence > current || current - sequence > DELTA_HISTORY) {
+            return null;
+        }
+        AtomicReferenceArray<PositionDelta> recentDeltas = this.recentDeltas;
+        if (recentDeltas == null) {
+            return (sequence == current) ? new ArrayList<PositionDelta>(0) : null;
+        }
+        List<PositionDelta> deltas = new ArrayList<>((int) (current - sequence));
+        for (long next = sequence + 1; next <= current; next++) {
+            PositionDelta delta = recentDeltas.get(slot(next));
+            if (delta == null || delta.getSequence() != next) {
+                return null;
+            }
+            deltas.add(delta);
+        }
+        return deltas;
     }
 
     public void addPosition(PortfolioPosition position) {
-        this.positionLookup.put(position.getTicker(), position);
+        while (true) {
+            State current = this.state.get();
+            State updated = current.with(position);
+            if (this.state.compareAndSet(current, updated)) {
+                AtomicReferenceArray<PositionDelta> recentDeltas = this.recentDeltas;
+                if (recentDeltas != null) {
+                    recentDeltas.set(slot(updated.sequence), null);
+                }
+                PortfolioPosition previous = current.positionLookup.get(position.getTicker());
+                positionChanged(position.getTicker(), (previous != null) ? previous.getShares() : 0, position.getShares());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Set the share count of an existing position as recorded at the given
+     * sequence, typically while replaying a trade journal. The portfolio
+     * sequence only moves forward, so records may be restored in any order.
+     * @return {@code false} if the portfolio has no position in the ticker
+     */
+    public boolean restorePosition(String ticker, int shares, long sequence) {
+        while (true) {
+            State current = this.state.get();
+            PortfolioPosition position = current.positionLookup.get(ticker);
+            if (position == null) {
+                return false;
+            }
+            int previousShares = position.getShares();
+            position = new PortfolioPosition(position, shares - previousShares);
+            State updated = current.with(position, Math.max(current.sequence, sequence));
+            if (this.state.compareAndSet(current, updated)) {
+                positionChanged(ticker, previousShares, shares);
+                return true;
+            }
+        }
     }
 
     public PortfolioPosition getPortfolioPosition(String ticker) {
-        return this.positionLookup.get(ticker);
+        return this.state.get().positionLookup.get(ticker);
     }
 
-    public PortfolioPosition buy(String ticker, int sharesToBuy) {
-        PortfolioPosition position = this.positionLookup.get(ticker);
-        if (position == null || sharesToBuy < 1) {
+    public PositionDelta buy(String ticker, int sharesToBuy) {
+        if (sharesToBuy < 1) {
             return null;
         }
-        position = new PortfolioPosition(position, sharesToBuy);
-        this.positionLookup.put(ticker, position);
-        return position;
+        return trade(ticker, sharesToBuy, false);
     }
 
-    public PortfolioPosition sell(String ticker, int sharesToSell) {
-        PortfolioPosition position = this.positionLookup.get(ticker);
-        if (position == null || sharesToSell < 1 || position.getShares() < sharesToSell) {
+    public PositionDelta sell(String ticker, int sharesToSell) {
+        if (sharesToSell < 1) {
             return null;
         }
-        position = new PortfolioPosition(position, -sharesToSell);
-        this.positionLookup.put(ticker, position);
-        return position;
+        return trade(ticker, -sharesToSell, false);
+    }
+
+    /**
+     * Take back a trade that executed but could not be made durable,
+     * removing the shares it bought or adding back those it sold. Unlike a
+     * trade, this may leave a position short for as long as other trades
+     * taken back in a different order are still outstanding.
+     * @return the delta taking the trade back, or {@code null} if the
+     * portfolio has no position in the ticker
+     */
+    public PositionDelta undo(String ticker, int sharesTraded) {
+        return trade(ticker, -sharesTraded, true);
+    }
+
+    private PositionDelta trade(String ticker, int sharesToAddOrSubtract, boolean allowShort) {
+        while (true) {
+            State current = this.state.get();
+            PortfolioPosition position = current.positionLookup.get(ticker);
+            if (position == null || (!allowShort && position.getShares() + sharesToAddOrSubtract < 0)) {
+                return null;
+            }
+            int previousShares = position.getShares();
+            position = new PortfolioPosition(position, sharesToAddOrSubtract);
+            State updated = current.with(position);
+            if (this.state.compareAndSet(current, updated)) {
+                PositionDelta delta = new PositionDelta(ticker, position.getShares(), updated.sequence);
+                recentDeltas().set(slot(updated.sequence), delta);
+                positionChanged(ticker, previousShares, position.getShares());
+                return delta;
+            }
+        }
+    }
+
+    private void positionChanged(String ticker, int previousShares, int shares) {
+        PositionListener listener = this.listener;
+        if (listener != null && previousShares != shares) {
+            listener.onPositionChange(ticker, previousShares, shares);
+        }
+    }
+
+    private AtomicReferenceArray<PositionDelta> recentDeltas() {
+        AtomicReferenceArray<PositionDelta> recentDeltas = this.recentDeltas;
+        if (recentDeltas == null) {
+            synchronized (this) {
+                recentDeltas = this.recentDeltas;
+                if (recentDeltas == null) {
+                    recentDeltas = new AtomicReferenceArray<>(DELTA_HISTORY);
+                    this.recentDeltas = recentDeltas;
+                }
+            }
+        }
+        return recentDeltas;
+    }
+
+    private static int slot(long sequence) {
+        return (int) (sequence & (DELTA_HISTORY - 1));
+    }
+
+    private static final class State {
+        private static final State EMPTY = new State(new LinkedHashMap<String, PortfolioPosition>(), 0);
+
+        private final Map<String, PortfolioPosition> positionLookup;
+        private final List<PortfolioPosition> positionList;
+        private final long sequence;
+
+        private State(LinkedHashMap<String, PortfolioPosition> positionLookup, long sequence) {
+            this.positionLookup = positionLookup;
+            this.positionList = Collections.unmodifiableList(new ArrayList<>(positionLookup.values()));
+            this.sequence = sequence;
+        }
+
+        private State with(PortfolioPosition position) {
+            return with(position, this.sequence + 1);
+        }
+
+        private State with(PortfolioPosition position, long sequence) {
+            LinkedHashMap<String, PortfolioPosition> lookup = new LinkedHashMap<>(this.positionLookup);
+            lookup.put(position.getTicker(), position);
+            return new State(lookup, sequence);
+        }
     }
 }
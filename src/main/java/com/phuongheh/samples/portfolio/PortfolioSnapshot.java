@@ -0,0 +1,55 @@
+package com.phuongheh.samples.portfolio;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * Reply to a portfolio subscription. A fresh subscription carries all
+ * {@code positions} as of {@code sequence}; a resumed one carries only the
+ * {@code deltas} the client missed since the sequence it already had.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PortfolioSnapshot {
+    private long sequence;
+    private List<PortfolioPosition> positions;
+    private List<PositionDelta> deltas;
+
+    public static PortfolioSnapshot full(long sequence, List<PortfolioPosition> positions) {
+        PortfolioSnapshot snapshot = new PortfolioSnapshot();
+        snapshot.sequence = sequence;
+        snapshot.positions = positions;
+        return snapshot;
+    }
+
+    public static PortfolioSnapshot resumed(long sequence, List<PositionDelta> deltas) {
+        PortfolioSnapshot snapshot = new PortfolioSnapshot();
+        snapshot.sequence = sequence;
+        snapshot.deltas = deltas;
+        return snapshot;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public List<PortfolioPosition> getPositions() {
+        return positions;
+    }
+
+    public void setPositions(List<PortfolioPosition> positions) {
+        this.positions = positions;
+    }
+
+    public List<PositionDelta> getDeltas() {
+        return deltas;
+    }
+
+    public void setDeltas(List<PositionDelta> deltas) {
+        this.deltas = deltas;
+    }
+}
@@ -0,0 +1,78 @@
+package com.phuongheh.samples.portfolio;
+
+import java.math.BigDecimal;
+
+/**
+ * A portfolio's market value and unrealized profit or loss at the latest
+ * quotes, with their change since the previous valuation sent to the user.
+ */
+public class PortfolioValuation {
+    private BigDecimal marketValue;
+    private BigDecimal unrealizedPnl;
+    private BigDecimal marketValueChange;
+    private BigDecimal unrealizedPnlChange;
+    private long timestamp;
+
+    public PortfolioValuation(BigDecimal marketValue, BigDecimal unrealizedPnl, BigDecimal marketValueChange,
+                              BigDecimal unrealizedPnlChange, long timestamp) {
+        this.marketValue = marketValue;
+        this.unrealizedPnl = unrealizedPnl;
+        this.marketValueChange = marketValueChange;
+        this.unrealizedPnlChange = unrealizedPnlChange;
+        this.timestamp = timestamp;
+    }
+
+    public PortfolioValuation() {
+    }
+
+    public BigDecimal getMarketValue() {
+        return marketValue;
+    }
+
+    public void setMarketValue(BigDecimal marketValue) {
+        this.marketValue = marketValue;
+    }
+
+    public BigDecimal getUnrealizedPnl() {
+        return unrealizedPnl;
+    }
+
+    public void setUnrealizedPnl(BigDecimal unrealizedPnl) {
+        this.unrealizedPnl = unrealizedPnl;
+    }
+
+    public BigDecimal getMarketValueChange() {
+        return marketValueChange;
+    }
+
+    public void setMarketValueChange(BigDecimal marketValueChange) {
+        this.marketValueChange = marketValueChange;
+    }
+
+    public BigDecimal getUnrealizedPnlChange() {
+        return unrealizedPnlChange;
+    }
+
+    public void setUnrealizedPnlChange(BigDecimal unrealizedPnlChange) {
+        this.unrealizedPnlChange = unrealizedPnlChange;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "PortfolioValuation{" +
+                "marketValue=" + marketValue +
+                ", unrealizedPnl=" + unrealizedPnl +
+                ", marketValueChange=" + marketValueChange +
+                ", unrealizedPnlChange=" + unrealizedPnlChange +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
@@ -0,0 +1,53 @@
+package com.phuongheh.samples.portfolio;
+
+/**
+ * The change a single trade made to a portfolio: the new share count of one
+ * position, stamped with the portfolio sequence number it produced.
+ */
+public class PositionDelta {
+    private String ticker;
+    private int shares;
+    private long sequence;
+
+    public PositionDelta(String ticker, int shares, long sequence) {
+        this.ticker = ticker;
+        this.shares = shares;
+        this.sequence = sequence;
+    }
+
+    public PositionDelta() {
+    }
+
+    public String getTicker() {
+        return ticker;
+    }
+
+    public void setTicker(String ticker) {
+        this.ticker = ticker;
+    }
+
+    public int getShares() {
+        return shares;
+    }
+
+    public void setShares(int shares) {
+        this.shares = shares;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    @Override
+    public String toString() {
+        return "PositionDelta{" +
+                "ticker='" + ticker + '\'' +
+                ", shares=" + shares +
+                ", sequence=" + sequence +
+                '}';
+    }
+}
@@ -0,0 +1,10 @@
+package com.phuongheh.samples.portfolio;
+
+/**
+ * Callback for every change to the share count of a {@link Portfolio}
+ * position, invoked on the thread that made the change.
+ */
+public interface PositionListener {
+
+    void onPositionChange(String ticker, int previousShares, int shares);
+}
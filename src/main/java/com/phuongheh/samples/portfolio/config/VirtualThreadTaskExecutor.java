@@ -0,0 +1,122 @@
+package com.phuongheh.samples.portfolio.config;
+
+import com.phuongheh.samples.portfolio.messaging.BackpressureHandler;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureTask;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs every task on a new thread from the given factory, normally a virtual
+ * thread per task, with at most {@code maxConcurrency} running at once.
+ *
+ * <p>It extends {@link ThreadPoolTaskExecutor} only because that is what a
+ * {@code ChannelRegistration} accepts; the inherited pool is never used. A
+ * task arriving while all permits are taken is handed to the
+ * {@link BackpressureHandler}, which may drop a quote or reject a trade,
+ * and otherwise waits on the calling thread for a permit.
+ */
+public class VirtualThreadTaskExecutor extends ThreadPoolTaskExecutor {
+    private final ThreadFactory threadFactory;
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final BackpressureHandler backpressureHandler;
+
+    public VirtualThreadTaskExecutor(ThreadFactory threadFactory, int maxConcurrency,
+                                     BackpressureHandler backpressureHandler) {
+        this.threadFactory = threadFactory;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+        this.backpressureHandler = backpressureHandler;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!this.permits.tryAcquire()) {
+            if (this.backpressureHandler != null && this.backpressureHandler.reject(task)) {
+                return;
+            }
+            try {
+                this.permits.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new TaskRejectedException("Interrupted while waiting to execute " + task, ex);
+            }
+        }
+        try {
+            this.threadFactory.newThread(new PermitReleasingTask(task)).start();
+        } catch (RuntimeException | Error ex) {
+            this.permits.release();
+            throw new TaskRejectedException("Failed to start a thread for " + task, ex);
+        }
+    }
+
+    @Override
+    public void execute(Runnable task, long startTimeout) {
+        execute(task);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        FutureTask<Object> future = new FutureTask<>(task, null);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    public ListenableFuture<?> submitListenable(Runnable task) {
+        ListenableFutureTask<Object> future = new ListenableFutureTask<>(task, null);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    public <T> ListenableFuture<T> submitListenable(Callable<T> task) {
+        ListenableFutureTask<T> future = new ListenableFutureTask<>(task);
+        execute(future);
+        return future;
+    }
+
+    /**
+     * Return the number of tasks running, each on its own thread.
+     */
+    @Override
+    public int getActiveCount() {
+        return this.maxConcurrency - this.permits.availablePermits();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return getActiveCount();
+    }
+
+    private class PermitReleasingTask implements Runnable {
+        private final Runnable task;
+
+        PermitReleasingTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.task.run();
+            } finally {
+                permits.release();
+            }
+        }
+    }
+}
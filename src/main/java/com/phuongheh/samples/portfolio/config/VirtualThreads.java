@@ -0,0 +1,39 @@
+package com.phuongheh.samples.portfolio.config;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads on JDK 21+ while the project still compiles for
+ * older Java versions. The thread builder API is looked up reflectively, so
+ * on older runtimes {@link #newThreadFactory(String)} simply returns
+ * {@code null} and callers keep using platform threads.
+ */
+public final class VirtualThreads {
+    private static final Log logger = LogFactory.getLog(VirtualThreads.class);
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return newThreadFactory("probe-") != null;
+    }
+
+    public static ThreadFactory newThreadFactory(String namePrefix) {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = ofVirtual.invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Virtual threads not available on Java " + System.getProperty("java.version"), ex);
+            }
+            return null;
+        }
+    }
+}
@@ -1,26 +1,274 @@
 package com.phuongheh.samples.portfolio.config;
 
+import com.phuongheh.samples.portfolio.messaging.BackpressureHandler;
+import com.phuongheh.samples.portfolio.messaging.BinaryFrameHandshakeInterceptor;
+import com.phuongheh.samples.portfolio.messaging.BinarySubscriptionInterceptor;
+import com.phuongheh.samples.portfolio.messaging.BrokerRelayPostProcessor;
+import com.phuongheh.samples.portfolio.messaging.ConflatingWebSocketHandlerDecoratorFactory;
+import com.phuongheh.samples.portfolio.messaging.RateLimitInterceptor;
+import com.phuongheh.samples.portfolio.messaging.SmileMessageConverter;
+import com.phuongheh.samples.portfolio.messaging.StompEncoderPostProcessor;
+import com.phuongheh.samples.portfolio.messaging.SubscriptionRegistryPostProcessor;
+import com.phuongheh.samples.portfolio.messaging.SystemDestinationInterceptor;
+import com.phuongheh.samples.portfolio.messaging.TrieSubscriptionRegistry;
+import com.phuongheh.samples.portfolio.metrics.ChannelMetricsInterceptor;
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import com.phuongheh.samples.portfolio.service.QuotePublisher;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.config.StompBrokerRelayRegistration;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 import org.springframework.web.socket.config.annotation.AbstractWebSocketMessageBrokerConfigurer;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 @Configuration
 @EnableScheduling
-@ComponentScan("com.phuongheh.samples")
+@ComponentScan(basePackages = "com.phuongheh.samples", excludeFilters = @ComponentScan.Filter(type = FilterType.ANNOTATION, value = Configuration.class))
+@PropertySource(value = "classpath:portfolio.properties", ignoreResourceNotFound = true)
 @EnableWebSocketMessageBroker
-public class WebSocketConfig extends AbstractWebSocketMessageBrokerConfigurer {
+public class WebSocketConfig extends AbstractWebSocketMessageBrokerConfigurer implements SchedulingConfigurer, DisposableBean {
+    private static final Log logger = LogFactory.getLog(WebSocketConfig.class);
+    private static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+    public static final String UNRESOLVED_USER_DESTINATION = "/topic/unresolved-user-destination";
+    public static final String USER_REGISTRY_DESTINATION = "/topic/user-registry";
+
+    private final PortfolioMetrics metrics;
+    private final Environment env;
+    private final ObjectFactory<SimpMessagingTemplate> messagingTemplate;
+    private final ObjectFactory<QuotePublisher> quotePublisher;
+    private final boolean virtualThreads;
+    private ScheduledExecutorService virtualScheduler;
+
+    @Autowired
+    public WebSocketConfig(PortfolioMetrics metrics, Environment env, ObjectFactory<SimpMessagingTemplate> messagingTemplate,
+                           ObjectFactory<QuotePublisher> quotePublisher) {
+        this.metrics = metrics;
+        this.env = env;
+        this.messagingTemplate = messagingTemplate;
+        this.quotePublisher = quotePublisher;
+        this.virtualThreads = "virtual".equalsIgnoreCase(env.getProperty("portfolio.execution.mode", "pooled")) &&
+                checkVirtualThreads();
+    }
+
+    private static boolean checkVirtualThreads() {
+        if (VirtualThreads.isSupported()) {
+            return true;
+        }
+        logger.warn("Virtual thread execution requested but not available on Java " +
+                System.getProperty("java.version") + ", using pooled platform threads");
+        return false;
+    }
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/portfolio").withSockJS();
+        registry.addEndpoint("/portfolio-ws").addInterceptors(new BinaryFrameHandshakeInterceptor());
     }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
-        registry.enableSimpleBroker("/queue", "/topic/");
+        if ("relay".equalsIgnoreCase(this.env.getProperty("portfolio.broker.mode", "simple"))) {
+            configureBrokerRelay(registry.enableStompBrokerRelay("/queue/", "/topic/"));
+        } else {
+            registry.enableSimpleBroker("/queue", "/topic/");
+        }
         registry.setApplicationDestinationPrefixes("/app");
+        registry.configureBrokerChannel().interceptors(new ChannelMetricsInterceptor(this.metrics, "brokerChannel"));
+    }
+
+    /**
+     * Relay broker destinations to an external STOMP broker shared by all
+     * nodes, which also carries messages for users connected to other nodes.
+     */
+    private void configureBrokerRelay(StompBrokerRelayRegistration relay) {
+        String prefix = "portfolio.broker.relay.";
+        String host = this.env.getProperty(prefix + "host", "localhost");
+        int port = this.env.getProperty(prefix + "port", Integer.class, 61613);
+        relay.setRelayHost(host)
+                .setRelayPort(port)
+                .setClientLogin(this.env.getProperty(prefix + "client-login", "guest"))
+                .setClientPasscode(this.env.getProperty(prefix + "client-passcode", "guest"))
+                .setSystemLogin(this.env.getProperty(prefix + "system-login", "guest"))
+                .setSystemPasscode(this.env.getProperty(prefix + "system-passcode", "guest"))
+                .setSystemHeartbeatSendInterval(this.env.getProperty(prefix + "system-heartbeat-send-interval", Long.class, 10000L))
+                .setSystemHeartbeatReceiveInterval(this.env.getProperty(prefix + "system-heartbeat-receive-interval", Long.class, 10000L))
+                .setUserDestinationBroadcast(UNRESOLVED_USER_DESTINATION);
+        String virtualHost = this.env.getProperty(prefix + "virtual-host");
+        if (virtualHost != null && !virtualHost.isEmpty()) {
+            relay.setVirtualHost(virtualHost);
+        }
+        logger.info("Relaying broker destinations to " + host + ":" + port);
+    }
+
+    /**
+     * Tunes the relay's TCP client and, in relay mode, replaces Spring's
+     * multi-server user registry, which rebroadcasts every node's full
+     * registry periodically, with one that only sends changes.
+     */
+    @Bean
+    public static BrokerRelayPostProcessor brokerRelayPostProcessor(Environment env) {
+        String prefix = "portfolio.broker.relay.";
+        BrokerRelayPostProcessor postProcessor = new BrokerRelayPostProcessor(
+                env.getProperty(prefix + "io-threads", Integer.class, 0),
+                env.getProperty(prefix + "reconnect-initial-delay", Long.class, 1000L),
+                env.getProperty(prefix + "reconnect-max-delay", Long.class, 30000L));
+        if ("relay".equalsIgnoreCase(env.getProperty("portfolio.broker.mode", "simple"))) {
+            postProcessor.setUserRegistryBroadcast(USER_REGISTRY_DESTINATION,
+                    env.getProperty(prefix + "user-registry.flush-interval", Long.class, 100L),
+                    env.getProperty(prefix + "user-registry.heartbeat-interval", Long.class, 5000L),
+                    env.getProperty(prefix + "user-registry.batch-size", Integer.class, 1000));
+        }
+        return postProcessor;
+    }
+
+    /**
+     * Replaces the simple broker's subscription registry, which matches every
+     * subscription against each destination it has not cached, with a trie.
+     */
+    @Bean
+    public static SubscriptionRegistryPostProcessor subscriptionRegistryPostProcessor(Environment env) {
+        return new SubscriptionRegistryPostProcessor(
+                "trie".equalsIgnoreCase(env.getProperty("portfolio.broker.subscription-registry", "trie")),
+                env.getProperty("portfolio.broker.subscription-cache-limit", Integer.class,
+                        TrieSubscriptionRegistry.DEFAULT_CACHE_LIMIT));
+    }
+
+    /**
+     * Encodes each broadcast's shared headers and body once for all of its
+     * subscribers instead of once per session.
+     */
+    @Bean
+    public static StompEncoderPostProcessor stompEncoderPostProcessor(Environment env) {
+        return new StompEncoderPostProcessor(
+                env.getProperty("portfolio.transport.frame-cache-enabled", Boolean.class, true));
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        configureExecutor(registration, "portfolio.inbound", BackpressureHandler.Policy.REJECT_TRADE, "clientInboundChannel",
+                this.virtualThreads);
+        if (this.env.getProperty("portfolio.rate-limit.enabled", Boolean.class, true)) {
+            registration.interceptors(rateLimitInterceptor());
+        }
+        registration.interceptors(new ChannelMetricsInterceptor(this.metrics, "clientInboundChannel"),
+                new SystemDestinationInterceptor(USER_REGISTRY_DESTINATION, UNRESOLVED_USER_DESTINATION),
+                new BinarySubscriptionInterceptor(this.quotePublisher));
+    }
+
+    /**
+     * Limits trades per user and frames per session by role, ahead of the
+     * other interceptors so floods are dropped as cheaply as possible.
+     */
+    private RateLimitInterceptor rateLimitInterceptor() {
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(rateLimits("user"), this.metrics, this.messagingTemplate);
+        interceptor.setRoleLimits("ADMIN", rateLimits("admin"));
+        interceptor.setRoleLimits("USER", rateLimits("user"));
+        return interceptor;
+    }
+
+    private RateLimitInterceptor.Limits rateLimits(String role) {
+        String prefix = "portfolio.rate-limit." + role + ".";
+        boolean admin = "admin".equals(role);
+        return new RateLimitInterceptor.Limits(
+                this.env.getProperty(prefix + "trades-per-second", Double.class, admin ? 50d : 5d),
+                this.env.getProperty(prefix + "trade-burst", Integer.class, admin ? 100 : 10),
+                this.env.getProperty(prefix + "messages-per-second", Double.class, admin ? 200d : 50d),
+                this.env.getProperty(prefix + "message-burst", Integer.class, admin ? 400 : 100));
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        configureExecutor(registration, "portfolio.outbound", BackpressureHandler.Policy.DROP_OLDEST_QUOTE, "clientOutboundChannel",
+                false);
+        registration.interceptors(new ChannelMetricsInterceptor(this.metrics, "clientOutboundChannel"));
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        int sendTimeLimit = this.env.getProperty("portfolio.transport.send-time-limit", Integer.class, 5000);
+        int sendBufferSizeLimit = this.env.getProperty("portfolio.transport.send-buffer-size-limit", Integer.class, 256 * 1024);
+        registration.setSendTimeLimit(sendTimeLimit);
+        registration.setSendBufferSizeLimit(sendBufferSizeLimit);
+        if (this.env.getProperty("portfolio.transport.conflation-enabled", Boolean.class, true)) {
+            registration.addDecoratorFactory(new ConflatingWebSocketHandlerDecoratorFactory(
+                    sessionWriterExecutor(), sendTimeLimit, sendBufferSizeLimit, this.metrics));
+        }
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor sessionWriterExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("sessionWriter-");
+        executor.setCorePoolSize(this.env.getProperty("portfolio.transport.writer-pool-size", Integer.class, DEFAULT_POOL_SIZE));
+        executor.setMaxPoolSize(executor.getCorePoolSize());
+        return executor;
+    }
+
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        messageConverters.add(new SmileMessageConverter());
+        return true;
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+        if (this.virtualThreads) {
+            this.virtualScheduler = Executors.newScheduledThreadPool(
+                    this.env.getProperty("portfolio.execution.virtual.scheduler-threads", Integer.class, 4),
+                    VirtualThreads.newThreadFactory("scheduling-"));
+            taskRegistrar.setScheduler(this.virtualScheduler);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (this.virtualScheduler != null) {
+            this.virtualScheduler.shutdownNow();
+        }
+    }
+
+    private void configureExecutor(ChannelRegistration registration, String prefix,
+                                   BackpressureHandler.Policy defaultPolicy, String channelName, boolean virtual) {
+        BackpressureHandler.Policy policy = this.env.getProperty(prefix + ".rejection-policy",
+                BackpressureHandler.Policy.class, defaultPolicy);
+        BackpressureHandler backpressureHandler = new BackpressureHandler(channelName, policy, this.metrics, this.messagingTemplate);
+        if (virtual) {
+            int maxConcurrency = this.env.getProperty("portfolio.execution.virtual.max-concurrency", Integer.class, 1000);
+            registration.taskExecutor(new VirtualThreadTaskExecutor(
+                    VirtualThreads.newThreadFactory(channelName + "-"), maxConcurrency, backpressureHandler))
+                    .corePoolSize(1).maxPoolSize(1).queueCapacity(0);
+            return;
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setRejectedExecutionHandler(backpressureHandler);
+        int corePoolSize = this.env.getProperty(prefix + ".core-pool-size", Integer.class, DEFAULT_POOL_SIZE);
+        int maxPoolSize = this.env.getProperty(prefix + ".max-pool-size", Integer.class, corePoolSize);
+        registration.taskExecutor(executor)
+                .corePoolSize(corePoolSize)
+                .maxPoolSize(maxPoolSize)
+                .queueCapacity(this.env.getProperty(prefix + ".queue-capacity", Integer.class, 10000))
+                .keepAliveSeconds(this.env.getProperty(prefix + ".keep-alive-seconds", Integer.class, 60));
     }
 }
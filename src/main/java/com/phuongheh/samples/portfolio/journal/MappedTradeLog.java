@@ -0,0 +1,447 @@
+package com.phuongheh.samples.portfolio.journal;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of {@link TradeRecord}s in memory-mapped segment files.
+ *
+ * <p>Callers only hand a record to a bounded queue. A single writer thread
+ * drains whatever has accumulated, copies the batch into the current
+ * segment and forces it to disk at most once per force interval, so one
+ * fsync covers every trade that arrived meanwhile. A record's callback is
+ * called on the writer thread once a force covers it, which lets callers
+ * hold back confirmations until their records are on disk (group commit).
+ * When a record does not fit in the current segment the writer rolls over
+ * to a new one.
+ *
+ * <p>If the writer fails the log stays {@link #isFailed() failed}: the
+ * callbacks of records not yet forced, and of any appended later, are
+ * called with {@code false}.
+ *
+ * <p>Each record is framed by its length and a CRC32 of its body. Segments
+ * are preallocated and zero-filled, so replay stops reading a segment at the
+ * first zero length, and also at a record that is cut short or fails its
+ * checksum, which is what a crash in the middle of a write leaves behind.
+ * Since the writer always starts a fresh segment, such a torn tail is never
+ * followed by newer records in the same segment.
+ */
+public class MappedTradeLog implements Closeable {
+    private static final Log logger = LogFactory.getLog(MappedTradeLog.class);
+    private static final String SEGMENT_PREFIX = "trades-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int FRAME_HEADER_SIZE = 8;
+    private static final int MAX_NAME_BYTES = 1024;
+    private static final int MAX_BODY_SIZE = 24 + 2 * MAX_NAME_BYTES;
+    private static final int MAX_BATCH = 4096;
+
+    private final File directory;
+    private final int segmentSize;
+    private final long forceIntervalNanos;
+    private final long pollMillis;
+    private final BlockingQueue<Entry> queue;
+    private final PortfolioMetrics.Counter appendedRecords;
+    private final PortfolioMetrics.Counter blockedAppends;
+    private final PortfolioMetrics.Counter droppedRecords;
+    private final PortfolioMetrics.Timer forceTimer;
+    private volatile boolean running;
+    private volatile boolean failed;
+    private Thread writerThread;
+
+    private volatile long segmentIndex;
+
+    // Writer thread state
+    private final byte[] body = new byte[MAX_BODY_SIZE];
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer segment;
+
+    public MappedTradeLog(File directory, int segmentSize, long forceIntervalMillis, int queueCapacity,
+                          PortfolioMetrics metrics) {
+        if (segmentSize < FRAME_HEADER_SIZE + MAX_BODY_SIZE) {
+            throw new IllegalArgumentException("segmentSize must be at least " +
+                    (FRAME_HEADER_SIZE + MAX_BODY_SIZE) + ": " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.forceIntervalNanos = TimeUnit.MILLISECONDS.toNanos(forceIntervalMillis);
+        this.pollMillis = (forceIntervalMillis > 0) ? forceIntervalMillis : 100;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.appendedRecords = metrics.counter("journal.appended");
+        this.blockedAppends = metrics.counter("journal.blocked");
+        this.droppedRecords = metrics.counter("journal.dropped");
+        this.forceTimer = metrics.timer("journal.force");
+        metrics.gauge("journal.failed", new PortfolioMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return failed ? 1 : 0;
+            }
+        });
+        metrics.gauge("journal.pending", new PortfolioMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return queue.size();
+            }
+        });
+    }
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Whether the writer has failed, after which nothing more is journaled.
+     */
+    public boolean isFailed() {
+        return this.failed;
+    }
+
+    /**
+     * Return the index of the segment currently written to. Every record in
+     * an earlier segment was appended before this method returned.
+     */
+    public long getSegmentIndex() {
+        return this.segmentIndex;
+    }
+
+    /**
+     * Read every intact record from the existing segments, oldest first.
+     * Must be called before {@link #start()}.
+     * @return the number of records read
+     */
+    public long replay(RecordHandler handler) throws IOException {
+        return replay(0, handler);
+    }
+
+    /**
+     * Read every intact record from the segments starting with the given
+     * index, oldest first. Must be called before {@link #start()}.
+     * @return the number of records read
+     */
+    public long replay(long fromSegment, RecordHandler handler) throws IOException {
+        long count = 0;
+        for (File file : listSegments()) {
+            if (indexOf(file) < fromSegment) {
+                continue;
+            }
+            MappedByteBuffer buffer;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            }
+            count += replaySegment(file, buffer, handler);
+        }
+        return count;
+    }
+
+    private long replaySegment(File file, ByteBuffer buffer, RecordHandler handler) {
+        long count = 0;
+        while (buffer.remaining() >= FRAME_HEADER_SIZE) {
+            int length = buffer.getInt();
+            if (length == 0) {
+                return count;
+            }
+            int checksum = buffer.getInt();
+            if (length < 0 || length > MAX_BODY_SIZE || length > buffer.remaining()) {
+                logger.warn("Truncated record at offset " + (buffer.position() - FRAME_HEADER_SIZE) + " in " + file);
+                return count;
+            }
+            buffer.get(this.body, 0, length);
+            this.crc.reset();
+            this.crc.update(this.body, 0, length);
+            if ((int) this.crc.getValue() != checksum) {
+                logger.warn("Checksum mismatch at offset " + (buffer.position() - length - FRAME_HEADER_SIZE) + " in " + file);
+                return count;
+            }
+            handler.handle(decode(ByteBuffer.wrap(this.body, 0, length)));
+            count++;
+        }
+        return count;
+    }
+
+    public synchronized void start() {
+        if (this.running) {
+            return;
+        }
+        File[] segments = listSegments();
+        this.segmentIndex = (segments.length > 0) ? indexOf(segments[segments.length - 1]) : 0;
+        this.running = true;
+        this.writerThread = new Thread(new Writer(), "trade-journal-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queue a record for writing. Returns as soon as the record is queued,
+     * waiting only when the writer has fallen a full queue behind.
+     */
+    public void append(TradeRecord record) {
+        append(record, null);
+    }
+
+    /**
+     * Queue a record for writing, and call the callback once the record has
+     * been forced to disk, or with {@code false} if it never will be.
+     */
+    public void append(TradeRecord record, TradeJournal.Callback callback) {
+        if (!this.running || this.failed) {
+            drop(callback);
+            return;
+        }
+        Entry entry = new Entry(record, callback);
+        if (!this.queue.offer(entry)) {
+            this.blockedAppends.increment();
+            try {
+                this.queue.put(entry);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                drop(callback);
+                return;
+            }
+        }
+        if (this.failed) {
+            // the writer may have failed after the check above
+            dropQueued();
+        }
+    }
+
+    private void dropQueued() {
+        List<Entry> entries = new ArrayList<>();
+        this.queue.drainTo(entries);
+        for (Entry entry : entries) {
+            drop(entry.callback);
+        }
+    }
+
+    private void drop(TradeJournal.Callback callback) {
+        this.droppedRecords.increment();
+        complete(callback, false);
+    }
+
+    private static void complete(TradeJournal.Callback callback, boolean journaled) {
+        if (callback == null) {
+            return;
+        }
+        try {
+            callback.onJournaled(journaled);
+        } catch (Throwable ex) {
+            logger.error("Journal callback failed", ex);
+        }
+    }
+
+    /**
+     * Write out and force everything queued so far, then stop the writer.
+     */
+    @Override
+    public synchronized void close() {
+        if (!this.running) {
+            return;
+        }
+        this.running = false;
+        try {
+            this.writerThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        dropQueued();
+    }
+
+    /**
+     * Delete the segments before the given index, once a snapshot covers them.
+     * @return the number of segments deleted
+     */
+    public int deleteSegmentsBefore(long index) {
+        int count = 0;
+        for (File file : listSegments()) {
+            if (indexOf(file) >= index) {
+                break;
+            }
+            if (file.delete()) {
+                count++;
+            } else {
+                logger.warn("Failed to delete journal segment " + file);
+            }
+        }
+        return count;
+    }
+
+    File[] listSegments() {
+        File[] files = this.directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    static long indexOf(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private File segmentFile(long index) {
+        return new File(this.directory, String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private boolean write(TradeRecord record) throws IOException {
+        int length = encode(record);
+        if (length < 0) {
+            logger.error("Not journaling oversized record " + record);
+            return false;
+        }
+        if (this.segment == null || this.segment.remaining() < FRAME_HEADER_SIZE + length) {
+            rollover();
+        }
+        this.crc.reset();
+        this.crc.update(this.body, 0, length);
+        this.segment.putInt(length);
+        this.segment.putInt((int) this.crc.getValue());
+        this.segment.put(this.body, 0, length);
+        return true;
+    }
+
+    private void rollover() throws IOException {
+        if (this.segment != null) {
+            force();
+        }
+        this.segmentIndex++;
+        File file = segmentFile(this.segmentIndex);
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Failed to create journal directory " + this.directory);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            this.segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Rolled over to " + file);
+        }
+    }
+
+    private void force() {
+        long start = System.nanoTime();
+        this.segment.force();
+        this.forceTimer.recordSince(start);
+    }
+
+    private int encode(TradeRecord record) {
+        byte[] username = record.getUsername().getBytes(StandardCharsets.UTF_8);
+        byte[] ticker = record.getTicker().getBytes(StandardCharsets.UTF_8);
+        if (username.length > MAX_NAME_BYTES || ticker.length > MAX_NAME_BYTES) {
+            return -1;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(this.body);
+        buffer.putLong(record.getSequence());
+        buffer.putLong(record.getTimestamp());
+        buffer.putInt(record.getShares());
+        buffer.putShort((short) username.length);
+        buffer.put(username);
+        buffer.putShort((short) ticker.length);
+        buffer.put(ticker);
+        return buffer.position();
+    }
+
+    private static TradeRecord decode(ByteBuffer buffer) {
+        long sequence = buffer.getLong();
+        long timestamp = buffer.getLong();
+        int shares = buffer.getInt();
+        byte[] username = new byte[buffer.getShort()];
+        buffer.get(username);
+        byte[] ticker = new byte[buffer.getShort()];
+        buffer.get(ticker);
+        return new TradeRecord(new String(username, StandardCharsets.UTF_8),
+                new String(ticker, StandardCharsets.UTF_8), shares, sequence, timestamp);
+    }
+
+    public interface RecordHandler {
+        void handle(TradeRecord record);
+    }
+
+    private static class Entry {
+        private final TradeRecord record;
+        private final TradeJournal.Callback callback;
+
+        Entry(TradeRecord record, TradeJournal.Callback callback) {
+            this.record = record;
+            this.callback = callback;
+        }
+    }
+
+    private class Writer implements Runnable {
+        private final List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        /** Entries written but not yet forced to disk. */
+        private final List<Entry> unforced = new ArrayList<>();
+
+        @Override
+        public void run() {
+            long lastForce = System.nanoTime();
+            try {
+                while (running || !queue.isEmpty()) {
+                    Entry first = queue.poll(pollMillis, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        this.batch.add(first);
+                        queue.drainTo(this.batch, MAX_BATCH - 1);
+                        for (Entry entry : this.batch) {
+                            if (write(entry.record)) {
+                                this.unforced.add(entry);
+                            } else {
+                                drop(entry.callback);
+                            }
+                        }
+                        appendedRecords.add(this.batch.size());
+                        this.batch.clear();
+                    }
+                    if (!this.unforced.isEmpty() && (first == null || System.nanoTime() - lastForce >= forceIntervalNanos)) {
+                        forceAndComplete();
+                        lastForce = System.nanoTime();
+                    }
+                }
+                if (!this.unforced.isEmpty()) {
+                    forceAndComplete();
+                }
+            } catch (Throwable ex) {
+                failed = true;
+                logger.error("Trade journal writer failed, trades can no longer be journaled", ex);
+                failPending();
+            }
+        }
+
+        private void forceAndComplete() {
+            force();
+            for (Entry entry : this.unforced) {
+                complete(entry.callback, true);
+            }
+            this.unforced.clear();
+        }
+
+        private void failPending() {
+            this.unforced.addAll(this.batch);
+            for (Entry entry : this.unforced) {
+                drop(entry.callback);
+            }
+            this.unforced.clear();
+            this.batch.clear();
+            dropQueued();
+        }
+    }
+}
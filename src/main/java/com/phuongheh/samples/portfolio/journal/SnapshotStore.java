@@ -0,0 +1,312 @@
+package com.phuongheh.samples.portfolio.journal;
+
+import com.phuongheh.samples.portfolio.Portfolio;
+import com.phuongheh.samples.portfolio.PortfolioPosition;
+import com.phuongheh.samples.portfolio.PortfolioSnapshot;
+import com.phuongheh.samples.portfolio.service.PortfolioServiceImpl;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshots of every portfolio, used to start up without replaying
+ * the whole trade journal.
+ *
+ * <p>A snapshot is written while trading goes on. Each {@link Portfolio}
+ * swaps in an immutable state on every trade, so the positions and sequence
+ * read for one portfolio are always consistent with each other; trades that
+ * land on a portfolio after it was read carry a higher sequence and are
+ * replayed from the journal on top of the snapshot.
+ *
+ * <p>Company names and tickers are written once and referred to by index
+ * afterwards. The file ends with a CRC32 of its content and is only renamed
+ * into place once complete and forced to disk, so a snapshot that fails to
+ * load is skipped in favor of the one before it. The journal segments
+ * that one needs are kept until it is deleted in turn, see
+ * {@link #getOldestJournalSegment()}.
+ */
+public class SnapshotStore {
+    private static final Log logger = LogFactory.getLog(SnapshotStore.class);
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final int MAGIC = 0x50465331;
+    private static final int SNAPSHOTS_TO_KEEP = 2;
+
+    private final File directory;
+
+    public SnapshotStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Write a snapshot of all portfolios.
+     * @param journalSegment the journal segment that was current before the
+     * portfolios were read, so earlier segments are no longer needed
+     * @return the number of portfolios written
+     */
+    public long write(PortfolioServiceImpl portfolioService, long journalSegment) throws IOException {
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Failed to create snapshot directory " + this.directory);
+        }
+        long timestamp = System.currentTimeMillis();
+        File file = snapshotFile(timestamp);
+        while (file.exists()) {
+            file = snapshotFile(++timestamp);
+        }
+        File tempFile = new File(this.directory, file.getName() + ".tmp");
+        long count = 0;
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+            // buffer in front of the checksum, so it is updated a buffer rather than a byte at a time
+            CheckedOutputStream checked = new CheckedOutputStream(fileOut, new CRC32());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeLong(timestamp);
+            out.writeLong(journalSegment);
+            Map<String, Integer> strings = new HashMap<>();
+            for (int i = 0; i < portfolioService.getShardCount(); i++) {
+                for (Map.Entry<String, Portfolio> entry : portfolioService.getShard(i).entrySet()) {
+                    writePortfolio(out, entry.getKey(), entry.getValue(), strings);
+                    count++;
+                }
+            }
+            out.writeBoolean(false);
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            fileOut.getChannel().force(true);
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Failed to rename " + tempFile + " to " + file);
+        }
+        deleteOldSnapshots();
+        return count;
+    }
+
+    private File snapshotFile(long timestamp) {
+        return new File(this.directory, String.format("%s%020d%s", SNAPSHOT_PREFIX, timestamp, SNAPSHOT_SUFFIX));
+    }
+
+    private static void writePortfolio(DataOutputStream out, String username, Portfolio portfolio,
+                                       Map<String, Integer> strings) throws IOException {
+        PortfolioSnapshot snapshot = portfolio.getSnapshot();
+        out.writeBoolean(true);
+        out.writeUTF(username);
+        out.writeLong(snapshot.getSequence());
+        out.writeInt(snapshot.getPositions().size());
+        for (PortfolioPosition position : snapshot.getPositions()) {
+            writeString(out, position.getCompany(), strings);
+            writeString(out, position.getTicker(), strings);
+            out.writeDouble(position.getPrice());
+            out.writeInt(position.getShares());
+            out.writeLong(position.getUpdateTime());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value, Map<String, Integer> strings) throws IOException {
+        Integer index = strings.get(value);
+        if (index != null) {
+            out.writeInt(index);
+            return;
+        }
+        out.writeInt(strings.size());
+        out.writeUTF(value);
+        strings.put(value, strings.size());
+    }
+
+    /**
+     * Load the newest snapshot that is intact, or return {@code null} if
+     * there is none.
+     */
+    public Snapshot loadLatest() {
+        File[] files = listSnapshots();
+        for (int i = files.length - 1; i >= 0; i--) {
+            try {
+                return read(files[i]);
+            } catch (IOException ex) {
+                logger.warn("Skipping unreadable snapshot " + files[i], ex);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the lowest journal segment any kept snapshot starts replaying
+     * from, i.e. the first segment that may still be needed on startup, or
+     * {@code -1} if there is no snapshot to fall back to.
+     */
+    public long getOldestJournalSegment() {
+        long oldest = -1;
+        for (File file : listSnapshots()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                if (in.readInt() != MAGIC) {
+                    continue;
+                }
+                in.readLong();
+                long journalSegment = in.readLong();
+                if (oldest < 0 || journalSegment < oldest) {
+                    oldest = journalSegment;
+                }
+            } catch (IOException ex) {
+                logger.warn("Skipping unreadable snapshot " + file, ex);
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Read a whole snapshot into memory and check it with one pass of the
+     * CRC before decoding it.
+     */
+    private static Snapshot read(File file) throws IOException {
+        byte[] content;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < 8 || raf.length() > Integer.MAX_VALUE) {
+                throw new IOException("Truncated snapshot");
+            }
+            content = new byte[(int) raf.length()];
+            raf.readFully(content);
+        }
+        int length = content.length - 8;
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, length);
+        if (ByteBuffer.wrap(content, length, 8).getLong() != crc.getValue()) {
+            throw new IOException("Checksum mismatch");
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(content, 0, length);
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a portfolio snapshot");
+            }
+            long timestamp = in.getLong();
+            long journalSegment = in.getLong();
+            Map<String, Portfolio> portfolios = new HashMap<>();
+            List<String> strings = new ArrayList<>();
+            while (in.get() != 0) {
+                String username = readUTF(in);
+                long sequence = in.getLong();
+                int positionCount = in.getInt();
+                List<PortfolioPosition> positions = new ArrayList<>(positionCount);
+                for (int i = 0; i < positionCount; i++) {
+                    PortfolioPosition position = new PortfolioPosition();
+                    position.setCompany(readString(in, strings));
+                    position.setTicker(readString(in, strings));
+                    position.setPrice(in.getDouble());
+                    position.setShares(in.getInt());
+                    position.setUpdateTime(in.getLong());
+                    positions.add(position);
+                }
+                portfolios.put(username, new Portfolio(positions, sequence));
+            }
+            return new Snapshot(file, timestamp, journalSegment, portfolios);
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Truncated snapshot", ex);
+        }
+    }
+
+    private static String readString(ByteBuffer in, List<String> strings) throws IOException {
+        int index = in.getInt();
+        if (index < strings.size()) {
+            return strings.get(index);
+        }
+        if (index != strings.size()) {
+            throw new IOException("Invalid string index " + index);
+        }
+        String value = readUTF(in);
+        strings.add(value);
+        return value;
+    }
+
+    /**
+     * Read a string written by {@link DataOutputStream#writeUTF}, decoding
+     * plain ASCII, which usernames and tickers are, without a copy.
+     */
+    private static String readUTF(ByteBuffer in) throws IOException {
+        int length = in.getShort() & 0xFFFF;
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = in.array();
+        int offset = in.arrayOffset() + in.position();
+        in.position(in.position() + length);
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] < 0) {
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes, offset - 2, length + 2));
+                return data.readUTF();
+            }
+        }
+        return new String(bytes, offset, length, StandardCharsets.US_ASCII);
+    }
+
+    private void deleteOldSnapshots() {
+        File[] files = listSnapshots();
+        for (int i = 0; i < files.length - SNAPSHOTS_TO_KEEP; i++) {
+            if (!files[i].delete()) {
+                logger.warn("Failed to delete old snapshot " + files[i]);
+            }
+        }
+    }
+
+    private File[] listSnapshots() {
+        File[] files = this.directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    public static class Snapshot {
+        private final File file;
+        private final long timestamp;
+        private final long journalSegment;
+        private final Map<String, Portfolio> portfolios;
+
+        private Snapshot(File file, long timestamp, long journalSegment, Map<String, Portfolio> portfolios) {
+            this.file = file;
+            this.timestamp = timestamp;
+            this.journalSegment = journalSegment;
+            this.portfolios = portfolios;
+        }
+
+        public File getFile() {
+            return this.file;
+        }
+
+        public long getTimestamp() {
+            return this.timestamp;
+        }
+
+        public long getJournalSegment() {
+            return this.journalSegment;
+        }
+
+        public Map<String, Portfolio> getPortfolios() {
+            return this.portfolios;
+        }
+    }
+}
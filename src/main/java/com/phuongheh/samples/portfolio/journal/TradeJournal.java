@@ -0,0 +1,27 @@
+package com.phuongheh.samples.portfolio.journal;
+
+import com.phuongheh.samples.portfolio.PositionDelta;
+
+public interface TradeJournal {
+    void append(String username, PositionDelta delta);
+
+    /**
+     * Journal a position change and call the callback once it is on disk,
+     * right away if journaling is off.
+     */
+    void append(String username, PositionDelta delta, Callback callback);
+
+    /**
+     * Whether trades can be journaled; {@code false} once the journal has
+     * failed, when trades should no longer be accepted.
+     */
+    boolean isAvailable();
+
+    interface Callback {
+        /**
+         * @param journaled whether the change is on disk, or needs not be
+         * because journaling is off
+         */
+        void onJournaled(boolean journaled);
+    }
+}
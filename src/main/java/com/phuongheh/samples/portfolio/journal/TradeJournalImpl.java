@@ -0,0 +1,218 @@
+package com.phuongheh.samples.portfolio.journal;
+
+import com.phuongheh.samples.portfolio.Portfolio;
+import com.phuongheh.samples.portfolio.PositionDelta;
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import com.phuongheh.samples.portfolio.service.PortfolioServiceImpl;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journals executed trades to a {@link MappedTradeLog} and periodically
+ * snapshots all portfolios with a {@link SnapshotStore}.
+ *
+ * <p>On startup the newest snapshot is loaded and only the journal segments
+ * written since are replayed on top of it, before any new trade is
+ * accepted. Journal segments are deleted once every snapshot still kept
+ * starts after them, so startup time stays bounded and falling back to the
+ * previous snapshot when the newest one is damaged loses no trades.
+ *
+ * <p>Records carry the resulting share count rather than the traded amount,
+ * so replay restores each position from its highest-sequence record no
+ * matter in which order concurrent trades reached the log, and skips
+ * records a portfolio's snapshot already includes.
+ *
+ * <p>Trades are applied to the portfolios before their records reach the
+ * journal, so this is not a write-ahead log; instead the trade service holds
+ * each confirmation until the record's group commit has forced it to disk,
+ * takes back trades whose records could not be written, and stops accepting
+ * trades if the journal fails.
+ *
+ * <p>Journaling is off unless {@code portfolio.journal.enabled} is set.
+ */
+@Service
+public class TradeJournalImpl implements TradeJournal, InitializingBean, DisposableBean {
+    private static final Log logger = LogFactory.getLog(TradeJournalImpl.class);
+
+    private final PortfolioServiceImpl portfolioService;
+    private final MappedTradeLog log;
+    private final SnapshotStore snapshotStore;
+    private final long snapshotInterval;
+    private final PortfolioMetrics.Timer snapshotTimer;
+    private ScheduledExecutorService snapshotExecutor;
+
+    public TradeJournalImpl() {
+        this.portfolioService = null;
+        this.log = null;
+        this.snapshotStore = null;
+        this.snapshotInterval = 0;
+        this.snapshotTimer = null;
+    }
+
+    @Autowired
+    public TradeJournalImpl(PortfolioServiceImpl portfolioService,
+                            @Value("${portfolio.journal.enabled:false}") boolean enabled,
+                            @Value("${portfolio.journal.directory:portfolio-journal}") String directory,
+                            @Value("${portfolio.journal.segment-size:67108864}") int segmentSize,
+                            @Value("${portfolio.journal.force-interval:10}") long forceInterval,
+                            @Value("${portfolio.journal.queue-capacity:65536}") int queueCapacity,
+                            @Value("${portfolio.journal.snapshot-interval:60000}") long snapshotInterval,
+                            PortfolioMetrics metrics) {
+        this.portfolioService = portfolioService;
+        this.log = enabled ? new MappedTradeLog(new File(directory), segmentSize, forceInterval, queueCapacity, metrics) : null;
+        this.snapshotStore = enabled ? new SnapshotStore(new File(directory)) : null;
+        this.snapshotInterval = snapshotInterval;
+        this.snapshotTimer = metrics.timer("journal.snapshot");
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (this.log == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long fromSegment = 0;
+        SnapshotStore.Snapshot snapshot = this.snapshotStore.loadLatest();
+        if (snapshot != null) {
+            for (Map.Entry<String, Portfolio> entry : snapshot.getPortfolios().entrySet()) {
+                this.portfolioService.addPortfolio(entry.getKey(), entry.getValue());
+            }
+            fromSegment = snapshot.getJournalSegment();
+            logger.info("Loaded " + snapshot.getPortfolios().size() + " portfolios from " + snapshot.getFile());
+        }
+        replayJournal(fromSegment, start);
+        this.log.start();
+        if (this.snapshotInterval > 0) {
+            this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "portfolio-snapshot");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    snapshot();
+                }
+            }, this.snapshotInterval, this.snapshotInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void replayJournal(long fromSegment, long start) throws Exception {
+        final Map<String, Long> replayedFrom = new HashMap<>();
+        final Map<String, Long> restored = new HashMap<>();
+        final long[] skipped = new long[1];
+        long count = this.log.replay(fromSegment, new MappedTradeLog.RecordHandler() {
+            @Override
+            public void handle(TradeRecord record) {
+                Portfolio portfolio = findPortfolio(record.getUsername());
+                if (portfolio == null) {
+                    skipped[0]++;
+                    return;
+                }
+                Long baseline = replayedFrom.get(record.getUsername());
+                if (baseline == null) {
+                    baseline = portfolio.getSequence();
+                    replayedFrom.put(record.getUsername(), baseline);
+                }
+                String key = record.getUsername() + '\n' + record.getTicker();
+                Long previous = restored.get(key);
+                if (record.getSequence() <= baseline || (previous != null && previous >= record.getSequence())) {
+                    return;
+                }
+                restored.put(key, record.getSequence());
+                if (!portfolio.restorePosition(record.getTicker(), record.getShares(), record.getSequence())) {
+                    skipped[0]++;
+                }
+            }
+        });
+        logger.info("Replayed " + count + " journaled trades from " + this.log.getDirectory() + " in " +
+                (System.currentTimeMillis() - start) + " ms" + (skipped[0] > 0 ? ", skipped " + skipped[0] : ""));
+    }
+
+    private Portfolio findPortfolio(String username) {
+        try {
+            return this.portfolioService.findPortfolio(username);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Write a snapshot of all portfolios and delete the journal segments no
+     * kept snapshot needs any more.
+     */
+    public void snapshot() {
+        if (this.log == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            long journalSegment = this.log.getSegmentIndex();
+            long count = this.snapshotStore.write(this.portfolioService, journalSegment);
+            long oldestSegment = this.snapshotStore.getOldestJournalSegment();
+            int deleted = (oldestSegment > 0) ? this.log.deleteSegmentsBefore(oldestSegment) : 0;
+            if (logger.isDebugEnabled()) {
+                logger.debug("Snapshot of " + count + " portfolios written, " + deleted + " journal segments deleted");
+            }
+        } catch (Throwable ex) {
+            logger.error("Failed to write portfolio snapshot", ex);
+        } finally {
+            this.snapshotTimer.recordSince(start);
+        }
+    }
+
+    @Override
+    public void append(String username, PositionDelta delta) {
+        append(username, delta, null);
+    }
+
+    @Override
+    public void append(String username, PositionDelta delta, Callback callback) {
+        if (this.log != null) {
+            this.log.append(new TradeRecord(username, delta.getTicker(), delta.getShares(),
+                    delta.getSequence(), System.currentTimeMillis()), callback);
+        } else if (callback != null) {
+            callback.onJournaled(true);
+        }
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return (this.log == null || !this.log.isFailed());
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (this.log != null) {
+            stop();
+            snapshot();
+        }
+    }
+
+    /**
+     * Stop snapshotting and close the journal, without a final snapshot.
+     */
+    void stop() throws InterruptedException {
+        if (this.snapshotExecutor != null) {
+            this.snapshotExecutor.shutdown();
+            this.snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        this.log.close();
+    }
+}
@@ -0,0 +1,52 @@
+package com.phuongheh.samples.portfolio.journal;
+
+/**
+ * A journaled trade: the share count a user's position reached and the
+ * portfolio sequence number the trade produced.
+ */
+public class TradeRecord {
+    private final String username;
+    private final String ticker;
+    private final int shares;
+    private final long sequence;
+    private final long timestamp;
+
+    public TradeRecord(String username, String ticker, int shares, long sequence, long timestamp) {
+        this.username = username;
+        this.ticker = ticker;
+        this.shares = shares;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+    }
+
+    public String getUsername() {
+        return this.username;
+    }
+
+    public String getTicker() {
+        return this.ticker;
+    }
+
+    public int getShares() {
+        return this.shares;
+    }
+
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "TradeRecord{" +
+                "username='" + username + '\'' +
+                ", ticker='" + ticker + '\'' +
+                ", shares=" + shares +
+                ", sequence=" + sequence +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
@@ -0,0 +1,36 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.springframework.messaging.tcp.ReconnectStrategy;
+import org.springframework.messaging.tcp.TcpConnectionHandler;
+import org.springframework.messaging.tcp.TcpOperations;
+import org.springframework.util.concurrent.ListenableFuture;
+
+/**
+ * TCP client for the broker relay that reconnects its system session with
+ * the given strategy instead of the relay's fixed five second interval.
+ * Client sessions are connected without reconnecting, as before.
+ */
+public class BackoffTcpClient<P> implements TcpOperations<P> {
+    private final TcpOperations<P> delegate;
+    private final ReconnectStrategy reconnectStrategy;
+
+    public BackoffTcpClient(TcpOperations<P> delegate, ReconnectStrategy reconnectStrategy) {
+        this.delegate = delegate;
+        this.reconnectStrategy = reconnectStrategy;
+    }
+
+    @Override
+    public ListenableFuture<Void> connect(TcpConnectionHandler<P> handler) {
+        return this.delegate.connect(handler);
+    }
+
+    @Override
+    public ListenableFuture<Void> connect(TcpConnectionHandler<P> handler, ReconnectStrategy reconnectStrategy) {
+        return this.delegate.connect(handler, this.reconnectStrategy);
+    }
+
+    @Override
+    public ListenableFuture<Void> shutdown() {
+        return this.delegate.shutdown();
+    }
+}
@@ -0,0 +1,211 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import com.phuongheh.samples.portfolio.service.QuotePublisher;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+import org.springframework.util.ObjectUtils;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Decides what happens to a message when a bounded channel executor is full.
+ *
+ * <ul>
+ * <li>{@link Policy#DROP_OLDEST_QUOTE} makes room by discarding a queued
+ * quote that a newer one for the same session and destination supersedes.
+ * A quote is dropped outright if no queued quote is superseded.</li>
+ * <li>{@link Policy#REJECT_TRADE} refuses the trade and tells the user on
+ * {@code /user/queue/errors}.</li>
+ * <li>{@link Policy#BLOCK} makes the sender wait for queue space.</li>
+ * </ul>
+ *
+ * <p>Messages a policy does not apply to, such as connects, subscriptions
+ * and position updates, are never dropped; the sender waits instead.
+ */
+public class BackpressureHandler implements RejectedExecutionHandler {
+    private static final Log logger = LogFactory.getLog(BackpressureHandler.class);
+    public static final String TRADE_DESTINATION = "/app/trade";
+    public static final String REJECTED_TRADE_MESSAGE = "Trade rejected: server busy, please retry";
+
+    private final Policy policy;
+    private final ObjectFactory<? extends SimpMessageSendingOperations> messageTemplate;
+    private final PortfolioMetrics.Counter droppedQuotes;
+    private final PortfolioMetrics.Counter rejectedTrades;
+    private final PortfolioMetrics.Counter blockedSends;
+
+    public BackpressureHandler(String channelName, Policy policy, PortfolioMetrics metrics,
+                               ObjectFactory<? extends SimpMessageSendingOperations> messageTemplate) {
+        this.policy = policy;
+        this.messageTemplate = messageTemplate;
+        String prefix = "channel." + channelName + ".";
+        this.droppedQuotes = metrics.counter(prefix + "dropped-quotes");
+        this.rejectedTrades = metrics.counter(prefix + "rejected-trades");
+        this.blockedSends = metrics.counter(prefix + "blocked");
+    }
+
+    public Policy getPolicy() {
+        return this.policy;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Executor has been shut down");
+        }
+        Message<?> message = (task instanceof MessageHandlingRunnable) ? ((MessageHandlingRunnable) task).getMessage() : null;
+        if (this.policy == Policy.DROP_OLDEST_QUOTE && message != null && dropOldestQuote(task, message, executor)) {
+            return;
+        }
+        if (this.policy == Policy.REJECT_TRADE && message != null && isTrade(message.getHeaders())) {
+            rejectTrade(message.getHeaders());
+            return;
+        }
+        block(task, executor);
+    }
+
+    /**
+     * Apply the policy to a task for an executor without a queue, such as
+     * one running a virtual thread per task, that has no room for it now.
+     * @return {@code true} if the quote was dropped or the trade rejected,
+     * {@code false} if the caller should wait for room instead
+     */
+    public boolean reject(Runnable task) {
+        Message<?> message = (task instanceof MessageHandlingRunnable) ? ((MessageHandlingRunnable) task).getMessage() : null;
+        if (this.policy == Policy.DROP_OLDEST_QUOTE && message != null && isQuote(message.getHeaders())) {
+            this.droppedQuotes.increment();
+            return true;
+        }
+        if (this.policy == Policy.REJECT_TRADE && message != null && isTrade(message.getHeaders())) {
+            rejectTrade(message.getHeaders());
+            return true;
+        }
+        this.blockedSends.increment();
+        return false;
+    }
+
+    /**
+     * Make room by evicting a queued quote that a newer one for the same
+     * session and destination supersedes, whether that one is queued behind
+     * it or is the quote being offered. Quotes are only sent when a price
+     * changes, so evicting any other one could leave a client on a stale
+     * price; the incoming quote is dropped instead.
+     */
+    private boolean dropOldestQuote(Runnable task, Message<?> message, ThreadPoolExecutor executor) {
+        QuoteKey incoming = QuoteKey.of(message.getHeaders());
+        Map<QuoteKey, Runnable> queuedQuotes = new HashMap<>();
+        Runnable superseded = null;
+        for (Runnable queued : executor.getQueue()) {
+            if (!(queued instanceof MessageHandlingRunnable)) {
+                continue;
+            }
+            QuoteKey key = QuoteKey.of(((MessageHandlingRunnable) queued).getMessage().getHeaders());
+            if (key == null) {
+                continue;
+            }
+            if (key.equals(incoming)) {
+                superseded = queued;
+                break;
+            }
+            superseded = queuedQuotes.put(key, queued);
+            if (superseded != null) {
+                break;
+            }
+        }
+        if (superseded != null && executor.getQueue().remove(superseded)) {
+            this.droppedQuotes.increment();
+            if (executor.getQueue().offer(task)) {
+                return true;
+            }
+        }
+        if (incoming != null) {
+            this.droppedQuotes.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private void rejectTrade(MessageHeaders headers) {
+        this.rejectedTrades.increment();
+        Principal user = SimpMessageHeaderAccessor.getUser(headers);
+        if (user == null) {
+            return;
+        }
+        try {
+            this.messageTemplate.getObject().convertAndSendToUser(user.getName(), "/queue/errors", REJECTED_TRADE_MESSAGE);
+        } catch (Throwable ex) {
+            logger.error("Failed to notify " + user.getName() + " of rejected trade", ex);
+        }
+    }
+
+    private void block(Runnable task, ThreadPoolExecutor executor) {
+        this.blockedSends.increment();
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for queue space", ex);
+        }
+    }
+
+    private static boolean isQuote(MessageHeaders headers) {
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        return (destination != null && (destination.startsWith(QuotePublisher.DESTINATION_PREFIX) ||
+                destination.startsWith(QuotePublisher.BINARY_DESTINATION_PREFIX)));
+    }
+
+    private static boolean isTrade(MessageHeaders headers) {
+        return (SimpMessageHeaderAccessor.getMessageType(headers) == SimpMessageType.MESSAGE &&
+                TRADE_DESTINATION.equals(SimpMessageHeaderAccessor.getDestination(headers)));
+    }
+
+    /**
+     * The session and destination of a quote, which a newer quote for the
+     * same ones supersedes.
+     */
+    private static final class QuoteKey {
+        private final String sessionId;
+        private final String destination;
+
+        private QuoteKey(String sessionId, String destination) {
+            this.sessionId = sessionId;
+            this.destination = destination;
+        }
+
+        static QuoteKey of(MessageHeaders headers) {
+            return isQuote(headers) ? new QuoteKey(SimpMessageHeaderAccessor.getSessionId(headers),
+                    SimpMessageHeaderAccessor.getDestination(headers)) : null;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof QuoteKey)) {
+                return false;
+            }
+            QuoteKey otherKey = (QuoteKey) other;
+            return (ObjectUtils.nullSafeEquals(this.sessionId, otherKey.sessionId) &&
+                    this.destination.equals(otherKey.destination));
+        }
+
+        @Override
+        public int hashCode() {
+            return ObjectUtils.nullSafeHashCode(this.sessionId) * 31 + this.destination.hashCode();
+        }
+    }
+
+    public enum Policy {
+        DROP_OLDEST_QUOTE, REJECT_TRADE, BLOCK
+    }
+}
@@ -0,0 +1,28 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.util.Map;
+
+/**
+ * Marks sessions of a plain WebSocket endpoint as able to receive binary
+ * frames. SockJS sessions never get the mark since SockJS only carries text.
+ */
+public class BinaryFrameHandshakeInterceptor implements HandshakeInterceptor {
+    public static final String BINARY_FRAMES_ATTRIBUTE = BinaryFrameHandshakeInterceptor.class.getName() + ".BINARY_FRAMES";
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        attributes.put(BINARY_FRAMES_ATTRIBUTE, Boolean.TRUE);
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+}
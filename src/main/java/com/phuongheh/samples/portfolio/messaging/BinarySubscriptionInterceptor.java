@@ -0,0 +1,137 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import com.phuongheh.samples.portfolio.service.QuotePublisher;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeType;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Routes quote subscriptions that ask for Smile to the binary quote topics.
+ *
+ * <p>A SUBSCRIBE to {@code /topic/price.stock.<TICKER>} with a
+ * {@code content-type:application/x-jackson-smile} header is rewritten to
+ * {@code /topic/binary/price.stock.<TICKER>}, where {@link QuotePublisher}
+ * sends the same quotes encoded as Smile in binary WebSocket frames. The
+ * rewrite only happens on sessions that can receive binary frames; SockJS
+ * subscribers keep getting JSON.
+ *
+ * <p>The rewritten subscriptions are tracked per session until they are
+ * unsubscribed or the session disconnects, and the {@link QuotePublisher}
+ * is told of each one added or removed, so it only encodes Smile quotes
+ * while someone on this node takes them.
+ */
+public class BinarySubscriptionInterceptor extends ChannelInterceptorAdapter {
+    private static final Log logger = LogFactory.getLog(BinarySubscriptionInterceptor.class);
+
+    private final ObjectFactory<? extends QuotePublisher> quotePublisher;
+    /** Session id to the ids of its rewritten subscriptions. */
+    private final ConcurrentMap<String, Set<String>> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * @param quotePublisher the publisher to tell of binary subscriptions, or {@code null}
+     */
+    public BinarySubscriptionInterceptor(ObjectFactory<? extends QuotePublisher> quotePublisher) {
+        this.quotePublisher = quotePublisher;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        if (type == SimpMessageType.UNSUBSCRIBE) {
+            unsubscribe(message);
+            return message;
+        }
+        if (type == SimpMessageType.DISCONNECT) {
+            disconnect(message);
+            return message;
+        }
+        if (type != SimpMessageType.SUBSCRIBE) {
+            return message;
+        }
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+        String destination = accessor.getDestination();
+        if (destination == null || !destination.startsWith(QuotePublisher.DESTINATION_PREFIX)) {
+            return message;
+        }
+        String contentType = accessor.getFirstNativeHeader(StompHeaderAccessor.STOMP_CONTENT_TYPE_HEADER);
+        if (contentType == null || !SmileMessageConverter.SMILE.isCompatibleWith(MimeType.valueOf(contentType))) {
+            return message;
+        }
+        if (!supportsBinaryFrames(accessor)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Session " + accessor.getSessionId() + " cannot receive binary frames, keeping JSON for " + destination);
+            }
+            return message;
+        }
+        accessor.setDestination(QuotePublisher.BINARY_DESTINATION_PREFIX +
+                destination.substring(QuotePublisher.DESTINATION_PREFIX.length()));
+        subscribe(accessor.getSessionId(), accessor.getSubscriptionId());
+        return MessageBuilder.createMessage(message.getPayload(), accessor.getMessageHeaders());
+    }
+
+    public int getSubscriptionCount() {
+        int count = 0;
+        for (Set<String> ids : this.subscriptions.values()) {
+            count += ids.size();
+        }
+        return count;
+    }
+
+    private void subscribe(String sessionId, String subscriptionId) {
+        if (sessionId == null || subscriptionId == null) {
+            return;
+        }
+        Set<String> ids = this.subscriptions.get(sessionId);
+        if (ids == null) {
+            ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(4));
+            Set<String> existing = this.subscriptions.putIfAbsent(sessionId, ids);
+            if (existing != null) {
+                ids = existing;
+            }
+        }
+        if (ids.add(subscriptionId)) {
+            changeSubscriptions(1);
+        }
+    }
+
+    private void unsubscribe(Message<?> message) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        Set<String> ids = (sessionId != null) ? this.subscriptions.get(sessionId) : null;
+        if (ids != null && ids.remove(StompHeaderAccessor.wrap(message).getSubscriptionId())) {
+            changeSubscriptions(-1);
+        }
+    }
+
+    private void disconnect(Message<?> message) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        Set<String> ids = (sessionId != null) ? this.subscriptions.remove(sessionId) : null;
+        if (ids != null && !ids.isEmpty()) {
+            changeSubscriptions(-ids.size());
+        }
+    }
+
+    private void changeSubscriptions(int delta) {
+        if (this.quotePublisher != null) {
+            this.quotePublisher.getObject().addBinarySubscriptions(delta);
+        }
+    }
+
+    private static boolean supportsBinaryFrames(StompHeaderAccessor accessor) {
+        Map<String, Object> attributes = accessor.getSessionAttributes();
+        return (attributes != null && Boolean.TRUE.equals(attributes.get(BinaryFrameHandshakeInterceptor.BINARY_FRAMES_ATTRIBUTE)));
+    }
+}
@@ -0,0 +1,98 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.stomp.Reactor2StompCodec;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.messaging.tcp.reactor.Reactor2TcpClient;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gives the STOMP broker relay, when there is one, a TCP client with a sized
+ * I/O thread pool and an exponential backoff for reconnecting to the broker.
+ * The relay registration has no setting for either.
+ *
+ * <p>With a user registry destination set, the user registry is wrapped in
+ * a {@link DistributedUserRegistry} exchanging updates over the relay.
+ */
+public class BrokerRelayPostProcessor implements BeanPostProcessor {
+    /** System property Reactor reads for the number of TCP client I/O threads. */
+    static final String IO_THREAD_COUNT_PROPERTY = "reactor.tcp.ioThreadCount";
+
+    private final int ioThreads;
+    private final long reconnectInitialDelay;
+    private final long reconnectMaxDelay;
+    private String userRegistryDestination;
+    private long userRegistryFlushInterval = 100;
+    private long userRegistryHeartbeatInterval = 5000;
+    private int userRegistryBatchSize = 1000;
+    private DistributedUserRegistry userRegistry;
+    private StompBrokerRelayMessageHandler relay;
+
+    public BrokerRelayPostProcessor(int ioThreads, long reconnectInitialDelay, long reconnectMaxDelay) {
+        this.ioThreads = ioThreads;
+        this.reconnectInitialDelay = reconnectInitialDelay;
+        this.reconnectMaxDelay = reconnectMaxDelay;
+    }
+
+    /**
+     * Share the user registry with other nodes over the given broker topic.
+     */
+    public void setUserRegistryBroadcast(String destination, long flushInterval, long heartbeatInterval,
+                                         int batchSize) {
+        this.userRegistryDestination = destination;
+        this.userRegistryFlushInterval = flushInterval;
+        this.userRegistryHeartbeatInterval = heartbeatInterval;
+        this.userRegistryBatchSize = batchSize;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (bean instanceof StompBrokerRelayMessageHandler) {
+            StompBrokerRelayMessageHandler relay = (StompBrokerRelayMessageHandler) bean;
+            if (relay.getTcpClient() == null) {
+                relay.setTcpClient(createTcpClient(relay.getRelayHost(), relay.getRelayPort()));
+            }
+            this.relay = relay;
+            connectUserRegistry();
+        }
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (this.userRegistryDestination != null && bean instanceof SimpUserRegistry &&
+                !(bean instanceof DistributedUserRegistry)) {
+            this.userRegistry = new DistributedUserRegistry((SimpUserRegistry) bean, this.userRegistryDestination,
+                    this.userRegistryFlushInterval, this.userRegistryHeartbeatInterval, this.userRegistryBatchSize);
+            connectUserRegistry();
+            return this.userRegistry;
+        }
+        return bean;
+    }
+
+    /**
+     * Subscribe the registry to updates from other nodes on the relay's system
+     * connection, and let it send its own through the broker channel.
+     */
+    private void connectUserRegistry() {
+        if (this.relay == null || this.userRegistry == null) {
+            return;
+        }
+        Map<String, MessageHandler> subscriptions = new HashMap<>(this.relay.getSystemSubscriptions());
+        subscriptions.put(this.userRegistry.getDestination(), this.userRegistry);
+        this.relay.setSystemSubscriptions(subscriptions);
+        this.userRegistry.setBrokerChannel(this.relay.getBrokerChannel());
+    }
+
+    BackoffTcpClient<byte[]> createTcpClient(String host, int port) {
+        if (this.ioThreads > 0 && System.getProperty(IO_THREAD_COUNT_PROPERTY) == null) {
+            System.setProperty(IO_THREAD_COUNT_PROPERTY, String.valueOf(this.ioThreads));
+        }
+        return new BackoffTcpClient<byte[]>(new Reactor2TcpClient<byte[]>(host, port, new Reactor2StompCodec()),
+                new ExponentialBackoffReconnectStrategy(this.reconnectInitialDelay, this.reconnectMaxDelay));
+    }
+}
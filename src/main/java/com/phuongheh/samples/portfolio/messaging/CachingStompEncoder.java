@@ -0,0 +1,187 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * STOMP encoder that encodes each broadcast once instead of once per
+ * subscriber.
+ *
+ * <p>The broker hands every subscriber of a broadcast a MESSAGE with the
+ * same payload array; only the {@code subscription} and {@code message-id}
+ * headers differ. This encoder keeps the encoded shared headers and body of
+ * recent payloads, keyed by payload identity, and builds a subscriber's
+ * frame by putting its own headers in front of them. The {@code message-id}
+ * is assigned per broadcast rather than per session, which keeps it unique
+ * per message as STOMP requires, so subscribers that use the same
+ * subscription id, as browser clients subscribing in the same order do,
+ * share one frame array outright. Senders must therefore not reuse one
+ * payload array for separate messages.
+ *
+ * <p>Other frames are encoded as before.
+ */
+public class CachingStompEncoder extends StompEncoder {
+    /** Header holding the {@link StompCommand}, as set by {@link StompHeaderAccessor}. */
+    private static final String COMMAND_HEADER = "stompCommand";
+    private static final int CACHE_SIZE = 1024;
+    private static final int MAX_FRAMES_PER_BROADCAST = 16;
+    private static final byte[] MESSAGE_COMMAND = "MESSAGE\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SUBSCRIPTION_HEADER = "subscription:".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MESSAGE_ID_HEADER = "\nmessage-id:".getBytes(StandardCharsets.UTF_8);
+
+    private final AtomicReferenceArray<Broadcast> broadcasts = new AtomicReferenceArray<>(CACHE_SIZE);
+    private final AtomicLong broadcastIds = new AtomicLong();
+    private final AtomicLong sharedFrames = new AtomicLong();
+
+    /**
+     * Return how many frames were served from the cache without encoding.
+     */
+    public long getSharedFrameCount() {
+        return this.sharedFrames.get();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encode(Map<String, Object> headers, byte[] payload) {
+        if (headers.get(COMMAND_HEADER) != StompCommand.MESSAGE ||
+                SimpMessageHeaderAccessor.getMessageType(headers) == SimpMessageType.HEARTBEAT) {
+            return super.encode(headers, payload);
+        }
+        Map<String, List<String>> nativeHeaders =
+                (Map<String, List<String>>) headers.get(NativeMessageHeaderAccessor.NATIVE_HEADERS);
+        String subscription = (nativeHeaders != null) ?
+                first(nativeHeaders.get(StompHeaderAccessor.STOMP_SUBSCRIPTION_HEADER)) : null;
+        if (subscription == null) {
+            return super.encode(headers, payload);
+        }
+        int index = System.identityHashCode(payload) & (CACHE_SIZE - 1);
+        Broadcast broadcast = this.broadcasts.get(index);
+        if (broadcast == null || broadcast.payload != payload || !broadcast.hasSharedHeaders(nativeHeaders)) {
+            broadcast = new Broadcast(payload, nativeHeaders, this.broadcastIds.incrementAndGet());
+            this.broadcasts.set(index, broadcast);
+        }
+        byte[] frame = broadcast.frames.get(subscription);
+        if (frame != null) {
+            this.sharedFrames.incrementAndGet();
+            return frame;
+        }
+        frame = broadcast.createFrame(subscription);
+        if (broadcast.frames.size() < MAX_FRAMES_PER_BROADCAST) {
+            broadcast.frames.putIfAbsent(subscription, frame);
+        }
+        return frame;
+    }
+
+    private static String first(List<String> values) {
+        return (values != null && !values.isEmpty()) ? values.get(0) : null;
+    }
+
+    private static boolean isPerSubscriber(String header) {
+        return (StompHeaderAccessor.STOMP_SUBSCRIPTION_HEADER.equals(header) ||
+                StompHeaderAccessor.STOMP_MESSAGE_ID_HEADER.equals(header) ||
+                StompHeaderAccessor.STOMP_CONTENT_LENGTH_HEADER.equals(header));
+    }
+
+    private static byte[] escape(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = (c == '\\') ? "\\\\" : (c == ':') ? "\\c" : (c == '\n') ? "\\n" : (c == '\r') ? "\\r" : null;
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return ((escaped != null) ? escaped.toString() : value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One payload's shared headers and body, encoded once, followed by the
+     * frames built from them so far.
+     */
+    private static class Broadcast {
+        private final byte[] payload;
+        private final Map<String, List<String>> sharedHeaders = new LinkedHashMap<>();
+        private final byte[] messageId;
+        private final byte[] suffix;
+        private final ConcurrentMap<String, byte[]> frames = new ConcurrentHashMap<>(4);
+
+        Broadcast(byte[] payload, Map<String, List<String>> nativeHeaders, long id) {
+            this.payload = payload;
+            this.messageId = Long.toString(id).getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(128 + payload.length);
+            for (Map.Entry<String, List<String>> header : nativeHeaders.entrySet()) {
+                if (isPerSubscriber(header.getKey())) {
+                    continue;
+                }
+                this.sharedHeaders.put(header.getKey(), header.getValue());
+                byte[] key = escape(header.getKey());
+                for (String value : header.getValue()) {
+                    output.write('\n');
+                    output.write(key, 0, key.length);
+                    output.write(':');
+                    byte[] encodedValue = escape(value);
+                    output.write(encodedValue, 0, encodedValue.length);
+                }
+            }
+            byte[] contentLength = ("\ncontent-length:" + payload.length + "\n\n").getBytes(StandardCharsets.UTF_8);
+            output.write(contentLength, 0, contentLength.length);
+            output.write(payload, 0, payload.length);
+            output.write(0);
+            this.suffix = output.toByteArray();
+        }
+
+        boolean hasSharedHeaders(Map<String, List<String>> nativeHeaders) {
+            int count = 0;
+            for (Map.Entry<String, List<String>> header : nativeHeaders.entrySet()) {
+                if (isPerSubscriber(header.getKey())) {
+                    continue;
+                }
+                if (!header.getValue().equals(this.sharedHeaders.get(header.getKey()))) {
+                    return false;
+                }
+                count++;
+            }
+            return count == this.sharedHeaders.size();
+        }
+
+        byte[] createFrame(String subscription) {
+            byte[] subscriptionValue = escape(subscription);
+            byte[] frame = new byte[MESSAGE_COMMAND.length + SUBSCRIPTION_HEADER.length + subscriptionValue.length +
+                    MESSAGE_ID_HEADER.length + this.messageId.length + this.suffix.length];
+            int position = 0;
+            position = put(frame, position, MESSAGE_COMMAND);
+            position = put(frame, position, SUBSCRIPTION_HEADER);
+            position = put(frame, position, subscriptionValue);
+            position = put(frame, position, MESSAGE_ID_HEADER);
+            position = put(frame, position, this.messageId);
+            put(frame, position, this.suffix);
+            return frame;
+        }
+
+        private static int put(byte[] frame, int position, byte[] bytes) {
+            System.arraycopy(bytes, 0, frame, position, bytes.length);
+            return position + bytes.length;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Hands every new session to the STOMP handler wrapped in a
+ * {@link ConflatingWebSocketSession}.
+ */
+public class ConflatingWebSocketHandlerDecoratorFactory implements WebSocketHandlerDecoratorFactory {
+    private final Executor writer;
+    private final int sendTimeLimit;
+    private final int bufferSizeLimit;
+    private final PortfolioMetrics.Counter conflatedQuotes;
+
+    public ConflatingWebSocketHandlerDecoratorFactory(Executor writer, int sendTimeLimit, int bufferSizeLimit,
+                                                      PortfolioMetrics metrics) {
+        this.writer = writer;
+        this.sendTimeLimit = sendTimeLimit;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.conflatedQuotes = metrics.counter("sessions.conflated-quotes");
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                super.afterConnectionEstablished(new ConflatingWebSocketSession(
+                        session, writer, sendTimeLimit, bufferSizeLimit, conflatedQuotes));
+            }
+        };
+    }
+}
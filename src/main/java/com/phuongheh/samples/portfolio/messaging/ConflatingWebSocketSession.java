@@ -0,0 +1,244 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import com.phuongheh.samples.portfolio.service.QuotePublisher;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Session decorator that keeps only the newest pending quote frame per
+ * subscription and destination.
+ *
+ * <p>Frames are queued and written to the client by a task on a shared writer
+ * executor, at most one per session at a time, so senders never wait on a
+ * slow client. Spring's own session decorator serializes sends into this
+ * one, so writing on the calling thread would just move the backlog back into
+ * its buffer. Each task writes at most {@value #MAX_FRAMES_PER_FLUSH} frames
+ * and then queues another, so a session with a steady stream takes its turn
+ * with the others instead of keeping a writer thread to itself.
+ *
+ * <p>A STOMP MESSAGE frame for a {@code /topic/price.stock.*} destination
+ * replaces a pending frame for the same subscription and destination instead
+ * of queueing behind it, so a slow client holds at most one frame per ticker
+ * and always gets the latest price.
+ * All other frames, including {@code /queue/position-updates} and
+ * {@code /queue/errors}, are sent in order and never dropped.
+ *
+ * <p>Since callers never wait here, this decorator enforces the send time and
+ * buffer size limits itself, closing the session when the client cannot keep
+ * up even after conflation. The send time is that of the single frame being
+ * written, so neither a long stream of fast writes nor waiting for a busy
+ * writer thread counts against it.
+ */
+public class ConflatingWebSocketSession extends WebSocketSessionDecorator {
+    private static final Log logger = LogFactory.getLog(ConflatingWebSocketSession.class);
+    private static final byte[] MESSAGE_COMMAND = "MESSAGE\n".getBytes(StandardCharsets.UTF_8);
+    private static final String DESTINATION_HEADER = "\ndestination:";
+    private static final String SUBSCRIPTION_HEADER = "\nsubscription:";
+    private static final int MAX_HEADER_SCAN = 512;
+    static final int MAX_FRAMES_PER_FLUSH = 64;
+
+    private final Executor writer;
+    private final int sendTimeLimit;
+    private final int bufferSizeLimit;
+    private final PortfolioMetrics.Counter conflatedQuotes;
+    private final Queue<Object> pending = new ConcurrentLinkedQueue<>();
+    private final ConcurrentMap<String, WebSocketMessage<?>> latestQuotes = new ConcurrentHashMap<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Runnable flushTask = new FlushTask();
+    /** When the frame being written to the client was handed to it, 0 while none is. */
+    private volatile long sendStartTime;
+    private volatile boolean limitExceeded;
+
+    public ConflatingWebSocketSession(WebSocketSession delegate, Executor writer, int sendTimeLimit,
+                                      int bufferSizeLimit, PortfolioMetrics.Counter conflatedQuotes) {
+        super(delegate);
+        this.writer = writer;
+        this.sendTimeLimit = sendTimeLimit;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.conflatedQuotes = conflatedQuotes;
+    }
+
+    public int getPendingCount() {
+        return this.pending.size();
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (this.limitExceeded) {
+            return;
+        }
+        String key = conflationKey(message);
+        if (key == null) {
+            this.pendingBytes.addAndGet(message.getPayloadLength());
+            this.pending.add(message);
+        } else if (this.latestQuotes.put(key, message) == null) {
+            this.pending.add(key);
+        } else {
+            this.conflatedQuotes.increment();
+        }
+        if (!scheduleFlush()) {
+            checkLimits();
+        }
+    }
+
+    private boolean scheduleFlush() {
+        if (!this.flushScheduled.compareAndSet(false, true)) {
+            return false;
+        }
+        this.writer.execute(this.flushTask);
+        return true;
+    }
+
+    private void flush() throws IOException {
+        Object next;
+        int count = 0;
+        while (count < MAX_FRAMES_PER_FLUSH && (next = this.pending.poll()) != null) {
+            WebSocketMessage<?> message;
+            if (next instanceof String) {
+                message = this.latestQuotes.remove(next);
+                if (message == null) {
+                    continue;
+                }
+            } else {
+                message = (WebSocketMessage<?>) next;
+                this.pendingBytes.addAndGet(-message.getPayloadLength());
+            }
+            this.sendStartTime = System.currentTimeMillis();
+            try {
+                getDelegate().sendMessage(message);
+            } finally {
+                this.sendStartTime = 0;
+            }
+            count++;
+        }
+    }
+
+    private void checkLimits() {
+        long start = this.sendStartTime;
+        if (start != 0 && System.currentTimeMillis() - start > this.sendTimeLimit) {
+            limitExceeded("Send time " + (System.currentTimeMillis() - start) + " (ms) for session '" +
+                    getId() + "' exceeded the allowed limit " + this.sendTimeLimit);
+        } else if (this.pendingBytes.get() > this.bufferSizeLimit) {
+            limitExceeded("Buffer size " + this.pendingBytes.get() + " bytes for session '" +
+                    getId() + "' exceeds the allowed limit " + this.bufferSizeLimit);
+        }
+    }
+
+    private void limitExceeded(String reason) {
+        this.limitExceeded = true;
+        this.pending.clear();
+        this.latestQuotes.clear();
+        throw new SessionLimitExceededException(reason, CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    /**
+     * Return the subscription and destination of a quote MESSAGE frame, or
+     * {@code null} if the frame must be delivered as is.
+     */
+    static String conflationKey(WebSocketMessage<?> message) {
+        String headers;
+        if (message instanceof TextMessage) {
+            String payload = ((TextMessage) message).getPayload();
+            if (!payload.startsWith("MESSAGE\n")) {
+                return null;
+            }
+            int end = payload.indexOf("\n\n");
+            headers = payload.substring(0, (end < 0) ? Math.min(payload.length(), MAX_HEADER_SCAN) : end);
+        } else if (message instanceof BinaryMessage) {
+            ByteBuffer payload = ((BinaryMessage) message).getPayload();
+            if (!startsWith(payload, MESSAGE_COMMAND)) {
+                return null;
+            }
+            headers = headerSection(payload);
+        } else {
+            return null;
+        }
+        String destination = headerValue(headers, DESTINATION_HEADER);
+        if (destination == null || !(destination.startsWith(QuotePublisher.DESTINATION_PREFIX) ||
+                destination.startsWith(QuotePublisher.BINARY_DESTINATION_PREFIX))) {
+            return null;
+        }
+        String subscription = headerValue(headers, SUBSCRIPTION_HEADER);
+        return (subscription != null) ? subscription + '\n' + destination : null;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, byte[] prefix) {
+        if (buffer.remaining() < prefix.length) {
+            return false;
+        }
+        int position = buffer.position();
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(position + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String headerSection(ByteBuffer buffer) {
+        int position = buffer.position();
+        int limit = Math.min(buffer.limit(), position + MAX_HEADER_SCAN);
+        int end = position;
+        while (end < limit && !(buffer.get(end) == '\n' && end + 1 < limit && buffer.get(end + 1) == '\n')) {
+            end++;
+        }
+        byte[] bytes = new byte[end - position];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(position + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String headerValue(String headers, String name) {
+        int start = headers.indexOf(name);
+        if (start < 0) {
+            return null;
+        }
+        start += name.length();
+        int end = headers.indexOf('\n', start);
+        return headers.substring(start, (end < 0) ? headers.length() : end);
+    }
+
+    private class FlushTask implements Runnable {
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (Throwable ex) {
+                logger.debug("Failed to send to session " + getId() + ", closing", ex);
+                pending.clear();
+                latestQuotes.clear();
+                try {
+                    getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+                } catch (IOException closeEx) {
+                    logger.debug("Failed to close session " + getId(), closeEx);
+                }
+            } finally {
+                flushScheduled.set(false);
+            }
+            if (!pending.isEmpty() && !limitExceeded) {
+                scheduleFlush();
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.springframework.context.ApplicationListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.AbstractSubProtocolEvent;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Names of the users connected to this node in order, and counts of their
+ * sessions and subscriptions, kept up to date from session events.
+ *
+ * <p>{@link org.springframework.messaging.simp.user.SimpUserRegistry#getUsers()}
+ * copies every user, so listing users a page at a time walks these names
+ * from the cursor instead and looks up only the users it visits. Events
+ * update the index under a lock; the names are a skip list read without one.
+ */
+@Component
+public class ConnectedUserIndex implements ApplicationListener<AbstractSubProtocolEvent> {
+    private final ConcurrentNavigableMap<String, Integer> sessionCounts = new ConcurrentSkipListMap<>();
+    private final Map<String, SessionEntry> sessions = new HashMap<>();
+    private volatile int sessionCount;
+    private volatile int subscriptionCount;
+
+    /**
+     * Return a live view of the names of the users with sessions on this
+     * node, in ascending order; it must not be modified.
+     */
+    public NavigableSet<String> getUserNames() {
+        return this.sessionCounts.keySet();
+    }
+
+    public int getSessionCount() {
+        return this.sessionCount;
+    }
+
+    public int getSubscriptionCount() {
+        return this.subscriptionCount;
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractSubProtocolEvent event) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        if (event instanceof SessionConnectedEvent) {
+            Principal user = event.getUser();
+            if (user != null && sessionId != null) {
+                addSession(sessionId, user.getName());
+            }
+        } else if (event instanceof SessionDisconnectEvent) {
+            removeSession(((SessionDisconnectEvent) event).getSessionId());
+        } else if (event instanceof SessionSubscribeEvent) {
+            String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(event.getMessage().getHeaders());
+            updateSubscription(sessionId, subscriptionId, true);
+        } else if (event instanceof SessionUnsubscribeEvent) {
+            String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(event.getMessage().getHeaders());
+            updateSubscription(sessionId, subscriptionId, false);
+        }
+    }
+
+    private synchronized void addSession(String sessionId, String userName) {
+        if (this.sessions.containsKey(sessionId)) {
+            return;
+        }
+        this.sessions.put(sessionId, new SessionEntry(userName));
+        Integer count = this.sessionCounts.get(userName);
+        this.sessionCounts.put(userName, (count != null) ? count + 1 : 1);
+        this.sessionCount++;
+    }
+
+    private synchronized void removeSession(String sessionId) {
+        SessionEntry session = (sessionId != null) ? this.sessions.remove(sessionId) : null;
+        if (session == null) {
+            return;
+        }
+        Integer count = this.sessionCounts.get(session.userName);
+        if (count == null || count <= 1) {
+            this.sessionCounts.remove(session.userName);
+        } else {
+            this.sessionCounts.put(session.userName, count - 1);
+        }
+        this.sessionCount--;
+        this.subscriptionCount -= session.subscriptionIds.size();
+    }
+
+    private synchronized void updateSubscription(String sessionId, String subscriptionId, boolean subscribed) {
+        SessionEntry session = (sessionId != null) ? this.sessions.get(sessionId) : null;
+        if (session == null || subscriptionId == null) {
+            return;
+        }
+        boolean changed = subscribed ? session.subscriptionIds.add(subscriptionId) :
+                session.subscriptionIds.remove(subscriptionId);
+        if (changed) {
+            this.subscriptionCount += subscribed ? 1 : -1;
+        }
+    }
+
+    private static class SessionEntry {
+        private final String userName;
+        private final Set<String> subscriptionIds = new HashSet<>(4);
+
+        SessionEntry(String userName) {
+            this.userName = userName;
+        }
+    }
+}
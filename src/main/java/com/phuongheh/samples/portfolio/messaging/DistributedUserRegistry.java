@@ -0,0 +1,624 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.SmartApplicationListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.BrokerAvailabilityEvent;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpSubscription;
+import org.springframework.messaging.simp.user.SimpSubscriptionMatcher;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * User registry shared by all nodes relaying to the same broker.
+ *
+ * <p>Local sessions are tracked by the wrapped registry as before. Each
+ * connect and disconnect is also queued and sent to the other nodes in
+ * batches over the broker, and their sessions are kept here. A user's
+ * sessions on other nodes are then resolved like local ones, so
+ * {@code /user/queue/position-updates} goes straight to the broker
+ * destination the other node's session subscribed to.
+ *
+ * <p>Unlike Spring's multi-server registry, nodes never broadcast their
+ * full registry periodically. Updates carry a per-node sequence number and
+ * a node only resends everything when asked: on joining, after
+ * reconnecting to the broker, or when a peer sees a gap in the sequence.
+ * Idle nodes send a small heartbeat with their last sequence number, and a
+ * node's sessions are dropped when it stops sending them.
+ *
+ * <p>Sessions on other nodes carry no subscriptions, so
+ * {@link #findSubscriptions} only covers this node. Their users are kept in
+ * name order, so they can be listed from a cursor without copying them.
+ *
+ * <p>Updates are text, one header line followed by one line per session:
+ * <pre>
+ * DELTA|RESET|HEARTBEAT|LEAVE node seq
+ * SYNC node seq target
+ * +sessionId TAB user
+ * -sessionId TAB user
+ * </pre>
+ */
+public class DistributedUserRegistry implements SimpUserRegistry, SmartApplicationListener, MessageHandler,
+        DisposableBean {
+    private static final Log logger = LogFactory.getLog(DistributedUserRegistry.class);
+    static final String DELTA = "DELTA";
+    static final String RESET = "RESET";
+    static final String HEARTBEAT = "HEARTBEAT";
+    static final String LEAVE = "LEAVE";
+    static final String SYNC = "SYNC";
+    private static final String ALL_NODES = "*";
+
+    private final SimpUserRegistry localRegistry;
+    private final SmartApplicationListener localListener;
+    private final String destination;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final long flushInterval;
+    private final long heartbeatInterval;
+    private final int batchSize;
+    private final Queue<String> pendingUpdates = new ConcurrentLinkedQueue<>();
+    private final ConcurrentMap<String, RemoteNode> nodes = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<String, RemoteUser> remoteUsers = new ConcurrentSkipListMap<>();
+    private final AtomicInteger remoteSessionCount = new AtomicInteger();
+    private final Set<String> syncRequests = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile MessageChannel brokerChannel;
+    private volatile boolean brokerAvailable;
+    private volatile boolean resetPending;
+    private volatile boolean syncAllPending;
+    private ScheduledExecutorService scheduler;
+    private long sequence;
+    private long lastSendTime;
+
+    /**
+     * @param localRegistry     registry of this node's sessions, which must
+     *                          also be an application listener for session events
+     * @param destination       broker topic the nodes exchange updates on
+     * @param flushInterval     milliseconds between sending queued updates,
+     *                          or 0 to only send on {@link #tick()}
+     * @param heartbeatInterval milliseconds of silence after which a node
+     *                          sends a heartbeat; nodes silent for three
+     *                          intervals are dropped
+     * @param batchSize         maximum sessions per update message
+     */
+    public DistributedUserRegistry(SimpUserRegistry localRegistry, String destination, long flushInterval,
+                                   long heartbeatInterval, int batchSize) {
+        if (!(localRegistry instanceof SmartApplicationListener)) {
+            throw new IllegalArgumentException("Local registry must listen to session events: " + localRegistry);
+        }
+        this.localRegistry = localRegistry;
+        this.localListener = (SmartApplicationListener) localRegistry;
+        this.destination = destination;
+        this.flushInterval = flushInterval;
+        this.heartbeatInterval = heartbeatInterval;
+        this.batchSize = batchSize;
+    }
+
+    public String getNodeId() {
+        return this.nodeId;
+    }
+
+    public String getDestination() {
+        return this.destination;
+    }
+
+    public SimpUserRegistry getLocalRegistry() {
+        return this.localRegistry;
+    }
+
+    public void setBrokerChannel(MessageChannel brokerChannel) {
+        this.brokerChannel = brokerChannel;
+    }
+
+    /**
+     * Return the number of other nodes this node currently has sessions from
+     * or has heard from.
+     */
+    public int getRemoteNodeCount() {
+        return this.nodes.size();
+    }
+
+    /**
+     * Return a live view of the names of the users with sessions on other
+     * nodes, in ascending order; it must not be modified.
+     */
+    public NavigableSet<String> getRemoteUserNames() {
+        return this.remoteUsers.keySet();
+    }
+
+    public int getRemoteSessionCount() {
+        return this.remoteSessionCount.get();
+    }
+
+    @Override
+    public SimpUser getUser(String userName) {
+        SimpUser local = this.localRegistry.getUser(userName);
+        RemoteUser remote = this.remoteUsers.get(userName);
+        if (remote == null || !remote.hasSessions()) {
+            return local;
+        }
+        return (local != null) ? new CombinedUser(local, remote) : remote;
+    }
+
+    @Override
+    public Set<SimpUser> getUsers() {
+        Map<String, SimpUser> users = new HashMap<>();
+        for (SimpUser user : this.localRegistry.getUsers()) {
+            users.put(user.getName(), user);
+        }
+        for (RemoteUser remote : this.remoteUsers.values()) {
+            if (remote.hasSessions()) {
+                SimpUser local = users.get(remote.getName());
+                users.put(remote.getName(), (local != null) ? new CombinedUser(local, remote) : remote);
+            }
+        }
+        return new HashSet<>(users.values());
+    }
+
+    @Override
+    public int getUserCount() {
+        int count = this.localRegistry.getUserCount();
+        for (RemoteUser remote : this.remoteUsers.values()) {
+            if (remote.hasSessions() && this.localRegistry.getUser(remote.getName()) == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Set<SimpSubscription> findSubscriptions(SimpSubscriptionMatcher matcher) {
+        return this.localRegistry.findSubscriptions(matcher);
+    }
+
+    @Override
+    public boolean supportsEventType(Class<? extends ApplicationEvent> eventType) {
+        return (this.localListener.supportsEventType(eventType) ||
+                BrokerAvailabilityEvent.class.isAssignableFrom(eventType) ||
+                ContextClosedEvent.class.isAssignableFrom(eventType));
+    }
+
+    @Override
+    public boolean supportsSourceType(Class<?> sourceType) {
+        return true;
+    }
+
+    @Override
+    public int getOrder() {
+        return this.localListener.getOrder();
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof BrokerAvailabilityEvent) {
+            brokerAvailabilityChanged(((BrokerAvailabilityEvent) event).isBrokerAvailable());
+            return;
+        }
+        if (event instanceof ContextClosedEvent) {
+            leave();
+            return;
+        }
+        this.localListener.onApplicationEvent(event);
+        if (event instanceof SessionConnectedEvent) {
+            SessionConnectedEvent connected = (SessionConnectedEvent) event;
+            Principal user = connected.getUser();
+            String sessionId = SimpMessageHeaderAccessor.getSessionId(connected.getMessage().getHeaders());
+            if (user != null && sessionId != null) {
+                this.pendingUpdates.add("+" + sessionId + '\t' + user.getName());
+            }
+        } else if (event instanceof SessionDisconnectEvent) {
+            SessionDisconnectEvent disconnect = (SessionDisconnectEvent) event;
+            if (disconnect.getUser() != null) {
+                this.pendingUpdates.add("-" + disconnect.getSessionId() + '\t' + disconnect.getUser().getName());
+            }
+        }
+    }
+
+    private synchronized void brokerAvailabilityChanged(boolean available) {
+        this.brokerAvailable = available;
+        if (!available) {
+            return;
+        }
+        // Peers may have missed updates while the broker was away, and we may
+        // have missed theirs: resend ours and ask for everyone else's.
+        this.resetPending = true;
+        this.syncAllPending = true;
+        if (this.scheduler == null && this.flushInterval > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "userRegistry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        tick();
+                    } catch (Throwable ex) {
+                        logger.error("Failed to send user registry updates", ex);
+                    }
+                }
+            }, this.flushInterval, this.flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Send pending requests, snapshots and updates, a heartbeat if nothing
+     * else was sent for a while, and drop nodes that went silent.
+     */
+    synchronized void tick() {
+        if (!this.brokerAvailable || this.brokerChannel == null) {
+            return;
+        }
+        if (this.syncAllPending) {
+            this.syncAllPending = false;
+            send(SYNC, ALL_NODES, Collections.<String>emptyList());
+        }
+        for (Iterator<String> iterator = this.syncRequests.iterator(); iterator.hasNext(); ) {
+            RemoteNode node = this.nodes.get(iterator.next());
+            if (node != null && node.syncRequested) {
+                send(SYNC, node.id, Collections.<String>emptyList());
+            }
+            iterator.remove();
+        }
+        if (this.resetPending) {
+            this.resetPending = false;
+            sendSnapshot();
+        }
+        List<String> batch = new ArrayList<>();
+        String update;
+        while ((update = this.pendingUpdates.poll()) != null) {
+            batch.add(update);
+            if (batch.size() == this.batchSize) {
+                send(DELTA, null, batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            send(DELTA, null, batch);
+        }
+        long now = System.currentTimeMillis();
+        if (now - this.lastSendTime >= this.heartbeatInterval) {
+            send(HEARTBEAT, null, Collections.<String>emptyList());
+        }
+        expireNodes(now);
+    }
+
+    private void sendSnapshot() {
+        // Updates queued so far are covered by the snapshot; later ones follow it.
+        this.pendingUpdates.clear();
+        List<String> batch = new ArrayList<>();
+        String type = RESET;
+        for (SimpUser user : this.localRegistry.getUsers()) {
+            for (SimpSession session : user.getSessions()) {
+                batch.add("+" + session.getId() + '\t' + user.getName());
+                if (batch.size() == this.batchSize) {
+                    send(type, null, batch);
+                    batch.clear();
+                    type = DELTA;
+                }
+            }
+        }
+        if (!batch.isEmpty() || type.equals(RESET)) {
+            send(type, null, batch);
+        }
+    }
+
+    private synchronized void leave() {
+        if (this.brokerAvailable && this.brokerChannel != null) {
+            send(LEAVE, null, Collections.<String>emptyList());
+        }
+        this.brokerAvailable = false;
+    }
+
+    private void send(String type, String target, List<String> lines) {
+        if (!type.equals(HEARTBEAT) && !type.equals(SYNC)) {
+            this.sequence++;
+        }
+        StringBuilder payload = new StringBuilder(64 + lines.size() * 48);
+        payload.append(type).append(' ').append(this.nodeId).append(' ').append(this.sequence);
+        if (target != null) {
+            payload.append(' ').append(target);
+        }
+        for (String line : lines) {
+            payload.append('\n').append(line);
+        }
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setDestination(this.destination);
+        headers.setContentType(MimeTypeUtils.TEXT_PLAIN);
+        byte[] bytes = payload.toString().getBytes(StandardCharsets.UTF_8);
+        this.brokerChannel.send(MessageBuilder.createMessage(bytes, headers.getMessageHeaders()));
+        this.lastSendTime = System.currentTimeMillis();
+    }
+
+    private void expireNodes(long now) {
+        for (RemoteNode node : this.nodes.values()) {
+            if (now - node.lastSeen > this.heartbeatInterval * 3) {
+                logger.info("No user registry updates from node " + node.id + ", dropping its " +
+                        node.sessions.size() + " sessions");
+                removeNode(node.id);
+            }
+        }
+    }
+
+    @Override
+    public void handleMessage(Message<?> message) {
+        Object payload = message.getPayload();
+        String text = (payload instanceof byte[]) ? new String((byte[]) payload, StandardCharsets.UTF_8) : payload.toString();
+        int end = text.indexOf('\n');
+        String[] header = ((end < 0) ? text : text.substring(0, end)).split(" ");
+        if (header.length < 3) {
+            logger.warn("Ignoring malformed user registry update: " + header[0]);
+            return;
+        }
+        String type = header[0];
+        String node = header[1];
+        long seq = Long.parseLong(header[2]);
+        if (node.equals(this.nodeId)) {
+            return;
+        }
+        if (type.equals(SYNC)) {
+            String target = (header.length > 3) ? header[3] : ALL_NODES;
+            if (target.equals(ALL_NODES) || target.equals(this.nodeId)) {
+                this.resetPending = true;
+            }
+        }
+        if (type.equals(LEAVE)) {
+            removeNode(node);
+            return;
+        }
+        applyUpdate(type, node, seq, (end < 0) ? "" : text.substring(end + 1));
+    }
+
+    private synchronized void applyUpdate(String type, String nodeId, long seq, String lines) {
+        RemoteNode node = this.nodes.get(nodeId);
+        boolean known = (node != null);
+        if (!known) {
+            node = new RemoteNode(nodeId);
+            this.nodes.put(nodeId, node);
+        }
+        node.lastSeen = System.currentTimeMillis();
+        if (type.equals(RESET)) {
+            clearSessions(node);
+        } else if (type.equals(HEARTBEAT) || type.equals(SYNC)) {
+            if (!known || seq > node.seq) {
+                requestSync(node);
+            }
+            return;
+        } else if (seq <= node.seq) {
+            return;
+        } else if (!known || seq != node.seq + 1) {
+            requestSync(node);
+        }
+        node.seq = seq;
+        if (type.equals(RESET)) {
+            node.syncRequested = false;
+        }
+        int start = 0;
+        while (start < lines.length()) {
+            int lineEnd = lines.indexOf('\n', start);
+            if (lineEnd < 0) {
+                lineEnd = lines.length();
+            }
+            int tab = lines.indexOf('\t', start);
+            if (tab > start && tab < lineEnd) {
+                String sessionId = lines.substring(start + 1, tab);
+                String user = lines.substring(tab + 1, lineEnd);
+                if (lines.charAt(start) == '+') {
+                    addSession(node, sessionId, user);
+                } else {
+                    removeSession(node, sessionId, user);
+                }
+            }
+            start = lineEnd + 1;
+        }
+    }
+
+    private void requestSync(RemoteNode node) {
+        if (!node.syncRequested) {
+            node.syncRequested = true;
+            this.syncRequests.add(node.id);
+        }
+    }
+
+    private void addSession(RemoteNode node, String sessionId, String userName) {
+        node.sessions.put(sessionId, userName);
+        RemoteUser user = this.remoteUsers.get(userName);
+        if (user == null) {
+            user = new RemoteUser(userName);
+            this.remoteUsers.put(userName, user);
+        }
+        if (user.sessions.put(sessionId, new RemoteSession(sessionId, user)) == null) {
+            this.remoteSessionCount.incrementAndGet();
+        }
+    }
+
+    private void removeSession(RemoteNode node, String sessionId, String userName) {
+        node.sessions.remove(sessionId);
+        RemoteUser user = this.remoteUsers.get(userName);
+        if (user != null) {
+            if (user.sessions.remove(sessionId) != null) {
+                this.remoteSessionCount.decrementAndGet();
+            }
+            if (user.sessions.isEmpty()) {
+                this.remoteUsers.remove(userName);
+            }
+        }
+    }
+
+    private void clearSessions(RemoteNode node) {
+        for (Map.Entry<String, String> session : node.sessions.entrySet()) {
+            removeSession(node, session.getKey(), session.getValue());
+        }
+    }
+
+    private synchronized void removeNode(String nodeId) {
+        RemoteNode node = this.nodes.remove(nodeId);
+        if (node != null) {
+            clearSessions(node);
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DistributedUserRegistry[node=" + this.nodeId + ", local users=" + this.localRegistry.getUserCount() +
+                ", remote users=" + this.remoteUsers.size() + ", nodes=" + this.nodes.size() + "]";
+    }
+
+    private static class RemoteNode {
+        private final String id;
+        private final Map<String, String> sessions = new HashMap<>();
+        private long seq;
+        private volatile long lastSeen;
+        private boolean syncRequested;
+
+        RemoteNode(String id) {
+            this.id = id;
+        }
+    }
+
+    private static class RemoteUser implements SimpUser {
+        private final String name;
+        private final ConcurrentMap<String, SimpSession> sessions = new ConcurrentHashMap<>(2);
+
+        RemoteUser(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public boolean hasSessions() {
+            return !this.sessions.isEmpty();
+        }
+
+        @Override
+        public SimpSession getSession(String sessionId) {
+            return (sessionId != null) ? this.sessions.get(sessionId) : null;
+        }
+
+        @Override
+        public Set<SimpSession> getSessions() {
+            return new HashSet<>(this.sessions.values());
+        }
+
+        @Override
+        public String toString() {
+            return "name=" + this.name + ", sessions=" + this.sessions.keySet();
+        }
+    }
+
+    private static class RemoteSession implements SimpSession {
+        private final String id;
+        private final SimpUser user;
+
+        RemoteSession(String id, SimpUser user) {
+            this.id = id;
+            this.user = user;
+        }
+
+        @Override
+        public String getId() {
+            return this.id;
+        }
+
+        @Override
+        public SimpUser getUser() {
+            return this.user;
+        }
+
+        @Override
+        public Set<SimpSubscription> getSubscriptions() {
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * A user with sessions on this and other nodes.
+     */
+    private static class CombinedUser implements SimpUser {
+        private final SimpUser local;
+        private final SimpUser remote;
+
+        CombinedUser(SimpUser local, SimpUser remote) {
+            this.local = local;
+            this.remote = remote;
+        }
+
+        @Override
+        public String getName() {
+            return this.local.getName();
+        }
+
+        @Override
+        public boolean hasSessions() {
+            return (this.local.hasSessions() || this.remote.hasSessions());
+        }
+
+        @Override
+        public SimpSession getSession(String sessionId) {
+            SimpSession session = this.local.getSession(sessionId);
+            return (session != null) ? session : this.remote.getSession(sessionId);
+        }
+
+        @Override
+        public Set<SimpSession> getSessions() {
+            Set<SimpSession> sessions = new HashSet<>(this.local.getSessions());
+            sessions.addAll(this.remote.getSessions());
+            return sessions;
+        }
+
+        @Override
+        public String toString() {
+            return this.local + ", remote " + this.remote;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.springframework.messaging.tcp.ReconnectStrategy;
+
+/**
+ * Reconnect strategy that doubles the delay after each failed attempt, from
+ * an initial delay up to a maximum, so a restarting broker is not hit by
+ * every node at a fixed rate.
+ */
+public class ExponentialBackoffReconnectStrategy implements ReconnectStrategy {
+    private final long initialDelay;
+    private final long maxDelay;
+
+    public ExponentialBackoffReconnectStrategy(long initialDelay, long maxDelay) {
+        if (initialDelay <= 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Invalid backoff " + initialDelay + ".." + maxDelay + " ms");
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Return the delay before the given attempt, counting from 1.
+     */
+    @Override
+    public Long getTimeToNextAttempt(int attemptCount) {
+        long delay = this.initialDelay;
+        for (int i = 1; i < attemptCount && delay < this.maxDelay; i++) {
+            delay <<= 1;
+        }
+        return Math.min(delay, this.maxDelay);
+    }
+}
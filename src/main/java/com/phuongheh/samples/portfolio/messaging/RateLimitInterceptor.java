@@ -0,0 +1,284 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.util.MimeType;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drops inbound frames from clients sending faster than their role allows,
+ * before they are queued for the inbound channel's executor.
+ *
+ * <p>Each user may send trades to {@value BackpressureHandler#TRADE_DESTINATION}
+ * at a sustained rate with some burst, across all of their sessions, and
+ * each session may send SEND and SUBSCRIBE frames at a higher rate, which
+ * keeps a single flooding connection from filling the inbound queue for
+ * everyone. Limits are chosen by the first role of the user's
+ * {@link Authentication} that has limits, falling back to the default ones.
+ *
+ * <p>Every limit is a token bucket kept as the theoretical arrival time of
+ * the next frame in one {@link AtomicLong} (the generic cell rate
+ * algorithm), taken with a compare-and-set, so checking a frame neither
+ * locks nor allocates. A rejected frame is dropped and the session is told
+ * on {@code /user/queue/errors} at most once per {@link #NOTICE_INTERVAL_MILLIS},
+ * so a flood does not turn into a flood of errors. Each notice gets a
+ * payload of its own, since the {@link CachingStompEncoder} takes messages
+ * sharing a payload array for one broadcast and would send them all with
+ * the first one's {@code message-id}.
+ */
+public class RateLimitInterceptor extends ChannelInterceptorAdapter {
+    private static final Log logger = LogFactory.getLog(RateLimitInterceptor.class);
+    public static final String REJECTED_MESSAGE = "Request rejected: rate limit exceeded, please slow down";
+    public static final long NOTICE_INTERVAL_MILLIS = 1000;
+    /** Prefix of the session-specific destination a {@code /user/queue/errors} subscription resolves to. */
+    private static final String ERRORS_DESTINATION_PREFIX = "/queue/errors-user";
+    private static final MimeType TEXT_PLAIN = new MimeType("text", "plain", StandardCharsets.UTF_8);
+
+    private final Limits defaultLimits;
+    private final Map<String, Limits> roleLimits = new LinkedHashMap<>();
+    private final ObjectFactory<? extends SimpMessageSendingOperations> messageTemplate;
+    private final ConcurrentMap<String, SessionState> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, UserState> users = new ConcurrentHashMap<>();
+    private final PortfolioMetrics.Counter rejectedTrades;
+    private final PortfolioMetrics.Counter rejectedMessages;
+
+    public RateLimitInterceptor(Limits defaultLimits, PortfolioMetrics metrics,
+                                ObjectFactory<? extends SimpMessageSendingOperations> messageTemplate) {
+        this.defaultLimits = defaultLimits;
+        this.messageTemplate = messageTemplate;
+        this.rejectedTrades = metrics.counter("rate-limit.rejected-trades");
+        this.rejectedMessages = metrics.counter("rate-limit.rejected-messages");
+        metrics.gauge("rate-limit.sessions", new PortfolioMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return sessions.size();
+            }
+        });
+    }
+
+    /**
+     * Set the limits of users with the given role, e.g. {@code ADMIN}. Roles
+     * are checked in the order they were set, so set the most privileged
+     * first; call before the interceptor is in use.
+     */
+    public void setRoleLimits(String role, Limits limits) {
+        this.roleLimits.put("ROLE_" + role, limits);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        if (sessionId == null) {
+            return message;
+        }
+        if (type == SimpMessageType.DISCONNECT) {
+            release(sessionId);
+            return message;
+        }
+        if (type != SimpMessageType.MESSAGE && type != SimpMessageType.SUBSCRIBE) {
+            return message;
+        }
+        SessionState session = this.sessions.get(sessionId);
+        if (session == null) {
+            session = register(sessionId, SimpMessageHeaderAccessor.getUser(headers));
+        }
+        long now = System.nanoTime();
+        Limits limits = session.limits;
+        boolean trade = (type == SimpMessageType.MESSAGE &&
+                BackpressureHandler.TRADE_DESTINATION.equals(SimpMessageHeaderAccessor.getDestination(headers)));
+        if (!session.messages.tryAcquire(now, limits.messageInterval, limits.messageTolerance)) {
+            (trade ? this.rejectedTrades : this.rejectedMessages).increment();
+            notify(session, now);
+            return null;
+        }
+        if (trade && session.user != null &&
+                !session.user.trades.tryAcquire(now, limits.tradeInterval, limits.tradeTolerance)) {
+            this.rejectedTrades.increment();
+            notify(session, now);
+            return null;
+        }
+        return message;
+    }
+
+    private SessionState register(String sessionId, Principal principal) {
+        Limits limits = limitsFor(principal);
+        UserState user = (principal != null) ? acquireUser(principal.getName()) : null;
+        SessionState session = new SessionState(sessionId, limits, user);
+        SessionState existing = this.sessions.putIfAbsent(sessionId, session);
+        if (existing != null) {
+            releaseUser(user);
+            return existing;
+        }
+        return session;
+    }
+
+    private void release(String sessionId) {
+        SessionState session = this.sessions.remove(sessionId);
+        if (session != null) {
+            releaseUser(session.user);
+        }
+    }
+
+    /**
+     * Return the state shared by the user's sessions, counting one more
+     * session. State whose last session has gone is marked dead with a
+     * count of -1 before it is removed, so it is never handed out again.
+     */
+    private UserState acquireUser(String name) {
+        while (true) {
+            UserState user = this.users.get(name);
+            if (user == null) {
+                user = new UserState(name);
+                UserState existing = this.users.putIfAbsent(name, user);
+                if (existing != null) {
+                    user = existing;
+                }
+            }
+            int count = user.sessions.get();
+            if (count >= 0) {
+                if (user.sessions.compareAndSet(count, count + 1)) {
+                    return user;
+                }
+            } else {
+                this.users.remove(name, user);
+            }
+        }
+    }
+
+    private void releaseUser(UserState user) {
+        if (user != null && user.sessions.decrementAndGet() == 0 && user.sessions.compareAndSet(0, -1)) {
+            this.users.remove(user.name, user);
+        }
+    }
+
+    private Limits limitsFor(Principal principal) {
+        if (principal instanceof Authentication && !this.roleLimits.isEmpty()) {
+            for (Map.Entry<String, Limits> entry : this.roleLimits.entrySet()) {
+                for (GrantedAuthority authority : ((Authentication) principal).getAuthorities()) {
+                    if (entry.getKey().equals(authority.getAuthority())) {
+                        return entry.getValue();
+                    }
+                }
+            }
+        }
+        return this.defaultLimits;
+    }
+
+    private void notify(SessionState session, long now) {
+        long last = session.lastNotice.get();
+        if (now - last < TimeUnit.MILLISECONDS.toNanos(NOTICE_INTERVAL_MILLIS) ||
+                !session.lastNotice.compareAndSet(last, now)) {
+            return;
+        }
+        try {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setContentType(TEXT_PLAIN);
+            Message<byte[]> notice = MessageBuilder.createMessage(
+                    REJECTED_MESSAGE.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+            this.messageTemplate.getObject().send(ERRORS_DESTINATION_PREFIX + session.id, notice);
+        } catch (Throwable ex) {
+            logger.error("Failed to notify session " + session.id + " of rate limiting", ex);
+        }
+    }
+
+    /**
+     * Trade and message rates, each with the number of frames that may be
+     * sent at once after a quiet spell. A rate of 0 means no limit.
+     */
+    public static class Limits {
+        private final long tradeInterval;
+        private final long tradeTolerance;
+        private final long messageInterval;
+        private final long messageTolerance;
+
+        /**
+         * @param tradesPerSecond sustained trades per second per user
+         * @param tradeBurst trades a user may send at once
+         * @param messagesPerSecond sustained SEND and SUBSCRIBE frames per second per session
+         * @param messageBurst frames a session may send at once
+         */
+        public Limits(double tradesPerSecond, int tradeBurst, double messagesPerSecond, int messageBurst) {
+            this.tradeInterval = interval(tradesPerSecond);
+            this.tradeTolerance = this.tradeInterval * Math.max(1, tradeBurst);
+            this.messageInterval = interval(messagesPerSecond);
+            this.messageTolerance = this.messageInterval * Math.max(1, messageBurst);
+        }
+
+        private static long interval(double perSecond) {
+            return (perSecond > 0) ? (long) (TimeUnit.SECONDS.toNanos(1) / perSecond) : 0;
+        }
+    }
+
+    /**
+     * A token bucket holding the time at which it would be empty again if
+     * no more frames came, in {@link System#nanoTime()} terms. Taking a token
+     * moves that time one interval on; a frame is refused when that would
+     * put it more than the burst's worth of intervals ahead of now.
+     */
+    static class Bucket extends AtomicLong {
+        Bucket() {
+            super(System.nanoTime());
+        }
+
+        boolean tryAcquire(long now, long interval, long tolerance) {
+            while (true) {
+                long emptyAt = get();
+                long next = Math.max(emptyAt, now) + interval;
+                if (next - now > tolerance) {
+                    return false;
+                }
+                if (compareAndSet(emptyAt, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static class UserState {
+        private final String name;
+        private final Bucket trades = new Bucket();
+        private final AtomicInteger sessions = new AtomicInteger();
+
+        UserState(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class SessionState {
+        private final String id;
+        private final Limits limits;
+        private final UserState user;
+        private final Bucket messages = new Bucket();
+        private final AtomicLong lastNotice;
+
+        SessionState(String id, Limits limits, UserState user) {
+            this.id = id;
+            this.limits = limits;
+            this.user = user;
+            this.lastNotice = new AtomicLong(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(NOTICE_INTERVAL_MILLIS));
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.util.MimeType;
+
+/**
+ * Jackson converter for the binary Smile format.
+ *
+ * <p>The converter only applies to messages whose content type is
+ * {@link #SMILE}, so JSON stays the default in both directions and clients
+ * opt in explicitly.
+ */
+public class SmileMessageConverter extends MappingJackson2MessageConverter {
+    public static final MimeType SMILE = new MimeType("application", "x-jackson-smile");
+
+    public SmileMessageConverter() {
+        super(SMILE);
+        setObjectMapper(new ObjectMapper(new SmileFactory()));
+        setStrictContentTypeMatch(true);
+    }
+}
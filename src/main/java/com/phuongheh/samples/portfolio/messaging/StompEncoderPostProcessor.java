@@ -0,0 +1,61 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gives the STOMP protocol handler of each WebSocket endpoint a
+ * {@link CachingStompEncoder}. The endpoint registration creates the handler
+ * itself with a plain encoder, so it is replaced once all protocol handlers
+ * have been added.
+ */
+public class StompEncoderPostProcessor implements BeanPostProcessor, SmartInitializingSingleton {
+    private final StompEncoder encoder;
+    private final List<SubProtocolWebSocketHandler> webSocketHandlers = new ArrayList<>();
+
+    /**
+     * @param enabled whether to replace the encoder; when not, the handlers
+     * keep their plain one
+     */
+    public StompEncoderPostProcessor(boolean enabled) {
+        this.encoder = enabled ? new CachingStompEncoder() : null;
+    }
+
+    /**
+     * Return the encoder given to the handlers, or {@code null} if disabled.
+     */
+    public StompEncoder getEncoder() {
+        return this.encoder;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (this.encoder != null && bean instanceof SubProtocolWebSocketHandler) {
+            this.webSocketHandlers.add((SubProtocolWebSocketHandler) bean);
+        }
+        return bean;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        for (SubProtocolWebSocketHandler webSocketHandler : this.webSocketHandlers) {
+            for (SubProtocolHandler protocolHandler : webSocketHandler.getProtocolHandlers()) {
+                if (protocolHandler instanceof StompSubProtocolHandler) {
+                    ((StompSubProtocolHandler) protocolHandler).setEncoder(this.encoder);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.util.AntPathMatcher;
+
+/**
+ * Gives the simple broker a {@link TrieSubscriptionRegistry}. The broker
+ * registration has no setting for the registry.
+ */
+public class SubscriptionRegistryPostProcessor implements BeanPostProcessor {
+    private final boolean enabled;
+    private final int cacheLimit;
+
+    /**
+     * @param enabled whether to replace the registry; when not, the broker
+     * keeps Spring's
+     * @param cacheLimit how many destinations the registry remembers the
+     * matching patterns of
+     */
+    public SubscriptionRegistryPostProcessor(boolean enabled, int cacheLimit) {
+        this.enabled = enabled;
+        this.cacheLimit = cacheLimit;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (this.enabled && bean instanceof SimpleBrokerMessageHandler) {
+            ((SimpleBrokerMessageHandler) bean).setSubscriptionRegistry(
+                    new TrieSubscriptionRegistry(new AntPathMatcher(), this.cacheLimit));
+        }
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        return bean;
+    }
+}
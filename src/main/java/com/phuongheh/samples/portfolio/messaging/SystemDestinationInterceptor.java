@@ -0,0 +1,89 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps clients off the broker destinations the nodes use among themselves,
+ * such as the user registry broadcast, which lists every user and session
+ * and whose RESET and session lines each node applies as they come.
+ *
+ * <p>Client SENDs to these destinations and SUBSCRIBEs to any pattern that
+ * could match one of them are dropped. Patterns are checked both as the
+ * simple broker matches them and as an external broker matches a
+ * {@code /topic/} routing key, where {@code *} stands for one dot-separated
+ * word and {@code #} for any number of them.
+ */
+public class SystemDestinationInterceptor extends ChannelInterceptorAdapter {
+    private static final Log logger = LogFactory.getLog(SystemDestinationInterceptor.class);
+    private static final String TOPIC_PREFIX = "/topic/";
+
+    private final List<String> destinations;
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+
+    public SystemDestinationInterceptor(String... destinations) {
+        this.destinations = Arrays.asList(destinations);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        if (type != SimpMessageType.MESSAGE && type != SimpMessageType.SUBSCRIBE) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null) {
+            return message;
+        }
+        for (String systemDestination : this.destinations) {
+            if ((type == SimpMessageType.MESSAGE) ? destination.startsWith(systemDestination) :
+                    matches(destination, systemDestination)) {
+                logger.warn("Rejected " + type + " to " + destination + " from session " +
+                        SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+                return null;
+            }
+        }
+        return message;
+    }
+
+    private boolean matches(String pattern, String destination) {
+        if (destination.startsWith(pattern) || this.pathMatcher.match(pattern, destination)) {
+            return true;
+        }
+        return (pattern.startsWith(TOPIC_PREFIX) && destination.startsWith(TOPIC_PREFIX) &&
+                matchesRoutingKey(pattern.substring(TOPIC_PREFIX.length()), destination.substring(TOPIC_PREFIX.length())));
+    }
+
+    /**
+     * Whether an AMQP-style topic pattern matches the routing key.
+     */
+    static boolean matchesRoutingKey(String pattern, String key) {
+        return matchesWords(pattern.split("\\.", -1), 0, key.split("\\.", -1), 0);
+    }
+
+    private static boolean matchesWords(String[] pattern, int p, String[] key, int k) {
+        if (p == pattern.length) {
+            return (k == key.length);
+        }
+        if ("#".equals(pattern[p])) {
+            for (int skip = k; skip <= key.length; skip++) {
+                if (matchesWords(pattern, p + 1, key, skip)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return (k < key.length && ("*".equals(pattern[p]) || pattern[p].equals(key[k])) &&
+                matchesWords(pattern, p + 1, key, k + 1));
+    }
+}
@@ -0,0 +1,315 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.broker.AbstractSubscriptionRegistry;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.PathMatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Subscription registry that finds the subscribers of a destination without
+ * looking at every subscription.
+ *
+ * <p>Subscriptions to plain destinations are found with one hash lookup.
+ * Pattern subscriptions are grouped by pattern and kept in a trie of the
+ * literal segments (split at {@code /} and {@code .}) before their first
+ * wildcard, e.g. {@code /topic/price.stock.*} under the path {@code topic},
+ * {@code price}, {@code stock}. A destination only walks its own segments
+ * in the trie and is matched against the patterns found on the way, once
+ * per pattern however many sessions subscribed to it, and the patterns a
+ * destination matches are cached until a pattern is added or removed. The
+ * cost of a lookup therefore depends on the destination's depth and the
+ * number of matching subscriptions, not on the number of tickers.
+ *
+ * <p>Patterns are matched with the same {@link PathMatcher} as Spring's
+ * registry; {@code selector} headers are not supported.
+ */
+public class TrieSubscriptionRegistry extends AbstractSubscriptionRegistry {
+    public static final int DEFAULT_CACHE_LIMIT = 1024;
+    private static final String[] NO_PATTERNS = new String[0];
+
+    private final PathMatcher pathMatcher;
+    private final int cacheLimit;
+    private final ConcurrentMap<String, Subscribers> exactDestinations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Subscribers> patterns = new ConcurrentHashMap<>();
+    private final Node root = new Node();
+    /** Session id to its subscription ids and their destinations, guarded by {@code this}. */
+    private final Map<String, Map<String, String>> sessions = new HashMap<>();
+    /** Destination to the patterns it matches; replaced whenever the patterns change. */
+    private volatile ConcurrentMap<String, String[]> matchingPatterns = new ConcurrentHashMap<>();
+
+    public TrieSubscriptionRegistry() {
+        this(new AntPathMatcher(), DEFAULT_CACHE_LIMIT);
+    }
+
+    /**
+     * @param pathMatcher the matcher for pattern subscriptions
+     * @param cacheLimit how many destinations to remember the matching patterns of
+     */
+    public TrieSubscriptionRegistry(PathMatcher pathMatcher, int cacheLimit) {
+        this.pathMatcher = pathMatcher;
+        this.cacheLimit = cacheLimit;
+    }
+
+    @Override
+    protected synchronized void addSubscriptionInternal(String sessionId, String subscriptionId, String destination,
+                                                        Message<?> message) {
+        Map<String, String> subscriptions = this.sessions.get(sessionId);
+        if (subscriptions == null) {
+            subscriptions = new HashMap<>(4);
+            this.sessions.put(sessionId, subscriptions);
+        }
+        String previous = subscriptions.put(subscriptionId, destination);
+        if (previous != null) {
+            removeSubscriber(sessionId, subscriptionId, previous);
+        }
+        boolean pattern = isPattern(destination);
+        ConcurrentMap<String, Subscribers> map = pattern ? this.patterns : this.exactDestinations;
+        Subscribers subscribers = map.get(destination);
+        if (subscribers == null) {
+            subscribers = new Subscribers();
+            map.put(destination, subscribers);
+            if (pattern) {
+                this.root.addPattern(destination, literalSegments(destination), 0);
+                this.matchingPatterns = new ConcurrentHashMap<>();
+            }
+        }
+        subscribers.add(sessionId, subscriptionId);
+    }
+
+    @Override
+    protected synchronized void removeSubscriptionInternal(String sessionId, String subscriptionId, Message<?> message) {
+        Map<String, String> subscriptions = this.sessions.get(sessionId);
+        String destination = (subscriptions != null) ? subscriptions.remove(subscriptionId) : null;
+        if (destination == null) {
+            return;
+        }
+        if (subscriptions.isEmpty()) {
+            this.sessions.remove(sessionId);
+        }
+        removeSubscriber(sessionId, subscriptionId, destination);
+    }
+
+    @Override
+    public synchronized void unregisterAllSubscriptions(String sessionId) {
+        Map<String, String> subscriptions = this.sessions.remove(sessionId);
+        if (subscriptions == null) {
+            return;
+        }
+        for (Map.Entry<String, String> subscription : subscriptions.entrySet()) {
+            removeSubscriber(sessionId, subscription.getKey(), subscription.getValue());
+        }
+    }
+
+    private void removeSubscriber(String sessionId, String subscriptionId, String destination) {
+        boolean pattern = isPattern(destination);
+        ConcurrentMap<String, Subscribers> map = pattern ? this.patterns : this.exactDestinations;
+        Subscribers subscribers = map.get(destination);
+        if (subscribers == null || !subscribers.remove(sessionId, subscriptionId) || !subscribers.isEmpty()) {
+            return;
+        }
+        map.remove(destination);
+        if (pattern) {
+            this.root.removePattern(destination, literalSegments(destination), 0);
+            this.matchingPatterns = new ConcurrentHashMap<>();
+        }
+    }
+
+    @Override
+    protected MultiValueMap<String, String> findSubscriptionsInternal(String destination, Message<?> message) {
+        MultiValueMap<String, String> result = new LinkedMultiValueMap<>();
+        Subscribers exact = this.exactDestinations.get(destination);
+        if (exact != null) {
+            exact.addTo(result);
+        }
+        for (String pattern : findMatchingPatterns(destination)) {
+            Subscribers subscribers = this.patterns.get(pattern);
+            if (subscribers != null) {
+                subscribers.addTo(result);
+            }
+        }
+        return result;
+    }
+
+    private String[] findMatchingPatterns(String destination) {
+        // Read the cache before the trie, so a result computed from a trie
+        // that has changed since only ends up in a cache that was replaced.
+        ConcurrentMap<String, String[]> cache = this.matchingPatterns;
+        String[] matches = cache.get(destination);
+        if (matches != null) {
+            return matches;
+        }
+        List<String> candidates = new ArrayList<>();
+        Node node = this.root;
+        node.collectPatterns(candidates);
+        int start = 0;
+        while (node != null && start < destination.length()) {
+            int end = nextSeparator(destination, start);
+            if (end > start) {
+                node = node.children.get(destination.substring(start, end));
+                if (node != null) {
+                    node.collectPatterns(candidates);
+                }
+            }
+            start = end + 1;
+        }
+        List<String> matching = new ArrayList<>(candidates.size());
+        for (String pattern : candidates) {
+            if (this.pathMatcher.match(pattern, destination)) {
+                matching.add(pattern);
+            }
+        }
+        matches = matching.isEmpty() ? NO_PATTERNS : matching.toArray(new String[matching.size()]);
+        if (cache.size() >= this.cacheLimit) {
+            cache.clear();
+        }
+        cache.put(destination, matches);
+        return matches;
+    }
+
+    /**
+     * Whether the destination needs the path matcher; unlike
+     * {@link AntPathMatcher#isPattern}, this includes URI template variables.
+     */
+    private boolean isPattern(String destination) {
+        return (this.pathMatcher.isPattern(destination) || destination.indexOf('{') != -1);
+    }
+
+    /**
+     * Return the segments of the pattern before the one holding its first
+     * wildcard; any destination the pattern matches starts with them.
+     */
+    static List<String> literalSegments(String pattern) {
+        int wildcard = pattern.length();
+        for (char c : new char[] {'*', '?', '{'}) {
+            int index = pattern.indexOf(c);
+            if (index != -1 && index < wildcard) {
+                wildcard = index;
+            }
+        }
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            int end = nextSeparator(pattern, start);
+            if (end >= wildcard) {
+                return segments;
+            }
+            if (end > start) {
+                segments.add(pattern.substring(start, end));
+            }
+            start = end + 1;
+        }
+    }
+
+    private static int nextSeparator(String destination, int start) {
+        for (int i = start; i < destination.length(); i++) {
+            char c = destination.charAt(i);
+            if (c == '/' || c == '.') {
+                return i;
+            }
+        }
+        return destination.length();
+    }
+
+    /**
+     * A trie node: the patterns whose literal segments end here, and the
+     * nodes for the next segment. Changed only while holding the registry
+     * lock, read without it.
+     */
+    private static class Node {
+        private final ConcurrentMap<String, Node> children = new ConcurrentHashMap<>(4);
+        private final Set<String> patterns = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(4));
+
+        void addPattern(String pattern, List<String> segments, int depth) {
+            if (depth == segments.size()) {
+                this.patterns.add(pattern);
+                return;
+            }
+            Node child = this.children.get(segments.get(depth));
+            if (child == null) {
+                child = new Node();
+                this.children.put(segments.get(depth), child);
+            }
+            child.addPattern(pattern, segments, depth + 1);
+        }
+
+        void removePattern(String pattern, List<String> segments, int depth) {
+            if (depth == segments.size()) {
+                this.patterns.remove(pattern);
+                return;
+            }
+            Node child = this.children.get(segments.get(depth));
+            if (child != null) {
+                child.removePattern(pattern, segments, depth + 1);
+                if (child.patterns.isEmpty() && child.children.isEmpty()) {
+                    this.children.remove(segments.get(depth));
+                }
+            }
+        }
+
+        void collectPatterns(List<String> candidates) {
+            if (!this.patterns.isEmpty()) {
+                candidates.addAll(this.patterns);
+            }
+        }
+    }
+
+    /**
+     * The sessions subscribed to one destination or pattern, each with its
+     * subscription ids. Changed only while holding the registry lock.
+     */
+    private static class Subscribers {
+        private final ConcurrentMap<String, String[]> subscriptionIds = new ConcurrentHashMap<>();
+
+        void add(String sessionId, String subscriptionId) {
+            String[] ids = this.subscriptionIds.get(sessionId);
+            if (ids == null) {
+                this.subscriptionIds.put(sessionId, new String[] {subscriptionId});
+            } else {
+                String[] updated = Arrays.copyOf(ids, ids.length + 1);
+                updated[ids.length] = subscriptionId;
+                this.subscriptionIds.put(sessionId, updated);
+            }
+        }
+
+        boolean remove(String sessionId, String subscriptionId) {
+            String[] ids = this.subscriptionIds.get(sessionId);
+            int index = (ids != null) ? Arrays.asList(ids).indexOf(subscriptionId) : -1;
+            if (index == -1) {
+                return false;
+            }
+            if (ids.length == 1) {
+                this.subscriptionIds.remove(sessionId);
+            } else {
+                String[] updated = new String[ids.length - 1];
+                System.arraycopy(ids, 0, updated, 0, index);
+                System.arraycopy(ids, index + 1, updated, index, updated.length - index);
+                this.subscriptionIds.put(sessionId, updated);
+            }
+            return true;
+        }
+
+        boolean isEmpty() {
+            return this.subscriptionIds.isEmpty();
+        }
+
+        void addTo(MultiValueMap<String, String> result) {
+            for (Map.Entry<String, String[]> entry : this.subscriptionIds.entrySet()) {
+                for (String subscriptionId : entry.getValue()) {
+                    result.add(entry.getKey(), subscriptionId);
+                }
+            }
+        }
+    }
+}
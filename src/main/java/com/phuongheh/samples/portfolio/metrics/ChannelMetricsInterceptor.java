@@ -0,0 +1,91 @@
+package com.phuongheh.samples.portfolio.metrics;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+
+import java.util.Arrays;
+
+/**
+ * Records message rates and latencies for one message channel.
+ *
+ * <p>{@code channel.<name>.sent} and {@code channel.<name>.failed} count sends,
+ * {@code channel.<name>.send} times the {@code send} call itself and
+ * {@code channel.<name>.handle} times each subscriber when the channel
+ * dispatches through an executor.
+ *
+ * <p>A handler may send to the same channel again on the same thread, as the
+ * user destination handler does on the broker channel, so start times are
+ * kept on a per-thread stack and each completion takes its own.
+ */
+public class ChannelMetricsInterceptor extends ChannelInterceptorAdapter implements ExecutorChannelInterceptor {
+    private final PortfolioMetrics.Counter sent;
+    private final PortfolioMetrics.Counter failed;
+    private final PortfolioMetrics.Timer sendTimer;
+    private final PortfolioMetrics.Timer handleTimer;
+    private final ThreadLocal<StartTimes> sendStart = new StartTimesHolder();
+    private final ThreadLocal<StartTimes> handleStart = new StartTimesHolder();
+
+    public ChannelMetricsInterceptor(PortfolioMetrics metrics, String channelName) {
+        String prefix = "channel." + channelName + ".";
+        this.sent = metrics.counter(prefix + "sent");
+        this.failed = metrics.counter(prefix + "failed");
+        this.sendTimer = metrics.timer(prefix + "send");
+        this.handleTimer = metrics.timer(prefix + "handle");
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        this.sendStart.get().push(System.nanoTime());
+        return message;
+    }
+
+    @Override
+    public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+        this.sendTimer.recordSince(this.sendStart.get().pop());
+        if (sent) {
+            this.sent.increment();
+        } else {
+            this.failed.increment();
+        }
+    }
+
+    @Override
+    public Message<?> beforeHandle(Message<?> message, MessageChannel channel, MessageHandler handler) {
+        this.handleStart.get().push(System.nanoTime());
+        return message;
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        this.handleTimer.recordSince(this.handleStart.get().pop());
+    }
+
+    private static class StartTimesHolder extends ThreadLocal<StartTimes> {
+        @Override
+        protected StartTimes initialValue() {
+            return new StartTimes();
+        }
+    }
+
+    /**
+     * Start times of the calls in progress on one thread, innermost last.
+     */
+    private static final class StartTimes {
+        private long[] times = new long[4];
+        private int depth;
+
+        void push(long time) {
+            if (this.depth == this.times.length) {
+                this.times = Arrays.copyOf(this.times, this.depth * 2);
+            }
+            this.times[this.depth++] = time;
+        }
+
+        long pop() {
+            return (this.depth > 0) ? this.times[--this.depth] : System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.phuongheh.samples.portfolio.metrics;
+
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.AbstractSubProtocolEvent;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Publishes gauges for the messaging infrastructure: queue depth, active
+ * threads and pool size of every {@link ThreadPoolTaskExecutor} bean (which
+ * includes the channel executors), and the number of connected STOMP sessions.
+ */
+@Component
+public class MessagingMetrics implements SmartInitializingSingleton, ApplicationListener<AbstractSubProtocolEvent> {
+    private final PortfolioMetrics metrics;
+    private final ListableBeanFactory beanFactory;
+    private final ConcurrentMap<String, Boolean> activeSessions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public MessagingMetrics(PortfolioMetrics metrics, ListableBeanFactory beanFactory) {
+        this.metrics = metrics;
+        this.beanFactory = beanFactory;
+        this.metrics.gauge("sessions.active", new PortfolioMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return activeSessions.size();
+            }
+        });
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        Map<String, ThreadPoolTaskExecutor> executors = this.beanFactory.getBeansOfType(ThreadPoolTaskExecutor.class);
+        for (Map.Entry<String, ThreadPoolTaskExecutor> entry : executors.entrySet()) {
+            registerExecutor(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void registerExecutor(String name, final ThreadPoolTaskExecutor executor) {
+        String prefix = "executor." + name + ".";
+        this.metrics.gauge(prefix + "queued", new PortfolioMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return executor.getThreadPoolExecutor().getQueue().size();
+            }
+        });
+        this.metrics.gauge(prefix + "active", new PortfolioMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return executor.getActiveCount();
+            }
+        });
+        this.metrics.gauge(prefix + "pool-size", new PortfolioMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return executor.getPoolSize();
+            }
+        });
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractSubProtocolEvent event) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        if (sessionId == null) {
+            return;
+        }
+        if (event instanceof SessionConnectedEvent) {
+            this.activeSessions.put(sessionId, Boolean.TRUE);
+        } else if (event instanceof SessionDisconnectEvent) {
+            this.activeSessions.remove(sessionId);
+        }
+    }
+}
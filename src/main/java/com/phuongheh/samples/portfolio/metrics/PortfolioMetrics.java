@@ -0,0 +1,125 @@
+package com.phuongheh.samples.portfolio.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of named counters, timers and gauges for the application.
+ *
+ * <p>Meters are created on first use and are safe to update from any thread
+ * without locking. {@link #snapshot()} renders every meter as plain values,
+ * sorted by name, for the metrics endpoint.
+ */
+@Component
+public class PortfolioMetrics {
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    public Counter counter(String name) {
+        Counter counter = this.counters.get(name);
+        if (counter == null) {
+            Counter newCounter = new Counter();
+            counter = this.counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    public Timer timer(String name) {
+        Timer timer = this.timers.get(name);
+        if (timer == null) {
+            Timer newTimer = new Timer();
+            timer = this.timers.putIfAbsent(name, newTimer);
+            if (timer == null) {
+                timer = newTimer;
+            }
+        }
+        return timer;
+    }
+
+    public void gauge(String name, Gauge gauge) {
+        this.gauges.put(name, gauge);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : this.counters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getCount());
+        }
+        for (Map.Entry<String, Timer> entry : this.timers.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        for (Map.Entry<String, Gauge> entry : this.gauges.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getValue());
+        }
+        return result;
+    }
+
+    public interface Gauge {
+        long getValue();
+    }
+
+    public static final class Counter {
+        private final AtomicLong count = new AtomicLong();
+
+        public void increment() {
+            this.count.incrementAndGet();
+        }
+
+        public void add(long amount) {
+            this.count.addAndGet(amount);
+        }
+
+        public long getCount() {
+            return this.count.get();
+        }
+    }
+
+    public static final class Timer {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        public void record(long nanos) {
+            this.count.incrementAndGet();
+            this.totalNanos.addAndGet(nanos);
+            long max = this.maxNanos.get();
+            while (nanos > max && !this.maxNanos.compareAndSet(max, nanos)) {
+                max = this.maxNanos.get();
+            }
+        }
+
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return this.count.get();
+        }
+
+        public Map<String, Object> snapshot() {
+            long count = this.count.get();
+            long total = this.totalNanos.get();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("count", count);
+            result.put("totalMillis", toMillis(total));
+            result.put("meanMillis", (count > 0) ? toMillis(total / count) : 0.0);
+            result.put("maxMillis", toMillis(this.maxNanos.get()));
+            return result;
+        }
+
+        private static double toMillis(long nanos) {
+            return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.phuongheh.samples.portfolio.service;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a flush task on its own thread once work has been signalled, after a
+ * window that lets work arriving meanwhile go out in the same flush.
+ *
+ * <p>The window is the recent average flush time times the window ratio,
+ * capped at the maximum window. When little is going on a flush takes
+ * microseconds and work goes out almost as soon as it arrives; under load
+ * flushes take longer, the window widens and more work is batched, so the
+ * flush thread spends at most {@code 1 / (1 + ratio)} of its time flushing.
+ * Flushes never overlap, and nothing runs while no work is signalled.
+ */
+public class AdaptiveFlusher {
+    private static final Log logger = LogFactory.getLog(AdaptiveFlusher.class);
+    private static final int SMOOTHING = 8;
+
+    private final String name;
+    private final Runnable flushTask;
+    private final long maxWindowNanos;
+    private final double windowRatio;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private final PortfolioMetrics.Timer windowTimer;
+    private volatile long windowNanos;
+    private long averageFlushNanos;
+
+    /**
+     * @param name the name of the flush thread and the prefix of its metrics
+     * @param flushTask the task sending whatever work is pending
+     * @param maxWindowMillis the widest window
+     * @param windowRatio the window as a multiple of the average flush time
+     */
+    public AdaptiveFlusher(final String name, Runnable flushTask, long maxWindowMillis, double windowRatio,
+                           PortfolioMetrics metrics) {
+        this.name = name;
+        this.flushTask = flushTask;
+        this.maxWindowNanos = TimeUnit.MILLISECONDS.toNanos(maxWindowMillis);
+        this.windowRatio = windowRatio;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.windowTimer = metrics.timer(name + ".window");
+        metrics.gauge(name + ".window.micros", new PortfolioMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return TimeUnit.NANOSECONDS.toMicros(windowNanos);
+            }
+        });
+    }
+
+    public long getWindowNanos() {
+        return this.windowNanos;
+    }
+
+    /**
+     * Note that work is pending, scheduling a flush unless one is already.
+     */
+    public void signal() {
+        if (this.scheduled.compareAndSet(false, true)) {
+            long window = this.windowNanos;
+            this.windowTimer.record(window);
+            try {
+                this.executor.schedule(this.flush, window, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException ex) {
+                this.scheduled.set(false);
+            }
+        }
+    }
+
+    private void flush() {
+        // Cleared first, so work signalled during the flush gets another one
+        this.scheduled.set(false);
+        long start = System.nanoTime();
+        try {
+            this.flushTask.run();
+        } catch (Throwable ex) {
+            logger.error("Flush of " + this.name + " failed", ex);
+        }
+        long elapsed = System.nanoTime() - start;
+        this.averageFlushNanos += (elapsed - this.averageFlushNanos) / SMOOTHING;
+        this.windowNanos = Math.min(this.maxWindowNanos, (long) (this.averageFlushNanos * this.windowRatio));
+    }
+
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+}
@@ -2,37 +2,161 @@ package com.phuongheh.samples.portfolio.service;
 
 import com.phuongheh.samples.portfolio.Portfolio;
 import com.phuongheh.samples.portfolio.PortfolioPosition;
+import com.phuongheh.samples.portfolio.PositionListener;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * Portfolio store sharded by username.
+ *
+ * <p>Each shard is an independent {@link ConcurrentHashMap}, so lookups from
+ * the inbound channel threads never contend on a shared lock, while trades on
+ * a given portfolio are made atomic by {@link Portfolio} itself.
+ *
+ * <p>A {@link TickerHolderIndex} tracks which users hold each ticker, so
+ * ticker-driven work can go straight to the holders. Other components follow
+ * the positions of every portfolio through a {@link PortfolioListener}.
+ */
 @Service
 public class PortfolioServiceImpl implements PortfolioService {
-    private final Map<String, Portfolio> portfolioLookup = new HashMap<>();
+    private static final int DEFAULT_SHARD_COUNT = 16;
+
+    private final ConcurrentMap<String, Portfolio>[] shards;
+    private final TickerHolderIndex holderIndex = new TickerHolderIndex();
+    private final List<PortfolioListener> portfolioListeners = new CopyOnWriteArrayList<>();
 
     public PortfolioServiceImpl() {
+        this(DEFAULT_SHARD_COUNT);
+        initPortfolios();
+    }
+
+    @SuppressWarnings("unchecked")
+    public PortfolioServiceImpl(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be greater than 0: " + shardCount);
+        }
+        this.shards = new ConcurrentMap[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            this.shards[i] = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * Pick a shard from the high bits of the scrambled hash. Each shard's map
+     * picks its bucket from the low bits of the hash, so picking the shard
+     * from those too would leave every key of a shard in the same fraction
+     * of its buckets.
+     */
+    public static int shardIndex(String username, int shardCount) {
+        int hash = username.hashCode() * 0x9E3779B9;
+        return (hash >>> 16) % shardCount;
+    }
+
+    private void initPortfolios() {
         Portfolio portfolio = new Portfolio();
         portfolio.addPosition(new PortfolioPosition("Citrix Systems, Inc", "CTXS", 24.30, 75));
         portfolio.addPosition(new PortfolioPosition("Dell Inc.", "DELL", 13.44, 50));
         portfolio.addPosition(new PortfolioPosition("Microsoft", "MSFT", 34.15, 33));
         portfolio.addPosition(new PortfolioPosition("Oracle", "ORCL", 31.22, 45));
-        this.portfolioLookup.put("fabrice", portfolio);
+        addPortfolio("fabrice", portfolio);
 
         portfolio = new Portfolio();
         portfolio.addPosition(new PortfolioPosition("EMC Corporation", "EMC", 24.30, 75));
         portfolio.addPosition(new PortfolioPosition("Google Inc", "GOOG", 905.09, 5));
         portfolio.addPosition(new PortfolioPosition("VMWare, Inc.", "VMW", 65.58, 23));
         portfolio.addPosition(new PortfolioPosition("Red Hat", "RHT", 48.30, 15));
-        this.portfolioLookup.put("paulson", portfolio);
+        addPortfolio("paulson", portfolio);
+    }
+
+    public int getShardCount() {
+        return this.shards.length;
+    }
+
+    /**
+     * Return a read-only, live view of the portfolios in one shard.
+     */
+    public Map<String, Portfolio> getShard(int index) {
+        return Collections.unmodifiableMap(this.shards[index]);
+    }
+
+    public TickerHolderIndex getHolderIndex() {
+        return this.holderIndex;
+    }
+
+    public List<String> findHolders(String ticker) {
+        return this.holderIndex.findHolders(ticker);
+    }
+
+    /**
+     * Notify the listener of every portfolio held so far, and of every one
+     * added from now on.
+     */
+    public synchronized void addPortfolioListener(PortfolioListener listener) {
+        this.portfolioListeners.add(listener);
+        for (ConcurrentMap<String, Portfolio> shard : this.shards) {
+            for (Map.Entry<String, Portfolio> entry : shard.entrySet()) {
+                Portfolio portfolio = entry.getValue();
+                portfolio.setPositionListener(compose(portfolio.getPositionListener(),
+                        listener.onPortfolioAdded(entry.getKey(), portfolio)));
+            }
+        }
+    }
+
+    public synchronized void addPortfolio(String username, Portfolio portfolio) {
+        Portfolio previous = shardFor(username).put(username, portfolio);
+        if (previous != null && previous != portfolio) {
+            previous.setPositionListener(null);
+            this.holderIndex.remove(username, previous);
+        }
+        PositionListener positionListener = this.holderIndex.index(username, portfolio);
+        for (PortfolioListener listener : this.portfolioListeners) {
+            positionListener = compose(positionListener, listener.onPortfolioAdded(username, portfolio));
+        }
+        portfolio.setPositionListener(positionListener);
+    }
+
+    private static PositionListener compose(final PositionListener first, final PositionListener second) {
+        if (first == null || second == null) {
+            return (first != null) ? first : second;
+        }
+        return new PositionListener() {
+            @Override
+            public void onPositionChange(String ticker, int previousShares, int shares) {
+                first.onPositionChange(ticker, previousShares, shares);
+                second.onPositionChange(ticker, previousShares, shares);
+            }
+        };
     }
 
     @Override
     public Portfolio findPortfolio(String username) {
-        Portfolio portfolio = this.portfolioLookup.get(username);
+        Portfolio portfolio = shardFor(username).get(username);
         if (portfolio == null) {
             throw new IllegalArgumentException(username);
         }
         return portfolio;
     }
+
+    private ConcurrentMap<String, Portfolio> shardFor(String username) {
+        return this.shards[shardIndex(username, this.shards.length)];
+    }
+
+    /**
+     * Callback for portfolios added to the service, including one replacing
+     * the portfolio of the same user.
+     */
+    public interface PortfolioListener {
+
+        /**
+         * @return the listener to notify of the portfolio's position
+         * changes, or {@code null}
+         */
+        PositionListener onPortfolioAdded(String username, Portfolio portfolio);
+    }
 }
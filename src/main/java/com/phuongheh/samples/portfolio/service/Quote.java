@@ -5,10 +5,16 @@ import java.math.BigDecimal;
 public class Quote {
     private String ticker;
     private BigDecimal price;
+    private long timestamp;
 
     public Quote(String ticker, BigDecimal price) {
+        this(ticker, price, System.currentTimeMillis());
+    }
+
+    public Quote(String ticker, BigDecimal price, long timestamp) {
         this.ticker = ticker;
         this.price = price;
+        this.timestamp = timestamp;
     }
 
     public Quote() {
@@ -30,11 +36,20 @@ public class Quote {
         this.price = price;
     }
 
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
     @Override
     public String toString() {
         return "Quote{" +
                 "ticker='" + ticker + '\'' +
                 ", price=" + price +
+                ", timestamp=" + timestamp +
                 '}';
     }
 }
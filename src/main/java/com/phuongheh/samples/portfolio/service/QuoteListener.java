@@ -0,0 +1,15 @@
+package com.phuongheh.samples.portfolio.service;
+
+/**
+ * Callback for every generated quote, invoked by {@link QuoteService} on the
+ * thread generating quotes, one round of quotes at a time.
+ */
+public interface QuoteListener {
+
+    void onQuote(String ticker, long scaledPrice, long timestamp);
+
+    /**
+     * Called after the last quote of a round.
+     */
+    void onEndOfBatch();
+}
@@ -0,0 +1,275 @@
+package com.phuongheh.samples.portfolio.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.core.MessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.MimeType;
+import org.springframework.util.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Coalesces quotes per ticker and broadcasts them in batches.
+ *
+ * <p>A quote published for a ticker replaces any still pending for it, so
+ * each flush sends only the latest price. Pending prices are kept as scaled
+ * longs in slots indexed by ticker id, so publishing allocates nothing and
+ * a {@link Quote} is only created for each ticker a flush sends. A flush
+ * follows each new quote after an {@link AdaptiveFlusher adaptive} window,
+ * which is close to zero when quotes are few and widens up to
+ * {@code portfolio.quotes.max-window} as flushes get busier. Every quote
+ * is serialized once and the same bytes are used both for its
+ * {@code /topic/price.stock.<TICKER>} frame and, when a snapshot destination
+ * is configured, for the single multi-ticker snapshot frame.
+ *
+ * <p>When binary quotes are enabled and there are binary subscriptions,
+ * each quote is also encoded once as Smile and sent to
+ * {@code /topic/binary/price.stock.<TICKER>} with an
+ * {@code application/octet-stream} content type, which makes the STOMP
+ * handler deliver it in a binary WebSocket frame. Without binary
+ * subscribers no Smile is encoded or sent.
+ */
+@Service
+public class QuotePublisher implements DisposableBean {
+    private static final Log logger = LogFactory.getLog(QuotePublisher.class);
+    public static final String DESTINATION_PREFIX = "/topic/price.stock.";
+    public static final String BINARY_DESTINATION_PREFIX = "/topic/binary/price.stock.";
+
+    private final MessageSendingOperations<String> messageTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+    private final ConcurrentMap<String, Integer> tickerIds = new ConcurrentHashMap<>();
+    private volatile PendingQuotes pendingQuotes = new PendingQuotes(16);
+    private String snapshotDestination;
+    private boolean binaryEnabled = true;
+    private final AtomicInteger binarySubscriptions = new AtomicInteger();
+    private final PortfolioMetrics.Timer flushTimer;
+    private final PortfolioMetrics.Counter sentQuotes;
+    private final AdaptiveFlusher flusher;
+
+    public QuotePublisher(MessageSendingOperations<String> messageTemplate) {
+        this(messageTemplate, new PortfolioMetrics(), 250, 1);
+    }
+
+    @Autowired
+    public QuotePublisher(MessageSendingOperations<String> messageTemplate, PortfolioMetrics metrics,
+                          @Value("${portfolio.quotes.max-window:250}") long maxWindow,
+                          @Value("${portfolio.quotes.window-ratio:1}") double windowRatio) {
+        this.messageTemplate = messageTemplate;
+        this.flusher = new AdaptiveFlusher("quotes", new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, maxWindow, windowRatio, metrics);
+        this.flushTimer = metrics.timer("quotes.flush");
+        this.sentQuotes = metrics.counter("quotes.sent");
+        metrics.gauge("quotes.pending", new PortfolioMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return pendingQuotes.getPendingCount();
+            }
+        });
+    }
+
+    @Value("${portfolio.quotes.snapshot-destination:}")
+    public void setSnapshotDestination(String snapshotDestination) {
+        this.snapshotDestination = StringUtils.hasText(snapshotDestination) ? snapshotDestination : null;
+    }
+
+    @Value("${portfolio.quotes.binary-enabled:true}")
+    public void setBinaryEnabled(boolean binaryEnabled) {
+        this.binaryEnabled = binaryEnabled;
+    }
+
+    /**
+     * Count binary quote subscriptions added (positive) or removed (negative).
+     */
+    public void addBinarySubscriptions(int delta) {
+        this.binarySubscriptions.addAndGet(delta);
+    }
+
+    public void publish(Quote quote) {
+        publish(quote.getTicker(), StockQuoteGenerator.toScaledPrice(quote.getPrice()), quote.getTimestamp());
+    }
+
+    /**
+     * Publish a price scaled by {@link StockQuoteGenerator#PRICE_SCALE}.
+     */
+    public void publish(String ticker, long scaledPrice, long timestamp) {
+        int tickerId = tickerId(ticker);
+        PendingQuotes quotes;
+        do {
+            quotes = this.pendingQuotes;
+            quotes.set(tickerId, scaledPrice, timestamp);
+        } while (quotes != this.pendingQuotes);
+        this.flusher.signal();
+    }
+
+    private int tickerId(String ticker) {
+        Integer tickerId = this.tickerIds.get(ticker);
+        return (tickerId != null) ? tickerId : addTicker(ticker);
+    }
+
+    private synchronized int addTicker(String ticker) {
+        Integer tickerId = this.tickerIds.get(ticker);
+        if (tickerId != null) {
+            return tickerId;
+        }
+        int id = this.tickerIds.size();
+        PendingQuotes quotes = this.pendingQuotes;
+        if (id == quotes.tickers.length) {
+            quotes = new PendingQuotes(quotes, id * 2);
+            quotes.tickers[id] = ticker;
+            this.pendingQuotes = quotes;
+        } else {
+            quotes.tickers[id] = ticker;
+        }
+        this.tickerIds.put(ticker, id);
+        return id;
+    }
+
+    public long getWindowNanos() {
+        return this.flusher.getWindowNanos();
+    }
+
+    /**
+     * Send the pending quotes now; normally called by the flusher.
+     */
+    public void flush() {
+        PendingQuotes quotes = this.pendingQuotes;
+        long start = System.nanoTime();
+        ByteArrayOutputStream snapshot = null;
+        boolean binary = (this.binaryEnabled && this.binarySubscriptions.get() > 0);
+        int count = 0;
+        for (int tickerId = 0; tickerId < quotes.tickers.length; tickerId++) {
+            Quote quote = quotes.take(tickerId);
+            if (quote == null) {
+                continue;
+            }
+            if (snapshot == null && this.snapshotDestination != null) {
+                snapshot = new ByteArrayOutputStream();
+            }
+            byte[] payload;
+            try {
+                payload = this.objectMapper.writeValueAsBytes(quote);
+            } catch (JsonProcessingException ex) {
+                logger.error("Failed to serialize " + quote, ex);
+                continue;
+            }
+            if (logger.isTraceEnabled()) {
+                logger.trace("Sending quote " + quote);
+            }
+            this.messageTemplate.send(DESTINATION_PREFIX + quote.getTicker(), createMessage(payload, MimeTypeUtils.APPLICATION_JSON));
+            if (binary) {
+                sendBinary(quote);
+            }
+            if (snapshot != null) {
+                snapshot.write(count == 0 ? '[' : ',');
+                snapshot.write(payload, 0, payload.length);
+            }
+            count++;
+        }
+        if (snapshot != null && count > 0) {
+            snapshot.write(']');
+            this.messageTemplate.send(this.snapshotDestination, createMessage(snapshot.toByteArray(), MimeTypeUtils.APPLICATION_JSON));
+        }
+        if (count == 0) {
+            return;
+        }
+        this.sentQuotes.add(count);
+        this.flushTimer.recordSince(start);
+    }
+
+    @Override
+    public void destroy() {
+        this.flusher.shutdown();
+    }
+
+    private void sendBinary(Quote quote) {
+        byte[] payload;
+        try {
+            payload = this.smileMapper.writeValueAsBytes(quote);
+        } catch (JsonProcessingException ex) {
+            logger.error("Failed to encode " + quote + " as Smile", ex);
+            return;
+        }
+        this.messageTemplate.send(BINARY_DESTINATION_PREFIX + quote.getTicker(), createMessage(payload, MimeTypeUtils.APPLICATION_OCTET_STREAM));
+    }
+
+    /**
+     * The latest unsent price and timestamp of each ticker, by ticker id.
+     * A price is written before its pending flag is set and read after the
+     * flag is cleared, so a quote published during a flush is sent by the
+     * next one if not by this one.
+     */
+    private static final class PendingQuotes {
+        private final String[] tickers;
+        private final AtomicLongArray prices;
+        private final AtomicLongArray timestamps;
+        private final AtomicIntegerArray pending;
+
+        PendingQuotes(int capacity) {
+            this.tickers = new String[capacity];
+            this.prices = new AtomicLongArray(capacity);
+            this.timestamps = new AtomicLongArray(capacity);
+            this.pending = new AtomicIntegerArray(capacity);
+        }
+
+        PendingQuotes(PendingQuotes quotes, int capacity) {
+            this(capacity);
+            for (int i = 0; i < quotes.tickers.length; i++) {
+                this.tickers[i] = quotes.tickers[i];
+                this.prices.set(i, quotes.prices.get(i));
+                this.timestamps.set(i, quotes.timestamps.get(i));
+                this.pending.set(i, quotes.pending.get(i));
+            }
+        }
+
+        void set(int tickerId, long price, long timestamp) {
+            this.prices.set(tickerId, price);
+            this.timestamps.set(tickerId, timestamp);
+            this.pending.set(tickerId, 1);
+        }
+
+        Quote take(int tickerId) {
+            if (this.pending.get(tickerId) == 0 || !this.pending.compareAndSet(tickerId, 1, 0)) {
+                return null;
+            }
+            return new Quote(this.tickers[tickerId], StockQuoteGenerator.toBigDecimal(this.prices.get(tickerId)),
+                    this.timestamps.get(tickerId));
+        }
+
+        int getPendingCount() {
+            int count = 0;
+            for (int i = 0; i < this.tickers.length; i++) {
+                count += this.pending.get(i);
+            }
+            return count;
+        }
+    }
+
+    private static Message<byte[]> createMessage(byte[] payload, MimeType contentType) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create();
+        headers.setContentType(contentType);
+        headers.setLeaveMutable(true);
+        return MessageBuilder.createMessage(payload, headers.getMessageHeaders());
+    }
+}
@@ -1,33 +1,71 @@
 package com.phuongheh.samples.portfolio.service;
 
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationListener;
-import org.springframework.messaging.core.MessageSendingOperations;
 import org.springframework.messaging.simp.broker.BrokerAvailabilityEvent;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 
-import java.math.BigDecimal;
-import java.math.MathContext;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Random;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Polls the {@link QuoteSource} and publishes its quotes while the broker is
+ * available. The source generates random prices every
+ * {@code portfolio.quotes.random.interval} millis unless
+ * {@code portfolio.quotes.replay.file} names a tick file to replay.
+ */
 @Service
 public class QuoteService implements ApplicationListener<BrokerAvailabilityEvent> {
     private static Log logger = LogFactory.getLog(QuoteService.class);
-    private final MessageSendingOperations<String> messageTemplate;
-    private final StockQuoteGenerator quoteGenerator = new StockQuoteGenerator();
+    private final QuotePublisher quotePublisher;
+    private final QuoteSource quoteSource;
+    private final StockQuoteGenerator.QuoteHandler quoteHandler = new PublishingQuoteHandler();
     private AtomicBoolean brokerAvailable = new AtomicBoolean();
+    private final PortfolioMetrics.Timer generateTimer;
+    private final PortfolioMetrics.Counter generatedQuotes;
+    private List<QuoteListener> quoteListeners = Collections.emptyList();
+
+    public QuoteService(QuotePublisher quotePublisher, PortfolioMetrics metrics) {
+        this(quotePublisher, metrics, createRandomSource(2000));
+    }
 
     @Autowired
-    public QuoteService(MessageSendingOperations<String> messagingTemplate) {
-        this.messageTemplate = messagingTemplate;
+    public QuoteService(QuotePublisher quotePublisher, PortfolioMetrics metrics,
+                        @Value("${portfolio.quotes.random.interval:2000}") long randomInterval,
+                        @Value("${portfolio.quotes.replay.file:}") String replayFile,
+                        @Value("${portfolio.quotes.replay.speed:1}") double replaySpeed,
+                        @Value("${portfolio.quotes.replay.loop:false}") boolean replayLoop,
+                        @Value("${portfolio.quotes.replay.max-batch:10000}") int replayMaxBatch) throws IOException {
+        this(quotePublisher, metrics, StringUtils.hasText(replayFile) ?
+                new ReplayQuoteSource(new File(replayFile), replaySpeed, replayLoop, replayMaxBatch) :
+                createRandomSource(randomInterval));
+    }
+
+    public QuoteService(QuotePublisher quotePublisher, PortfolioMetrics metrics, QuoteSource quoteSource) {
+        this.quotePublisher = quotePublisher;
+        this.quoteSource = quoteSource;
+        this.generateTimer = metrics.timer("quotes.generate");
+        this.generatedQuotes = metrics.counter("quotes.generated");
+    }
+
+    private static StockQuoteGenerator createRandomSource(long interval) {
+        StockQuoteGenerator generator = new StockQuoteGenerator();
+        generator.setInterval(interval);
+        return generator;
+    }
+
+    @Autowired(required = false)
+    public void setQuoteListeners(List<QuoteListener> quoteListeners) {
+        this.quoteListeners = quoteListeners;
     }
 
     @Override
@@ -35,48 +73,33 @@ public class QuoteService implements ApplicationListener<BrokerAvailabilityEvent
         this.brokerAvailable.set(event.isBrokerAvailable());
     }
 
-    @Scheduled(fixedDelay = 2000)
+    @Scheduled(fixedDelayString = "${portfolio.quotes.poll-interval:10}")
     public void sendQuotes() {
-        for (Quote quote : this.quoteGenerator.generateQuotes()) {
-            if (logger.isTraceEnabled()) {
-                logger.trace("Sending quotes " + quote);
-            }
-            if (this.brokerAvailable.get()) {
-                this.messageTemplate.convertAndSend("/topic/price.stock." + quote.getTicker(), quote);
-            }
+        if (!this.brokerAvailable.get()) {
+            return;
         }
-    }
-
-    private static class StockQuoteGenerator {
-        private static final MathContext mathContext = new MathContext(2);
-        private final Random random = new Random();
-        private final Map<String, String> prices = new ConcurrentHashMap<>();
-
-        public StockQuoteGenerator() {
-            this.prices.put("CTXS", "24.30");
-            this.prices.put("DELL", "13.03");
-            this.prices.put("EMC", "24.13");
-            this.prices.put("GOOG", "893.49");
-            this.prices.put("MSFT", "34.21");
-            this.prices.put("ORCL", "34.22");
-            this.prices.put("RHT", "48.30");
-            this.prices.put("VMW", "66.98");
+        long start = System.nanoTime();
+        int count = this.quoteSource.poll(this.quoteHandler);
+        if (count == 0) {
+            return;
         }
-
-        public Set<Quote> generateQuotes() {
-            Set<Quote> quotes = new HashSet<>();
-            for (String ticker : this.prices.keySet()) {
-                BigDecimal price = getPrice(ticker);
-                quotes.add(new Quote(ticker, price));
-            }
-            return quotes;
+        for (QuoteListener listener : this.quoteListeners) {
+            listener.onEndOfBatch();
         }
+        this.generateTimer.recordSince(start);
+        this.generatedQuotes.add(count);
+    }
 
-        private BigDecimal getPrice(String ticker) {
-            BigDecimal seedPrice = new BigDecimal(this.prices.get(ticker), mathContext);
-            double range = seedPrice.multiply(new BigDecimal(0.02)).doubleValue();
-            BigDecimal priceChange = new BigDecimal(String.valueOf(this.random.nextDouble() * range), mathContext);
-            return seedPrice.add(priceChange);
+    private class PublishingQuoteHandler implements StockQuoteGenerator.QuoteHandler {
+        @Override
+        public void handleQuote(StockQuoteGenerator.QuoteView quote) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("Publishing quote " + quote);
+            }
+            quotePublisher.publish(quote.getTicker(), quote.getScaledPrice(), quote.getTimestamp());
+            for (QuoteListener listener : quoteListeners) {
+                listener.onQuote(quote.getTicker(), quote.getScaledPrice(), quote.getTimestamp());
+            }
         }
     }
 }
@@ -0,0 +1,15 @@
+package com.phuongheh.samples.portfolio.service;
+
+/**
+ * Where {@link QuoteService} gets its quotes from. It polls the source on a
+ * fixed delay, from one thread at a time, and the source hands over the
+ * quotes that have become due since the last poll.
+ */
+public interface QuoteSource {
+
+    /**
+     * Pass the quotes due now to the handler.
+     * @return the number of quotes handled, 0 if none were due
+     */
+    int poll(StockQuoteGenerator.QuoteHandler handler);
+}
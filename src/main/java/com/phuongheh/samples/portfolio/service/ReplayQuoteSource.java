@@ -0,0 +1,140 @@
+package com.phuongheh.samples.portfolio.service;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a tick file recorded by {@link TickFileWriter}.
+ *
+ * <p>The file is memory-mapped and its records are read in place, so the
+ * operating system pages it in as the replay advances and nothing is
+ * allocated per tick. Ticks keep their recorded spacing scaled by the speed:
+ * 1 replays in real time, 10 ten times faster, and 0 as fast as the poll
+ * loop can take them. Each poll hands over at most {@code maxBatch} ticks,
+ * so a replay that falls behind catches up over the following polls instead
+ * of in one long one. Quotes carry the time they are replayed at.
+ *
+ * <p>Files up to 2 GB, about 200 million ticks, can be mapped.
+ */
+public class ReplayQuoteSource implements QuoteSource {
+    private static final Log logger = LogFactory.getLog(ReplayQuoteSource.class);
+
+    private final File file;
+    private final ByteBuffer records;
+    private final String[] tickers;
+    private final double speed;
+    private final boolean loop;
+    private final int maxBatch;
+    private final StockQuoteGenerator.QuoteView view = new StockQuoteGenerator.QuoteView();
+    private long startNanos = -1;
+    private long tickMicros;
+    private long replayedCount;
+
+    /**
+     * @param file the tick file
+     * @param speed how many times faster than recorded to replay, 0 for as fast as possible
+     * @param loop whether to start over at the end of the file
+     * @param maxBatch the most ticks to hand over per poll
+     */
+    public ReplayQuoteSource(File file, double speed, boolean loop, int maxBatch) throws IOException {
+        if (speed < 0 || maxBatch < 1) {
+            throw new IllegalArgumentException("Expected speed >= 0 and maxBatch >= 1");
+        }
+        this.file = file;
+        this.speed = speed;
+        this.loop = loop;
+        this.maxBatch = maxBatch;
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Tick file " + file + " is larger than 2 GB");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != TickFileWriter.MAGIC || buffer.getInt() != TickFileWriter.VERSION) {
+                throw new IOException("Not a version " + TickFileWriter.VERSION + " tick file: " + file);
+            }
+            buffer.getLong();
+            this.tickers = new String[buffer.getInt()];
+            for (int i = 0; i < this.tickers.length; i++) {
+                byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(bytes);
+                this.tickers[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException ex) {
+            throw new IOException("Truncated tick file header: " + file);
+        }
+        this.records = buffer.slice();
+        logger.info("Replaying " + getTickCount() + " ticks of " + this.tickers.length + " tickers from " + file +
+                ((speed > 0) ? " at " + speed + "x speed" : " as fast as possible"));
+    }
+
+    public int getTickerCount() {
+        return this.tickers.length;
+    }
+
+    public long getTickCount() {
+        return this.records.limit() / TickFileWriter.RECORD_SIZE;
+    }
+
+    public long getReplayedCount() {
+        return this.replayedCount;
+    }
+
+    /**
+     * Whether the whole file has been replayed; never the case when looping.
+     */
+    public boolean isFinished() {
+        return !this.loop && this.records.remaining() < TickFileWriter.RECORD_SIZE;
+    }
+
+    @Override
+    public int poll(StockQuoteGenerator.QuoteHandler handler) {
+        long now = System.nanoTime();
+        if (this.startNanos == -1) {
+            this.startNanos = now;
+        }
+        long dueMicros = (this.speed > 0) ?
+                (long) (TimeUnit.NANOSECONDS.toMicros(now - this.startNanos) * this.speed) : Long.MAX_VALUE;
+        long timestamp = System.currentTimeMillis();
+        ByteBuffer records = this.records;
+        int count = 0;
+        while (count < this.maxBatch) {
+            if (records.remaining() < TickFileWriter.RECORD_SIZE) {
+                if (!this.loop || records.position() == 0) {
+                    break;
+                }
+                records.rewind();
+                this.startNanos = now;
+                this.tickMicros = 0;
+                dueMicros = (this.speed > 0) ? 0 : Long.MAX_VALUE;
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Starting over " + this.file);
+                }
+            }
+            int position = records.position();
+            long tickMicros = this.tickMicros + records.getInt(position);
+            if (tickMicros > dueMicros) {
+                break;
+            }
+            int tickerId = records.getShort(position + 4) & 0xFFFF;
+            long price = records.getInt(position + 6);
+            records.position(position + TickFileWriter.RECORD_SIZE);
+            this.tickMicros = tickMicros;
+            handler.handleQuote(this.view.set(tickerId, this.tickers[tickerId], price, timestamp));
+            count++;
+        }
+        this.replayedCount += count;
+        return count;
+    }
+}
@@ -0,0 +1,157 @@
+package com.phuongheh.samples.portfolio.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulated price engine that keeps every price as a long scaled by
+ * {@link #PRICE_SCALE} in primitive arrays indexed by ticker id.
+ *
+ * <p>Generating a tick allocates nothing: prices are drawn from the calling
+ * thread's {@link ThreadLocalRandom} and handed to the {@link QuoteHandler}
+ * through a single reusable {@link QuoteView}. Handlers must copy whatever
+ * they need to keep beyond the callback. An instance is meant to be driven
+ * by one thread at a time.
+ *
+ * <p>As a {@link QuoteSource} it generates a round of quotes for all tickers
+ * when polled at least {@link #setInterval interval} millis after the last.
+ */
+public class StockQuoteGenerator implements QuoteSource {
+    public static final int PRICE_SCALE = 2;
+    private static final long PRICE_FACTOR = 100;
+
+    private final String[] tickers;
+    private final long[] seedPrices;
+    private final long[] priceRanges;
+    private final long[] prices;
+    private final QuoteView view = new QuoteView();
+    private long intervalNanos;
+    private long lastRoundNanos;
+    private boolean generated;
+
+    public StockQuoteGenerator() {
+        this(new String[]{"CTXS", "DELL", "EMC", "GOOG", "MSFT", "ORCL", "RHT", "VMW"},
+                new long[]{2430, 1303, 2413, 89349, 3421, 3422, 4830, 6698});
+    }
+
+    public StockQuoteGenerator(String[] tickers, long[] seedPrices) {
+        if (tickers.length != seedPrices.length) {
+            throw new IllegalArgumentException("Expected one seed price per ticker");
+        }
+        this.tickers = tickers.clone();
+        this.seedPrices = seedPrices.clone();
+        this.priceRanges = new long[seedPrices.length];
+        this.prices = seedPrices.clone();
+        for (int i = 0; i < seedPrices.length; i++) {
+            this.priceRanges[i] = seedPrices[i] / 50;
+        }
+    }
+
+    /**
+     * Set the minimum time between two rounds of quotes when polled.
+     */
+    public void setInterval(long intervalMillis) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    public int getTickerCount() {
+        return this.tickers.length;
+    }
+
+    public String getTicker(int tickerId) {
+        return this.tickers[tickerId];
+    }
+
+    public long getPrice(int tickerId) {
+        return this.prices[tickerId];
+    }
+
+    public void generateQuotes(QuoteHandler handler) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        QuoteView view = this.view;
+        view.timestamp = System.currentTimeMillis();
+        for (int i = 0; i < this.tickers.length; i++) {
+            long range = this.priceRanges[i];
+            long price = this.seedPrices[i] + ((range > 0) ? random.nextLong(range) : 0);
+            this.prices[i] = price;
+            view.tickerId = i;
+            view.ticker = this.tickers[i];
+            view.price = price;
+            handler.handleQuote(view);
+        }
+    }
+
+    @Override
+    public int poll(QuoteHandler handler) {
+        long now = System.nanoTime();
+        if (this.generated && now - this.lastRoundNanos < this.intervalNanos) {
+            return 0;
+        }
+        this.generated = true;
+        this.lastRoundNanos = now;
+        generateQuotes(handler);
+        return this.tickers.length;
+    }
+
+    public static BigDecimal toBigDecimal(long price) {
+        return BigDecimal.valueOf(price, PRICE_SCALE);
+    }
+
+    public static long toScaledPrice(double price) {
+        return Math.round(price * PRICE_FACTOR);
+    }
+
+    public static long toScaledPrice(BigDecimal price) {
+        return price.setScale(PRICE_SCALE, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+
+    public interface QuoteHandler {
+        void handleQuote(QuoteView quote);
+    }
+
+    public static final class QuoteView {
+        private int tickerId;
+        private String ticker;
+        private long price;
+        private long timestamp;
+
+        QuoteView set(int tickerId, String ticker, long price, long timestamp) {
+            this.tickerId = tickerId;
+            this.ticker = ticker;
+            this.price = price;
+            this.timestamp = timestamp;
+            return this;
+        }
+
+        public int getTickerId() {
+            return this.tickerId;
+        }
+
+        public String getTicker() {
+            return this.ticker;
+        }
+
+        public long getScaledPrice() {
+            return this.price;
+        }
+
+        public BigDecimal getPrice() {
+            return toBigDecimal(this.price);
+        }
+
+        public long getTimestamp() {
+            return this.timestamp;
+        }
+
+        public Quote toQuote() {
+            return new Quote(this.ticker, getPrice(), this.timestamp);
+        }
+
+        @Override
+        public String toString() {
+            return "QuoteView{ticker='" + this.ticker + "', price=" + getPrice() + '}';
+        }
+    }
+}
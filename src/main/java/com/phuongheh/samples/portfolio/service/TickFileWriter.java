@@ -0,0 +1,90 @@
+package com.phuongheh.samples.portfolio.service;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Records quotes in a tick file for {@link ReplayQuoteSource}.
+ *
+ * <p>A tick file starts with a header: the magic number {@code TICK}, the
+ * format version, the time of the recording's start in microseconds, the
+ * number of tickers and each ticker as a length-prefixed UTF-8 string. Then
+ * come fixed 10-byte records, one per tick: the microseconds since the
+ * previous tick (or the start), the ticker's index in the header as an
+ * unsigned short, and the price scaled by
+ * {@link StockQuoteGenerator#PRICE_SCALE} as an int. All numbers are big
+ * endian.
+ */
+public class TickFileWriter implements Closeable {
+    static final int MAGIC = 0x5449434B;
+    static final int VERSION = 1;
+    static final int RECORD_SIZE = 10;
+    static final int MAX_TICKERS = 0xFFFF + 1;
+
+    private final DataOutputStream output;
+    private final int tickerCount;
+    private long lastMicros;
+    private long count;
+
+    /**
+     * @param file the file to create or overwrite
+     * @param tickers the tickers, whose indexes {@link #write} takes
+     * @param startMicros the time of the recording's start in microseconds
+     */
+    public TickFileWriter(File file, String[] tickers, long startMicros) throws IOException {
+        if (tickers.length > MAX_TICKERS) {
+            throw new IllegalArgumentException("At most " + MAX_TICKERS + " tickers per file: " + tickers.length);
+        }
+        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        this.tickerCount = tickers.length;
+        this.lastMicros = startMicros;
+        this.output.writeInt(MAGIC);
+        this.output.writeInt(VERSION);
+        this.output.writeLong(startMicros);
+        this.output.writeInt(tickers.length);
+        for (String ticker : tickers) {
+            byte[] bytes = ticker.getBytes(StandardCharsets.UTF_8);
+            this.output.writeShort(bytes.length);
+            this.output.write(bytes);
+        }
+    }
+
+    /**
+     * Append a tick; ticks must be written in time order.
+     * @param tickerId the index of the ticker in the header
+     * @param scaledPrice the price scaled by {@link StockQuoteGenerator#PRICE_SCALE}
+     * @param timeMicros the time of the tick in microseconds
+     */
+    public void write(int tickerId, long scaledPrice, long timeMicros) throws IOException {
+        if (tickerId < 0 || tickerId >= this.tickerCount) {
+            throw new IllegalArgumentException("No ticker " + tickerId);
+        }
+        if (scaledPrice < 0 || scaledPrice > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Price out of range: " + scaledPrice);
+        }
+        long delta = timeMicros - this.lastMicros;
+        if (delta < 0 || delta > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Tick at " + timeMicros + " is " + delta +
+                    " micros after the previous one, expected 0 to " + Integer.MAX_VALUE);
+        }
+        this.output.writeInt((int) delta);
+        this.output.writeShort(tickerId);
+        this.output.writeInt((int) scaledPrice);
+        this.lastMicros = timeMicros;
+        this.count++;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.output.close();
+    }
+}
@@ -0,0 +1,232 @@
+package com.phuongheh.samples.portfolio.service;
+
+import com.phuongheh.samples.portfolio.Portfolio;
+import com.phuongheh.samples.portfolio.PortfolioPosition;
+import com.phuongheh.samples.portfolio.PositionListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Index from ticker to the users currently holding shares of it.
+ *
+ * <p>Usernames are interned to dense int ids, and the holders of a ticker are
+ * a bitmap of those ids, split into pages that are only allocated once an id
+ * in their range holds the ticker. Setting and clearing a bit is a
+ * compare-and-set on one word; only allocating a page or growing the page
+ * table takes a lock. Lookups read the bitmap without locking and skip
+ * empty pages and words.
+ *
+ * <p>Each indexed {@link Portfolio} reports positions that open or close
+ * through a {@link PositionListener}. Since concurrent trades may report out
+ * of order, the index re-reads the position after updating the bitmap and
+ * corrects it until the two agree, so the last change always wins.
+ */
+public class TickerHolderIndex {
+    private static final int PAGE_BITS = 4096;
+    private static final int PAGE_WORDS = PAGE_BITS / 64;
+
+    private final ConcurrentMap<String, Integer> userIds = new ConcurrentHashMap<>();
+    private final Object userIdLock = new Object();
+    private volatile String[] usernames = new String[PAGE_BITS];
+    private int nextUserId;
+    private final ConcurrentMap<String, HolderSet> holdersByTicker = new ConcurrentHashMap<>();
+
+    /**
+     * Return the id of the given user, assigning the next free one the first
+     * time a user is seen.
+     */
+    public int internUser(String username) {
+        Integer id = this.userIds.get(username);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this.userIdLock) {
+            id = this.userIds.get(username);
+            if (id == null) {
+                id = this.nextUserId++;
+                String[] names = this.usernames;
+                if (id >= names.length) {
+                    names = Arrays.copyOf(names, names.length * 2);
+                }
+                names[id] = username;
+                this.usernames = names;
+                this.userIds.put(username, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Start tracking the positions of a portfolio, returning the listener it
+     * must notify of position changes.
+     */
+    public PositionListener index(String username, final Portfolio portfolio) {
+        final int userId = internUser(username);
+        for (PortfolioPosition position : portfolio.getPositions()) {
+            update(position.getTicker(), userId, portfolio);
+        }
+        return new PositionListener() {
+            @Override
+            public void onPositionChange(String ticker, int previousShares, int shares) {
+                if ((previousShares > 0) != (shares > 0)) {
+                    update(ticker, userId, portfolio);
+                }
+            }
+        };
+    }
+
+    /**
+     * Stop tracking the positions of a portfolio, e.g. when it is replaced.
+     */
+    public void remove(String username, Portfolio portfolio) {
+        int userId = internUser(username);
+        for (PortfolioPosition position : portfolio.getPositions()) {
+            holdersFor(position.getTicker()).clear(userId);
+        }
+    }
+
+    public boolean isHolder(String ticker, String username) {
+        HolderSet holders = this.holdersByTicker.get(ticker);
+        Integer userId = this.userIds.get(username);
+        return (holders != null && userId != null && holders.contains(userId));
+    }
+
+    public int getHolderCount(String ticker) {
+        HolderSet holders = this.holdersByTicker.get(ticker);
+        return (holders != null) ? holders.count.get() : 0;
+    }
+
+    public List<String> findHolders(String ticker) {
+        HolderSet holders = this.holdersByTicker.get(ticker);
+        if (holders == null) {
+            return new ArrayList<>(0);
+        }
+        List<String> result = new ArrayList<>(holders.count.get());
+        String[] names = this.usernames;
+        AtomicLongArray[] pages = holders.pages;
+        for (int pageIndex = 0; pageIndex < pages.length; pageIndex++) {
+            AtomicLongArray page = pages[pageIndex];
+            if (page == null) {
+                continue;
+            }
+            for (int wordIndex = 0; wordIndex < PAGE_WORDS; wordIndex++) {
+                long word = page.get(wordIndex);
+                while (word != 0) {
+                    int bit = Long.numberOfTrailingZeros(word);
+                    int userId = pageIndex * PAGE_BITS + wordIndex * 64 + bit;
+                    if (userId >= names.length) {
+                        names = this.usernames;
+                    }
+                    result.add(names[userId]);
+                    word &= word - 1;
+                }
+            }
+        }
+        return result;
+    }
+
+    private void update(String ticker, int userId, Portfolio portfolio) {
+        HolderSet holders = holdersFor(ticker);
+        boolean holding;
+        do {
+            holding = isHolding(portfolio, ticker);
+            if (holding) {
+                holders.set(userId);
+            } else {
+                holders.clear(userId);
+            }
+        } while (holding != isHolding(portfolio, ticker));
+    }
+
+    private static boolean isHolding(Portfolio portfolio, String ticker) {
+        PortfolioPosition position = portfolio.getPortfolioPosition(ticker);
+        return (position != null && position.getShares() > 0);
+    }
+
+    private HolderSet holdersFor(String ticker) {
+        HolderSet holders = this.holdersByTicker.get(ticker);
+        if (holders == null) {
+            HolderSet newHolders = new HolderSet();
+            holders = this.holdersByTicker.putIfAbsent(ticker, newHolders);
+            if (holders == null) {
+                holders = newHolders;
+            }
+        }
+        return holders;
+    }
+
+    private static final class HolderSet {
+        private volatile AtomicLongArray[] pages = new AtomicLongArray[1];
+        private final AtomicInteger count = new AtomicInteger();
+
+        private boolean contains(int userId) {
+            AtomicLongArray[] pages = this.pages;
+            int pageIndex = userId / PAGE_BITS;
+            if (pageIndex >= pages.length || pages[pageIndex] == null) {
+                return false;
+            }
+            return (pages[pageIndex].get((userId % PAGE_BITS) >>> 6) & (1L << userId)) != 0;
+        }
+
+        private void set(int userId) {
+            AtomicLongArray page = page(userId / PAGE_BITS);
+            int wordIndex = (userId % PAGE_BITS) >>> 6;
+            long mask = 1L << userId;
+            while (true) {
+                long word = page.get(wordIndex);
+                if ((word & mask) != 0) {
+                    return;
+                }
+                if (page.compareAndSet(wordIndex, word, word | mask)) {
+                    this.count.incrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        private void clear(int userId) {
+            AtomicLongArray[] pages = this.pages;
+            int pageIndex = userId / PAGE_BITS;
+            if (pageIndex >= pages.length || pages[pageIndex] == null) {
+                return;
+            }
+            AtomicLongArray page = pages[pageIndex];
+            int wordIndex = (userId % PAGE_BITS) >>> 6;
+            long mask = 1L << userId;
+            while (true) {
+                long word = page.get(wordIndex);
+                if ((word & mask) == 0) {
+                    return;
+                }
+                if (page.compareAndSet(wordIndex, word, word & ~mask)) {
+                    this.count.decrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        private AtomicLongArray page(int pageIndex) {
+            AtomicLongArray[] pages = this.pages;
+            if (pageIndex < pages.length && pages[pageIndex] != null) {
+                return pages[pageIndex];
+            }
+            synchronized (this) {
+                pages = this.pages;
+                if (pageIndex >= pages.length) {
+                    pages = Arrays.copyOf(pages, Math.max(pages.length * 2, pageIndex + 1));
+                }
+                if (pages[pageIndex] == null) {
+                    pages[pageIndex] = new AtomicLongArray(PAGE_WORDS);
+                }
+                this.pages = pages;
+                return pages[pageIndex];
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.phuongheh.samples.portfolio.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timer wheel for items that become due at a given time.
+ *
+ * <p>{@link #schedule} is O(1) and may be called from any thread: items are
+ * queued and only moved into their bucket by the thread calling
+ * {@link #expire}, which must be a single thread at a time (e.g. a
+ * {@code @Scheduled} method). Each call to {@code expire} visits only the
+ * buckets for the ticks that elapsed since the previous call, so there is
+ * never a scan over all pending items. Deadlines are rounded up to the next
+ * tick so an item never fires before its deadline.
+ */
+public class TimerWheel<T> {
+    private final long tickMillis;
+    private final List<Entry<T>>[] buckets;
+    private final int mask;
+    private final Queue<Entry<T>> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private long lastTick = Long.MIN_VALUE;
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMillis, int minWheelSize) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("tickMillis must be greater than 0: " + tickMillis);
+        }
+        int wheelSize = Integer.highestOneBit(Math.max(minWheelSize, 1) - 1) << 1;
+        this.tickMillis = tickMillis;
+        this.buckets = new List[Math.max(wheelSize, 1)];
+        this.mask = this.buckets.length - 1;
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new ArrayList<>();
+        }
+    }
+
+    public long getTickMillis() {
+        return this.tickMillis;
+    }
+
+    public int getWheelSize() {
+        return this.buckets.length;
+    }
+
+    public int getPendingCount() {
+        return this.pendingCount.get();
+    }
+
+    public void schedule(T item, long deadlineMillis) {
+        long deadlineTick = (deadlineMillis + this.tickMillis - 1) / this.tickMillis;
+        this.incoming.offer(new Entry<>(item, deadlineTick));
+        this.pendingCount.incrementAndGet();
+    }
+
+    public int expire(long nowMillis, Collection<? super T> expired) {
+        long nowTick = nowMillis / this.tickMillis;
+        int count = transferIncoming(nowTick, expired);
+        if (this.lastTick == Long.MIN_VALUE) {
+            this.lastTick = nowTick - 1;
+        }
+        long fromTick = Math.max(this.lastTick + 1, nowTick - this.mask);
+        for (long tick = fromTick; tick <= nowTick; tick++) {
+            count += expireBucket(this.buckets[(int) (tick & this.mask)], nowTick, expired);
+        }
+        if (nowTick > this.lastTick) {
+            this.lastTick = nowTick;
+        }
+        this.pendingCount.addAndGet(-count);
+        return count;
+    }
+
+    private int transferIncoming(long nowTick, Collection<? super T> expired) {
+        int count = 0;
+        Entry<T> entry;
+        while ((entry = this.incoming.poll()) != null) {
+            if (entry.deadlineTick <= nowTick) {
+                expired.add(entry.item);
+                count++;
+            } else {
+                this.buckets[(int) (entry.deadlineTick & this.mask)].add(entry);
+            }
+        }
+        return count;
+    }
+
+    private int expireBucket(List<Entry<T>> bucket, long nowTick, Collection<? super T> expired) {
+        int count = 0;
+        int retained = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            Entry<T> entry = bucket.get(i);
+            if (entry.deadlineTick <= nowTick) {
+                expired.add(entry.item);
+                count++;
+            } else {
+                bucket.set(retained++, entry);
+            }
+        }
+        for (int i = bucket.size() - 1; i >= retained; i--) {
+            bucket.remove(i);
+        }
+        return count;
+    }
+
+    private static final class Entry<T> {
+        private final T item;
+        private final long deadlineTick;
+
+        private Entry(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.phuongheh.samples.portfolio.service;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring of trades with many publishers and a single writer thread, in
+ * the style of the LMAX Disruptor.
+ *
+ * <p>Slots are allocated up front. A publisher claims the next sequence with
+ * one atomic increment, fills the slot and marks it published, so publishers
+ * never lock and never wait on each other. The writer hands every published
+ * trade to the {@link Handler} in sequence order, in batches of whatever has
+ * been published since it last looked, flagging the last trade of each batch
+ * so the handler can flush its results once per batch.
+ *
+ * <p>When the ring is full a publisher waits for the writer to free a slot.
+ * When the ring is empty the writer spins briefly and then parks until the
+ * next publish wakes it up.
+ */
+public class TradeRingBuffer {
+    private static final Log logger = LogFactory.getLog(TradeRingBuffer.class);
+    private static final int SPIN_TRIES = 100;
+
+    private final Event[] events;
+    private final AtomicLongArray published;
+    private final int mask;
+    private final Handler handler;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final AtomicLong consumed = new AtomicLong(-1);
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile boolean writerParked;
+
+    public TradeRingBuffer(int size, Handler handler, String threadName) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of 2: " + size);
+        }
+        this.events = new Event[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.events[i] = new Event();
+            this.published.set(i, -1);
+        }
+        this.mask = size - 1;
+        this.handler = handler;
+        this.writer = new Thread(new Writer(), threadName);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public int getSize() {
+        return this.events.length;
+    }
+
+    /**
+     * Return the number of trades published but not yet handled.
+     */
+    public long getPendingCount() {
+        return Math.max(this.claimed.get() - this.consumed.get(), 0);
+    }
+
+    public void publish(Trade trade) {
+        long sequence = this.claimed.incrementAndGet();
+        long wrapPoint = sequence - this.events.length;
+        while (wrapPoint >= this.consumed.get()) {
+            if (!this.running) {
+                throw new IllegalStateException("Trade ring has been shut down");
+            }
+            LockSupport.parkNanos(1000);
+        }
+        int index = (int) (sequence & this.mask);
+        Event event = this.events[index];
+        event.trade = trade;
+        event.publishNanos = System.nanoTime();
+        this.published.set(index, sequence);
+        if (this.writerParked) {
+            LockSupport.unpark(this.writer);
+        }
+    }
+
+    /**
+     * Handle the trades already published, then stop the writer thread.
+     */
+    public void shutdown() throws InterruptedException {
+        this.running = false;
+        LockSupport.unpark(this.writer);
+        this.writer.join();
+    }
+
+    private boolean isPublished(long sequence) {
+        return this.published.get((int) (sequence & this.mask)) == sequence;
+    }
+
+    public interface Handler {
+        void onTrade(Trade trade, long publishNanos, boolean endOfBatch);
+    }
+
+    private static final class Event {
+        private Trade trade;
+        private long publishNanos;
+    }
+
+    private class Writer implements Runnable {
+        @Override
+        public void run() {
+            long next = 0;
+            int idle = 0;
+            while (running || isPublished(next)) {
+                if (!isPublished(next)) {
+                    if (++idle < SPIN_TRIES) {
+                        Thread.yield();
+                    } else {
+                        park(next);
+                        idle = 0;
+                    }
+                    continue;
+                }
+                idle = 0;
+                long last = next;
+                while (last - next < mask && isPublished(last + 1)) {
+                    last++;
+                }
+                for (long sequence = next; sequence <= last; sequence++) {
+                    Event event = events[(int) (sequence & mask)];
+                    Trade trade = event.trade;
+                    event.trade = null;
+                    try {
+                        handler.onTrade(trade, event.publishNanos, sequence == last);
+                    } catch (Throwable ex) {
+                        logger.error("Failed to handle " + trade, ex);
+                    }
+                }
+                consumed.lazySet(last);
+                next = last + 1;
+            }
+        }
+
+        private void park(long next) {
+            writerParked = true;
+            if (running && !isPublished(next)) {
+                LockSupport.park(TradeRingBuffer.this);
+            }
+            writerParked = false;
+        }
+    }
+}
@@ -1,71 +1,318 @@
 package com.phuongheh.samples.portfolio.service;
 
 import com.phuongheh.samples.portfolio.Portfolio;
-import com.phuongheh.samples.portfolio.PortfolioPosition;
+import com.phuongheh.samples.portfolio.PositionDelta;
+import com.phuongheh.samples.portfolio.journal.TradeJournal;
+import com.phuongheh.samples.portfolio.journal.TradeJournalImpl;
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.simp.SimpMessageSendingOperations;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.util.MimeTypeUtils;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Executes trades and sends the resulting position updates.
+ *
+ * <p>With {@code portfolio.trade.engine-shards} above zero, inbound threads
+ * only publish trades into a {@link TradeRingBuffer} picked by username, and
+ * each ring's single writer thread executes its trades in order, so trades
+ * on a portfolio never race each other. Position updates are scheduled once
+ * per batch the writer takes from its ring. With zero shards trades execute
+ * on the calling thread.
+ *
+ * <p>A position update is only scheduled once the {@link TradeJournal} has
+ * forced the trade to disk, so a confirmed trade survives a crash. Trades
+ * are rejected while the journal is unavailable, and a trade that executed
+ * but could not be journaled is taken back, so that no position served,
+ * valued or snapshotted differs from the journal, and reported on
+ * {@code /user/queue/errors}.
+ *
+ * <p>Position updates go out as soon as an {@link AdaptiveFlusher} gets to
+ * them. A {@code portfolio.trade.notification-delay} above zero instead
+ * holds each one back for that long, to simulate a slow exchange.
+ */
 @Service
-public class TradeServiceImpl implements TradeService {
+public class TradeServiceImpl implements TradeService, DisposableBean {
     private static final Log logger = LogFactory.getLog(TradeServiceImpl.class);
     private final SimpMessageSendingOperations messageTemplate;
     private final PortfolioService portfolioService;
-    private final List<TradeResult> tradeResults = new CopyOnWriteArrayList<>();
+    public static final String JOURNAL_UNAVAILABLE_MESSAGE = "Trade rejected: trade journal unavailable";
+    public static final String JOURNAL_FAILED_MESSAGE = "Trade rolled back: trade journal unavailable";
+    private static final Map<String, Object> POSITION_UPDATE_HEADERS =
+            Collections.<String, Object>singletonMap(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON);
+    private final TradeJournal tradeJournal;
+    private final long notificationDelay;
+    private final TimerWheel<TradeResult> tradeResults;
+    private final Queue<TradeResult> readyResults = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger readyCount = new AtomicInteger();
+    private final AdaptiveFlusher notificationFlusher;
+    private final TradeRingBuffer[] tradeRings;
+    private final PortfolioMetrics.Timer tradeTimer;
+    private final PortfolioMetrics.Timer queueTimer;
+    private final PortfolioMetrics.Counter executedTrades;
+    private final PortfolioMetrics.Counter rejectedTrades;
+    private final PortfolioMetrics.Counter unjournaledTrades;
+    private final PortfolioMetrics.Timer notificationTimer;
 
-    @Autowired
     public TradeServiceImpl(SimpMessageSendingOperations messageTemplate, PortfolioService portfolioService) {
+        this(messageTemplate, portfolioService, 0, 50, 0, 0, new TradeJournalImpl(), new PortfolioMetrics());
+    }
+
+    public TradeServiceImpl(SimpMessageSendingOperations messageTemplate, PortfolioService portfolioService,
+                            long notificationDelay, long notificationTick) {
+        this(messageTemplate, portfolioService, notificationDelay, notificationTick, 0, 0, new TradeJournalImpl(),
+                new PortfolioMetrics());
+    }
+
+    @Autowired
+    public TradeServiceImpl(SimpMessageSendingOperations messageTemplate, PortfolioService portfolioService,
+                            @Value("${portfolio.trade.notification-delay:0}") long notificationDelay,
+                            @Value("${portfolio.trade.notification-tick:50}") long notificationTick,
+                            @Value("${portfolio.trade.engine-shards:4}") int engineShards,
+                            @Value("${portfolio.trade.ring-size:4096}") int ringSize,
+                            TradeJournal tradeJournal, PortfolioMetrics metrics) {
         this.messageTemplate = messageTemplate;
         this.portfolioService = portfolioService;
+        this.tradeJournal = tradeJournal;
+        this.notificationDelay = notificationDelay;
+        if (notificationDelay > 0) {
+            this.tradeResults = new TimerWheel<>(notificationTick, (int) (notificationDelay / Math.max(notificationTick, 1)) + 1);
+            this.notificationFlusher = null;
+        } else {
+            this.tradeResults = null;
+            this.notificationFlusher = new AdaptiveFlusher("trade.notifications", new Runnable() {
+                @Override
+                public void run() {
+                    flushTradeNotifications();
+                }
+            }, notificationTick, 1, metrics);
+        }
+        this.tradeTimer = metrics.timer("trade.execute");
+        this.queueTimer = metrics.timer("trade.queued");
+        this.executedTrades = metrics.counter("trade.executed");
+        this.rejectedTrades = metrics.counter("trade.rejected");
+        this.unjournaledTrades = metrics.counter("trade.unjournaled");
+        this.notificationTimer = metrics.timer("trade.notifications.send");
+        metrics.gauge("trade.notifications.pending", new PortfolioMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getPendingNotificationCount();
+            }
+        });
+        this.tradeRings = (engineShards > 0) ? new TradeRingBuffer[engineShards] : null;
+        for (int i = 0; i < engineShards; i++) {
+            this.tradeRings[i] = new TradeRingBuffer(ringSize, new BatchingTradeHandler(), "trade-engine-" + i);
+        }
+        metrics.gauge("trade.ring.pending", new PortfolioMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getPendingTradeCount();
+            }
+        });
+    }
+
+    public long getPendingTradeCount() {
+        long count = 0;
+        if (this.tradeRings != null) {
+            for (TradeRingBuffer ring : this.tradeRings) {
+                count += ring.getPendingCount();
+            }
+        }
+        return count;
+    }
+
+    public int getPendingNotificationCount() {
+        return (this.tradeResults != null) ? this.tradeResults.getPendingCount() : this.readyCount.get();
     }
 
     @Override
     public void executeTrade(Trade trade) {
+        if (this.tradeRings != null) {
+            this.tradeRings[PortfolioServiceImpl.shardIndex(trade.getUsername(), this.tradeRings.length)].publish(trade);
+            return;
+        }
+        TradeResult result = timedExecuteTrade(trade);
+        if (result != null) {
+            journal(result);
+        }
+    }
+
+    private TradeResult timedExecuteTrade(Trade trade) {
+        long start = System.nanoTime();
+        try {
+            return doExecuteTrade(trade);
+        } finally {
+            this.tradeTimer.recordSince(start);
+        }
+    }
+
+    private TradeResult doExecuteTrade(Trade trade) {
+        if (!this.tradeJournal.isAvailable()) {
+            this.rejectedTrades.increment();
+            this.messageTemplate.convertAndSendToUser(trade.getUsername(), "/queue/errors", JOURNAL_UNAVAILABLE_MESSAGE);
+            return null;
+        }
         Portfolio portfolio = this.portfolioService.findPortfolio(trade.getUsername());
         String ticker = trade.getTicker();
         int sharesToTrade = trade.getShares();
 
-        PortfolioPosition newPosition = (trade.getAction() == Trade.TradeAction.Buy) ? portfolio.buy(ticker, sharesToTrade) : portfolio.sell(ticker, sharesToTrade);
-        if (newPosition == null) {
+        PositionDelta delta = (trade.getAction() == Trade.TradeAction.Buy) ? portfolio.buy(ticker, sharesToTrade) : portfolio.sell(ticker, sharesToTrade);
+        if (delta == null) {
+            this.rejectedTrades.increment();
             String payload = "Rejected trade " + trade;
             this.messageTemplate.convertAndSendToUser(trade.getUsername(), "/queue/errors", payload);
-            return;
+            return null;
         }
-        this.tradeResults.add(new TradeResult(trade.getUsername(), newPosition));
+        this.executedTrades.increment();
+        int sharesTraded = (trade.getAction() == Trade.TradeAction.Buy) ? sharesToTrade : -sharesToTrade;
+        return new TradeResult(trade.getUsername(), delta, sharesTraded, System.currentTimeMillis());
+    }
+
+    /**
+     * Hand the trade to the journal, which schedules its position update
+     * once the trade is on disk.
+     */
+    private void journal(TradeResult result) {
+        this.tradeJournal.append(result.user, result.delta, result);
     }
 
-    @Scheduled(fixedDelay = 1500)
+    private void scheduleNotification(TradeResult result) {
+        if (this.tradeResults != null) {
+            this.tradeResults.schedule(result, result.timestamp + this.notificationDelay);
+        } else {
+            this.readyResults.offer(result);
+            this.readyCount.incrementAndGet();
+            this.notificationFlusher.signal();
+        }
+    }
+
+    /**
+     * Send the position updates whose notification delay has passed; does
+     * nothing without a delay, when updates are sent by the flusher.
+     */
+    @Scheduled(fixedDelayString = "${portfolio.trade.notification-tick:50}")
     public void sendTradeNotifications() {
-        Map<String, Object> map = new HashMap<>();
-        map.put(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON);
-        for (TradeResult result : this.tradeResults) {
-            if (System.currentTimeMillis() >= (result.timestamp + 1500)) {
-                logger.debug("Sending position update: " + result.position);
-                this.messageTemplate.convertAndSendToUser(result.user, "/queue/position-updates", result.position, map);
-                this.tradeResults.remove(result);
+        if (this.tradeResults == null) {
+            return;
+        }
+        List<TradeResult> results = new ArrayList<>();
+        this.tradeResults.expire(System.currentTimeMillis(), results);
+        sendNotifications(results);
+    }
+
+    private void flushTradeNotifications() {
+        List<TradeResult> results = new ArrayList<>();
+        TradeResult result;
+        while ((result = this.readyResults.poll()) != null) {
+            results.add(result);
+        }
+        this.readyCount.addAndGet(-results.size());
+        sendNotifications(results);
+    }
+
+    private void sendNotifications(List<TradeResult> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        for (TradeResult result : results) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Sending position update: " + result.delta);
             }
+            this.messageTemplate.convertAndSendToUser(result.user, "/queue/position-updates", result.delta, POSITION_UPDATE_HEADERS);
         }
+        this.notificationTimer.recordSince(start);
     }
 
-    private static class TradeResult {
+    @Override
+    public void destroy() throws InterruptedException {
+        if (this.notificationFlusher != null) {
+            this.notificationFlusher.shutdown();
+        }
+        if (this.tradeRings != null) {
+            for (TradeRingBuffer ring : this.tradeRings) {
+                ring.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Executes the trades of one ring and journals them together at the end
+     * of each batch. Only ever called by the ring's writer thread, so a
+     * failed trade is reported to the user on {@code /queue/errors} here, as
+     * the controller's exception handler does for trades executed inline.
+     */
+    private class BatchingTradeHandler implements TradeRingBuffer.Handler {
+        private final List<TradeResult> batch = new ArrayList<>();
+
+        @Override
+        public void onTrade(Trade trade, long publishNanos, boolean endOfBatch) {
+            queueTimer.recordSince(publishNanos);
+            try {
+                TradeResult result = timedExecuteTrade(trade);
+                if (result != null) {
+                    this.batch.add(result);
+                }
+            } catch (RuntimeException ex) {
+                logger.error("Failed to execute " + trade, ex);
+                String payload = (ex.getMessage() != null) ? ex.getMessage() : ex.toString();
+                messageTemplate.convertAndSendToUser(trade.getUsername(), "/queue/errors", payload);
+            } finally {
+                if (endOfBatch) {
+                    for (TradeResult result : this.batch) {
+                        journal(result);
+                    }
+                    this.batch.clear();
+                }
+            }
+        }
+    }
+
+    private class TradeResult implements TradeJournal.Callback {
         private final String user;
-        private final PortfolioPosition position;
+        private final PositionDelta delta;
+        private final int sharesTraded;
         private final long timestamp;
 
-        public TradeResult(String user, PortfolioPosition position) {
+        public TradeResult(String user, PositionDelta delta, int sharesTraded, long timestamp) {
             this.user = user;
-            this.position = position;
-            this.timestamp = System.currentTimeMillis();
+            this.delta = delta;
+            this.sharesTraded = sharesTraded;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * Schedule the position update once journaled; otherwise take the
+         * trade back and schedule the update that does so instead.
+         */
+        @Override
+        public void onJournaled(boolean journaled) {
+            if (journaled) {
+                scheduleNotification(this);
+                return;
+            }
+            unjournaledTrades.increment();
+            logger.error("Trade could not be journaled, taking it back: " + this.delta);
+            messageTemplate.convertAndSendToUser(this.user, "/queue/errors", JOURNAL_FAILED_MESSAGE);
+            Portfolio portfolio = portfolioService.findPortfolio(this.user);
+            PositionDelta undone = portfolio.undo(this.delta.getTicker(), this.sharesTraded);
+            if (undone != null) {
+                scheduleNotification(new TradeResult(this.user, undone, -this.sharesTraded, this.timestamp));
+            }
         }
     }
 }
@@ -0,0 +1,275 @@
+package com.phuongheh.samples.portfolio.service;
+
+import com.phuongheh.samples.portfolio.Portfolio;
+import com.phuongheh.samples.portfolio.PortfolioPosition;
+import com.phuongheh.samples.portfolio.PortfolioValuation;
+import com.phuongheh.samples.portfolio.PositionListener;
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.math.BigDecimal;
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps every portfolio valued at the latest quotes and pushes market value
+ * and unrealized P&L changes to {@code /user/queue/valuation}.
+ *
+ * <p>Positions are indexed by ticker, so a quote revalues only the positions
+ * in that ticker: each position remembers the value and cost it last
+ * contributed to its portfolio's totals, and only the difference is applied.
+ * Positions start at their seed price. A {@link PositionListener} on every
+ * portfolio, including those added later, books trades at average cost: a
+ * buy adds its shares at the last quote for the ticker, and a sell removes
+ * its share of the cost so far. Traded positions are sent with the next
+ * quote for their ticker. Once per round of quotes, every user whose totals
+ * changed and who is connected gets one message.
+ *
+ * <p>Quotes are handled on the single thread generating them, and trades on
+ * the threads executing them, so each position is guarded by its own lock;
+ * the totals are also read when a user subscribes, so they are guarded per
+ * user.
+ */
+@Service
+public class ValuationService implements QuoteListener, SmartInitializingSingleton,
+        ApplicationListener<SessionSubscribeEvent>, PortfolioServiceImpl.PortfolioListener {
+    public static final String DESTINATION = "/queue/valuation";
+
+    private final PortfolioServiceImpl portfolioService;
+    private final SimpMessageSendingOperations messagingTemplate;
+    private final SimpUserRegistry userRegistry;
+    private final ConcurrentMap<String, TickerValue> tickers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, UserValue> users = new ConcurrentHashMap<>();
+    private final Set<UserValue> changedUsers = new LinkedHashSet<>();
+    private final PortfolioMetrics.Counter revaluedPositions;
+    private final PortfolioMetrics.Counter sentValuations;
+    private volatile long lastQuoteTime;
+
+    @Autowired
+    public ValuationService(PortfolioServiceImpl portfolioService, SimpMessageSendingOperations messagingTemplate,
+                            SimpUserRegistry userRegistry, PortfolioMetrics metrics) {
+        this.portfolioService = portfolioService;
+        this.messagingTemplate = messagingTemplate;
+        this.userRegistry = userRegistry;
+        this.revaluedPositions = metrics.counter("valuation.positions-revalued");
+        this.sentValuations = metrics.counter("valuation.sent");
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        this.portfolioService.addPortfolioListener(this);
+    }
+
+    /**
+     * Start valuing the positions of a portfolio, in place of any earlier
+     * portfolio of the user, at the last quote for each ticker or at cost
+     * until the first quote arrives.
+     */
+    @Override
+    public PositionListener onPortfolioAdded(String username, Portfolio portfolio) {
+        final UserValue user = new UserValue(username, portfolio);
+        for (PortfolioPosition position : portfolio.getPositions()) {
+            TickerValue ticker = tickerFor(position.getTicker());
+            PositionValue value = new PositionValue(user, position, ticker.price);
+            user.positions.put(position.getTicker(), value);
+            user.add(value.value, value.cost);
+            ticker.positions.add(value);
+        }
+        UserValue previous = this.users.put(username, user);
+        if (previous != null) {
+            for (PositionValue value : previous.positions.values()) {
+                this.tickers.get(value.ticker).positions.remove(value);
+            }
+        }
+        return new PositionListener() {
+            @Override
+            public void onPositionChange(String ticker, int previousShares, int shares) {
+                PositionValue value = user.positions.get(ticker);
+                if (value != null) {
+                    value.trade();
+                }
+            }
+        };
+    }
+
+    private TickerValue tickerFor(String ticker) {
+        TickerValue value = this.tickers.get(ticker);
+        if (value == null) {
+            TickerValue newValue = new TickerValue();
+            value = this.tickers.putIfAbsent(ticker, newValue);
+            if (value == null) {
+                value = newValue;
+            }
+        }
+        return value;
+    }
+
+    public PortfolioValuation getValuation(String username) {
+        UserValue user = this.users.get(username);
+        return (user != null) ? user.toValuation(this.lastQuoteTime, false) : null;
+    }
+
+    @Override
+    public void onQuote(String ticker, long scaledPrice, long timestamp) {
+        this.lastQuoteTime = timestamp;
+        TickerValue value = this.tickers.get(ticker);
+        if (value == null) {
+            return;
+        }
+        value.price = scaledPrice;
+        List<PositionValue> positions = value.positions;
+        for (PositionValue position : positions) {
+            if (position.revalue(scaledPrice)) {
+                this.changedUsers.add(position.owner);
+            }
+        }
+        this.revaluedPositions.add(positions.size());
+    }
+
+    @Override
+    public void onEndOfBatch() {
+        for (UserValue user : this.changedUsers) {
+            if (this.userRegistry.getUser(user.username) != null) {
+                send(user.username, user.toValuation(this.lastQuoteTime, true));
+            }
+        }
+        this.changedUsers.clear();
+    }
+
+    @Override
+    public void onApplicationEvent(SessionSubscribeEvent event) {
+        Principal principal = event.getUser();
+        String destination = SimpMessageHeaderAccessor.getDestination(event.getMessage().getHeaders());
+        if (principal == null || destination == null || !destination.endsWith(DESTINATION)) {
+            return;
+        }
+        PortfolioValuation valuation = getValuation(principal.getName());
+        if (valuation != null) {
+            send(principal.getName(), valuation);
+        }
+    }
+
+    private void send(String username, PortfolioValuation valuation) {
+        this.messagingTemplate.convertAndSendToUser(username, DESTINATION, valuation);
+        this.sentValuations.increment();
+    }
+
+    private static final class UserValue {
+        private final String username;
+        private final Portfolio portfolio;
+        /** Values of the portfolio's positions by ticker, fixed once registered. */
+        private final Map<String, PositionValue> positions = new LinkedHashMap<>();
+        private long marketValue;
+        private long cost;
+        private long sentMarketValue;
+        private long sentPnl;
+
+        private UserValue(String username, Portfolio portfolio) {
+            this.username = username;
+            this.portfolio = portfolio;
+        }
+
+        private synchronized void add(long valueChange, long costChange) {
+            this.marketValue += valueChange;
+            this.cost += costChange;
+        }
+
+        private synchronized PortfolioValuation toValuation(long timestamp, boolean markSent) {
+            long pnl = this.marketValue - this.cost;
+            PortfolioValuation valuation = new PortfolioValuation(toAmount(this.marketValue), toAmount(pnl),
+                    toAmount(this.marketValue - this.sentMarketValue), toAmount(pnl - this.sentPnl), timestamp);
+            if (markSent) {
+                this.sentMarketValue = this.marketValue;
+                this.sentPnl = pnl;
+            }
+            return valuation;
+        }
+
+        private static BigDecimal toAmount(long scaledAmount) {
+            return StockQuoteGenerator.toBigDecimal(scaledAmount);
+        }
+    }
+
+    /**
+     * The last quote for a ticker, 0 until the first one, and the positions
+     * held in it.
+     */
+    private static final class TickerValue {
+        private final List<PositionValue> positions = new CopyOnWriteArrayList<>();
+        private volatile long price;
+    }
+
+    private static final class PositionValue {
+        private final UserValue owner;
+        private final String ticker;
+        private long shares;
+        private long price;
+        private long value;
+        private long cost;
+        private boolean traded;
+
+        private PositionValue(UserValue owner, PortfolioPosition position, long lastPrice) {
+            long costPrice = StockQuoteGenerator.toScaledPrice(position.getPrice());
+            this.owner = owner;
+            this.ticker = position.getTicker();
+            this.shares = position.getShares();
+            this.price = (lastPrice != 0) ? lastPrice : costPrice;
+            this.value = this.shares * this.price;
+            this.cost = this.shares * costPrice;
+        }
+
+        /**
+         * Book the live share count at the last quote, to be sent with the
+         * next quote for the ticker.
+         */
+        private synchronized void trade() {
+            this.traded |= update(this.price);
+        }
+
+        private synchronized boolean revalue(long price) {
+            boolean changed = update(price) || this.traded;
+            this.traded = false;
+            return changed;
+        }
+
+        /**
+         * Catch up with the live share count, adding bought shares at the
+         * price the position was last valued at and removing the average cost
+         * of sold ones, then value the position at the given price.
+         */
+        private boolean update(long price) {
+            PortfolioPosition position = this.owner.portfolio.getPortfolioPosition(this.ticker);
+            long newShares = (position != null) ? position.getShares() : 0;
+            long newCost = this.cost;
+            if (newShares > this.shares) {
+                newCost += (newShares - this.shares) * this.price;
+            } else if (newShares < this.shares) {
+                newCost = newCost * newShares / this.shares;
+            }
+            long newValue = newShares * price;
+            this.shares = newShares;
+            this.price = price;
+            if (newValue == this.value && newCost == this.cost) {
+                return false;
+            }
+            this.owner.add(newValue - this.value, newCost - this.cost);
+            this.value = newValue;
+            this.cost = newCost;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.phuongheh.samples.portfolio.web;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+public class MetricsController {
+    private final PortfolioMetrics metrics;
+
+    @Autowired
+    public MetricsController(PortfolioMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @RequestMapping(path = "/metrics", method = RequestMethod.GET)
+    public Map<String, Object> getMetrics() {
+        return this.metrics.snapshot();
+    }
+}
@@ -2,12 +2,15 @@ package com.phuongheh.samples.portfolio.web;
 
 import com.phuongheh.samples.portfolio.Portfolio;
 import com.phuongheh.samples.portfolio.PortfolioPosition;
+import com.phuongheh.samples.portfolio.PortfolioSnapshot;
+import com.phuongheh.samples.portfolio.PositionDelta;
 import com.phuongheh.samples.portfolio.service.PortfolioService;
 import com.phuongheh.samples.portfolio.service.Trade;
 import com.phuongheh.samples.portfolio.service.TradeService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageExceptionHandler;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.simp.annotation.SendToUser;
@@ -36,6 +39,20 @@ public class PortfolioController {
         return portfolio.getPositions();
     }
 
+    @SubscribeMapping("/portfolio")
+    public PortfolioSnapshot getPortfolio(Principal principal,
+                                          @Header(name = "resume-from", required = false) Long resumeFrom) {
+        Portfolio portfolio = this.portfolioService.findPortfolio(principal.getName());
+        if (resumeFrom != null) {
+            List<PositionDelta> deltas = portfolio.getDeltasSince(resumeFrom);
+            if (deltas != null) {
+                logger.debug("Resuming " + principal.getName() + " from " + resumeFrom + " with " + deltas.size() + " deltas");
+                return PortfolioSnapshot.resumed(deltas.isEmpty() ? resumeFrom : deltas.get(deltas.size() - 1).getSequence(), deltas);
+            }
+        }
+        return portfolio.getSnapshot();
+    }
+
     @MessageMapping("/trade")
     public void executeTrade(Trade trade, Principal principal) {
         trade.setUsername(principal.getName());
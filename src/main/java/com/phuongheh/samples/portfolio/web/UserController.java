@@ -1,30 +1,249 @@
 package com.phuongheh.samples.portfolio.web;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.phuongheh.samples.portfolio.messaging.ConnectedUserIndex;
+import com.phuongheh.samples.portfolio.messaging.DistributedUserRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpSubscription;
 import org.springframework.messaging.simp.user.SimpUser;
 import org.springframework.messaging.simp.user.SimpUserRegistry;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
 
+/**
+ * Lists connected users a page at a time ({@code /users}), as a stream
+ * ({@code /users/stream}), or as counts ({@code /users/stats}).
+ *
+ * <p>All three accept a username {@code prefix} and a subscription
+ * {@code destination} filter. Rather than {@link SimpUserRegistry#getUsers()},
+ * which copies every user, they walk the names kept in order by the
+ * {@link ConnectedUserIndex}, merged with those of other nodes when the
+ * registry is a {@link DistributedUserRegistry}, and look up each user as
+ * they go. A page starts at the cursor, or the prefix, and stops once it is
+ * full; the stream writes each user as it is found. Unfiltered counts come
+ * from the index and the registry without visiting any user, and filtered
+ * ones keep nothing but the totals.
+ */
 @RestController
 public class UserController {
-    private SimpUserRegistry userRegistry;
+    public static final String NDJSON = "application/x-ndjson";
+    static final int DEFAULT_LIMIT = 100;
+    static final int MAX_LIMIT = 1000;
+    private static final int STREAM_FLUSH_INTERVAL = 256;
+
+    private final SimpUserRegistry userRegistry;
+    private final ConnectedUserIndex userIndex;
+    private final ObjectWriter objectWriter = new ObjectMapper().writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
 
     @Autowired
-    public UserController(SimpUserRegistry userRegistry) {
+    public UserController(SimpUserRegistry userRegistry, ConnectedUserIndex userIndex) {
         this.userRegistry = userRegistry;
+        this.userIndex = userIndex;
     }
 
     @RequestMapping(path = "/users", method = RequestMethod.GET)
-    public List<String> listUsers() {
-        List<String> result = new ArrayList<>();
-        for (SimpUser user : this.userRegistry.getUsers()) {
-            result.add(user.toString());
+    public UserPage listUsers(@RequestParam(required = false) String cursor,
+                              @RequestParam(defaultValue = "" + DEFAULT_LIMIT) int limit,
+                              @RequestParam(required = false) String prefix,
+                              @RequestParam(required = false) String destination) {
+        limit = Math.max(1, Math.min(limit, MAX_LIMIT));
+        List<UserSummary> page = new ArrayList<>(Math.min(limit, 16));
+        Iterator<SimpUser> users = users(cursor, prefix, destination);
+        while (page.size() < limit && users.hasNext()) {
+            page.add(UserSummary.of(users.next()));
+        }
+        boolean more = users.hasNext();
+        return new UserPage(page, more ? page.get(page.size() - 1).getName() : null);
+    }
+
+    /**
+     * Stream all matching users as newline-delimited JSON, in name order,
+     * flushing as it goes.
+     */
+    @RequestMapping(path = "/users/stream", method = RequestMethod.GET, produces = NDJSON)
+    public StreamingResponseBody streamUsers(@RequestParam(required = false) final String prefix,
+                                             @RequestParam(required = false) final String destination) {
+        return new StreamingResponseBody() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                JsonGenerator generator = objectWriter.getFactory().createGenerator(outputStream);
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.setRootValueSeparator(null);
+                int count = 0;
+                Iterator<SimpUser> users = users(null, prefix, destination);
+                while (users.hasNext()) {
+                    objectWriter.writeValue(generator, UserSummary.of(users.next()));
+                    generator.writeRaw('\n');
+                    if (++count % STREAM_FLUSH_INTERVAL == 0) {
+                        generator.flush();
+                    }
+                }
+                generator.close();
+            }
+        };
+    }
+
+    @RequestMapping(path = "/users/stats", method = RequestMethod.GET)
+    public UserStats getStats(@RequestParam(required = false) String prefix,
+                              @RequestParam(required = false) String destination) {
+        if (prefix == null && destination == null) {
+            int sessions = this.userIndex.getSessionCount();
+            if (this.userRegistry instanceof DistributedUserRegistry) {
+                sessions += ((DistributedUserRegistry) this.userRegistry).getRemoteSessionCount();
+            }
+            return new UserStats(this.userRegistry.getUserCount(), sessions, this.userIndex.getSubscriptionCount());
+        }
+        UserStats stats = new UserStats();
+        Iterator<SimpUser> users = users(null, prefix, destination);
+        while (users.hasNext()) {
+            stats.add(users.next());
+        }
+        return stats;
+    }
+
+    /**
+     * Return the matching users after the cursor in name order, looked up
+     * one at a time.
+     */
+    private Iterator<SimpUser> users(String cursor, String prefix, String destination) {
+        Iterator<String> names = names(this.userIndex.getUserNames(), cursor, prefix);
+        if (this.userRegistry instanceof DistributedUserRegistry) {
+            Iterator<String> remoteNames = names(
+                    ((DistributedUserRegistry) this.userRegistry).getRemoteUserNames(), cursor, prefix);
+            names = new MergingIterator(names, remoteNames);
+        }
+        return new UserIterator(this.userRegistry, names, prefix, destination);
+    }
+
+    private static Iterator<String> names(NavigableSet<String> names, String cursor, String prefix) {
+        if (prefix != null && (cursor == null || cursor.compareTo(prefix) < 0)) {
+            return names.tailSet(prefix, true).iterator();
+        }
+        return (cursor != null) ? names.tailSet(cursor, false).iterator() : names.iterator();
+    }
+
+    private static boolean matches(SimpUser user, String destination) {
+        if (destination == null) {
+            return true;
+        }
+        for (SimpSession session : user.getSessions()) {
+            for (SimpSubscription subscription : session.getSubscriptions()) {
+                if (destination.equals(subscription.getDestination())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks up the users with the given names, skipping those gone since and
+     * those not matching, and stopping past the prefix.
+     */
+    private static class UserIterator implements Iterator<SimpUser> {
+        private final SimpUserRegistry registry;
+        private final Iterator<String> names;
+        private final String prefix;
+        private final String destination;
+        private SimpUser next;
+
+        UserIterator(SimpUserRegistry registry, Iterator<String> names, String prefix, String destination) {
+            this.registry = registry;
+            this.names = names;
+            this.prefix = prefix;
+            this.destination = destination;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.next == null && this.names.hasNext()) {
+                String name = this.names.next();
+                if (this.prefix != null && !name.startsWith(this.prefix)) {
+                    return false;
+                }
+                SimpUser user = this.registry.getUser(name);
+                if (user != null && matches(user, this.destination)) {
+                    this.next = user;
+                }
+            }
+            return (this.next != null);
+        }
+
+        @Override
+        public SimpUser next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SimpUser user = this.next;
+            this.next = null;
+            return user;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Merges two ascending iterators of names, returning names found in both
+     * once.
+     */
+    private static class MergingIterator implements Iterator<String> {
+        private final Iterator<String> first;
+        private final Iterator<String> second;
+        private String nextFirst;
+        private String nextSecond;
+
+        MergingIterator(Iterator<String> first, Iterator<String> second) {
+            this.first = first;
+            this.second = second;
+            this.nextFirst = first.hasNext() ? first.next() : null;
+            this.nextSecond = second.hasNext() ? second.next() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return (this.nextFirst != null || this.nextSecond != null);
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String name;
+            if (this.nextSecond == null || (this.nextFirst != null && this.nextFirst.compareTo(this.nextSecond) <= 0)) {
+                name = this.nextFirst;
+                this.nextFirst = this.first.hasNext() ? this.first.next() : null;
+            } else {
+                name = this.nextSecond;
+            }
+            if (name.equals(this.nextSecond)) {
+                this.nextSecond = this.second.hasNext() ? this.second.next() : null;
+            }
+            return name;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
         }
-        return result;
     }
 }
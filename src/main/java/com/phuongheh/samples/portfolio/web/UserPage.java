@@ -0,0 +1,28 @@
+package com.phuongheh.samples.portfolio.web;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * One page of users ordered by name. {@code nextCursor} is passed back as
+ * {@code cursor} to get the following page, and is absent on the last one.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserPage {
+    private final List<UserSummary> users;
+    private final String nextCursor;
+
+    public UserPage(List<UserSummary> users, String nextCursor) {
+        this.users = users;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<UserSummary> getUsers() {
+        return this.users;
+    }
+
+    public String getNextCursor() {
+        return this.nextCursor;
+    }
+}
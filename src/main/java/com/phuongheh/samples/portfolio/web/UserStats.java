@@ -0,0 +1,43 @@
+package com.phuongheh.samples.portfolio.web;
+
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpUser;
+
+/**
+ * Counts of the users matching a query and of their sessions and
+ * subscriptions.
+ */
+public class UserStats {
+    private int users;
+    private int sessions;
+    private int subscriptions;
+
+    public UserStats() {
+    }
+
+    public UserStats(int users, int sessions, int subscriptions) {
+        this.users = users;
+        this.sessions = sessions;
+        this.subscriptions = subscriptions;
+    }
+
+    void add(SimpUser user) {
+        this.users++;
+        for (SimpSession session : user.getSessions()) {
+            this.sessions++;
+            this.subscriptions += session.getSubscriptions().size();
+        }
+    }
+
+    public int getUsers() {
+        return this.users;
+    }
+
+    public int getSessions() {
+        return this.sessions;
+    }
+
+    public int getSubscriptions() {
+        return this.subscriptions;
+    }
+}
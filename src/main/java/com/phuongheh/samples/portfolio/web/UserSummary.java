@@ -0,0 +1,47 @@
+package com.phuongheh.samples.portfolio.web;
+
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpUser;
+
+/**
+ * A connected user with counts of their sessions and subscriptions.
+ */
+public class UserSummary {
+    private final String name;
+    private final int sessions;
+    private final int subscriptions;
+
+    public UserSummary(String name, int sessions, int subscriptions) {
+        this.name = name;
+        this.sessions = sessions;
+        this.subscriptions = subscriptions;
+    }
+
+    public static UserSummary of(SimpUser user) {
+        int sessions = 0;
+        int subscriptions = 0;
+        for (SimpSession session : user.getSessions()) {
+            sessions++;
+            subscriptions += session.getSubscriptions().size();
+        }
+        return new UserSummary(user.getName(), sessions, subscriptions);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getSessions() {
+        return this.sessions;
+    }
+
+    public int getSubscriptions() {
+        return this.subscriptions;
+    }
+
+    @Override
+    public String toString() {
+        return "UserSummary[name=" + this.name + ", sessions=" + this.sessions +
+                ", subscriptions=" + this.subscriptions + "]";
+    }
+}
@@ -5,6 +5,7 @@ angular.module("springPortfolio.controllers", [ui.bootstrap])
 function ($scope, $uibModal, tradeService){
     $scope.notifications = [];
     $scope.positions = {};
+    var sequence = 0;
     var processQuote = function(quote){
         var existing = $scope.positions[quote.ticker];
         if(existing){
@@ -12,11 +13,33 @@ function ($scope, $uibModal, tradeService){
             existing.price = quote.price;
         }
     };
-    var updatePosition = function (position){
-        var existing = $scope.positions[position.ticker];
+    var applyDelta = function (delta){
+        var existing = $scope.positions[delta.ticker];
         if(existing){
-            existing.shares = position.shares;
+            existing.shares = delta.shares;
         }
+        sequence = delta.sequence;
+    };
+    var applyPortfolio = function (portfolio){
+        if(portfolio.positions){
+            $scope.positions = {};
+            portfolio.positions.forEach(function(pos){
+                $scope.positions[pos.ticker] = pos;
+            });
+            sequence = portfolio.sequence;
+        }else if(portfolio.deltas){
+            portfolio.deltas.forEach(applyDelta);
+        }
+    };
+    var updatePosition = function (delta){
+        if(delta.sequence <= sequence){
+            return;
+        }
+        if(delta.sequence > sequence + 1){
+            tradeService.loadPortfolio(sequence).then(applyPortfolio);
+            return;
+        }
+        applyDelta(delta);
     };
     var pushNotification = function (message){
         $scope.notifications.unshift(message);
@@ -62,23 +85,29 @@ function ($scope, $uibModal, tradeService){
     tradeService.connect("/spring-websocket-portfolio/portfolio")
         .then(function (username){
                 $scope.username = username;
-                pushNotification("Trade results take a 2-3 second simulated delay. Notifications will appear.")
+                pushNotification("Trade results will appear here as soon as trades execute.")
             },
             function (error){
                 pushNotification(error);
             })
-        .then(function (positions){
-            positions.forEach(function(pos){
-                $scope.positions[pos.ticker] = pos;
-            });
+        .then(function (){
+            return tradeService.loadPortfolio();
+        })
+        .then(function (portfolio){
+            applyPortfolio(portfolio);
             tradeService.fetchQuoteStream().then(null, null,
                 function(quote){
                     processQuote(quote);
                 }
             );
             tradeService.fetchPositionUpdateStream().then(null, null,
-                function (position) {
-                    updatePosition(position);
+                function (delta) {
+                    updatePosition(delta);
+                }
+            );
+            tradeService.fetchValuationStream().then(null, null,
+                function (valuation){
+                    $scope.valuation = valuation;
                 }
             );
             tradeService.fetchErrorStream().then(null, null,
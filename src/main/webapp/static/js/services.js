@@ -37,14 +37,15 @@ angular.module("springPortfolio.services",[])
             }
             return deferred.promise;
         },
-        subscribeSingle: function (destination){
+        subscribeSingle: function (destination, headers){
             return $q(function (resolve, reject){
                 if(!stompClient){
                     reject("STOMP client not created");
                 }else{
-                    stompClient.subscribe(destination, function (message){
+                    var subscription = stompClient.subscribe(destination, function (message){
+                        subscription.unsubscribe();
                         resolve(JSON.parse(message.body));
-                    });
+                    }, headers || {});
                 }
             });
         },
@@ -68,12 +69,19 @@ angular.module("springPortfolio.services",[])
         loadPositions: function (){
             return stompClient.subscribeSingle("/app/positions");
         },
+        loadPortfolio: function (resumeFrom){
+            var headers = (resumeFrom === undefined) ? {} : {"resume-from": String(resumeFrom)};
+            return stompClient.subscribeSingle("/app/portfolio", headers);
+        },
         fetchQuoteStream: function(){
             return stompClient.subscribe("/topic/price.stock.*");
         },
         fetchPositionUpdateStream: function (){
             return stompClient.subscribe("/user/queue/position-updates");
         },
+        fetchValuationStream: function (){
+            return stompClient.subscribe("/user/queue/valuation");
+        },
         fetchErrorStream: function () {
             return stompClient.subscribe("/user/queue/errors")
         },
@@ -0,0 +1,93 @@
+package com.phuongheh.samples.portfolio;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PortfolioTests {
+    private Portfolio portfolio;
+
+    @Before
+    public void setup() {
+        this.portfolio = new Portfolio();
+        this.portfolio.addPosition(new PortfolioPosition("Dell Inc.", "DELL", 13.44, 50));
+    }
+
+    @Test
+    public void tradesAdvanceSequence() {
+        long start = this.portfolio.getSequence();
+        PositionDelta bought = this.portfolio.buy("DELL", 10);
+        PositionDelta sold = this.portfolio.sell("DELL", 5);
+
+        assertEquals(start + 1, bought.getSequence());
+        assertEquals(60, bought.getShares());
+        assertEquals(start + 2, sold.getSequence());
+        assertEquals(55, sold.getShares());
+        assertEquals(start + 2, this.portfolio.getSnapshot().getSequence());
+    }
+
+    @Test
+    public void rejectedTradeKeepsSequence() {
+        long start = this.portfolio.getSequence();
+        assertNull(this.portfolio.sell("DELL", 51));
+        assertEquals(start, this.portfolio.getSequence());
+    }
+
+    @Test
+    public void undoesTradesInAnyOrder() {
+        this.portfolio.buy("DELL", 10);
+        this.portfolio.sell("DELL", 60);
+
+        PositionDelta undone = this.portfolio.undo("DELL", 10);
+        assertEquals(-10, undone.getShares());
+        assertEquals(50, this.portfolio.undo("DELL", -60).getShares());
+        assertEquals(50, this.portfolio.getPortfolioPosition("DELL").getShares());
+    }
+
+    @Test
+    public void resumesWithMissedDeltas() {
+        long start = this.portfolio.getSequence();
+        for (int i = 0; i < 3; i++) {
+            this.portfolio.buy("DELL", 1);
+        }
+        List<PositionDelta> deltas = this.portfolio.getDeltasSince(start + 1);
+        assertEquals(2, deltas.size());
+        assertEquals(start + 2, deltas.get(0).getSequence());
+        assertEquals(53, deltas.get(1).getShares());
+        assertTrue(this.portfolio.getDeltasSince(this.portfolio.getSequence()).isEmpty());
+    }
+
+    @Test
+    public void requiresSnapshotWhenHistoryIsGone() {
+        long start = this.portfolio.getSequence();
+        for (int i = 0; i < 100; i++) {
+            this.portfolio.buy("DELL", 1);
+        }
+        assertNull(this.portfolio.getDeltasSince(start));
+        assertNull(this.portfolio.getDeltasSince(this.portfolio.getSequence() + 1));
+    }
+
+    @Test
+    public void requiresSnapshotAcrossAddedPosition() {
+        long start = this.portfolio.getSequence();
+        this.portfolio.addPosition(new PortfolioPosition("Microsoft", "MSFT", 34.21, 33));
+        this.portfolio.buy("MSFT", 1);
+        assertNull(this.portfolio.getDeltasSince(start));
+    }
+
+    @Test
+    public void restoresPositionWithoutMovingSequenceBack() {
+        assertTrue(this.portfolio.restorePosition("DELL", 80, 10));
+        assertTrue(this.portfolio.restorePosition("DELL", 70, 9));
+
+        assertEquals(70, this.portfolio.getPortfolioPosition("DELL").getShares());
+        assertEquals(10, this.portfolio.getSequence());
+        assertFalse(this.portfolio.restorePosition("MSFT", 10, 11));
+    }
+}
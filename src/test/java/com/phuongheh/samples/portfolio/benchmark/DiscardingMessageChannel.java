@@ -0,0 +1,21 @@
+package com.phuongheh.samples.portfolio.benchmark;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+
+/**
+ * Channel that only counts the messages sent to it.
+ */
+public class DiscardingMessageChannel extends AbstractSubscribableChannel {
+    private long messageCount;
+
+    public long getMessageCount() {
+        return this.messageCount;
+    }
+
+    @Override
+    protected boolean sendInternal(Message<?> message, long timeout) {
+        this.messageCount++;
+        return true;
+    }
+}
@@ -0,0 +1,159 @@
+package com.phuongheh.samples.portfolio.benchmark;
+
+import com.phuongheh.samples.portfolio.config.VirtualThreadTaskExecutor;
+import com.phuongheh.samples.portfolio.config.VirtualThreads;
+import com.phuongheh.samples.portfolio.messaging.BackpressureHandler;
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import com.phuongheh.samples.portfolio.service.PortfolioServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the pooled and virtual inbound execution modes when every message
+ * handler blocks, as a slow portfolio lookup or a persistence call would.
+ *
+ * <p>Each invocation is a burst of {@link #MESSAGES} messages handed to the
+ * executor {@code WebSocketConfig} registers for the clientInboundChannel
+ * without waiting for any of them, as a busy WebSocket container would,
+ * and then waits for all of them to complete. Both modes run at the same
+ * {@code concurrency}, the pool size in pooled mode and the concurrency cap
+ * in virtual mode. The score is messages completed per millisecond; the
+ * p50 and p99 of the time from submitting a message to its completion are
+ * printed after each iteration.
+ *
+ * <p>The virtual mode needs Java 21+ and fails on older runtimes rather than
+ * quietly running platform threads; run only the pooled mode there with
+ * {@code -p mode=pooled}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+public class ExecutionModeBenchmark {
+    private static final int MESSAGES = 10000;
+
+    @Param({"pooled", "virtual"})
+    private String mode;
+
+    @Param({"8", "1000"})
+    private int concurrency;
+
+    @Param({"1"})
+    private long blockMillis;
+
+    private ThreadPoolTaskExecutor executor;
+    private PortfolioServiceImpl portfolioService;
+    private final long[] latencies = new long[MESSAGES];
+    private long[] iterationLatencies = new long[MESSAGES];
+    private int iterationCount;
+
+    @Setup
+    public void setUp() {
+        BackpressureHandler backpressureHandler = new BackpressureHandler("clientInboundChannel",
+                BackpressureHandler.Policy.BLOCK, new PortfolioMetrics(), null);
+        if ("virtual".equals(this.mode)) {
+            if (!VirtualThreads.isSupported()) {
+                throw new IllegalStateException("Virtual threads need Java 21+, running on Java " +
+                        System.getProperty("java.version") + "; use -p mode=pooled");
+            }
+            this.executor = new VirtualThreadTaskExecutor(VirtualThreads.newThreadFactory("clientInboundChannel-"),
+                    this.concurrency, backpressureHandler);
+            this.executor.setCorePoolSize(1);
+            this.executor.setMaxPoolSize(1);
+            this.executor.setQueueCapacity(0);
+        } else {
+            this.executor = new ThreadPoolTaskExecutor();
+            this.executor.setRejectedExecutionHandler(backpressureHandler);
+            this.executor.setCorePoolSize(this.concurrency);
+            this.executor.setMaxPoolSize(this.concurrency);
+            this.executor.setQueueCapacity(MESSAGES);
+        }
+        this.executor.initialize();
+        this.portfolioService = new PortfolioServiceImpl();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.executor.shutdown();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printLatencies() {
+        long[] sorted = Arrays.copyOf(this.iterationLatencies, this.iterationCount);
+        Arrays.sort(sorted);
+        if (sorted.length > 0) {
+            System.out.println("  latency ms: p50 " + millis(sorted, 0.50) + ", p99 " + millis(sorted, 0.99) +
+                    ", max " + millis(sorted, 1.0) + " over " + sorted.length + " messages");
+        }
+        this.iterationCount = 0;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void handleBurstOfBlockingMessages() throws Exception {
+        CountDownLatch done = new CountDownLatch(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            this.executor.execute(new BlockingHandler(i, done));
+        }
+        done.await();
+        if (this.iterationCount + MESSAGES > this.iterationLatencies.length) {
+            this.iterationLatencies = Arrays.copyOf(this.iterationLatencies, this.iterationLatencies.length * 2);
+        }
+        System.arraycopy(this.latencies, 0, this.iterationLatencies, this.iterationCount, MESSAGES);
+        this.iterationCount += MESSAGES;
+    }
+
+    private static String millis(long[] sorted, double percentile) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return String.format("%.2f", sorted[Math.max(index, 0)] / 1e6);
+    }
+
+    /**
+     * Blocks like a slow handler, then records how long after submission it
+     * completed in its own slot.
+     */
+    private class BlockingHandler implements Runnable {
+        private final int index;
+        private final CountDownLatch done;
+        private final long submitted = System.nanoTime();
+
+        BlockingHandler(int index, CountDownLatch done) {
+            this.index = index;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(blockMillis);
+                portfolioService.findPortfolio("fabrice").getPositions();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                latencies[this.index] = System.nanoTime() - this.submitted;
+                this.done.countDown();
+            }
+        }
+    }
+}
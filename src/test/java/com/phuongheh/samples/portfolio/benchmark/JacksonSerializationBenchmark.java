@@ -0,0 +1,68 @@
+package com.phuongheh.samples.portfolio.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.phuongheh.samples.portfolio.PortfolioPosition;
+import com.phuongheh.samples.portfolio.service.PortfolioServiceImpl;
+import com.phuongheh.samples.portfolio.service.Quote;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization cost of the payloads sent to clients, both with a
+ * plain {@link ObjectMapper} and through the message converter used by the
+ * messaging templates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JacksonSerializationBenchmark {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+    private Quote quote;
+    private PortfolioPosition position;
+    private List<PortfolioPosition> positions;
+
+    @Setup
+    public void setUp() {
+        this.quote = new Quote("GOOG", new BigDecimal("893.49"));
+        this.positions = new PortfolioServiceImpl().findPortfolio("fabrice").getPositions();
+        this.position = this.positions.get(0);
+    }
+
+    @Benchmark
+    public byte[] quote() throws Exception {
+        return this.objectMapper.writeValueAsBytes(this.quote);
+    }
+
+    @Benchmark
+    public byte[] position() throws Exception {
+        return this.objectMapper.writeValueAsBytes(this.position);
+    }
+
+    @Benchmark
+    public byte[] positions() throws Exception {
+        return this.objectMapper.writeValueAsBytes(this.positions);
+    }
+
+    @Benchmark
+    public Message<?> quoteMessage() {
+        return this.converter.toMessage(this.quote, null);
+    }
+}
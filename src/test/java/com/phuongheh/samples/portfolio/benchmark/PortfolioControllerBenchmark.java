@@ -0,0 +1,131 @@
+package com.phuongheh.samples.portfolio.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.phuongheh.samples.portfolio.service.PortfolioServiceImpl;
+import com.phuongheh.samples.portfolio.service.Trade;
+import com.phuongheh.samples.portfolio.service.TradeServiceImpl;
+import com.phuongheh.samples.portfolio.web.PortfolioController;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.annotation.support.SimpAnnotationMethodMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PortfolioController} message handling through the same
+ * annotation method handler the application uses, so argument resolution,
+ * payload conversion and reply encoding are all included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PortfolioControllerBenchmark {
+    private TradeServiceImpl tradeService;
+    private BenchmarkMethodHandler methodHandler;
+    private Message<byte[]> buyMessage;
+    private Message<byte[]> sellMessage;
+    private Message<byte[]> subscribeMessage;
+    private long tradeCount;
+
+    @Setup
+    public void setUp() throws Exception {
+        PortfolioServiceImpl portfolioService = new PortfolioServiceImpl();
+        SimpMessagingTemplate brokerTemplate = new SimpMessagingTemplate(new DiscardingMessageChannel());
+        this.tradeService = new TradeServiceImpl(brokerTemplate, portfolioService, 0, 50);
+        PortfolioController controller = new PortfolioController(portfolioService, this.tradeService);
+
+        this.methodHandler = new BenchmarkMethodHandler(new DiscardingMessageChannel(), new DiscardingMessageChannel(), brokerTemplate);
+        this.methodHandler.registerHandler(controller);
+        this.methodHandler.setDestinationPrefixes(Collections.singletonList("/app"));
+        this.methodHandler.setMessageConverter(new MappingJackson2MessageConverter());
+        this.methodHandler.setApplicationContext(new StaticApplicationContext());
+        this.methodHandler.afterPropertiesSet();
+
+        this.buyMessage = createTradeMessage(Trade.TradeAction.Buy);
+        this.sellMessage = createTradeMessage(Trade.TradeAction.Sell);
+
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        headers.setSubscriptionId("0");
+        headers.setDestination("/app/positions");
+        headers.setSessionId("0");
+        headers.setUser(new BenchmarkPrincipal("fabrice"));
+        headers.setSessionAttributes(new HashMap<String, Object>());
+        this.subscribeMessage = MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    private static Message<byte[]> createTradeMessage(Trade.TradeAction action) throws Exception {
+        Trade trade = new Trade();
+        trade.setAction(action);
+        trade.setTicker("DELL");
+        trade.setShares(1);
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.SEND);
+        headers.setDestination("/app/trade");
+        headers.setSessionId("0");
+        headers.setUser(new BenchmarkPrincipal("fabrice"));
+        headers.setSessionAttributes(new HashMap<String, Object>());
+        return MessageBuilder.createMessage(new ObjectMapper().writeValueAsBytes(trade), headers.getMessageHeaders());
+    }
+
+    @Benchmark
+    public void executeTrade() {
+        long count = this.tradeCount++;
+        this.methodHandler.handleMessage((count & 1) == 0 ? this.buyMessage : this.sellMessage);
+        if ((count & 0x3ff) == 0) {
+            this.tradeService.sendTradeNotifications();
+        }
+    }
+
+    @Benchmark
+    public void getPositions() {
+        this.methodHandler.handleMessage(this.subscribeMessage);
+    }
+
+    private static class BenchmarkMethodHandler extends SimpAnnotationMethodMessageHandler {
+
+        public BenchmarkMethodHandler(SubscribableChannel clientInboundChannel, MessageChannel clientOutboundChannel,
+                                      SimpMessageSendingOperations brokerTemplate) {
+            super(clientInboundChannel, clientOutboundChannel, brokerTemplate);
+        }
+
+        public void registerHandler(Object handler) {
+            super.detectHandlerMethods(handler);
+        }
+    }
+
+    private static class BenchmarkPrincipal implements Principal {
+        private final String name;
+
+        public BenchmarkPrincipal(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.phuongheh.samples.portfolio.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broadcast of one quote through {@link SimpleBrokerMessageHandler} to a
+ * growing number of sessions subscribed the way the browser client does,
+ * i.e. to {@code /topic/price.stock.*}, while an equal number of sessions
+ * follow unrelated tickers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleBrokerFanOutBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    private int subscriptionCount;
+
+    private SimpleBrokerMessageHandler brokerHandler;
+    private DiscardingMessageChannel clientOutboundChannel;
+    private Message<byte[]> quoteMessage;
+
+    @Setup
+    public void setUp() {
+        this.clientOutboundChannel = new DiscardingMessageChannel();
+        this.brokerHandler = new SimpleBrokerMessageHandler(new DiscardingMessageChannel(),
+                this.clientOutboundChannel, new DiscardingMessageChannel(), Arrays.asList("/queue", "/topic/"));
+        this.brokerHandler.start();
+
+        for (int i = 0; i < this.subscriptionCount; i++) {
+            this.brokerHandler.handleMessage(subscribe("session" + i, "/topic/price.stock.*"));
+            this.brokerHandler.handleMessage(subscribe("other" + i, "/topic/price.stock.T" + i));
+        }
+
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setDestination("/topic/price.stock.GOOG");
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        byte[] payload = "{\"ticker\":\"GOOG\",\"price\":893.49}".getBytes(Charset.forName("UTF-8"));
+        this.quoteMessage = MessageBuilder.createMessage(payload, headers.getMessageHeaders());
+    }
+
+    private static Message<byte[]> subscribe(String sessionId, String destination) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        headers.setSessionId(sessionId);
+        headers.setSubscriptionId("sub0");
+        headers.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.brokerHandler.stop();
+    }
+
+    @Benchmark
+    public long broadcast() {
+        this.brokerHandler.handleMessage(this.quoteMessage);
+        return this.clientOutboundChannel.getMessageCount();
+    }
+}
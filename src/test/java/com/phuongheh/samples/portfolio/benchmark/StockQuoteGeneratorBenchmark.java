@@ -0,0 +1,117 @@
+package com.phuongheh.samples.portfolio.benchmark;
+
+import com.phuongheh.samples.portfolio.service.Quote;
+import com.phuongheh.samples.portfolio.service.StockQuoteGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares one tick of the primitive {@link StockQuoteGenerator} with the
+ * original BigDecimal-based generator it replaced. Run with {@code -prof gc}
+ * to compare allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StockQuoteGeneratorBenchmark {
+
+    @Param({"8", "100000"})
+    private int tickerCount;
+
+    private StockQuoteGenerator generator;
+
+    private LegacyStockQuoteGenerator legacyGenerator;
+
+    private final ChecksumHandler handler = new ChecksumHandler();
+
+    @Setup
+    public void setUp() {
+        String[] tickers = new String[this.tickerCount];
+        long[] seedPrices = new long[this.tickerCount];
+        Random random = new Random(42);
+        for (int i = 0; i < this.tickerCount; i++) {
+            tickers[i] = "T" + i;
+            seedPrices[i] = 100 + random.nextInt(100000);
+        }
+        this.generator = new StockQuoteGenerator(tickers, seedPrices);
+        this.legacyGenerator = new LegacyStockQuoteGenerator(tickers, seedPrices);
+    }
+
+    @Benchmark
+    public long primitiveGenerator() {
+        this.generator.generateQuotes(this.handler);
+        return this.handler.checksum;
+    }
+
+    @Benchmark
+    public Set<Quote> legacyGenerator() {
+        return this.legacyGenerator.generateQuotes();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(StockQuoteGeneratorBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    private static class ChecksumHandler implements StockQuoteGenerator.QuoteHandler {
+        private long checksum;
+
+        @Override
+        public void handleQuote(StockQuoteGenerator.QuoteView quote) {
+            this.checksum += quote.getScaledPrice();
+        }
+    }
+
+    /**
+     * The generator as it was before prices were kept as scaled longs.
+     */
+    private static class LegacyStockQuoteGenerator {
+        private static final MathContext mathContext = new MathContext(2);
+        private final Random random = new Random();
+        private final Map<String, String> prices = new ConcurrentHashMap<>();
+
+        public LegacyStockQuoteGenerator(String[] tickers, long[] seedPrices) {
+            for (int i = 0; i < tickers.length; i++) {
+                this.prices.put(tickers[i], BigDecimal.valueOf(seedPrices[i], 2).toPlainString());
+            }
+        }
+
+        public Set<Quote> generateQuotes() {
+            Set<Quote> quotes = new HashSet<>();
+            for (String ticker : this.prices.keySet()) {
+                BigDecimal price = getPrice(ticker);
+                quotes.add(new Quote(ticker, price));
+            }
+            return quotes;
+        }
+
+        private BigDecimal getPrice(String ticker) {
+            BigDecimal seedPrice = new BigDecimal(this.prices.get(ticker), mathContext);
+            double range = seedPrice.multiply(new BigDecimal(0.02)).doubleValue();
+            BigDecimal priceChange = new BigDecimal(String.valueOf(this.random.nextDouble() * range), mathContext);
+            return seedPrice.add(priceChange);
+        }
+    }
+}
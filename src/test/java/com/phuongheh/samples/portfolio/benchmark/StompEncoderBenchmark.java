@@ -0,0 +1,79 @@
+package com.phuongheh.samples.portfolio.benchmark;
+
+import com.phuongheh.samples.portfolio.messaging.CachingStompEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of one broadcast quote into the MESSAGE frames of 1000 sessions,
+ * as the STOMP protocol handler does after the broker fans it out, with
+ * Spring's {@link StompEncoder} and with {@link CachingStompEncoder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StompEncoderBenchmark {
+    private static final int SESSION_COUNT = 1000;
+
+    @Param({"plain", "caching"})
+    private String encoderType;
+
+    @Param({"64", "4096"})
+    private int payloadSize;
+
+    private StompEncoder encoder;
+    private byte[] payload;
+    private MessageHeaders[] headers;
+
+    @Setup
+    public void setUp() {
+        this.encoder = "caching".equals(this.encoderType) ? new CachingStompEncoder() : new StompEncoder();
+        StringBuilder json = new StringBuilder("{\"ticker\":\"GOOG\",\"price\":893.49,\"pad\":\"");
+        while (json.length() < this.payloadSize - 2) {
+            json.append('x');
+        }
+        this.payload = json.append("\"}").toString().getBytes(Charset.forName("UTF-8"));
+        this.headers = new MessageHeaders[SESSION_COUNT];
+        for (int i = 0; i < SESSION_COUNT; i++) {
+            StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.MESSAGE);
+            headers.setSessionId("session" + i);
+            headers.setSubscriptionId("sub0");
+            headers.setMessageId("session" + i + "-1");
+            headers.setDestination("/topic/price.stock.GOOG");
+            headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            this.headers[i] = headers.getMessageHeaders();
+        }
+    }
+
+    @Benchmark
+    public long encodeBroadcast() {
+        // A new payload per broadcast, as the message converter produces.
+        byte[] payload = this.payload.clone();
+        long length = 0;
+        for (MessageHeaders headers : this.headers) {
+            length += this.encoder.encode(MessageBuilder.createMessage(payload, headers)).length;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,78 @@
+package com.phuongheh.samples.portfolio.benchmark;
+
+import com.phuongheh.samples.portfolio.messaging.TrieSubscriptionRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.DefaultSubscriptionRegistry;
+import org.springframework.messaging.simp.broker.SubscriptionRegistry;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup of the subscribers of quotes for a growing number of tickers, each
+ * followed by one session, while 100 sessions subscribe to all of them with
+ * {@code /topic/price.stock.*}. Quotes go to the tickers in turn, so with
+ * many tickers most destinations are no longer in Spring's registry cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriptionRegistryBenchmark {
+
+    @Param({"default", "trie"})
+    private String registryType;
+
+    @Param({"100", "10000", "50000"})
+    private int tickerCount;
+
+    private SubscriptionRegistry registry;
+    private Message<?>[] quoteMessages;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        this.registry = "trie".equals(this.registryType) ?
+                new TrieSubscriptionRegistry() : new DefaultSubscriptionRegistry();
+        for (int i = 0; i < 100; i++) {
+            this.registry.registerSubscription(subscribe("all" + i, "/topic/price.stock.*"));
+        }
+        this.quoteMessages = new Message<?>[this.tickerCount];
+        for (int i = 0; i < this.tickerCount; i++) {
+            this.registry.registerSubscription(subscribe("session" + i, "/topic/price.stock.T" + i));
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            headers.setDestination("/topic/price.stock.T" + i);
+            this.quoteMessages[i] = MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+        }
+    }
+
+    private static Message<byte[]> subscribe(String sessionId, String destination) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        headers.setSessionId(sessionId);
+        headers.setSubscriptionId("sub0");
+        headers.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    @Benchmark
+    public int findSubscriptions() {
+        Message<?> message = this.quoteMessages[this.next];
+        this.next = (this.next + 1) % this.quoteMessages.length;
+        return this.registry.findSubscriptions(message).size();
+    }
+}
@@ -0,0 +1,153 @@
+package com.phuongheh.samples.portfolio.config;
+
+import com.phuongheh.samples.portfolio.messaging.BackpressureHandler;
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the executor on platform threads, one per task, so it also runs on
+ * Java versions without virtual threads.
+ */
+public class VirtualThreadTaskExecutorTests {
+    private final PortfolioMetrics metrics = new PortfolioMetrics();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger threads = new AtomicInteger();
+    private final ThreadFactory threadFactory = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "test-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    @After
+    public void teardown() {
+        this.release.countDown();
+    }
+
+    @Test
+    public void runsEachTaskOnItsOwnThreadUpToTheCap() throws Exception {
+        VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor(this.threadFactory, 3, null);
+        for (int i = 0; i < 3; i++) {
+            executor.execute(blockedTask());
+        }
+        assertEquals(3, this.threads.get());
+        assertEquals(3, executor.getActiveCount());
+
+        Future<?> waiting = submitFromOtherThread(executor);
+        Thread.sleep(100);
+        assertEquals(3, this.threads.get());
+
+        this.release.countDown();
+        waiting.get(1, TimeUnit.SECONDS);
+        assertEquals(4, this.threads.get());
+    }
+
+    @Test
+    public void dropsQuoteWhenAtTheCap() throws Exception {
+        VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor(this.threadFactory, 1,
+                new BackpressureHandler("test", BackpressureHandler.Policy.DROP_OLDEST_QUOTE, this.metrics, null));
+        executor.execute(blockedTask());
+        executor.execute(quote());
+
+        assertEquals(1, this.threads.get());
+        assertEquals(1, this.metrics.counter("channel.test.dropped-quotes").getCount());
+    }
+
+    @Test(timeout = 5000)
+    public void releasesPermitWhenTaskFails() throws Exception {
+        VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor(this.threadFactory, 1, null);
+        Future<?> failed = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException();
+            }
+        });
+        try {
+            failed.get();
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+        executor.submit(noop()).get();
+    }
+
+    private Future<?> submitFromOtherThread(final VirtualThreadTaskExecutor executor) {
+        FutureTask<Object> submitted = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    executor.submit(noop()).get();
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        }, null);
+        Thread thread = new Thread(submitted);
+        thread.setDaemon(true);
+        thread.start();
+        return submitted;
+    }
+
+    private static Runnable noop() {
+        return new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+    }
+
+    private Runnable blockedTask() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private static MessageHandlingRunnable quote() {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination("/topic/price.stock.GOOG");
+        final Message<byte[]> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+        return new MessageHandlingRunnable() {
+            @Override
+            public Message<?> getMessage() {
+                return message;
+            }
+
+            @Override
+            public MessageHandler getMessageHandler() {
+                return null;
+            }
+
+            @Override
+            public void run() {
+            }
+        };
+    }
+}
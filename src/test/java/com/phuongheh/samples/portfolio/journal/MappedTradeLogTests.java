@@ -0,0 +1,150 @@
+package com.phuongheh.samples.portfolio.journal;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedTradeLogTests {
+    private static final int RECORD_SIZE = 8 + 24 + "fabrice".length() + "DELL".length();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysAppendedRecords() throws Exception {
+        MappedTradeLog log = createLog(1024 * 1024);
+        log.start();
+        for (int i = 1; i <= 3; i++) {
+            log.append(new TradeRecord("fabrice", "DELL", 50 + i, 4 + i, 1000L + i));
+        }
+        log.close();
+
+        List<TradeRecord> records = replay(createLog(1024 * 1024));
+        assertEquals(3, records.size());
+        TradeRecord last = records.get(2);
+        assertEquals("fabrice", last.getUsername());
+        assertEquals("DELL", last.getTicker());
+        assertEquals(53, last.getShares());
+        assertEquals(7, last.getSequence());
+        assertEquals(1003L, last.getTimestamp());
+    }
+
+    @Test
+    public void rollsOverToNewSegments() throws Exception {
+        MappedTradeLog log = createLog(4096);
+        log.start();
+        for (int i = 0; i < 200; i++) {
+            log.append(new TradeRecord("fabrice", "DELL", i, i + 1, i));
+        }
+        log.close();
+
+        assertTrue(log.listSegments().length > 1);
+        List<TradeRecord> records = replay(createLog(4096));
+        assertEquals(200, records.size());
+        assertEquals(200, records.get(199).getSequence());
+    }
+
+    @Test
+    public void stopsAtTornRecordAndKeepsLaterSegments() throws Exception {
+        MappedTradeLog log = createLog(1024 * 1024);
+        log.start();
+        for (int i = 1; i <= 3; i++) {
+            log.append(new TradeRecord("fabrice", "DELL", i, i, i));
+        }
+        log.close();
+        corrupt(log.listSegments()[0], 2 * RECORD_SIZE + 9);
+
+        log = createLog(1024 * 1024);
+        assertEquals(2, replay(log).size());
+        log.start();
+        log.append(new TradeRecord("fabrice", "DELL", 4, 4, 4));
+        log.close();
+
+        List<TradeRecord> records = replay(createLog(1024 * 1024));
+        assertEquals(3, records.size());
+        assertEquals(4, records.get(2).getSequence());
+    }
+
+    @Test
+    public void callsBackOnceRecordIsForced() throws Exception {
+        PortfolioMetrics metrics = new PortfolioMetrics();
+        final PortfolioMetrics.Timer forceTimer = metrics.timer("journal.force");
+        MappedTradeLog log = new MappedTradeLog(this.folder.getRoot(), 1024 * 1024, 10, 1024, metrics);
+        log.start();
+        final BlockingQueue<Long> forcesAtCallback = new LinkedBlockingQueue<>();
+        for (int i = 1; i <= 3; i++) {
+            log.append(new TradeRecord("fabrice", "DELL", i, i, i), new TradeJournal.Callback() {
+                @Override
+                public void onJournaled(boolean journaled) {
+                    assertTrue(journaled);
+                    forcesAtCallback.add(forceTimer.getCount());
+                }
+            });
+        }
+        for (int i = 0; i < 3; i++) {
+            Long forces = forcesAtCallback.poll(1, TimeUnit.SECONDS);
+            assertTrue(forces != null && forces > 0);
+        }
+        log.close();
+    }
+
+    @Test
+    public void reportsFailureAndRejectsLaterRecords() throws Exception {
+        PortfolioMetrics metrics = new PortfolioMetrics();
+        MappedTradeLog log = new MappedTradeLog(this.folder.newFile(), 1024 * 1024, 10, 1024, metrics);
+        log.start();
+        final BlockingQueue<Boolean> results = new LinkedBlockingQueue<>();
+        TradeJournal.Callback callback = new TradeJournal.Callback() {
+            @Override
+            public void onJournaled(boolean journaled) {
+                results.add(journaled);
+            }
+        };
+        log.append(new TradeRecord("fabrice", "DELL", 1, 1, 1), callback);
+        assertFalse(results.poll(1, TimeUnit.SECONDS));
+        assertTrue(log.isFailed());
+        assertEquals(1L, metrics.snapshot().get("journal.failed"));
+
+        log.append(new TradeRecord("fabrice", "DELL", 2, 2, 2), callback);
+        assertFalse(results.poll(1, TimeUnit.SECONDS));
+        log.close();
+    }
+
+    private MappedTradeLog createLog(int segmentSize) {
+        return new MappedTradeLog(this.folder.getRoot(), segmentSize, 10, 1024, new PortfolioMetrics());
+    }
+
+    private static List<TradeRecord> replay(MappedTradeLog log) throws IOException {
+        final List<TradeRecord> records = new ArrayList<>();
+        log.replay(new MappedTradeLog.RecordHandler() {
+            @Override
+            public void handle(TradeRecord record) {
+                records.add(record);
+            }
+        });
+        return records;
+    }
+
+    private static void corrupt(File file, long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            int value = raf.read();
+            raf.seek(offset);
+            raf.write(value ^ 0xff);
+        }
+    }
+}
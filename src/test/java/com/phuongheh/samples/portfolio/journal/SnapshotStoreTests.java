@@ -0,0 +1,55 @@
+package com.phuongheh.samples.portfolio.journal;
+
+import com.phuongheh.samples.portfolio.Portfolio;
+import com.phuongheh.samples.portfolio.service.PortfolioServiceImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SnapshotStoreTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadsWrittenSnapshot() throws Exception {
+        PortfolioServiceImpl portfolioService = new PortfolioServiceImpl();
+        Portfolio portfolio = portfolioService.findPortfolio("fabrice");
+        portfolio.buy("ORCL", 5);
+        SnapshotStore store = new SnapshotStore(this.folder.getRoot());
+        assertNull(store.loadLatest());
+        assertEquals(2, store.write(portfolioService, 7));
+
+        SnapshotStore.Snapshot snapshot = store.loadLatest();
+        assertEquals(7, snapshot.getJournalSegment());
+        Portfolio loaded = snapshot.getPortfolios().get("fabrice");
+        assertEquals(portfolio.getSequence(), loaded.getSequence());
+        assertEquals(50, loaded.getPortfolioPosition("ORCL").getShares());
+        assertEquals("Oracle", loaded.getPortfolioPosition("ORCL").getCompany());
+        assertEquals(portfolio.getPositions().size(), loaded.getPositions().size());
+        assertEquals(4, snapshot.getPortfolios().get("paulson").getPositions().size());
+    }
+
+    @Test
+    public void fallsBackWhenNewestSnapshotIsCorrupt() throws Exception {
+        PortfolioServiceImpl portfolioService = new PortfolioServiceImpl();
+        SnapshotStore store = new SnapshotStore(this.folder.getRoot());
+        store.write(portfolioService, 1);
+        Thread.sleep(2);
+        portfolioService.findPortfolio("fabrice").buy("DELL", 1);
+        store.write(portfolioService, 2);
+
+        File newest = store.loadLatest().getFile();
+        try (RandomAccessFile raf = new RandomAccessFile(newest, "rw")) {
+            raf.seek(raf.length() / 2);
+            raf.write(raf.read() ^ 0xff);
+        }
+        assertEquals(1, store.loadLatest().getJournalSegment());
+    }
+}
@@ -0,0 +1,126 @@
+package com.phuongheh.samples.portfolio.journal;
+
+import com.phuongheh.samples.portfolio.Portfolio;
+import com.phuongheh.samples.portfolio.PositionDelta;
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import com.phuongheh.samples.portfolio.service.PortfolioServiceImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TradeJournalImplTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void restoresPortfoliosOnStartup() throws Exception {
+        PortfolioServiceImpl portfolioService = new PortfolioServiceImpl();
+        TradeJournalImpl journal = createJournal(portfolioService);
+        Portfolio portfolio = portfolioService.findPortfolio("fabrice");
+        PositionDelta first = portfolio.buy("DELL", 10);
+        PositionDelta second = portfolio.sell("DELL", 20);
+        PositionDelta third = portfolio.buy("MSFT", 1);
+        journal.append("fabrice", second);
+        journal.append("fabrice", first);
+        journal.append("fabrice", third);
+        journal.stop();
+
+        PortfolioServiceImpl restartedService = new PortfolioServiceImpl();
+        createJournal(restartedService).stop();
+        Portfolio restored = restartedService.findPortfolio("fabrice");
+        assertEquals(40, restored.getPortfolioPosition("DELL").getShares());
+        assertEquals(34, restored.getPortfolioPosition("MSFT").getShares());
+        assertEquals(third.getSequence(), restored.getSequence());
+        assertEquals(15, restartedService.findPortfolio("paulson").getPortfolioPosition("RHT").getShares());
+    }
+
+    @Test
+    public void restoresFromSnapshotAndJournalTail() throws Exception {
+        PortfolioServiceImpl portfolioService = new PortfolioServiceImpl();
+        TradeJournalImpl journal = createJournal(portfolioService);
+        Portfolio portfolio = portfolioService.findPortfolio("paulson");
+        journal.append("paulson", portfolio.buy("GOOG", 5));
+        journal.snapshot();
+        journal.append("paulson", portfolio.sell("EMC", 25));
+        PositionDelta last = portfolio.buy("GOOG", 1);
+        journal.append("paulson", last);
+        journal.stop();
+
+        PortfolioServiceImpl restartedService = new PortfolioServiceImpl();
+        journal = createJournal(restartedService);
+        Portfolio restored = restartedService.findPortfolio("paulson");
+        assertEquals(11, restored.getPortfolioPosition("GOOG").getShares());
+        assertEquals(50, restored.getPortfolioPosition("EMC").getShares());
+        assertEquals(last.getSequence(), restored.getSequence());
+
+        journal.append("paulson", restored.sell("VMW", 3));
+        Thread.sleep(2);
+        journal.destroy();
+        File firstSegment = new File(this.folder.getRoot(), "trades-00000000000000000001.log");
+        assertTrue(firstSegment.exists());
+
+        restartedService = new PortfolioServiceImpl();
+        journal = createJournal(restartedService);
+        restored = restartedService.findPortfolio("paulson");
+        assertEquals(11, restored.getPortfolioPosition("GOOG").getShares());
+        assertEquals(20, restored.getPortfolioPosition("VMW").getShares());
+        Thread.sleep(2);
+        journal.destroy();
+        assertFalse(firstSegment.exists());
+    }
+
+    @Test
+    public void restoresFromPreviousSnapshotWhenNewestIsCorrupt() throws Exception {
+        PortfolioServiceImpl portfolioService = new PortfolioServiceImpl();
+        TradeJournalImpl journal = createJournal(portfolioService);
+        Portfolio portfolio = portfolioService.findPortfolio("fabrice");
+        journal.append("fabrice", portfolio.buy("DELL", 10));
+        journal.snapshot();
+        journal.append("fabrice", portfolio.buy("MSFT", 7));
+        journal.stop();
+
+        portfolioService = new PortfolioServiceImpl();
+        journal = createJournal(portfolioService);
+        portfolio = portfolioService.findPortfolio("fabrice");
+        journal.append("fabrice", portfolio.sell("ORCL", 5));
+        Thread.sleep(2);
+        journal.destroy();
+
+        File[] snapshots = this.folder.getRoot().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".snap");
+            }
+        });
+        Arrays.sort(snapshots);
+        assertEquals(2, snapshots.length);
+        try (RandomAccessFile raf = new RandomAccessFile(snapshots[1], "rw")) {
+            raf.seek(raf.length() / 2);
+            raf.write(raf.read() ^ 0xff);
+        }
+
+        PortfolioServiceImpl restartedService = new PortfolioServiceImpl();
+        createJournal(restartedService).stop();
+        Portfolio restored = restartedService.findPortfolio("fabrice");
+        assertEquals(60, restored.getPortfolioPosition("DELL").getShares());
+        assertEquals(40, restored.getPortfolioPosition("MSFT").getShares());
+        assertEquals(40, restored.getPortfolioPosition("ORCL").getShares());
+    }
+
+    private TradeJournalImpl createJournal(PortfolioServiceImpl portfolioService) throws Exception {
+        TradeJournalImpl journal = new TradeJournalImpl(portfolioService, true, this.folder.getRoot().getPath(),
+                1024 * 1024, 10, 1024, 0, new PortfolioMetrics());
+        journal.afterPropertiesSet();
+        return journal;
+    }
+}
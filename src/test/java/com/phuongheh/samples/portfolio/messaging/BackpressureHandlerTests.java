@@ -0,0 +1,167 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class BackpressureHandlerTests {
+    private final PortfolioMetrics metrics = new PortfolioMetrics();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private ThreadPoolExecutor executor;
+
+    @After
+    public void teardown() {
+        this.release.countDown();
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void dropsOldestQueuedQuote() {
+        startBlockedExecutor(BackpressureHandler.Policy.DROP_OLDEST_QUOTE, null);
+        MessageHandlingRunnable oldQuote = task(SimpMessageType.MESSAGE, "/topic/price.stock.GOOG");
+        MessageHandlingRunnable newQuote = task(SimpMessageType.MESSAGE, "/topic/price.stock.GOOG");
+        this.executor.execute(oldQuote);
+        this.executor.execute(newQuote);
+
+        assertEquals(1, this.executor.getQueue().size());
+        assertEquals(newQuote, this.executor.getQueue().peek());
+        assertEquals(1, this.metrics.counter("channel.test.dropped-quotes").getCount());
+    }
+
+    @Test
+    public void keepsQueuedQuoteOfOtherTickerOrSession() {
+        startBlockedExecutor(BackpressureHandler.Policy.DROP_OLDEST_QUOTE, null, 2);
+        MessageHandlingRunnable msft = task(SimpMessageType.MESSAGE, "/topic/price.stock.MSFT", "s1");
+        MessageHandlingRunnable otherSession = task(SimpMessageType.MESSAGE, "/topic/price.stock.GOOG", "s2");
+        this.executor.execute(msft);
+        this.executor.execute(otherSession);
+        this.executor.execute(task(SimpMessageType.MESSAGE, "/topic/price.stock.GOOG", "s1"));
+
+        assertEquals(Arrays.asList(msft, otherSession), new ArrayList<>(this.executor.getQueue()));
+        assertEquals(1, this.metrics.counter("channel.test.dropped-quotes").getCount());
+    }
+
+    @Test
+    public void dropsQueuedQuoteSupersededByQueuedOne() {
+        startBlockedExecutor(BackpressureHandler.Policy.DROP_OLDEST_QUOTE, null, 2);
+        MessageHandlingRunnable oldQuote = task(SimpMessageType.MESSAGE, "/topic/price.stock.GOOG", "s1");
+        MessageHandlingRunnable newQuote = task(SimpMessageType.MESSAGE, "/topic/price.stock.GOOG", "s1");
+        MessageHandlingRunnable msft = task(SimpMessageType.MESSAGE, "/topic/price.stock.MSFT", "s1");
+        this.executor.execute(oldQuote);
+        this.executor.execute(newQuote);
+        this.executor.execute(msft);
+
+        assertEquals(Arrays.asList(newQuote, msft), new ArrayList<>(this.executor.getQueue()));
+        assertEquals(1, this.metrics.counter("channel.test.dropped-quotes").getCount());
+    }
+
+    @Test
+    public void dropsQuoteWhenNothingOlderToDrop() {
+        startBlockedExecutor(BackpressureHandler.Policy.DROP_OLDEST_QUOTE, null);
+        MessageHandlingRunnable update = task(SimpMessageType.MESSAGE, "/user/fabrice/queue/position-updates");
+        this.executor.execute(update);
+        this.executor.execute(task(SimpMessageType.MESSAGE, "/topic/price.stock.GOOG"));
+
+        assertEquals(update, this.executor.getQueue().peek());
+        assertEquals(1, this.metrics.counter("channel.test.dropped-quotes").getCount());
+    }
+
+    @Test
+    public void rejectsTradeWithErrorToUser() {
+        final List<String> errors = new ArrayList<>();
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        brokerChannel.subscribe(new MessageHandler() {
+            @Override
+            public void handleMessage(Message<?> message) {
+                errors.add(SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+            }
+        });
+        final SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+        startBlockedExecutor(BackpressureHandler.Policy.REJECT_TRADE, template);
+        this.executor.execute(task(SimpMessageType.SUBSCRIBE, "/user/queue/errors"));
+        this.executor.execute(task(SimpMessageType.MESSAGE, BackpressureHandler.TRADE_DESTINATION));
+
+        assertEquals(1, this.executor.getQueue().size());
+        assertEquals(1, this.metrics.counter("channel.test.rejected-trades").getCount());
+        assertEquals("/user/fabrice/queue/errors", errors.get(0));
+    }
+
+    private void startBlockedExecutor(BackpressureHandler.Policy policy, SimpMessageSendingOperations template) {
+        startBlockedExecutor(policy, template, 1);
+    }
+
+    private void startBlockedExecutor(BackpressureHandler.Policy policy, final SimpMessageSendingOperations template,
+                                      int queueCapacity) {
+        ObjectFactory<SimpMessageSendingOperations> templateFactory = new ObjectFactory<SimpMessageSendingOperations>() {
+            @Override
+            public SimpMessageSendingOperations getObject() {
+                return template;
+            }
+        };
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new BackpressureHandler("test", policy, this.metrics, templateFactory));
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    private static MessageHandlingRunnable task(SimpMessageType type, String destination) {
+        return task(type, destination, null);
+    }
+
+    private static MessageHandlingRunnable task(SimpMessageType type, String destination, String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setDestination(destination);
+        accessor.setSessionId(sessionId);
+        accessor.setUser(new Principal() {
+            @Override
+            public String getName() {
+                return "fabrice";
+            }
+        });
+        final Message<byte[]> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+        return new MessageHandlingRunnable() {
+            @Override
+            public Message<?> getMessage() {
+                return message;
+            }
+
+            @Override
+            public MessageHandler getMessageHandler() {
+                return null;
+            }
+
+            @Override
+            public void run() {
+            }
+        };
+    }
+}
@@ -0,0 +1,155 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import com.phuongheh.samples.portfolio.service.Quote;
+import com.phuongheh.samples.portfolio.service.QuotePublisher;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class BinarySubscriptionInterceptorTests {
+    private final BinarySubscriptionInterceptor interceptor = new BinarySubscriptionInterceptor(null);
+
+    @Test
+    public void rewritesSmileSubscriptionOnBinarySession() {
+        Message<?> message = subscribe("/topic/price.stock.GOOG", "application/x-jackson-smile", true);
+        Message<?> result = this.interceptor.preSend(message, null);
+        assertEquals("/topic/binary/price.stock.GOOG", StompHeaderAccessor.wrap(result).getDestination());
+    }
+
+    @Test
+    public void keepsJsonForSockJsSession() {
+        Message<?> message = subscribe("/topic/price.stock.GOOG", "application/x-jackson-smile", false);
+        assertSame(message, this.interceptor.preSend(message, null));
+    }
+
+    @Test
+    public void keepsSubscriptionWithoutContentType() {
+        Message<?> message = subscribe("/topic/price.stock.GOOG", null, true);
+        assertSame(message, this.interceptor.preSend(message, null));
+    }
+
+    @Test
+    public void tracksBinarySubscriptionsUntilUnsubscribeOrDisconnect() {
+        QuotePublisher publisher = new QuotePublisher(new SimpMessagingTemplate(new ExecutorSubscribableChannel()));
+        BinarySubscriptionInterceptor interceptor = new BinarySubscriptionInterceptor(factory(publisher));
+        try {
+            interceptor.preSend(subscribe("/topic/price.stock.GOOG", "application/x-jackson-smile", true), null);
+            Message<?> second = subscribe("/topic/price.stock.MSFT", "application/x-jackson-smile", true);
+            StompHeaderAccessor accessor = StompHeaderAccessor.wrap(second);
+            accessor.setSubscriptionId("sub-1");
+            interceptor.preSend(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), null);
+            interceptor.preSend(subscribe("/topic/price.stock.ORCL", null, true), null);
+            assertEquals(2, interceptor.getSubscriptionCount());
+
+            StompHeaderAccessor unsubscribe = StompHeaderAccessor.create(StompCommand.UNSUBSCRIBE);
+            unsubscribe.setSessionId("session-0");
+            unsubscribe.setSubscriptionId("sub-0");
+            interceptor.preSend(MessageBuilder.createMessage(new byte[0], unsubscribe.getMessageHeaders()), null);
+            assertEquals(1, interceptor.getSubscriptionCount());
+
+            StompHeaderAccessor disconnect = StompHeaderAccessor.create(StompCommand.DISCONNECT);
+            disconnect.setSessionId("session-0");
+            interceptor.preSend(MessageBuilder.createMessage(new byte[0], disconnect.getMessageHeaders()), null);
+            assertEquals(0, interceptor.getSubscriptionCount());
+        } finally {
+            publisher.destroy();
+        }
+    }
+
+    @Test
+    public void encodesSmileOnlyWhileSubscribed() throws Exception {
+        final List<String> destinations = new CopyOnWriteArrayList<>();
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        brokerChannel.subscribe(new MessageHandler() {
+            @Override
+            public void handleMessage(Message<?> message) {
+                destinations.add(SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+            }
+        });
+        PortfolioMetrics metrics = new PortfolioMetrics();
+        QuotePublisher publisher = new QuotePublisher(new SimpMessagingTemplate(brokerChannel), metrics, 250, 1);
+        BinarySubscriptionInterceptor interceptor = new BinarySubscriptionInterceptor(factory(publisher));
+        try {
+            publishAndAwaitFlush(publisher, metrics, 1);
+            assertEquals(Collections.singletonList("/topic/price.stock.GOOG"), destinations);
+
+            interceptor.preSend(subscribe("/topic/price.stock.GOOG", "application/x-jackson-smile", true), null);
+            destinations.clear();
+            publishAndAwaitFlush(publisher, metrics, 2);
+            assertEquals(Arrays.asList("/topic/price.stock.GOOG", "/topic/binary/price.stock.GOOG"), destinations);
+        } finally {
+            publisher.destroy();
+        }
+    }
+
+    @Test
+    public void convertsOnlySmileMessages() {
+        SmileMessageConverter converter = new SmileMessageConverter();
+        Quote quote = new Quote("GOOG", new BigDecimal("893.49"), 42L);
+
+        assertNull(converter.toMessage(quote, new MessageHeaders(Collections.<String, Object>emptyMap())));
+
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(MessageHeaders.CONTENT_TYPE, SmileMessageConverter.SMILE);
+        Message<?> message = converter.toMessage(quote, new MessageHeaders(headers));
+        Quote decoded = (Quote) converter.fromMessage(message, Quote.class);
+        assertEquals("GOOG", decoded.getTicker());
+        assertEquals(new BigDecimal("893.49"), decoded.getPrice());
+        assertEquals(42L, decoded.getTimestamp());
+    }
+
+    private static void publishAndAwaitFlush(QuotePublisher publisher, PortfolioMetrics metrics, int flushes)
+            throws InterruptedException {
+        publisher.publish(new Quote("GOOG", new BigDecimal("893.49"), 42L));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.timer("quotes.flush").getCount() < flushes && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static ObjectFactory<QuotePublisher> factory(final QuotePublisher publisher) {
+        return new ObjectFactory<QuotePublisher>() {
+            @Override
+            public QuotePublisher getObject() {
+                return publisher;
+            }
+        };
+    }
+
+    private static Message<?> subscribe(String destination, String contentType, boolean binary) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setDestination(destination);
+        accessor.setSubscriptionId("sub-0");
+        accessor.setSessionId("session-0");
+        if (contentType != null) {
+            accessor.setNativeHeader(StompHeaderAccessor.STOMP_CONTENT_TYPE_HEADER, contentType);
+        }
+        Map<String, Object> attributes = new HashMap<>();
+        if (binary) {
+            attributes.put(BinaryFrameHandshakeInterceptor.BINARY_FRAMES_ATTRIBUTE, Boolean.TRUE);
+        }
+        accessor.setSessionAttributes(attributes);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,183 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import com.phuongheh.samples.portfolio.web.support.EmbeddedStompBroker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.BrokerAvailabilityEvent;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.messaging.DefaultSimpUserRegistry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BrokerRelayTests {
+    private EmbeddedStompBroker broker;
+    private Node node1;
+    private Node node2;
+
+    @Before
+    public void setUp() throws Exception {
+        this.broker = new EmbeddedStompBroker(0);
+        this.broker.start();
+        this.node1 = new Node(this.broker.getPort());
+        this.node2 = new Node(this.broker.getPort());
+    }
+
+    @After
+    public void tearDown() {
+        if (this.node1 != null) {
+            this.node1.stop();
+        }
+        if (this.node2 != null) {
+            this.node2.stop();
+        }
+        this.broker.stop();
+    }
+
+    @Test
+    public void backoffDoublesUpToMaximum() {
+        ExponentialBackoffReconnectStrategy strategy = new ExponentialBackoffReconnectStrategy(100, 1000);
+        assertEquals(Long.valueOf(100), strategy.getTimeToNextAttempt(1));
+        assertEquals(Long.valueOf(200), strategy.getTimeToNextAttempt(2));
+        assertEquals(Long.valueOf(800), strategy.getTimeToNextAttempt(4));
+        assertEquals(Long.valueOf(1000), strategy.getTimeToNextAttempt(5));
+        assertEquals(Long.valueOf(1000), strategy.getTimeToNextAttempt(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void sharesUserRegistryOverRelay() {
+        BrokerRelayPostProcessor postProcessor = new BrokerRelayPostProcessor(2, 100, 1000);
+        postProcessor.setUserRegistryBroadcast("/topic/user-registry", 100, 5000, 1000);
+        Object registry = postProcessor.postProcessAfterInitialization(new DefaultSimpUserRegistry(), "userRegistry");
+        assertTrue(registry instanceof DistributedUserRegistry);
+
+        StompBrokerRelayMessageHandler relay = new StompBrokerRelayMessageHandler(new ExecutorSubscribableChannel(),
+                new ExecutorSubscribableChannel(), new ExecutorSubscribableChannel(), Collections.singletonList("/topic/"));
+        postProcessor.postProcessBeforeInitialization(relay, "stompBrokerRelayMessageHandler");
+        assertSame(registry, relay.getSystemSubscriptions().get("/topic/user-registry"));
+    }
+
+    @Test
+    public void broadcastFromOneNodeReachesSubscribersOnAllNodes() throws Exception {
+        assertTrue(this.node1.relay.getTcpClient() instanceof BackoffTcpClient);
+        this.node1.awaitBrokerAvailable();
+        this.node2.awaitBrokerAvailable();
+
+        this.node1.connectAndSubscribe("session1", "/topic/news");
+        this.node2.connectAndSubscribe("session2", "/topic/news");
+
+        this.node1.template.convertAndSend("/topic/news", "hello");
+
+        this.node1.assertMessage("session1", "/topic/news", "hello");
+        this.node2.assertMessage("session2", "/topic/news", "hello");
+        assertEquals(1, this.broker.getReceivedCount());
+        assertEquals(2, this.broker.getDeliveredCount());
+    }
+
+    /**
+     * One application node: the relay and its channels, without the rest of
+     * the message broker configuration.
+     */
+    private static class Node implements ApplicationEventPublisher {
+        private final ExecutorSubscribableChannel inbound = new ExecutorSubscribableChannel();
+        private final ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+        private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        private final StompBrokerRelayMessageHandler relay;
+        private final SimpMessagingTemplate template = new SimpMessagingTemplate(this.brokerChannel);
+        private final BlockingQueue<Message<?>> received = new LinkedBlockingQueue<>();
+        private final CountDownLatch brokerAvailable = new CountDownLatch(1);
+
+        Node(int brokerPort) {
+            this.relay = new StompBrokerRelayMessageHandler(this.inbound, this.outbound, this.brokerChannel,
+                    Collections.singletonList("/topic/"));
+            this.relay.setRelayPort(brokerPort);
+            this.relay.setSystemHeartbeatSendInterval(1000);
+            this.relay.setSystemHeartbeatReceiveInterval(1000);
+            this.relay.setApplicationEventPublisher(this);
+            this.template.setMessageConverter(new StringMessageConverter());
+            new BrokerRelayPostProcessor(2, 100, 1000).postProcessBeforeInitialization(this.relay, "relay");
+            this.outbound.subscribe(new MessageHandler() {
+                @Override
+                public void handleMessage(Message<?> message) {
+                    received.add(message);
+                }
+            });
+            this.relay.start();
+        }
+
+        @Override
+        public void publishEvent(ApplicationEvent event) {
+            publishEvent((Object) event);
+        }
+
+        @Override
+        public void publishEvent(Object event) {
+            if (event instanceof BrokerAvailabilityEvent && ((BrokerAvailabilityEvent) event).isBrokerAvailable()) {
+                this.brokerAvailable.countDown();
+            }
+        }
+
+        void awaitBrokerAvailable() throws InterruptedException {
+            assertTrue("Broker not available", this.brokerAvailable.await(5, TimeUnit.SECONDS));
+        }
+
+        void connectAndSubscribe(String sessionId, String destination) throws InterruptedException {
+            StompHeaderAccessor connect = StompHeaderAccessor.create(StompCommand.CONNECT);
+            connect.setSessionId(sessionId);
+            connect.setAcceptVersion("1.2");
+            connect.setHeartbeat(0, 0);
+            this.inbound.send(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()));
+            assertEquals(StompCommand.CONNECTED, StompHeaderAccessor.wrap(await(sessionId)).getCommand());
+
+            StompHeaderAccessor subscribe = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+            subscribe.setSessionId(sessionId);
+            subscribe.setSubscriptionId("sub-" + sessionId);
+            subscribe.setDestination(destination);
+            subscribe.setReceipt("receipt-" + sessionId);
+            this.inbound.send(MessageBuilder.createMessage(new byte[0], subscribe.getMessageHeaders()));
+            StompHeaderAccessor receipt = StompHeaderAccessor.wrap(await(sessionId));
+            assertEquals(StompCommand.RECEIPT, receipt.getCommand());
+            assertEquals("receipt-" + sessionId, receipt.getReceiptId());
+        }
+
+        void assertMessage(String sessionId, String destination, String payload) throws InterruptedException {
+            Message<?> message = await(sessionId);
+            StompHeaderAccessor headers = StompHeaderAccessor.wrap(message);
+            assertEquals(StompCommand.MESSAGE, headers.getCommand());
+            assertEquals(destination, headers.getDestination());
+            assertEquals("sub-" + sessionId, headers.getSubscriptionId());
+            assertEquals(payload, new String((byte[]) message.getPayload(), StandardCharsets.UTF_8));
+        }
+
+        private Message<?> await(String sessionId) throws InterruptedException {
+            Message<?> message = this.received.poll(5, TimeUnit.SECONDS);
+            assertNotNull("No message for " + sessionId, message);
+            assertEquals(sessionId, StompHeaderAccessor.wrap(message).getSessionId());
+            return message;
+        }
+
+        void stop() {
+            this.relay.stop();
+        }
+    }
+}
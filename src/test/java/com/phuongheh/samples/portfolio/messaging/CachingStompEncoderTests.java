@@ -0,0 +1,94 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class CachingStompEncoderTests {
+    private final CachingStompEncoder encoder = new CachingStompEncoder();
+    private final StompDecoder decoder = new StompDecoder();
+    private byte[] lastPayload;
+
+    @Test
+    public void decodesToSameMessageAsPlainEncoder() {
+        byte[] payload = "{\"ticker\":\"DELL\",\"price\":42.5}".getBytes(StandardCharsets.UTF_8);
+        Message<byte[]> message = createMessage("/topic/price.stock:DELL\\x", "sub\n0", "s1-0", payload);
+
+        StompHeaderAccessor expected = decode(new StompEncoder().encode(message));
+        StompHeaderAccessor actual = decode(this.encoder.encode(message));
+
+        assertEquals(StompCommand.MESSAGE, actual.getCommand());
+        assertEquals("/topic/price.stock:DELL\\x", actual.getDestination());
+        assertEquals("sub\n0", actual.getSubscriptionId());
+        assertEquals(expected.getContentType(), actual.getContentType());
+        assertEquals(expected.getContentLength(), actual.getContentLength());
+        assertEquals(expected.toNativeHeaderMap().keySet(), actual.toNativeHeaderMap().keySet());
+        assertArrayEquals(payload, this.lastPayload);
+    }
+
+    @Test
+    public void sharesFramesOfOneBroadcast() {
+        byte[] payload = "hello".getBytes(StandardCharsets.UTF_8);
+        byte[] first = this.encoder.encode(createMessage("/topic/news", "sub0", "s1-0", payload));
+        byte[] second = this.encoder.encode(createMessage("/topic/news", "sub0", "s2-0", payload));
+        byte[] other = this.encoder.encode(createMessage("/topic/news", "sub1", "s3-0", payload));
+
+        assertSame(first, second);
+        assertEquals(1, this.encoder.getSharedFrameCount());
+        assertEquals("sub1", decode(other).getSubscriptionId());
+        assertEquals(decode(first).getMessageId(), decode(other).getMessageId());
+    }
+
+    @Test
+    public void encodesOtherBroadcastsSeparately() {
+        byte[] payload = "hello".getBytes(StandardCharsets.UTF_8);
+        byte[] first = this.encoder.encode(createMessage("/topic/news", "sub0", "s1-0", payload));
+        byte[] otherDestination = this.encoder.encode(createMessage("/topic/sports", "sub0", "s1-1", payload));
+        byte[] otherPayload = this.encoder.encode(createMessage("/topic/news", "sub0", "s1-2", payload.clone()));
+
+        assertEquals("/topic/sports", decode(otherDestination).getDestination());
+        assertNotSame(first, otherPayload);
+        assertNotEquals(decode(first).getMessageId(), decode(otherPayload).getMessageId());
+        assertEquals(0, this.encoder.getSharedFrameCount());
+    }
+
+    @Test
+    public void encodesOtherFramesAsBefore() {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.RECEIPT);
+        headers.setReceiptId("r:1");
+        Message<byte[]> message = MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+        assertArrayEquals(new StompEncoder().encode(message), this.encoder.encode(message));
+    }
+
+    private StompHeaderAccessor decode(byte[] frame) {
+        List<Message<byte[]>> messages = this.decoder.decode(ByteBuffer.wrap(frame));
+        assertEquals(1, messages.size());
+        this.lastPayload = messages.get(0).getPayload();
+        return StompHeaderAccessor.wrap(messages.get(0));
+    }
+
+    private static Message<byte[]> createMessage(String destination, String subscriptionId, String messageId,
+                                                 byte[] payload) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        headers.setDestination(destination);
+        headers.setSubscriptionId(subscriptionId);
+        headers.setMessageId(messageId);
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        return MessageBuilder.createMessage(payload, headers.getMessageHeaders());
+    }
+}
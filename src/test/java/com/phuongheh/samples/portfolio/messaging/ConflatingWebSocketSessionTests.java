@@ -0,0 +1,165 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConflatingWebSocketSessionTests {
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final PortfolioMetrics.Counter conflated = new PortfolioMetrics().counter("conflated");
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch firstSendStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseFirstSend = new CountDownLatch(1);
+
+    @After
+    public void teardown() {
+        this.releaseFirstSend.countDown();
+        this.writer.shutdownNow();
+    }
+
+    @Test
+    public void keepsNewestQuotePerSubscriptionAndDestination() throws Exception {
+        ConflatingWebSocketSession session = new ConflatingWebSocketSession(blockingSession(), this.writer, 10000, 1024 * 1024, this.conflated);
+        session.sendMessage(quote("sub-0", "GOOG", "1"));
+        assertTrue(this.firstSendStarted.await(5, TimeUnit.SECONDS));
+
+        session.sendMessage(quote("sub-0", "GOOG", "2"));
+        session.sendMessage(quote("sub-0", "MSFT", "1"));
+        session.sendMessage(update("fabrice", "1"));
+        session.sendMessage(quote("sub-0", "GOOG", "3"));
+        session.sendMessage(update("fabrice", "2"));
+        this.releaseFirstSend.countDown();
+
+        this.writer.shutdown();
+        assertTrue(this.writer.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("GOOG-1", "GOOG-3", "MSFT-1", "update-1", "update-2"), this.sent);
+        assertEquals(1, this.conflated.getCount());
+    }
+
+    @Test
+    public void keepsFastSessionWithSteadyStreamOpen() throws Exception {
+        final List<String> fastSent = Collections.synchronizedList(new ArrayList<String>());
+        WebSocketSession delegate = session(new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                fastSent.add(((TextMessage) args[0]).getPayload());
+                Thread.sleep(1);
+                return null;
+            }
+        });
+        ConflatingWebSocketSession session = new ConflatingWebSocketSession(delegate, this.writer, 100, 1024 * 1024, this.conflated);
+        long end = System.currentTimeMillis() + 500;
+        int count = 0;
+        while (System.currentTimeMillis() < end) {
+            session.sendMessage(update("fabrice", String.valueOf(count++)));
+            Thread.sleep(0, 500000);
+        }
+        this.writer.shutdown();
+        assertTrue(this.writer.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(count, fastSent.size());
+    }
+
+    @Test(expected = SessionLimitExceededException.class)
+    public void closesSessionWhenOneSendTakesTooLong() throws Exception {
+        ConflatingWebSocketSession session = new ConflatingWebSocketSession(blockingSession(), this.writer, 100, 1024 * 1024, this.conflated);
+        session.sendMessage(update("fabrice", "1"));
+        assertTrue(this.firstSendStarted.await(5, TimeUnit.SECONDS));
+        session.sendMessage(update("fabrice", "2"));
+        Thread.sleep(150);
+        session.sendMessage(update("fabrice", "3"));
+    }
+
+    @Test
+    public void writesBoundedBatchesPerTask() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        Executor queueing = new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        };
+        ConflatingWebSocketSession session = new ConflatingWebSocketSession(blockingSession(), queueing, 10000, 1024 * 1024, this.conflated);
+        this.releaseFirstSend.countDown();
+        for (int i = 0; i < ConflatingWebSocketSession.MAX_FRAMES_PER_FLUSH + 1; i++) {
+            session.sendMessage(update("fabrice", String.valueOf(i)));
+        }
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertEquals(ConflatingWebSocketSession.MAX_FRAMES_PER_FLUSH, this.sent.size());
+        assertEquals(2, tasks.size());
+        tasks.get(1).run();
+        assertEquals(ConflatingWebSocketSession.MAX_FRAMES_PER_FLUSH + 1, this.sent.size());
+    }
+
+    @Test
+    public void neverConflatesQueues() {
+        assertNull(ConflatingWebSocketSession.conflationKey(update("fabrice", "1")));
+        assertEquals("sub-0\n/topic/price.stock.GOOG", ConflatingWebSocketSession.conflationKey(quote("sub-0", "GOOG", "1")));
+        assertNull(ConflatingWebSocketSession.conflationKey(new TextMessage("CONNECTED\nversion:1.2\n\n\u0000")));
+    }
+
+    private static TextMessage quote(String subscription, String ticker, String body) {
+        return new TextMessage("MESSAGE\ndestination:/topic/price.stock." + ticker + "\nsubscription:" + subscription +
+                "\nmessage-id:1\ncontent-length:" + body.length() + "\n\n" + ticker + "-" + body + "\u0000");
+    }
+
+    private static TextMessage update(String user, String body) {
+        return new TextMessage("MESSAGE\ndestination:/user/" + user + "/queue/position-updates\nsubscription:sub-1" +
+                "\nmessage-id:2\ncontent-length:" + body.length() + "\n\nupdate-" + body + "\u0000");
+    }
+
+    private WebSocketSession blockingSession() {
+        return session(new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String payload = ((TextMessage) args[0]).getPayload();
+                sent.add(payload.substring(payload.indexOf("\n\n") + 2, payload.length() - 1));
+                firstSendStarted.countDown();
+                releaseFirstSend.await();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Return a session sending messages with the given handler.
+     */
+    private WebSocketSession session(final InvocationHandler sendHandler) {
+        return (WebSocketSession) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{WebSocketSession.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("sendMessage")) {
+                            return sendHandler.invoke(proxy, method, args);
+                        }
+                        if (method.getName().equals("getId")) {
+                            return "session-0";
+                        }
+                        if (method.getName().equals("isOpen")) {
+                            return true;
+                        }
+                        return null;
+                    }
+                });
+    }
+}
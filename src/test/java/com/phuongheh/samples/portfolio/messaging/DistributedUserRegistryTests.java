@@ -0,0 +1,180 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.BrokerAvailabilityEvent;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.simp.user.DefaultUserDestinationResolver;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.UserDestinationResult;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.DefaultSimpUserRegistry;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DistributedUserRegistryTests {
+    private final TestBroker broker = new TestBroker();
+
+    @Test
+    public void resolvesUsersOnOtherNodes() {
+        DistributedUserRegistry node1 = createNode(60000);
+        DistributedUserRegistry node2 = createNode(60000);
+        node1.onApplicationEvent(connectedEvent("fabrice", "s1"));
+        node2.onApplicationEvent(connectedEvent("paulson", "s2"));
+        tick(node1, node2);
+
+        assertEquals(Collections.singleton("s1"), sessionIds(node2.getUser("fabrice")));
+        assertEquals(2, node2.getUserCount());
+        assertEquals(2, node1.getUsers().size());
+
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setDestination("/user/fabrice/queue/position-updates");
+        UserDestinationResult result = new DefaultUserDestinationResolver(node2).resolveDestination(
+                MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders()));
+        assertEquals(Collections.singleton("/queue/position-updates-users1"), result.getTargetDestinations());
+
+        this.broker.messages.clear();
+        node1.onApplicationEvent(connectedEvent("fabrice", "s3"));
+        node1.tick();
+        assertEquals(1, this.broker.messages.size());
+        assertTrue(this.broker.messages.get(0).startsWith(DistributedUserRegistry.DELTA + " "));
+        assertEquals(new HashSet<>(Arrays.asList("s1", "s3")), sessionIds(node2.getUser("fabrice")));
+        assertEquals(Collections.singleton("fabrice"), node2.getRemoteUserNames());
+        assertEquals(2, node2.getRemoteSessionCount());
+
+        node1.onApplicationEvent(disconnectEvent("fabrice", "s1"));
+        node1.onApplicationEvent(disconnectEvent("fabrice", "s3"));
+        node1.tick();
+        assertNull(node2.getUser("fabrice"));
+        assertEquals(1, node2.getUserCount());
+        assertEquals(0, node2.getRemoteSessionCount());
+    }
+
+    @Test
+    public void resendsEverythingAfterMissedUpdate() {
+        DistributedUserRegistry node1 = createNode(60000);
+        DistributedUserRegistry node2 = createNode(60000);
+        tick(node1, node2);
+
+        this.broker.dropNext = true;
+        node1.onApplicationEvent(connectedEvent("fabrice", "s1"));
+        node1.tick();
+        assertNull(node2.getUser("fabrice"));
+
+        node1.onApplicationEvent(connectedEvent("paulson", "s2"));
+        node1.tick();
+        assertNull(node2.getUser("fabrice"));
+
+        tick(node2, node1);
+        assertEquals(Collections.singleton("s1"), sessionIds(node2.getUser("fabrice")));
+        assertEquals(Collections.singleton("s2"), sessionIds(node2.getUser("paulson")));
+    }
+
+    @Test
+    public void dropsSessionsOfSilentNode() throws Exception {
+        DistributedUserRegistry node1 = createNode(10);
+        DistributedUserRegistry node2 = createNode(10);
+        node1.onApplicationEvent(connectedEvent("fabrice", "s1"));
+        tick(node1, node2);
+        assertEquals(1, node2.getUserCount());
+
+        Thread.sleep(50);
+        node2.tick();
+        assertEquals(0, node2.getUserCount());
+        assertEquals(0, node2.getRemoteNodeCount());
+    }
+
+    private DistributedUserRegistry createNode(long heartbeatInterval) {
+        DistributedUserRegistry registry = new DistributedUserRegistry(new DefaultSimpUserRegistry(),
+                "/topic/user-registry", 0, heartbeatInterval, 1000);
+        registry.setBrokerChannel(this.broker);
+        registry.onApplicationEvent(new BrokerAvailabilityEvent(true, this));
+        this.broker.nodes.add(registry);
+        return registry;
+    }
+
+    private static void tick(DistributedUserRegistry... nodes) {
+        for (int i = 0; i < 2; i++) {
+            for (DistributedUserRegistry node : nodes) {
+                node.tick();
+            }
+        }
+    }
+
+    private static Set<String> sessionIds(SimpUser user) {
+        Set<String> ids = new HashSet<>();
+        for (SimpSession session : user.getSessions()) {
+            ids.add(session.getId());
+        }
+        return ids;
+    }
+
+    private static SessionConnectedEvent connectedEvent(String username, String sessionId) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.CONNECTED);
+        headers.setSessionId(sessionId);
+        return new SessionConnectedEvent(new Object(), MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders()),
+                principal(username));
+    }
+
+    private static SessionDisconnectEvent disconnectEvent(String username, String sessionId) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.DISCONNECT);
+        headers.setSessionId(sessionId);
+        return new SessionDisconnectEvent(new Object(), MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders()),
+                sessionId, CloseStatus.NORMAL, principal(username));
+    }
+
+    private static Principal principal(final String username) {
+        return new Principal() {
+            @Override
+            public String getName() {
+                return username;
+            }
+        };
+    }
+
+    /**
+     * Delivers every message to all nodes, like a topic on the broker.
+     */
+    private static class TestBroker implements MessageChannel {
+        private final List<DistributedUserRegistry> nodes = new ArrayList<>();
+        private final List<String> messages = new ArrayList<>();
+        private boolean dropNext;
+
+        @Override
+        public boolean send(Message<?> message) {
+            return send(message, -1);
+        }
+
+        @Override
+        public boolean send(Message<?> message, long timeout) {
+            if (this.dropNext) {
+                this.dropNext = false;
+                return true;
+            }
+            this.messages.add(new String((byte[]) message.getPayload(), StandardCharsets.UTF_8));
+            for (DistributedUserRegistry node : this.nodes) {
+                node.handleMessage(message);
+            }
+            return true;
+        }
+    }
+}
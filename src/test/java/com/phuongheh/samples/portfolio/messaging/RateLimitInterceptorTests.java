@@ -0,0 +1,158 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimitInterceptorTests {
+    private final PortfolioMetrics metrics = new PortfolioMetrics();
+    private final List<Message<?>> notices = new ArrayList<>();
+    private RateLimitInterceptor interceptor;
+
+    @Before
+    public void setup() {
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        brokerChannel.subscribe(new MessageHandler() {
+            @Override
+            public void handleMessage(Message<?> message) {
+                notices.add(message);
+            }
+        });
+        final SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+        this.interceptor = new RateLimitInterceptor(new RateLimitInterceptor.Limits(0.001, 2, 0.001, 5), this.metrics,
+                new ObjectFactory<SimpMessagingTemplate>() {
+                    @Override
+                    public SimpMessagingTemplate getObject() {
+                        return template;
+                    }
+                });
+        this.interceptor.setRoleLimits("ADMIN", new RateLimitInterceptor.Limits(0.001, 4, 0.001, 10));
+    }
+
+    @Test
+    public void limitsTradesPerUserAcrossSessions() {
+        Principal fabrice = user("fabrice", "ROLE_USER");
+        assertNotNull(send(trade("s1", fabrice)));
+        assertNotNull(send(trade("s2", fabrice)));
+        assertNull(send(trade("s1", fabrice)));
+        assertNull(send(trade("s2", fabrice)));
+
+        assertNotNull(send(trade("s3", user("paulson", "ROLE_ADMIN", "ROLE_USER"))));
+        assertEquals(2, this.metrics.counter("rate-limit.rejected-trades").getCount());
+    }
+
+    @Test
+    public void limitsByRole() {
+        Principal paulson = user("paulson", "ROLE_ADMIN", "ROLE_USER");
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(send(trade("s1", paulson)));
+        }
+        assertNull(send(trade("s1", paulson)));
+    }
+
+    @Test
+    public void limitsFramesPerSession() {
+        Principal fabrice = user("fabrice", "ROLE_USER");
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(send(message(SimpMessageType.SUBSCRIBE, "s1", fabrice, "/topic/price.stock." + i)));
+        }
+        assertNull(send(message(SimpMessageType.MESSAGE, "s1", fabrice, "/app/other")));
+        assertNotNull(send(message(SimpMessageType.MESSAGE, "s2", fabrice, "/app/other")));
+        assertNotNull(send(message(SimpMessageType.HEARTBEAT, "s1", fabrice, null)));
+        assertEquals(1, this.metrics.counter("rate-limit.rejected-messages").getCount());
+    }
+
+    @Test
+    public void notifiesSessionOncePerInterval() {
+        Principal fabrice = user("fabrice", "ROLE_USER");
+        for (int i = 0; i < 10; i++) {
+            send(trade("s1", fabrice));
+        }
+        assertEquals(1, this.notices.size());
+        Message<?> notice = this.notices.get(0);
+        assertEquals("/queue/errors-users1", SimpMessageHeaderAccessor.getDestination(notice.getHeaders()));
+        assertEquals(RateLimitInterceptor.REJECTED_MESSAGE, new String((byte[]) notice.getPayload(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void sendsEachNoticeWithItsOwnPayload() throws Exception {
+        Principal fabrice = user("fabrice", "ROLE_USER");
+        for (int i = 0; i < 4; i++) {
+            send(trade("s1", fabrice));
+        }
+        Thread.sleep(RateLimitInterceptor.NOTICE_INTERVAL_MILLIS + 50);
+        for (int i = 0; i < 4; i++) {
+            send(trade("s1", fabrice));
+        }
+        assertEquals(2, this.notices.size());
+        assertNotSame(this.notices.get(0).getPayload(), this.notices.get(1).getPayload());
+    }
+
+    @Test
+    public void forgetsUserAfterLastDisconnect() {
+        Principal fabrice = user("fabrice", "ROLE_USER");
+        send(trade("s1", fabrice));
+        send(trade("s1", fabrice));
+        assertNull(send(trade("s1", fabrice)));
+        assertEquals(1L, this.metrics.snapshot().get("rate-limit.sessions"));
+        send(message(SimpMessageType.DISCONNECT, "s1", fabrice, null));
+        assertEquals(0L, this.metrics.snapshot().get("rate-limit.sessions"));
+
+        assertNotNull(send(trade("s2", fabrice)));
+    }
+
+    @Test
+    public void refillsAtConfiguredRate() {
+        RateLimitInterceptor.Bucket bucket = new RateLimitInterceptor.Bucket();
+        long now = System.nanoTime();
+        assertTrue(bucket.tryAcquire(now, 1000, 2000));
+        assertTrue(bucket.tryAcquire(now, 1000, 2000));
+        assertFalse(bucket.tryAcquire(now, 1000, 2000));
+        assertTrue(bucket.tryAcquire(now + 1000, 1000, 2000));
+        assertFalse(bucket.tryAcquire(now + 1000, 1000, 2000));
+    }
+
+    private Message<?> send(Message<?> message) {
+        return this.interceptor.preSend(message, null);
+    }
+
+    private static Message<?> trade(String sessionId, Principal user) {
+        return message(SimpMessageType.MESSAGE, sessionId, user, BackpressureHandler.TRADE_DESTINATION);
+    }
+
+    private static Message<?> message(SimpMessageType type, String sessionId, Principal user, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setUser(user);
+        if (destination != null) {
+            accessor.setDestination(destination);
+        }
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Principal user(String name, String... roles) {
+        return new UsernamePasswordAuthenticationToken(name, "", AuthorityUtils.createAuthorityList(roles));
+    }
+}
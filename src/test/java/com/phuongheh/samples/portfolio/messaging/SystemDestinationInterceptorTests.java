@@ -0,0 +1,51 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SystemDestinationInterceptorTests {
+    private final SystemDestinationInterceptor interceptor = new SystemDestinationInterceptor("/topic/user-registry");
+
+    @Test
+    public void rejectsClientSendToSystemDestination() {
+        assertNull(send(SimpMessageType.MESSAGE, "/topic/user-registry"));
+        assertNotNull(send(SimpMessageType.MESSAGE, "/app/trade"));
+    }
+
+    @Test
+    public void rejectsSubscriptionsThatCouldMatchSystemDestination() {
+        assertNull(send(SimpMessageType.SUBSCRIBE, "/topic/user-registry"));
+        assertNull(send(SimpMessageType.SUBSCRIBE, "/topic/**"));
+        assertNull(send(SimpMessageType.SUBSCRIBE, "/topic/*"));
+        assertNull(send(SimpMessageType.SUBSCRIBE, "/topic/#"));
+        assertNotNull(send(SimpMessageType.SUBSCRIBE, "/topic/price.stock.*"));
+        assertNotNull(send(SimpMessageType.SUBSCRIBE, "/user/queue/errors"));
+        assertNotNull(send(SimpMessageType.UNSUBSCRIBE, "/topic/user-registry"));
+    }
+
+    @Test
+    public void matchesRoutingKeyPatterns() {
+        assertTrue(SystemDestinationInterceptor.matchesRoutingKey("#", "user-registry"));
+        assertTrue(SystemDestinationInterceptor.matchesRoutingKey("#.user-registry.#", "user-registry"));
+        assertTrue(SystemDestinationInterceptor.matchesRoutingKey("price.#", "price.stock.GOOG"));
+        assertTrue(SystemDestinationInterceptor.matchesRoutingKey("price.*.GOOG", "price.stock.GOOG"));
+        assertFalse(SystemDestinationInterceptor.matchesRoutingKey("*.*", "user-registry"));
+        assertFalse(SystemDestinationInterceptor.matchesRoutingKey("price.stock.*", "user-registry"));
+    }
+
+    private Message<?> send(SimpMessageType type, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setDestination(destination);
+        accessor.setSessionId("s1");
+        Message<byte[]> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+        return this.interceptor.preSend(message, null);
+    }
+}
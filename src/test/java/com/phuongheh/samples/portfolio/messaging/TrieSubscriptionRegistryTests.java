@@ -0,0 +1,128 @@
+package com.phuongheh.samples.portfolio.messaging;
+
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.DefaultSubscriptionRegistry;
+import org.springframework.messaging.simp.broker.SubscriptionRegistry;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MultiValueMap;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrieSubscriptionRegistryTests {
+    private static final List<String> DESTINATIONS = Arrays.asList("/topic/price.stock.GOOG",
+            "/topic/price.stock.DELL", "/topic/price.stock.A.B", "/topic/binary/price.stock.GOOG",
+            "/topic/news", "/queue/position-updates-users1", "/other");
+
+    private final TrieSubscriptionRegistry registry = new TrieSubscriptionRegistry();
+    private final DefaultSubscriptionRegistry expected = new DefaultSubscriptionRegistry();
+
+    @Test
+    public void findsSameSubscriptionsAsDefaultRegistry() {
+        subscribe("s1", "sub0", "/topic/price.stock.*");
+        subscribe("s1", "sub1", "/topic/price.stock.GOOG");
+        subscribe("s2", "sub0", "/topic/price.stock.*");
+        subscribe("s3", "sub0", "/topic/price.st*");
+        subscribe("s4", "sub0", "/topic/**");
+        subscribe("s5", "sub0", "/**");
+        subscribe("s6", "sub0", "/topic/{channel}");
+        subscribe("s7", "sub0", "/topic/binary/price.stock.?OOG");
+        subscribe("s8", "sub0", "/queue/position-updates-users1");
+        assertSameSubscriptions();
+
+        unsubscribe("s1", "sub0");
+        unsubscribe("s4", "sub0");
+        this.registry.unregisterAllSubscriptions("s5");
+        this.expected.unregisterAllSubscriptions("s5");
+        assertSameSubscriptions();
+        assertEquals(Collections.singletonList("sub1"), find("/topic/price.stock.GOOG").get("s1"));
+    }
+
+    @Test
+    public void resubscribingMovesSubscription() {
+        subscribe("s1", "sub0", "/topic/price.stock.*");
+        subscribe("s1", "sub0", "/topic/news");
+        assertTrue(find("/topic/price.stock.GOOG").isEmpty());
+        assertEquals(Collections.singletonList("sub0"), find("/topic/news").get("s1"));
+    }
+
+    @Test
+    public void newPatternsApplyToCachedDestinations() {
+        subscribe("s1", "sub0", "/topic/price.stock.*");
+        assertEquals(Collections.singleton("s1"), find("/topic/price.stock.GOOG").keySet());
+
+        subscribe("s2", "sub0", "/topic/price.*.GOOG");
+        assertEquals(new HashSet<>(Arrays.asList("s1", "s2")), find("/topic/price.stock.GOOG").keySet());
+
+        unsubscribe("s1", "sub0");
+        unsubscribe("s2", "sub0");
+        assertTrue(find("/topic/price.stock.GOOG").isEmpty());
+    }
+
+    @Test
+    public void literalSegmentsStopBeforeWildcard() {
+        assertEquals(Arrays.asList("topic", "price", "stock"),
+                TrieSubscriptionRegistry.literalSegments("/topic/price.stock.*"));
+        assertEquals(Arrays.asList("topic", "price"), TrieSubscriptionRegistry.literalSegments("/topic/price.st*"));
+        assertEquals(Collections.<String>emptyList(), TrieSubscriptionRegistry.literalSegments("/**"));
+    }
+
+    private void assertSameSubscriptions() {
+        for (String destination : DESTINATIONS) {
+            assertEquals(destination, normalize(this.expected.findSubscriptions(message(destination))),
+                    normalize(find(destination)));
+        }
+    }
+
+    private MultiValueMap<String, String> find(String destination) {
+        return this.registry.findSubscriptions(message(destination));
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, String destination) {
+        for (SubscriptionRegistry registry : Arrays.asList(this.registry, this.expected)) {
+            registry.registerSubscription(subscription(SimpMessageType.SUBSCRIBE, sessionId, subscriptionId, destination));
+        }
+    }
+
+    private void unsubscribe(String sessionId, String subscriptionId) {
+        for (SubscriptionRegistry registry : Arrays.asList(this.registry, this.expected)) {
+            registry.unregisterSubscription(subscription(SimpMessageType.UNSUBSCRIBE, sessionId, subscriptionId, null));
+        }
+    }
+
+    private static Map<String, Set<String>> normalize(MultiValueMap<String, String> subscriptions) {
+        Map<String, Set<String>> normalized = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : subscriptions.entrySet()) {
+            normalized.put(entry.getKey(), new HashSet<>(entry.getValue()));
+        }
+        return normalized;
+    }
+
+    private static Message<byte[]> subscription(SimpMessageType type, String sessionId, String subscriptionId,
+                                                String destination) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(type);
+        headers.setSessionId(sessionId);
+        headers.setSubscriptionId(subscriptionId);
+        if (destination != null) {
+            headers.setDestination(destination);
+        }
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    private static Message<byte[]> message(String destination) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+}
@@ -0,0 +1,79 @@
+package com.phuongheh.samples.portfolio.metrics;
+
+import org.junit.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChannelMetricsInterceptorTests {
+    private final PortfolioMetrics metrics = new PortfolioMetrics();
+    private final ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel(new SyncTaskExecutor());
+
+    public ChannelMetricsInterceptorTests() {
+        this.channel.addInterceptor(new ChannelMetricsInterceptor(this.metrics, "test"));
+    }
+
+    @Test
+    public void countsAndTimesSendsAndHandlers() {
+        this.channel.subscribe(new MessageHandler() {
+            @Override
+            public void handleMessage(Message<?> message) {
+                if ("fail".equals(message.getPayload())) {
+                    throw new IllegalStateException();
+                }
+            }
+        });
+        this.channel.send(MessageBuilder.withPayload("ok").build());
+        try {
+            this.channel.send(MessageBuilder.withPayload("fail").build());
+            fail();
+        } catch (MessagingException ex) {
+            // expected
+        }
+
+        assertEquals(1, this.metrics.counter("channel.test.sent").getCount());
+        assertEquals(1, this.metrics.counter("channel.test.failed").getCount());
+        assertEquals(2, this.metrics.timer("channel.test.send").getCount());
+        assertEquals(2, this.metrics.timer("channel.test.handle").getCount());
+    }
+
+    @Test
+    public void timesNestedSendsOnTheSameThreadSeparately() {
+        this.channel.subscribe(new MessageHandler() {
+            @Override
+            public void handleMessage(Message<?> message) {
+                if ("outer".equals(message.getPayload())) {
+                    sleep(50);
+                    channel.send(MessageBuilder.withPayload("inner").build());
+                }
+            }
+        });
+        this.channel.send(MessageBuilder.withPayload("outer").build());
+
+        assertEquals(2, this.metrics.timer("channel.test.send").getCount());
+        assertTrue(maxMillis("channel.test.send") >= 50);
+        assertTrue(maxMillis("channel.test.handle") >= 50);
+    }
+
+    private double maxMillis(String timer) {
+        Map<String, Object> snapshot = this.metrics.timer(timer).snapshot();
+        return (Double) snapshot.get("maxMillis");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
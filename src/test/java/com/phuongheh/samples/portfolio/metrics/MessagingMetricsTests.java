@@ -0,0 +1,73 @@
+package com.phuongheh.samples.portfolio.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+public class MessagingMetricsTests {
+    private final PortfolioMetrics metrics = new PortfolioMetrics();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+    @After
+    public void teardown() {
+        this.release.countDown();
+        this.executor.shutdown();
+    }
+
+    @Test
+    public void publishesExecutorGauges() {
+        this.executor.setCorePoolSize(1);
+        this.executor.setMaxPoolSize(1);
+        this.executor.setQueueCapacity(10);
+        this.executor.initialize();
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("clientInboundChannelExecutor", this.executor);
+        new MessagingMetrics(this.metrics, beanFactory).afterSingletonsInstantiated();
+
+        for (int i = 0; i < 3; i++) {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+
+        assertEquals(2L, this.metrics.snapshot().get("executor.clientInboundChannelExecutor.queued"));
+        assertEquals(1L, this.metrics.snapshot().get("executor.clientInboundChannelExecutor.pool-size"));
+    }
+
+    @Test
+    public void countsActiveSessions() {
+        MessagingMetrics messagingMetrics = new MessagingMetrics(this.metrics, new DefaultListableBeanFactory());
+        messagingMetrics.onApplicationEvent(new SessionConnectedEvent(this, message(StompCommand.CONNECTED, "s1")));
+        messagingMetrics.onApplicationEvent(new SessionConnectedEvent(this, message(StompCommand.CONNECTED, "s2")));
+        messagingMetrics.onApplicationEvent(new SessionDisconnectEvent(this, message(StompCommand.DISCONNECT, "s1"),
+                "s1", CloseStatus.NORMAL));
+
+        assertEquals(1L, this.metrics.snapshot().get("sessions.active"));
+    }
+
+    private static Message<byte[]> message(StompCommand command, String sessionId) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(command);
+        headers.setSessionId(sessionId);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+}
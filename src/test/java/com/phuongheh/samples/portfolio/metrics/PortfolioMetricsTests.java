@@ -0,0 +1,57 @@
+package com.phuongheh.samples.portfolio.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PortfolioMetricsTests {
+    private final PortfolioMetrics metrics = new PortfolioMetrics();
+
+    @Test
+    public void countsByName() {
+        this.metrics.counter("trades").increment();
+        this.metrics.counter("trades").add(2);
+
+        assertSame(this.metrics.counter("trades"), this.metrics.counter("trades"));
+        assertEquals(3, this.metrics.counter("trades").getCount());
+        assertEquals(0, this.metrics.counter("other").getCount());
+    }
+
+    @Test
+    public void timesCountTotalMeanAndMax() {
+        PortfolioMetrics.Timer timer = this.metrics.timer("send");
+        timer.record(TimeUnit.MILLISECONDS.toNanos(1));
+        timer.record(TimeUnit.MILLISECONDS.toNanos(3));
+
+        Map<String, Object> snapshot = timer.snapshot();
+        assertEquals(2L, snapshot.get("count"));
+        assertEquals(4.0, snapshot.get("totalMillis"));
+        assertEquals(2.0, snapshot.get("meanMillis"));
+        assertEquals(3.0, snapshot.get("maxMillis"));
+        assertEquals(0.0, this.metrics.timer("idle").snapshot().get("meanMillis"));
+    }
+
+    @Test
+    public void snapshotsAllMetersSortedByName() {
+        this.metrics.counter("b.counter").increment();
+        this.metrics.timer("c.timer").record(1);
+        this.metrics.gauge("a.gauge", new PortfolioMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return 42;
+            }
+        });
+
+        Map<String, Object> snapshot = this.metrics.snapshot();
+        assertEquals(Arrays.asList("a.gauge", "b.counter", "c.timer"), new ArrayList<>(snapshot.keySet()));
+        assertEquals(42L, snapshot.get("a.gauge"));
+        assertEquals(1L, snapshot.get("b.counter"));
+        assertEquals(1L, ((Map<?, ?>) snapshot.get("c.timer")).get("count"));
+    }
+}
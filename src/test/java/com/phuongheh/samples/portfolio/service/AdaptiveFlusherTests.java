@@ -0,0 +1,87 @@
+package com.phuongheh.samples.portfolio.service;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveFlusherTests {
+    private final BlockingQueue<Long> flushes = new LinkedBlockingQueue<>();
+    private final AtomicInteger flushMillis = new AtomicInteger();
+    private final PortfolioMetrics metrics = new PortfolioMetrics();
+    private AdaptiveFlusher flusher;
+
+    @After
+    public void tearDown() {
+        this.flusher.shutdown();
+    }
+
+    @Test
+    public void flushesRightAwayWhenIdle() throws Exception {
+        this.flusher = createFlusher(1000);
+        long start = System.nanoTime();
+        this.flusher.signal();
+        assertNotNull(this.flushes.poll(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertNull(this.flushes.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void widensWindowWithSlowFlushesUpToMaximum() throws Exception {
+        this.flusher = createFlusher(30);
+        this.flushMillis.set(20);
+        for (int i = 0; i < 20; i++) {
+            this.flusher.signal();
+            assertNotNull(this.flushes.poll(1, TimeUnit.SECONDS));
+        }
+        long window = this.flusher.getWindowNanos();
+        assertTrue("Window " + window, window > TimeUnit.MILLISECONDS.toNanos(10));
+        assertTrue("Window " + window, window <= TimeUnit.MILLISECONDS.toNanos(30));
+
+        this.flushMillis.set(0);
+        for (int i = 0; i < 60; i++) {
+            this.flusher.signal();
+            assertNotNull(this.flushes.poll(1, TimeUnit.SECONDS));
+        }
+        window = this.flusher.getWindowNanos();
+        assertTrue("Window " + window, window < TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    public void batchesSignalsWithinWindow() throws Exception {
+        this.flusher = createFlusher(1000);
+        this.flushMillis.set(100);
+        this.flusher.signal();
+        this.flushes.take();
+        this.flushMillis.set(0);
+        for (int i = 0; i < 10; i++) {
+            this.flusher.signal();
+        }
+        assertNotNull(this.flushes.poll(1, TimeUnit.SECONDS));
+        assertNull(this.flushes.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(2, this.metrics.timer("test.window").getCount());
+    }
+
+    private AdaptiveFlusher createFlusher(long maxWindowMillis) {
+        return new AdaptiveFlusher("test", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(flushMillis.get());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                flushes.add(System.nanoTime());
+            }
+        }, maxWindowMillis, 1, this.metrics);
+    }
+}
@@ -0,0 +1,146 @@
+package com.phuongheh.samples.portfolio.service;
+
+import com.phuongheh.samples.portfolio.Portfolio;
+import com.phuongheh.samples.portfolio.PortfolioPosition;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PortfolioServiceImplTests {
+    private static final int THREADS = 8;
+    private static final int TRADES_PER_THREAD = 20000;
+
+    private PortfolioServiceImpl portfolioService;
+
+    @Before
+    public void setUp() {
+        this.portfolioService = new PortfolioServiceImpl();
+    }
+
+    @Test
+    public void findPortfolio() {
+        Portfolio portfolio = this.portfolioService.findPortfolio("fabrice");
+        assertEquals(4, portfolio.getPositions().size());
+        assertEquals("CTXS", portfolio.getPositions().get(0).getTicker());
+        assertEquals("ORCL", portfolio.getPositions().get(3).getTicker());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findPortfolioUnknownUser() {
+        this.portfolioService.findPortfolio("unknown");
+    }
+
+    @Test
+    public void findHoldersFollowsTrades() {
+        assertEquals(Collections.singletonList("fabrice"), this.portfolioService.findHolders("DELL"));
+        this.portfolioService.findPortfolio("fabrice").sell("DELL", 50);
+        assertTrue(this.portfolioService.findHolders("DELL").isEmpty());
+        this.portfolioService.findPortfolio("fabrice").buy("DELL", 1);
+        assertEquals(Collections.singletonList("fabrice"), this.portfolioService.findHolders("DELL"));
+        assertEquals(Collections.singletonList("paulson"), this.portfolioService.findHolders("GOOG"));
+    }
+
+    @Test
+    public void sellMoreThanHeld() {
+        Portfolio portfolio = this.portfolioService.findPortfolio("fabrice");
+        assertNull(portfolio.sell("DELL", 51));
+        assertNull(portfolio.buy("DELL", 0));
+        assertNull(portfolio.buy("AAPL", 1));
+        assertEquals(50, portfolio.getPortfolioPosition("DELL").getShares());
+    }
+
+    @Test
+    public void concurrentBuysAreNotLost() throws Exception {
+        final Portfolio portfolio = this.portfolioService.findPortfolio("fabrice");
+        runConcurrently(new Trader() {
+            @Override
+            public int trade(int thread, int i) {
+                return (portfolio.buy("DELL", 1) != null) ? 1 : 0;
+            }
+        });
+        assertEquals(50 + THREADS * TRADES_PER_THREAD, portfolio.getPortfolioPosition("DELL").getShares());
+    }
+
+    @Test
+    public void concurrentBuysAndSellsAcrossPortfolios() throws Exception {
+        final int userCount = 64;
+        for (int i = 0; i < userCount; i++) {
+            Portfolio portfolio = new Portfolio();
+            portfolio.addPosition(new PortfolioPosition("Dell Inc.", "DELL", 13.44, 1000));
+            portfolio.addPosition(new PortfolioPosition("Microsoft", "MSFT", 34.15, 1000));
+            this.portfolioService.addPortfolio("user" + i, portfolio);
+        }
+
+        List<Integer> netShares = runConcurrently(new Trader() {
+            @Override
+            public int trade(int thread, int i) {
+                Portfolio portfolio = portfolioService.findPortfolio("user" + (i % userCount));
+                String ticker = (i % 2 == 0) ? "DELL" : "MSFT";
+                if ((i + thread) % 3 == 0) {
+                    return (portfolio.sell(ticker, 2) != null) ? -2 : 0;
+                }
+                return (portfolio.buy(ticker, 1) != null) ? 1 : 0;
+            }
+        });
+
+        int expected = userCount * 2000;
+        for (Integer net : netShares) {
+            expected += net;
+        }
+        int actual = 0;
+        for (int i = 0; i < userCount; i++) {
+            for (PortfolioPosition position : this.portfolioService.findPortfolio("user" + i).getPositions()) {
+                assertTrue(position.getShares() >= 0);
+                actual += position.getShares();
+            }
+        }
+        assertEquals(expected, actual);
+    }
+
+    private List<Integer> runConcurrently(final Trader trader) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        startLatch.await();
+                        int net = 0;
+                        for (int i = 0; i < TRADES_PER_THREAD; i++) {
+                            net += trader.trade(thread, i);
+                        }
+                        return net;
+                    }
+                }));
+            }
+            startLatch.countDown();
+            List<Integer> results = new ArrayList<>();
+            for (Future<Integer> future : futures) {
+                results.add(future.get(30, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface Trader {
+        int trade(int thread, int i);
+    }
+}
@@ -0,0 +1,67 @@
+package com.phuongheh.samples.portfolio.service;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class QuotePublisherTests {
+    private final List<Message<?>> messages = new ArrayList<>();
+    private final PortfolioMetrics metrics = new PortfolioMetrics();
+    private QuotePublisher publisher;
+
+    @Before
+    public void setup() {
+        this.publisher = new QuotePublisher(new SimpMessagingTemplate(new AbstractSubscribableChannel() {
+            @Override
+            protected boolean sendInternal(Message<?> message, long timeout) {
+                return messages.add(message);
+            }
+        }), this.metrics, 250, 1);
+        // flush by hand only
+        this.publisher.destroy();
+    }
+
+    @Test
+    public void sendsOnlyLatestPricePerTicker() {
+        this.publisher.publish("GOOG", 89349, 1);
+        this.publisher.publish("DELL", 1303, 2);
+        this.publisher.publish("GOOG", 89400, 3);
+        assertEquals(2L, this.metrics.snapshot().get("quotes.pending"));
+
+        this.publisher.flush();
+
+        assertEquals(2, this.messages.size());
+        assertEquals("/topic/price.stock.GOOG", SimpMessageHeaderAccessor.getDestination(this.messages.get(0).getHeaders()));
+        assertEquals("{\"ticker\":\"GOOG\",\"price\":894.00,\"timestamp\":3}", payload(0));
+        assertEquals(0L, this.metrics.snapshot().get("quotes.pending"));
+
+        this.publisher.flush();
+        assertEquals(2, this.messages.size());
+    }
+
+    @Test
+    public void keepsPendingPricesWhenAddingTickers() {
+        for (int i = 0; i < 40; i++) {
+            this.publisher.publish("T" + i, 100 + i, i);
+        }
+        this.publisher.flush();
+
+        assertEquals(40, this.messages.size());
+        assertEquals("{\"ticker\":\"T39\",\"price\":1.39,\"timestamp\":39}", payload(39));
+        assertEquals(40, this.metrics.counter("quotes.sent").getCount());
+    }
+
+    private String payload(int index) {
+        return new String((byte[]) this.messages.get(index).getPayload(), StandardCharsets.UTF_8);
+    }
+}
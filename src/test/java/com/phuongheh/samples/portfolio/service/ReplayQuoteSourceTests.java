@@ -0,0 +1,104 @@
+package com.phuongheh.samples.portfolio.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReplayQuoteSourceTests {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final RecordingHandler handler = new RecordingHandler();
+
+    @Test
+    public void replaysAllTicksInOrderAtMaxSpeed() throws Exception {
+        File file = writeTicks(0, 0, 1000);
+        ReplayQuoteSource source = new ReplayQuoteSource(file, 0, false, 2);
+        assertEquals(3, source.getTickCount());
+
+        assertEquals(2, source.poll(this.handler));
+        assertEquals(1, source.poll(this.handler));
+        assertEquals(0, source.poll(this.handler));
+        assertTrue(source.isFinished());
+        assertEquals(Arrays.asList("DELL 1000", "GOOG 89349", "DELL 1001"), this.handler.quotes);
+    }
+
+    @Test
+    public void keepsRecordedSpacing() throws Exception {
+        File file = writeTicks(0, TimeUnit.MINUTES.toMicros(10), 0);
+        ReplayQuoteSource source = new ReplayQuoteSource(file, 1000, false, 100);
+
+        assertEquals(1, source.poll(this.handler));
+        assertEquals(0, source.poll(this.handler));
+        Thread.sleep(700);
+        assertEquals(2, source.poll(this.handler));
+        assertEquals(0, source.poll(this.handler));
+        assertTrue(source.isFinished());
+    }
+
+    @Test
+    public void startsOverWhenLooping() throws Exception {
+        File file = writeTicks(0, 0, 0);
+        ReplayQuoteSource source = new ReplayQuoteSource(file, 0, true, 5);
+
+        assertEquals(5, source.poll(this.handler));
+        assertEquals(Arrays.asList("DELL 1000", "GOOG 89349", "DELL 1001", "DELL 1000", "GOOG 89349"),
+                this.handler.quotes);
+        assertFalse(source.isFinished());
+        assertEquals(5, source.getReplayedCount());
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws Exception {
+        File file = this.folder.newFile("ticks.bin");
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write("not a tick file".getBytes("UTF-8"));
+        }
+        try {
+            new ReplayQuoteSource(file, 1, false, 100);
+            fail("Expected IOException");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void generatorWaitsForInterval() {
+        StockQuoteGenerator generator = new StockQuoteGenerator();
+        generator.setInterval(TimeUnit.HOURS.toMillis(1));
+        assertEquals(generator.getTickerCount(), generator.poll(this.handler));
+        assertEquals(0, generator.poll(this.handler));
+    }
+
+    private File writeTicks(long delay1, long delay2, long delay3) throws IOException {
+        File file = this.folder.newFile();
+        try (TickFileWriter writer = new TickFileWriter(file, new String[] {"DELL", "GOOG"}, 5000)) {
+            writer.write(0, 1000, 5000 + delay1);
+            writer.write(1, 89349, 5000 + delay1 + delay2);
+            writer.write(0, 1001, 5000 + delay1 + delay2 + delay3);
+        }
+        return file;
+    }
+
+    private static class RecordingHandler implements StockQuoteGenerator.QuoteHandler {
+        private final List<String> quotes = new ArrayList<>();
+
+        @Override
+        public void handleQuote(StockQuoteGenerator.QuoteView quote) {
+            this.quotes.add(quote.getTicker() + " " + quote.getScaledPrice());
+        }
+    }
+}
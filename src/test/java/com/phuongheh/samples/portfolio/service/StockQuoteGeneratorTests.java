@@ -0,0 +1,94 @@
+package com.phuongheh.samples.portfolio.service;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StockQuoteGeneratorTests {
+    private final StockQuoteGenerator generator =
+            new StockQuoteGenerator(new String[]{"DELL", "GOOG", "PENNY"}, new long[]{1303, 89349, 10});
+
+    @Test
+    public void startsAtSeedPrices() {
+        assertEquals(3, this.generator.getTickerCount());
+        assertEquals("GOOG", this.generator.getTicker(1));
+        assertEquals(1303, this.generator.getPrice(0));
+        assertEquals(89349, this.generator.getPrice(1));
+    }
+
+    @Test
+    public void rejectsMissingSeedPrices() {
+        try {
+            new StockQuoteGenerator(new String[]{"DELL", "GOOG"}, new long[]{1303});
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void keepsPricesWithinTwoPercentAboveSeed() {
+        final long[] seeds = {1303, 89349, 10};
+        for (int round = 0; round < 1000; round++) {
+            this.generator.generateQuotes(new StockQuoteGenerator.QuoteHandler() {
+                @Override
+                public void handleQuote(StockQuoteGenerator.QuoteView quote) {
+                    long seed = seeds[quote.getTickerId()];
+                    assertTrue(quote.getScaledPrice() >= seed);
+                    assertTrue(quote.getScaledPrice() < seed + Math.max(seed / 50, 1));
+                    assertEquals(quote.getScaledPrice(), generator.getPrice(quote.getTickerId()));
+                }
+            });
+        }
+        assertEquals(10, this.generator.getPrice(2));
+    }
+
+    @Test
+    public void handsOutOneReusableView() {
+        final List<StockQuoteGenerator.QuoteView> views = new ArrayList<>();
+        final List<String> tickers = new ArrayList<>();
+        this.generator.generateQuotes(new StockQuoteGenerator.QuoteHandler() {
+            @Override
+            public void handleQuote(StockQuoteGenerator.QuoteView quote) {
+                views.add(quote);
+                tickers.add(quote.getTicker());
+                assertEquals(StockQuoteGenerator.toBigDecimal(quote.getScaledPrice()), quote.getPrice());
+                assertEquals(2, quote.getPrice().scale());
+            }
+        });
+
+        assertEquals(Arrays.asList("DELL", "GOOG", "PENNY"), tickers);
+        assertSame(views.get(0), views.get(2));
+        Quote quote = views.get(2).toQuote();
+        assertEquals("PENNY", quote.getTicker());
+        assertEquals(new BigDecimal("0.10"), quote.getPrice());
+    }
+
+    @Test
+    public void generatesOneRoundPerInterval() {
+        this.generator.setInterval(60000);
+        StockQuoteGenerator.QuoteHandler handler = new StockQuoteGenerator.QuoteHandler() {
+            @Override
+            public void handleQuote(StockQuoteGenerator.QuoteView quote) {
+            }
+        };
+
+        assertEquals(3, this.generator.poll(handler));
+        assertEquals(0, this.generator.poll(handler));
+    }
+
+    @Test
+    public void convertsScaledPrices() {
+        assertEquals(89349, StockQuoteGenerator.toScaledPrice(893.49));
+        assertEquals(89349, StockQuoteGenerator.toScaledPrice(new BigDecimal("893.494")));
+        assertEquals(new BigDecimal("893.49"), StockQuoteGenerator.toBigDecimal(89349));
+    }
+}
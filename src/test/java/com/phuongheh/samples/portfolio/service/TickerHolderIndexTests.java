@@ -0,0 +1,61 @@
+package com.phuongheh.samples.portfolio.service;
+
+import com.phuongheh.samples.portfolio.Portfolio;
+import com.phuongheh.samples.portfolio.PortfolioPosition;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TickerHolderIndexTests {
+    private final TickerHolderIndex index = new TickerHolderIndex();
+
+    @Test
+    public void tracksPositionsOpeningAndClosing() {
+        Portfolio portfolio = createPortfolio("DELL", 10);
+        portfolio.addPosition(new PortfolioPosition("Microsoft", "MSFT", 34.15, 0));
+        portfolio.setPositionListener(this.index.index("fabrice", portfolio));
+        assertEquals(Collections.singletonList("fabrice"), this.index.findHolders("DELL"));
+        assertFalse(this.index.isHolder("MSFT", "fabrice"));
+
+        portfolio.buy("MSFT", 5);
+        portfolio.sell("DELL", 10);
+        assertTrue(this.index.isHolder("MSFT", "fabrice"));
+        assertTrue(this.index.findHolders("DELL").isEmpty());
+        assertEquals(0, this.index.getHolderCount("DELL"));
+        assertEquals(1, this.index.getHolderCount("MSFT"));
+    }
+
+    @Test
+    public void findsHoldersAcrossPages() {
+        for (int i = 0; i < 10000; i++) {
+            Portfolio portfolio = createPortfolio("DELL", (i % 3 == 0) ? 1 : 0);
+            portfolio.setPositionListener(this.index.index("user" + i, portfolio));
+        }
+        List<String> holders = this.index.findHolders("DELL");
+        assertEquals(3334, holders.size());
+        assertEquals(3334, this.index.getHolderCount("DELL"));
+        assertEquals(3334, new HashSet<>(holders).size());
+        assertTrue(holders.containsAll(Arrays.asList("user0", "user4095", "user4098", "user9999")));
+        assertFalse(holders.contains("user4097"));
+    }
+
+    @Test
+    public void internsUsersOnce() {
+        int id = this.index.internUser("fabrice");
+        assertEquals(id, this.index.internUser("fabrice"));
+        assertEquals(id + 1, this.index.internUser("paulson"));
+    }
+
+    private static Portfolio createPortfolio(String ticker, int shares) {
+        Portfolio portfolio = new Portfolio();
+        portfolio.addPosition(new PortfolioPosition("Dell Inc.", ticker, 13.44, shares));
+        return portfolio;
+    }
+}
@@ -0,0 +1,74 @@
+package com.phuongheh.samples.portfolio.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTests {
+    private final TimerWheel<String> wheel = new TimerWheel<>(10, 8);
+
+    @Test
+    public void neverFiresBeforeDeadline() {
+        this.wheel.expire(1000, new ArrayList<String>());
+        this.wheel.schedule("a", 1015);
+        this.wheel.schedule("b", 1020);
+
+        assertTrue(expire(1010).isEmpty());
+        assertTrue(expire(1019).isEmpty());
+        assertEquals(Arrays.asList("a", "b"), expire(1020));
+        assertEquals(0, this.wheel.getPendingCount());
+    }
+
+    @Test
+    public void firesOverdueItemsImmediately() {
+        this.wheel.expire(1000, new ArrayList<String>());
+        this.wheel.schedule("late", 900);
+        assertEquals(Collections.singletonList("late"), expire(1000));
+    }
+
+    @Test
+    public void keepsItemsBeyondOneRotation() {
+        this.wheel.expire(1000, new ArrayList<String>());
+        this.wheel.schedule("far", 1000 + 3 * 80 + 5);
+
+        for (long now = 1010; now < 1245; now += 10) {
+            assertTrue("fired early at " + now, expire(now).isEmpty());
+        }
+        assertEquals(1, this.wheel.getPendingCount());
+        assertEquals(Collections.singletonList("far"), expire(1250));
+    }
+
+    @Test
+    public void catchesUpAfterMissedTicks() {
+        this.wheel.expire(1000, new ArrayList<String>());
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            this.wheel.schedule("item" + i, 1000 + i * 7);
+            expected.add("item" + i);
+        }
+        List<String> expired = expire(5000);
+        Collections.sort(expired);
+        Collections.sort(expected);
+        assertEquals(expected, expired);
+        assertEquals(0, this.wheel.getPendingCount());
+    }
+
+    @Test
+    public void wheelSizeIsRoundedToPowerOfTwo() {
+        assertEquals(8, new TimerWheel<String>(10, 8).getWheelSize());
+        assertEquals(32, new TimerWheel<String>(50, 31).getWheelSize());
+        assertEquals(1, new TimerWheel<String>(50, 1).getWheelSize());
+    }
+
+    private List<String> expire(long now) {
+        List<String> expired = new ArrayList<>();
+        this.wheel.expire(now, expired);
+        return expired;
+    }
+}
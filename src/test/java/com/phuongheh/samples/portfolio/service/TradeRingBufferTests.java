@@ -0,0 +1,73 @@
+package com.phuongheh.samples.portfolio.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TradeRingBufferTests {
+
+    @Test
+    public void handlesTradesOfEachPublisherInOrder() throws Exception {
+        final int publishers = 4;
+        final int tradesPerPublisher = 20000;
+        final List<Trade> handled = new ArrayList<>();
+        final int[] batches = new int[1];
+        final TradeRingBuffer ring = new TradeRingBuffer(8, new TradeRingBuffer.Handler() {
+            @Override
+            public void onTrade(Trade trade, long publishNanos, boolean endOfBatch) {
+                handled.add(trade);
+                if (endOfBatch) {
+                    batches[0]++;
+                }
+            }
+        }, "test-ring");
+
+        final CountDownLatch done = new CountDownLatch(publishers);
+        for (int i = 0; i < publishers; i++) {
+            final String username = "user" + i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int shares = 1; shares <= tradesPerPublisher; shares++) {
+                        ring.publish(createTrade(username, shares));
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        ring.shutdown();
+
+        assertEquals(publishers * tradesPerPublisher, handled.size());
+        Map<String, Integer> lastShares = new HashMap<>();
+        for (Trade trade : handled) {
+            Integer last = lastShares.get(trade.getUsername());
+            assertEquals((last == null) ? 1 : last + 1, trade.getShares());
+            lastShares.put(trade.getUsername(), trade.getShares());
+        }
+        assertTrue(batches[0] > 0 && batches[0] <= handled.size());
+        assertEquals(0, ring.getPendingCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresPowerOfTwoSize() {
+        new TradeRingBuffer(12, null, "test-ring");
+    }
+
+    private static Trade createTrade(String username, int shares) {
+        Trade trade = new Trade();
+        trade.setUsername(username);
+        trade.setTicker("DELL");
+        trade.setShares(shares);
+        trade.setAction(Trade.TradeAction.Buy);
+        return trade;
+    }
+}
@@ -0,0 +1,157 @@
+package com.phuongheh.samples.portfolio.service;
+
+import com.phuongheh.samples.portfolio.Portfolio;
+import com.phuongheh.samples.portfolio.PortfolioPosition;
+import com.phuongheh.samples.portfolio.PositionDelta;
+import com.phuongheh.samples.portfolio.journal.TradeJournal;
+import com.phuongheh.samples.portfolio.journal.TradeJournalImpl;
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TradeServiceImplTests {
+    private final BlockingQueue<Message<?>> messages = new LinkedBlockingQueue<>();
+    private TradeServiceImpl tradeService;
+
+    @After
+    public void tearDown() throws Exception {
+        this.tradeService.destroy();
+    }
+
+    @Test
+    public void sendsPositionUpdateRightAfterTrade() throws Exception {
+        this.tradeService = new TradeServiceImpl(createTemplate(), createPortfolioService());
+
+        long start = System.nanoTime();
+        this.tradeService.executeTrade(buy());
+
+        Message<?> message = this.messages.poll(1, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals("/user/fabrice/queue/position-updates",
+                SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+        assertEquals(0, this.tradeService.getPendingNotificationCount());
+    }
+
+    @Test
+    public void rejectsTradesWhileJournalUnavailable() throws Exception {
+        PortfolioServiceImpl portfolioService = createPortfolioService();
+        PortfolioMetrics metrics = new PortfolioMetrics();
+        this.tradeService = new TradeServiceImpl(createTemplate(), portfolioService, 0, 50, 0, 0,
+                new FailingJournal(false), metrics);
+
+        this.tradeService.executeTrade(buy());
+
+        Message<?> message = this.messages.poll(1, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals("/user/fabrice/queue/errors", SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+        assertEquals(100, portfolioService.findPortfolio("fabrice").getPortfolioPosition("DELL").getShares());
+        assertEquals(1, metrics.counter("trade.rejected").getCount());
+    }
+
+    @Test
+    public void takesBackTradeThatCouldNotBeJournaled() throws Exception {
+        PortfolioServiceImpl portfolioService = createPortfolioService();
+        PortfolioMetrics metrics = new PortfolioMetrics();
+        this.tradeService = new TradeServiceImpl(createTemplate(), portfolioService, 0, 50, 0, 0,
+                new FailingJournal(true), metrics);
+
+        this.tradeService.executeTrade(buy());
+
+        Message<?> message = this.messages.poll(1, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals("/user/fabrice/queue/errors", SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+        assertEquals(100, portfolioService.findPortfolio("fabrice").getPortfolioPosition("DELL").getShares());
+        assertEquals(1, metrics.counter("trade.unjournaled").getCount());
+
+        message = this.messages.poll(1, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals("/user/fabrice/queue/position-updates",
+                SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+        assertTrue(new String((byte[]) message.getPayload(), "UTF-8").contains("\"shares\":100"));
+        assertEquals(3, portfolioService.findPortfolio("fabrice").getSequence());
+    }
+
+    @Test
+    public void reportsFailedRingTradeToUser() throws Exception {
+        this.tradeService = new TradeServiceImpl(createTemplate(), createPortfolioService(), 0, 50, 2, 64,
+                new TradeJournalImpl(), new PortfolioMetrics());
+
+        Trade trade = buy();
+        trade.setUsername("paulson");
+        this.tradeService.executeTrade(trade);
+
+        Message<?> message = this.messages.poll(1, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals("/user/paulson/queue/errors", SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+
+        this.tradeService.executeTrade(buy());
+        message = this.messages.poll(1, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals("/user/fabrice/queue/position-updates",
+                SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+    }
+
+    private SimpMessagingTemplate createTemplate() {
+        SimpMessagingTemplate template = new SimpMessagingTemplate(new AbstractSubscribableChannel() {
+            @Override
+            protected boolean sendInternal(Message<?> message, long timeout) {
+                return messages.add(message);
+            }
+        });
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+        return template;
+    }
+
+    private static PortfolioServiceImpl createPortfolioService() {
+        PortfolioServiceImpl portfolioService = new PortfolioServiceImpl();
+        Portfolio portfolio = new Portfolio();
+        portfolio.addPosition(new PortfolioPosition("Dell Inc.", "DELL", 13.03, 100));
+        portfolioService.addPortfolio("fabrice", portfolio);
+        return portfolioService;
+    }
+
+    private static Trade buy() {
+        Trade trade = new Trade();
+        trade.setUsername("fabrice");
+        trade.setTicker("DELL");
+        trade.setShares(10);
+        trade.setAction(Trade.TradeAction.Buy);
+        return trade;
+    }
+
+    private static class FailingJournal implements TradeJournal {
+        private final boolean available;
+
+        FailingJournal(boolean available) {
+            this.available = available;
+        }
+
+        @Override
+        public void append(String username, PositionDelta delta) {
+        }
+
+        @Override
+        public void append(String username, PositionDelta delta, Callback callback) {
+            callback.onJournaled(false);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return this.available;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.phuongheh.samples.portfolio.service;
+
+import com.phuongheh.samples.portfolio.Portfolio;
+import com.phuongheh.samples.portfolio.PortfolioPosition;
+import com.phuongheh.samples.portfolio.PortfolioValuation;
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import com.phuongheh.samples.portfolio.web.standalone.TestMessageChannel;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.messaging.DefaultSimpUserRegistry;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+
+import java.math.BigDecimal;
+import java.security.Principal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ValuationServiceTests {
+    private PortfolioServiceImpl portfolioService;
+    private TestMessageChannel channel;
+    private ValuationService valuationService;
+
+    @Before
+    public void setup() {
+        this.portfolioService = new PortfolioServiceImpl();
+        this.channel = new TestMessageChannel();
+        SimpMessagingTemplate template = new SimpMessagingTemplate(this.channel);
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+        DefaultSimpUserRegistry userRegistry = new DefaultSimpUserRegistry();
+        userRegistry.onApplicationEvent(connectedEvent("fabrice"));
+        this.valuationService = new ValuationService(this.portfolioService, template, userRegistry, new PortfolioMetrics());
+        this.valuationService.afterSingletonsInstantiated();
+    }
+
+    @Test
+    public void valuesPositionsAtCostUntilQuoted() {
+        PortfolioValuation valuation = this.valuationService.getValuation("fabrice");
+        assertEquals(new BigDecimal("5026.35"), valuation.getMarketValue());
+        assertEquals(new BigDecimal("0.00"), valuation.getUnrealizedPnl());
+    }
+
+    @Test
+    public void revaluesHoldersOfQuotedTickerOnly() {
+        this.valuationService.onQuote("DELL", 1444, 1000);
+        this.valuationService.onQuote("IBM", 20000, 1000);
+        this.valuationService.onEndOfBatch();
+
+        assertEquals(1, this.channel.getMessages().size());
+        assertEquals("/user/fabrice/queue/valuation",
+                SimpMessageHeaderAccessor.getDestination(this.channel.getMessages().get(0).getHeaders()));
+        PortfolioValuation valuation = this.valuationService.getValuation("fabrice");
+        assertEquals(new BigDecimal("50.00"), valuation.getUnrealizedPnl());
+        assertEquals(new BigDecimal("0.00"), valuation.getUnrealizedPnlChange());
+        assertEquals(new BigDecimal("0.00"), this.valuationService.getValuation("paulson").getUnrealizedPnl());
+    }
+
+    @Test
+    public void picksUpTradesWithNextQuote() {
+        this.valuationService.onQuote("DELL", 1444, 1000);
+        this.valuationService.onEndOfBatch();
+        this.portfolioService.findPortfolio("fabrice").buy("DELL", 10);
+        this.valuationService.onQuote("DELL", 1444, 2000);
+        this.valuationService.onEndOfBatch();
+
+        PortfolioValuation valuation = this.valuationService.getValuation("fabrice");
+        assertEquals(new BigDecimal("5220.75"), valuation.getMarketValue());
+        assertEquals(new BigDecimal("50.00"), valuation.getUnrealizedPnl());
+        assertEquals(2, this.channel.getMessages().size());
+        assertTrue(new String((byte[]) this.channel.getMessages().get(1).getPayload()).contains("\"marketValueChange\":144.40"));
+    }
+
+    @Test
+    public void booksTradesBetweenQuotesAtAverageCost() {
+        Portfolio portfolio = this.portfolioService.findPortfolio("fabrice");
+        this.valuationService.onQuote("DELL", 1444, 1000);
+        portfolio.buy("DELL", 50);
+        this.valuationService.onQuote("DELL", 1544, 2000);
+        assertEquals(new BigDecimal("150.00"), this.valuationService.getValuation("fabrice").getUnrealizedPnl());
+
+        portfolio.sell("DELL", 50);
+        assertEquals(new BigDecimal("75.00"), this.valuationService.getValuation("fabrice").getUnrealizedPnl());
+        this.valuationService.onQuote("DELL", 1544, 3000);
+        assertEquals(new BigDecimal("75.00"), this.valuationService.getValuation("fabrice").getUnrealizedPnl());
+    }
+
+    @Test
+    public void valuesPortfoliosAddedLater() {
+        this.valuationService.onQuote("DELL", 1444, 1000);
+        Portfolio portfolio = new Portfolio();
+        portfolio.addPosition(new PortfolioPosition("Dell Inc.", "DELL", 13.00, 10));
+        this.portfolioService.addPortfolio("rossen", portfolio);
+        assertEquals(new BigDecimal("14.40"), this.valuationService.getValuation("rossen").getUnrealizedPnl());
+
+        portfolio.buy("DELL", 10);
+        this.valuationService.onQuote("DELL", 1544, 2000);
+        assertEquals(new BigDecimal("34.40"), this.valuationService.getValuation("rossen").getUnrealizedPnl());
+    }
+
+    private static SessionConnectedEvent connectedEvent(final String username) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.CONNECTED);
+        headers.setSessionId(username + "-session");
+        Principal user = new Principal() {
+            @Override
+            public String getName() {
+                return username;
+            }
+        };
+        return new SessionConnectedEvent(new Object(), MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders()), user);
+    }
+}
@@ -0,0 +1,36 @@
+package com.phuongheh.samples.portfolio.web;
+
+import com.phuongheh.samples.portfolio.metrics.PortfolioMetrics;
+import org.junit.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class MetricsControllerTests {
+
+    @Test
+    public void rendersEveryMeterAsJson() throws Exception {
+        PortfolioMetrics metrics = new PortfolioMetrics();
+        metrics.counter("trade.executed").add(3);
+        metrics.timer("trade.execute").record(TimeUnit.MILLISECONDS.toNanos(2));
+        metrics.gauge("sessions.active", new PortfolioMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return 7;
+            }
+        });
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new MetricsController(metrics)).build();
+
+        mockMvc.perform(get("/metrics"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$['trade.executed']").value(3))
+                .andExpect(jsonPath("$['trade.execute'].count").value(1))
+                .andExpect(jsonPath("$['trade.execute'].maxMillis").value(2.0))
+                .andExpect(jsonPath("$['sessions.active']").value(7));
+    }
+}
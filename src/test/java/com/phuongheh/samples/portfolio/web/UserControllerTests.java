@@ -0,0 +1,157 @@
+package com.phuongheh.samples.portfolio.web;
+
+import com.phuongheh.samples.portfolio.messaging.ConnectedUserIndex;
+import com.phuongheh.samples.portfolio.messaging.DistributedUserRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.AbstractSubProtocolEvent;
+import org.springframework.web.socket.messaging.DefaultSimpUserRegistry;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UserControllerTests {
+    private final DefaultSimpUserRegistry registry = new DefaultSimpUserRegistry();
+    private final ConnectedUserIndex index = new ConnectedUserIndex();
+    private final UserController controller = new UserController(this.registry, this.index);
+
+    @Before
+    public void setUp() {
+        for (String name : Arrays.asList("paulson", "fabrice", "pierre", "rossen", "sergi")) {
+            connect(name, name + "-session");
+        }
+        subscribe("fabrice", "fabrice-session", "/topic/price.stock.*");
+        subscribe("pierre", "pierre-session", "/topic/price.stock.*");
+        subscribe("pierre", "pierre-session", "/user/queue/position-updates");
+    }
+
+    @Test
+    public void pagesThroughUsersInNameOrder() {
+        UserPage page = this.controller.listUsers(null, 2, null, null);
+        assertEquals(Arrays.asList("fabrice", "paulson"), names(page));
+        assertEquals("paulson", page.getNextCursor());
+
+        page = this.controller.listUsers(page.getNextCursor(), 2, null, null);
+        assertEquals(Arrays.asList("pierre", "rossen"), names(page));
+
+        page = this.controller.listUsers(page.getNextCursor(), 2, null, null);
+        assertEquals(Arrays.asList("sergi"), names(page));
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void filtersByPrefixAndDestination() {
+        assertEquals(Arrays.asList("paulson", "pierre"), names(this.controller.listUsers(null, 10, "p", null)));
+        assertEquals(Arrays.asList("fabrice", "pierre"),
+                names(this.controller.listUsers(null, 10, null, "/topic/price.stock.*")));
+
+        UserStats stats = this.controller.getStats("p", null);
+        assertEquals(2, stats.getUsers());
+        assertEquals(2, stats.getSessions());
+        assertEquals(2, stats.getSubscriptions());
+    }
+
+    @Test
+    public void streamsOneJsonLinePerUser() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        this.controller.streamUsers(null, "/topic/price.stock.*").writeTo(output);
+        String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        for (String line : lines) {
+            assertTrue(line, line.startsWith("{\"name\":\"") && line.endsWith("}"));
+        }
+    }
+
+    @Test
+    public void countsWithoutVisitingUsersWhenUnfiltered() {
+        disconnect("rossen", "rossen-session");
+        UserStats stats = this.controller.getStats(null, null);
+        assertEquals(4, stats.getUsers());
+        assertEquals(4, stats.getSessions());
+        assertEquals(3, stats.getSubscriptions());
+        assertEquals(Arrays.asList("fabrice", "paulson", "pierre", "sergi"),
+                names(this.controller.listUsers(null, 10, null, null)));
+    }
+
+    @Test
+    public void mergesUsersOfOtherNodes() {
+        DistributedUserRegistry distributed = new DistributedUserRegistry(this.registry, "/topic/user-registry",
+                0, 60000, 1000);
+        distributed.handleMessage(MessageBuilder.withPayload(
+                "RESET node2 1\n+r1\tanna\n+r2\tpierre\n+r3\tzoe").build());
+        UserController controller = new UserController(distributed, this.index);
+
+        UserPage page = controller.listUsers(null, 3, null, null);
+        assertEquals(Arrays.asList("anna", "fabrice", "paulson"), names(page));
+        page = controller.listUsers(page.getNextCursor(), 3, null, null);
+        assertEquals(Arrays.asList("pierre", "rossen", "sergi"), names(page));
+        page = controller.listUsers(page.getNextCursor(), 3, null, null);
+        assertEquals(Arrays.asList("zoe"), names(page));
+
+        UserStats stats = controller.getStats(null, null);
+        assertEquals(7, stats.getUsers());
+        assertEquals(8, stats.getSessions());
+    }
+
+    private static List<String> names(UserPage page) {
+        List<String> names = new ArrayList<>();
+        for (UserSummary user : page.getUsers()) {
+            names.add(user.getName());
+        }
+        return names;
+    }
+
+    private void connect(String username, String sessionId) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.CONNECTED);
+        headers.setSessionId(sessionId);
+        publish(new SessionConnectedEvent(this, message(headers), principal(username)));
+    }
+
+    private void disconnect(String username, String sessionId) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.DISCONNECT);
+        headers.setSessionId(sessionId);
+        publish(new SessionDisconnectEvent(this, message(headers), sessionId, CloseStatus.NORMAL, principal(username)));
+    }
+
+    private void publish(AbstractSubProtocolEvent event) {
+        this.registry.onApplicationEvent(event);
+        this.index.onApplicationEvent(event);
+    }
+
+    private void subscribe(String username, String sessionId, String destination) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        headers.setSessionId(sessionId);
+        headers.setSubscriptionId(destination);
+        headers.setDestination(destination);
+        publish(new SessionSubscribeEvent(this, message(headers), principal(username)));
+    }
+
+    private static Message<byte[]> message(StompHeaderAccessor headers) {
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    private static Principal principal(final String username) {
+        return new Principal() {
+            @Override
+            public String getName() {
+                return username;
+            }
+        };
+    }
+}
@@ -0,0 +1,531 @@
+package com.phuongheh.samples.portfolio.web.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.phuongheh.samples.portfolio.Portfolio;
+import com.phuongheh.samples.portfolio.PortfolioPosition;
+import com.phuongheh.samples.portfolio.PositionDelta;
+import com.phuongheh.samples.portfolio.config.WebSocketConfig;
+import com.phuongheh.samples.portfolio.messaging.RateLimitInterceptor;
+import com.phuongheh.samples.portfolio.service.PortfolioServiceImpl;
+import com.phuongheh.samples.portfolio.service.Quote;
+import com.phuongheh.samples.portfolio.service.StockQuoteGenerator;
+import com.phuongheh.samples.portfolio.service.Trade;
+import com.phuongheh.samples.portfolio.service.TradeServiceImpl;
+import com.phuongheh.samples.portfolio.web.support.TomcatWebSocketTestServer;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.util.SocketUtils;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.config.annotation.AbstractWebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.server.standard.TomcatRequestUpgradeStrategy;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.File;
+import java.lang.reflect.Type;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless load driver for the portfolio application.
+ *
+ * <p>Starts the application's {@link WebSocketConfig}, with the settings in
+ * {@code portfolio.properties} (overridable with system properties), on an
+ * embedded {@link TomcatWebSocketTestServer}, so a run goes through the same
+ * executors, broker and transport as the application. Only Spring Security
+ * is left out: users connect to an extra endpoint that takes the user name
+ * from the URL, and have no roles. Rate limits are off unless
+ * {@code -Dportfolio.rate-limit.enabled=true}, since they drop trades over
+ * the limit without answering them.
+ *
+ * <p>The driver ramps up STOMP users that subscribe to quotes and send
+ * trades, records end-to-end latency of quote delivery and of trade to
+ * position update round trips in HdrHistograms, and writes a JSON report.
+ * Each user has at most one trade outstanding, so every answer belongs to
+ * that trade: a position update confirms it, an error rejects it, and a
+ * trade rolled back is confirmed by the update that takes it back. A trade
+ * due while the last one is outstanding is skipped, and one unanswered for
+ * {@link #TRADE_TIMEOUT_MILLIS} is given up on; both are counted.
+ * Options (all optional): {@code --users=200 --ramp-rate=50 --subscriptions=4
+ * --trade-rate=1 --duration=30 --report=target/load-report.json}, where
+ * rates are per second and trade-rate is per user. Quotes are random unless
+ * {@code --replay=target/ticks.bin} names a tick file (see
+ * {@link TickFileGenerator}), replayed at {@code --replay-speed=1} times its
+ * recorded rate, 0 for as fast as possible, and looped for the whole run.
+ *
+ * <p>On JDK 9+ Spring 4.3 needs {@code --add-opens java.base/java.lang=ALL-UNNAMED}.
+ */
+public class PortfolioLoadDriver {
+    private static final Log logger = LogFactory.getLog(PortfolioLoadDriver.class);
+    private static final String USER_PREFIX = "loaduser";
+    private static final String ENDPOINT = "/portfolio-load";
+    private static final String[] TICKERS = {"CTXS", "DELL", "EMC", "GOOG", "MSFT", "ORCL", "RHT", "VMW"};
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final long TRADE_TIMEOUT_MILLIS = 10000;
+    private static final String RATE_LIMIT_ENABLED_PROPERTY = "portfolio.rate-limit.enabled";
+
+    private final Options options;
+    private final Histogram quoteLatency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final Histogram tradeRoundTrip = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final AtomicLong connectedUsers = new AtomicLong();
+    private final AtomicLong failedConnections = new AtomicLong();
+    private final AtomicLong quotesReceived = new AtomicLong();
+    private final AtomicLong tradesSent = new AtomicLong();
+    private final AtomicLong tradesSkipped = new AtomicLong();
+    private final AtomicLong tradesConfirmed = new AtomicLong();
+    private final AtomicLong tradesRejected = new AtomicLong();
+    private final AtomicLong tradesRateLimited = new AtomicLong();
+    private final AtomicLong tradesRolledBack = new AtomicLong();
+    private final AtomicLong tradesUnanswered = new AtomicLong();
+    private final AtomicLong positionUpdates = new AtomicLong();
+    private final AtomicLong errorsReceived = new AtomicLong();
+    private final AtomicLong unmatchedAnswers = new AtomicLong();
+    private final List<UserSessionHandler> users = new ArrayList<>();
+
+    public PortfolioLoadDriver(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int exitCode = 0;
+        try {
+            new PortfolioLoadDriver(Options.parse(args)).run();
+        } catch (Throwable t) {
+            logger.error("Load run failed", t);
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+
+    public void run() throws Exception {
+        System.setProperty(LoadTestConfig.USER_COUNT_PROPERTY, String.valueOf(this.options.users));
+        if (System.getProperty(RATE_LIMIT_ENABLED_PROPERTY) == null) {
+            System.setProperty(RATE_LIMIT_ENABLED_PROPERTY, "false");
+        }
+        if (this.options.replayFile != null) {
+            System.setProperty("portfolio.quotes.replay.file", this.options.replayFile);
+            System.setProperty("portfolio.quotes.replay.speed", String.valueOf(this.options.replaySpeed));
+            System.setProperty("portfolio.quotes.replay.loop", "true");
+        }
+        int port = SocketUtils.findAvailableTcpPort();
+        TomcatWebSocketTestServer server = new TomcatWebSocketTestServer(port);
+        AnnotationConfigWebApplicationContext cxt = new AnnotationConfigWebApplicationContext();
+        cxt.register(WebSocketConfig.class, LoadTestConfig.class);
+        server.deployConfig(cxt);
+        server.start();
+
+        StandardWebSocketClient webSocketClient = new StandardWebSocketClient();
+        WebSocketStompClient stompClient = new WebSocketStompClient(webSocketClient);
+        stompClient.setMessageConverter(new CompositeMessageConverter(Arrays.<MessageConverter>asList(
+                new StringMessageConverter(), new MappingJackson2MessageConverter())));
+        stompClient.setDefaultHeartbeat(new long[]{0, 0});
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+        long started = System.currentTimeMillis();
+        try {
+            rampUp(stompClient, port);
+            logger.info(this.connectedUsers.get() + " users connected in " + (System.currentTimeMillis() - started) + " millis");
+            this.quoteLatency.reset();
+            this.tradeRoundTrip.reset();
+            startTrading(scheduler);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(this.options.durationSeconds));
+        } finally {
+            scheduler.shutdownNow();
+            for (UserSessionHandler user : this.users) {
+                user.disconnect();
+            }
+            try {
+                server.undeployConfig();
+                server.stop();
+            } catch (Throwable t) {
+                logger.error("Failed to stop server", t);
+            }
+        }
+        writeReport();
+    }
+
+    private void rampUp(WebSocketStompClient stompClient, int port) throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, this.options.rampRate);
+        long next = System.nanoTime();
+        for (int i = 0; i < this.options.users; i++) {
+            UserSessionHandler user = new UserSessionHandler(USER_PREFIX + i, i);
+            this.users.add(user);
+            stompClient.connect("ws://localhost:{port}" + ENDPOINT + "?user={user}", user, port, user.username);
+            next += intervalNanos;
+            long sleepNanos = next - System.nanoTime();
+            if (sleepNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            }
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (this.connectedUsers.get() + this.failedConnections.get() < this.options.users
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    private void startTrading(ScheduledExecutorService scheduler) {
+        if (this.options.tradeRate <= 0) {
+            return;
+        }
+        long periodMicros = TimeUnit.SECONDS.toMicros(1) / this.options.tradeRate;
+        for (final UserSessionHandler user : this.users) {
+            long initialDelay = (long) (Math.random() * periodMicros);
+            scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    user.sendTrade();
+                }
+            }, initialDelay, periodMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private void writeReport() throws Exception {
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("users", this.options.users);
+        config.put("rampRate", this.options.rampRate);
+        config.put("subscriptionsPerUser", this.options.subscriptions);
+        config.put("tradeRatePerUser", this.options.tradeRate);
+        config.put("durationSeconds", this.options.durationSeconds);
+        config.put("rateLimits", Boolean.valueOf(System.getProperty(RATE_LIMIT_ENABLED_PROPERTY)));
+        if (this.options.replayFile != null) {
+            config.put("replayFile", this.options.replayFile);
+            config.put("replaySpeed", this.options.replaySpeed);
+        }
+
+        Map<String, Object> counts = new LinkedHashMap<>();
+        counts.put("connectedUsers", this.connectedUsers.get());
+        counts.put("failedConnections", this.failedConnections.get());
+        counts.put("quotesReceived", this.quotesReceived.get());
+        counts.put("tradesSent", this.tradesSent.get());
+        counts.put("tradesSkipped", this.tradesSkipped.get());
+        counts.put("tradesConfirmed", this.tradesConfirmed.get());
+        counts.put("tradesRejected", this.tradesRejected.get());
+        counts.put("tradesRateLimited", this.tradesRateLimited.get());
+        counts.put("tradesRolledBack", this.tradesRolledBack.get());
+        counts.put("tradesUnanswered", this.tradesUnanswered.get());
+        counts.put("tradesOutstanding", countOutstandingTrades());
+        counts.put("positionUpdates", this.positionUpdates.get());
+        counts.put("errorsReceived", this.errorsReceived.get());
+        counts.put("unmatchedAnswers", this.unmatchedAnswers.get());
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", config);
+        report.put("counts", counts);
+        report.put("quoteLatencyMillis", summarize(this.quoteLatency));
+        report.put("tradeRoundTripMillis", summarize(this.tradeRoundTrip));
+
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        File reportFile = new File(this.options.reportPath);
+        if (reportFile.getParentFile() != null) {
+            reportFile.getParentFile().mkdirs();
+        }
+        objectMapper.writeValue(reportFile, report);
+        System.out.println(objectMapper.writeValueAsString(report));
+        logger.info("Report written to " + reportFile.getAbsolutePath());
+    }
+
+    private int countOutstandingTrades() {
+        int count = 0;
+        for (UserSessionHandler user : this.users) {
+            if (user.isTradeOutstanding()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Map<String, Object> summarize(Histogram histogram) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.getTotalCount());
+        summary.put("mean", histogram.getMean() / 1000.0);
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            summary.put("p" + percentile, histogram.getValueAtPercentile(percentile) / 1000.0);
+        }
+        summary.put("max", histogram.getMaxValue() / 1000.0);
+        return summary;
+    }
+
+    private static void recordMicros(Histogram histogram, long micros) {
+        histogram.recordValue(Math.min(Math.max(micros, 0), HIGHEST_TRACKABLE_MICROS));
+    }
+
+    private class UserSessionHandler extends StompSessionHandlerAdapter {
+        private final String username;
+        private final int index;
+        private volatile StompSession session;
+        private boolean buy = true;
+        private long tradeSentAt;
+        private boolean tradeOutstanding;
+        private boolean rolledBack;
+
+        public UserSessionHandler(String username, int index) {
+            this.username = username;
+            this.index = index;
+        }
+
+        @Override
+        public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
+            this.session = session;
+            for (int i = 0; i < options.subscriptions; i++) {
+                String ticker = TICKERS[(this.index + i) % TICKERS.length];
+                session.subscribe("/topic/price.stock." + ticker, new QuoteHandler());
+            }
+            session.subscribe("/user/queue/position-updates", new PositionUpdateHandler());
+            session.subscribe("/user/queue/errors", new ErrorHandler());
+            connectedUsers.incrementAndGet();
+        }
+
+        public synchronized void sendTrade() {
+            StompSession session = this.session;
+            if (session == null || !session.isConnected()) {
+                return;
+            }
+            if (this.tradeOutstanding) {
+                if (System.nanoTime() - this.tradeSentAt < TimeUnit.MILLISECONDS.toNanos(TRADE_TIMEOUT_MILLIS)) {
+                    tradesSkipped.incrementAndGet();
+                    return;
+                }
+                tradesUnanswered.incrementAndGet();
+            }
+            Trade trade = new Trade();
+            trade.setAction(this.buy ? Trade.TradeAction.Buy : Trade.TradeAction.Sell);
+            trade.setTicker(TICKERS[this.index % TICKERS.length]);
+            trade.setShares(1);
+            this.buy = !this.buy;
+            this.tradeSentAt = System.nanoTime();
+            this.tradeOutstanding = true;
+            this.rolledBack = false;
+            session.send("/app/trade", trade);
+            tradesSent.incrementAndGet();
+        }
+
+        public synchronized boolean isTradeOutstanding() {
+            return this.tradeOutstanding;
+        }
+
+        /**
+         * Confirm the outstanding trade, or the rollback of it.
+         */
+        private synchronized void onPositionUpdate() {
+            if (!this.tradeOutstanding) {
+                unmatchedAnswers.incrementAndGet();
+                return;
+            }
+            this.tradeOutstanding = false;
+            if (!this.rolledBack) {
+                tradesConfirmed.incrementAndGet();
+                recordMicros(tradeRoundTrip, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - this.tradeSentAt));
+            }
+        }
+
+        /**
+         * Reject the outstanding trade, or mark it rolled back and wait for
+         * the position update that takes it back.
+         */
+        private synchronized void onError(String error) {
+            if (!this.tradeOutstanding || this.rolledBack) {
+                unmatchedAnswers.incrementAndGet();
+            } else if (TradeServiceImpl.JOURNAL_FAILED_MESSAGE.equals(error)) {
+                tradesRolledBack.incrementAndGet();
+                this.rolledBack = true;
+            } else if (RateLimitInterceptor.REJECTED_MESSAGE.equals(error)) {
+                tradesRateLimited.incrementAndGet();
+                this.tradeOutstanding = false;
+            } else {
+                tradesRejected.incrementAndGet();
+                this.tradeOutstanding = false;
+            }
+        }
+
+        public void disconnect() {
+            StompSession session = this.session;
+            if (session != null && session.isConnected()) {
+                session.disconnect();
+            }
+        }
+
+        @Override
+        public void handleException(StompSession session, StompCommand command, StompHeaders headers,
+                                    byte[] payload, Throwable exception) {
+            logger.error("Handler exception for " + this.username, exception);
+        }
+
+        @Override
+        public void handleTransportError(StompSession session, Throwable exception) {
+            if (this.session == null) {
+                failedConnections.incrementAndGet();
+            }
+            logger.error("Transport error for " + this.username, exception);
+        }
+
+        private class QuoteHandler implements StompFrameHandler {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Quote.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                Quote quote = (Quote) payload;
+                quotesReceived.incrementAndGet();
+                recordMicros(quoteLatency, TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() - quote.getTimestamp()));
+            }
+        }
+
+        private class PositionUpdateHandler implements StompFrameHandler {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return PositionDelta.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                positionUpdates.incrementAndGet();
+                onPositionUpdate();
+            }
+        }
+
+        private class ErrorHandler implements StompFrameHandler {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return String.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                errorsReceived.incrementAndGet();
+                onError((String) payload);
+            }
+        }
+    }
+
+    public static class Options {
+        private int users = 200;
+        private int rampRate = 50;
+        private int subscriptions = 4;
+        private int tradeRate = 1;
+        private int durationSeconds = 30;
+        private String reportPath = "target/load-report.json";
+        private String replayFile;
+        private double replaySpeed = 1;
+
+        public static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int index = arg.indexOf('=');
+                if (!arg.startsWith("--") || index < 0) {
+                    throw new IllegalArgumentException("Expected --name=value but got " + arg);
+                }
+                String name = arg.substring(2, index);
+                String value = arg.substring(index + 1);
+                if ("users".equals(name)) {
+                    options.users = Integer.parseInt(value);
+                } else if ("ramp-rate".equals(name)) {
+                    options.rampRate = Integer.parseInt(value);
+                } else if ("subscriptions".equals(name)) {
+                    options.subscriptions = Integer.parseInt(value);
+                } else if ("trade-rate".equals(name)) {
+                    options.tradeRate = Integer.parseInt(value);
+                } else if ("duration".equals(name)) {
+                    options.durationSeconds = Integer.parseInt(value);
+                } else if ("report".equals(name)) {
+                    options.reportPath = value;
+                } else if ("replay".equals(name)) {
+                    options.replayFile = value;
+                } else if ("replay-speed".equals(name)) {
+                    options.replaySpeed = Double.parseDouble(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            return options;
+        }
+    }
+
+    /**
+     * Adds an endpoint for the driver's users and their portfolios to the
+     * application's own {@link WebSocketConfig}.
+     */
+    @Configuration
+    static class LoadTestConfig extends AbstractWebSocketMessageBrokerConfigurer
+            implements ApplicationListener<ContextRefreshedEvent> {
+        static final String USER_COUNT_PROPERTY = "portfolio.load.users";
+
+        @Autowired
+        private PortfolioServiceImpl portfolioService;
+
+        @Override
+        public void registerStompEndpoints(StompEndpointRegistry registry) {
+            registry.addEndpoint(ENDPOINT).setHandshakeHandler(new QueryParameterHandshakeHandler());
+        }
+
+        @Override
+        public void onApplicationEvent(ContextRefreshedEvent event) {
+            int userCount = Integer.getInteger(USER_COUNT_PROPERTY, 0);
+            for (int i = 0; i < userCount; i++) {
+                Portfolio portfolio = new Portfolio();
+                for (String ticker : TICKERS) {
+                    portfolio.addPosition(new PortfolioPosition(ticker, ticker, 10.00, 1000));
+                }
+                this.portfolioService.addPortfolio(USER_PREFIX + i, portfolio);
+            }
+        }
+    }
+
+    /**
+     * Authenticates each WebSocket handshake as the user named by the
+     * {@code user} query parameter, so the driver needs no login round trip.
+     */
+    private static class QueryParameterHandshakeHandler extends DefaultHandshakeHandler {
+
+        public QueryParameterHandshakeHandler() {
+            super(new TomcatRequestUpgradeStrategy());
+        }
+
+        @Override
+        protected Principal determineUser(ServerHttpRequest request, WebSocketHandler wsHandler,
+                                          Map<String, Object> attributes) {
+            final String user = UriComponentsBuilder.fromUri(request.getURI()).build().getQueryParams().getFirst("user");
+            if (user == null) {
+                return super.determineUser(request, wsHandler, attributes);
+            }
+            return new Principal() {
+                @Override
+                public String getName() {
+                    return user;
+                }
+            };
+        }
+    }
+}
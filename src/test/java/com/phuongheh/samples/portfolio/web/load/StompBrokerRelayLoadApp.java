@@ -1,9 +1,13 @@
 package com.phuongheh.samples.portfolio.web.load;
 
+import com.phuongheh.samples.portfolio.messaging.BrokerRelayPostProcessor;
+import com.phuongheh.samples.portfolio.web.support.EmbeddedStompBroker;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.env.MapPropertySource;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHandler;
 import org.springframework.messaging.MessagingException;
@@ -31,14 +35,21 @@ import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
+/**
+ * Broadcasts through several application nodes, each relaying to the same
+ * STOMP broker. Without a {@code broker.port} system property an
+ * {@link EmbeddedStompBroker} is started, so fan-out across nodes can be
+ * measured on one machine.
+ */
 public class StompBrokerRelayLoadApp {
+    public static final int NUMBER_OF_NODES = 2;
     public static final int NUMBER_OF_USERS = 250;
     public static final int NUMBER_OF_MESSAGES_TO_BROADCAST = 100;
     public static final String DEFAULT_DESTINATION = "/topic/brokerTests-global";
 
-    private AbstractSubscribableChannel clientInboundChannel;
-    private TestMessageHandler clientOutboundMessageHandler;
-    private SimpMessagingTemplate brokerMessagingTemplate;
+    private final List<AnnotationConfigWebApplicationContext> nodes = new ArrayList<>();
+    private final TestMessageHandler clientOutboundMessageHandler = new TestMessageHandler();
+    private EmbeddedStompBroker broker;
     private StopWatch stopWatch;
 
     public static void main(String[] args) {
@@ -47,24 +58,35 @@ public class StompBrokerRelayLoadApp {
             app.runTest();
         } catch (Throwable t) {
             t.printStackTrace();
+        } finally {
+            app.shutdown();
         }
         System.exit(0);
     }
 
     private void runTest() throws InterruptedException {
-        AnnotationConfigWebApplicationContext cxt = new AnnotationConfigWebApplicationContext();
-        cxt.register(MessageConfig.class);
-        cxt.refresh();
-
-        this.clientInboundChannel = cxt.getBean("clientInboundChannel", AbstractSubscribableChannel.class);
-        this.clientOutboundMessageHandler = cxt.getBean(TestMessageHandler.class);
-        this.brokerMessagingTemplate = cxt.getBean(SimpMessagingTemplate.class);
+        Integer brokerPort = Integer.getInteger("broker.port");
+        if (brokerPort == null) {
+            this.broker = new EmbeddedStompBroker(0);
+            this.broker.start();
+            brokerPort = this.broker.getPort();
+        }
+        for (int i = 0; i < NUMBER_OF_NODES; i++) {
+            AnnotationConfigWebApplicationContext cxt = new AnnotationConfigWebApplicationContext();
+            cxt.getEnvironment().getPropertySources().addFirst(new MapPropertySource("broker",
+                    Collections.<String, Object>singletonMap("broker.port", brokerPort)));
+            cxt.register(MessageConfig.class);
+            cxt.refresh();
+            if (!cxt.getBean(MessageConfig.class).brokerAvailabilityLatch.await(5000, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Broker on port " + brokerPort + " not available to node " + i);
+            }
+            cxt.getBean("clientOutboundChannel", AbstractSubscribableChannel.class)
+                    .subscribe(this.clientOutboundMessageHandler);
+            this.nodes.add(cxt);
+        }
 
         this.stopWatch = new StopWatch("STOMP Broker Relay Load Tests");
 
-        CountDownLatch brokerAvailabilityLatch = cxt.getBean(CountDownLatch.class);
-        brokerAvailabilityLatch.await(5000, TimeUnit.MILLISECONDS);
-
         List<String> sessionIds = generateIds("session", NUMBER_OF_USERS);
         List<String> subscriptionIds = generateIds("subscription", NUMBER_OF_USERS);
         List<String> receiptIds = generateIds("receipt", NUMBER_OF_USERS);
@@ -76,13 +98,41 @@ public class StompBrokerRelayLoadApp {
         person.setName("Joe");
         broadcast(DEFAULT_DESTINATION, person, NUMBER_OF_MESSAGES_TO_BROADCAST, NUMBER_OF_USERS);
         disconnect(sessionIds);
+        System.out.println(this.stopWatch.prettyPrint());
+        if (this.broker != null) {
+            System.out.println("Broker received " + this.broker.getReceivedCount() + " and delivered " +
+                    this.broker.getDeliveredCount() + " messages");
+        }
+    }
+
+    private void shutdown() {
+        for (AnnotationConfigWebApplicationContext cxt : this.nodes) {
+            cxt.close();
+        }
+        if (this.broker != null) {
+            this.broker.stop();
+        }
+    }
+
+    /**
+     * Users are spread over the nodes round-robin.
+     */
+    private AnnotationConfigWebApplicationContext nodeOf(int userIndex) {
+        return this.nodes.get(userIndex % this.nodes.size());
     }
 
+    private AbstractSubscribableChannel clientInboundChannel(int userIndex) {
+        return nodeOf(userIndex).getBean("clientInboundChannel", AbstractSubscribableChannel.class);
+    }
+
+
     private void broadcast(String destination, Person person, int sendCount, int numberOfSubscribers) throws InterruptedException {
-        System.out.println("Broacasting " + sendCount + " messages to " + numberOfSubscribers + " users ");
-        this.stopWatch.start();
+        System.out.println("Broadcasting " + sendCount + " messages to " + numberOfSubscribers + " users on " +
+                this.nodes.size() + " nodes");
+        this.stopWatch.start("Broadcast");
+        SimpMessagingTemplate brokerMessagingTemplate = this.nodes.get(0).getBean(SimpMessagingTemplate.class);
         for (int i = 0; i < sendCount; i++) {
-            this.brokerMessagingTemplate.convertAndSend(destination, person);
+            brokerMessagingTemplate.convertAndSend(destination, person);
         }
         int remaining = sendCount * numberOfSubscribers;
         while (remaining > 0) {
@@ -97,7 +147,7 @@ public class StompBrokerRelayLoadApp {
                 System.out.println(".");
             }
         }
-        this.stopWatch.start();
+        this.stopWatch.stop();
         System.out.println("(" + this.stopWatch.getLastTaskTimeMillis() + " millis)");
     }
 
@@ -105,11 +155,11 @@ public class StompBrokerRelayLoadApp {
         System.out.println("Disconnecting... ");
         this.stopWatch.start("Disconnect");
 
-        for (String sessionId : sessionIds) {
+        for (int i = 0; i < sessionIds.size(); i++) {
             StompHeaderAccessor headerAccessor = StompHeaderAccessor.create(StompCommand.DISCONNECT);
-            headerAccessor.setSessionId(sessionId);
+            headerAccessor.setSessionId(sessionIds.get(i));
             Message<byte[]> message = MessageBuilder.createMessage(new byte[0], headerAccessor.getMessageHeaders());
-            this.clientInboundChannel.send(message);
+            clientInboundChannel(i).send(message);
         }
         this.stopWatch.stop();
         System.out.println("(" + this.stopWatch.getLastTaskTimeMillis() + " millis)");
@@ -131,7 +181,7 @@ public class StompBrokerRelayLoadApp {
                            List<String> subscriptionIds,
                            List<String> receiptIds) throws InterruptedException {
         System.out.println("Subscribing all users");
-        this.stopWatch.start();
+        this.stopWatch.start("Subscribe");
         for (int i = 0; i < sessionIds.size(); i++) {
             StompHeaderAccessor headerAccessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
             headerAccessor.setSessionId(sessionIds.get(i));
@@ -139,10 +189,10 @@ public class StompBrokerRelayLoadApp {
             headerAccessor.setDestination(DEFAULT_DESTINATION);
             headerAccessor.setReceipt(receiptIds.get(i));
             Message<byte[]> message = MessageBuilder.createMessage(new byte[0], headerAccessor.getMessageHeaders());
-            this.clientInboundChannel.send(message);
+            clientInboundChannel(i).send(message);
         }
 
-        List<String> expectedIds = new ArrayList<>();
+        List<String> expectedIds = new ArrayList<>(receiptIds);
         while (!expectedIds.isEmpty()) {
             Message<?> message = this.clientOutboundMessageHandler.awaitMessage(5000);
             assertNotNull("No more messages, expected " + expectedIds.size() + " more ids: " + expectedIds, message);
@@ -159,17 +209,17 @@ public class StompBrokerRelayLoadApp {
 
     private void connect(List<String> sessionIds) throws InterruptedException {
         System.out.println("Connecting " + sessionIds.size() + " users ");
-        this.stopWatch.start();
+        this.stopWatch.start("Connect");
 
-        for (String sessionId : sessionIds) {
+        for (int i = 0; i < sessionIds.size(); i++) {
             StompHeaderAccessor headerAccessor = StompHeaderAccessor.create(StompCommand.CONNECT);
             headerAccessor.setHeartbeat(0, 0);
-            headerAccessor.setSessionId(sessionId);
+            headerAccessor.setSessionId(sessionIds.get(i));
             Message<byte[]> message = MessageBuilder.createMessage(new byte[0], headerAccessor.getMessageHeaders());
-            this.clientInboundChannel.send(message);
+            clientInboundChannel(i).send(message);
         }
 
-        List<String> expectedIds = new ArrayList<>();
+        List<String> expectedIds = new ArrayList<>(sessionIds);
         while (!expectedIds.isEmpty()) {
             Message<?> message = this.clientOutboundMessageHandler.awaitMessage(5000);
             assertNotNull("No more messages, expected " + expectedIds.size() + " more ids: " + expectedIds, message);
@@ -197,24 +247,27 @@ public class StompBrokerRelayLoadApp {
             implements ApplicationListener<ApplicationEvent> {
         private final CountDownLatch brokerAvailabilityLatch = new CountDownLatch(1);
 
+        @Bean
+        public static BrokerRelayPostProcessor brokerRelayPostProcessor() {
+            return new BrokerRelayPostProcessor(4, 100, 5000);
+        }
+
         @Override
         public void onApplicationEvent(ApplicationEvent event) {
             if (event instanceof ContextRefreshedEvent) {
                 simpAnnotationMethodMessageHandler().stop();
                 userDestinationMessageHandler().stop();
-                clientOutboundChannel().subscribe(clientOutboundMessageHandler());
-            } else if (event instanceof BrokerAvailabilityEvent) {
+            } else if (event instanceof BrokerAvailabilityEvent && ((BrokerAvailabilityEvent) event).isBrokerAvailable()) {
                 this.brokerAvailabilityLatch.countDown();
             }
         }
 
-        private MessageHandler clientOutboundMessageHandler() {
-            return new TestMessageHandler();
-        }
-
         @Override
         protected void configureMessageBroker(MessageBrokerRegistry registry) {
-            registry.enableStompBrokerRelay("/topic/");
+            registry.enableStompBrokerRelay("/topic/")
+                    .setRelayPort(getApplicationContext().getEnvironment().getProperty("broker.port", Integer.class))
+                    .setSystemHeartbeatSendInterval(10000)
+                    .setSystemHeartbeatReceiveInterval(10000);
         }
 
         @Override
@@ -0,0 +1,80 @@
+package com.phuongheh.samples.portfolio.web.load;
+
+import com.phuongheh.samples.portfolio.service.ReplayQuoteSource;
+import com.phuongheh.samples.portfolio.service.TickFileWriter;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a synthetic opening-bell tick file for {@link ReplayQuoteSource}.
+ *
+ * <p>Ticks arrive as a Poisson process whose rate starts at {@code rate} per
+ * second and decays to a fifth of it with a 10 second time constant, spread
+ * evenly over the tickers, each price taking a small random step. The
+ * tickers are the application's own followed by {@code T<n>}. The same seed
+ * always writes the same file. Options (all optional):
+ * {@code --tickers=500 --rate=50000 --duration=60 --seed=42
+ * --output=target/ticks.bin}.
+ */
+public class TickFileGenerator {
+    private static final String[] TICKERS = {"CTXS", "DELL", "EMC", "GOOG", "MSFT", "ORCL", "RHT", "VMW"};
+    private static final long[] SEED_PRICES = {2430, 1303, 2413, 89349, 3421, 3422, 4830, 6698};
+
+    public static void main(String[] args) throws Exception {
+        int tickerCount = 500;
+        double rate = 50000;
+        int durationSeconds = 60;
+        long seed = 42;
+        String output = "target/ticks.bin";
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (!arg.startsWith("--") || index < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            String name = arg.substring(2, index);
+            String value = arg.substring(index + 1);
+            if ("tickers".equals(name)) {
+                tickerCount = Math.max(Integer.parseInt(value), TICKERS.length);
+            } else if ("rate".equals(name)) {
+                rate = Double.parseDouble(value);
+            } else if ("duration".equals(name)) {
+                durationSeconds = Integer.parseInt(value);
+            } else if ("seed".equals(name)) {
+                seed = Long.parseLong(value);
+            } else if ("output".equals(name)) {
+                output = value;
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+
+        Random random = new Random(seed);
+        String[] tickers = new String[tickerCount];
+        long[] prices = new long[tickerCount];
+        for (int i = 0; i < tickerCount; i++) {
+            tickers[i] = (i < TICKERS.length) ? TICKERS[i] : "T" + i;
+            prices[i] = (i < SEED_PRICES.length) ? SEED_PRICES[i] : 100 + random.nextInt(100000);
+        }
+        long startMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        long endMicros = TimeUnit.SECONDS.toMicros(durationSeconds);
+        File file = new File(output);
+        try (TickFileWriter writer = new TickFileWriter(file, tickers, startMicros)) {
+            double micros = 0;
+            while (true) {
+                double currentRate = rate * (0.2 + 0.8 * Math.exp(-micros / TimeUnit.SECONDS.toMicros(10)));
+                micros += -Math.log(1 - random.nextDouble()) * 1000000 / currentRate;
+                if (micros >= endMicros) {
+                    break;
+                }
+                int tickerId = random.nextInt(tickerCount);
+                long step = Math.max(1, prices[tickerId] / 1000);
+                prices[tickerId] = Math.max(1, prices[tickerId] + (random.nextBoolean() ? step : -step));
+                writer.write(tickerId, prices[tickerId], startMicros + (long) micros);
+            }
+            System.out.println("Wrote " + writer.getCount() + " ticks of " + tickerCount + " tickers over " +
+                    durationSeconds + " seconds to " + file.getAbsolutePath() + " (" + file.length() + " bytes)");
+        }
+    }
+}
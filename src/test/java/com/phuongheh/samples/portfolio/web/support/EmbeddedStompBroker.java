@@ -0,0 +1,279 @@
+package com.phuongheh.samples.portfolio.web.support;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.BufferingStompDecoder;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process STOMP broker for relay tests and load runs on one machine.
+ *
+ * <p>It understands just enough of STOMP 1.2 to stand in for RabbitMQ or
+ * ActiveMQ behind the broker relay: CONNECT, SUBSCRIBE, UNSUBSCRIBE, SEND,
+ * DISCONNECT, receipts and heartbeats. Every SEND is delivered to all
+ * matching subscriptions on all connections, so several application nodes
+ * connected to it see each other's broadcasts. Subscriptions may use
+ * Ant-style patterns like the simple broker. There are no queues,
+ * acknowledgements, transactions or durable subscriptions.
+ */
+public class EmbeddedStompBroker {
+    private static final Log logger = LogFactory.getLog(EmbeddedStompBroker.class);
+    private static final Set<String> FRAME_HEADERS = new HashSet<>(Arrays.asList(
+            StompHeaderAccessor.STOMP_DESTINATION_HEADER, StompHeaderAccessor.STOMP_RECEIPT_HEADER,
+            StompHeaderAccessor.STOMP_CONTENT_LENGTH_HEADER, StompHeaderAccessor.STOMP_ID_HEADER,
+            StompHeaderAccessor.STOMP_SUBSCRIPTION_HEADER, StompHeaderAccessor.STOMP_MESSAGE_ID_HEADER,
+            StompHeaderAccessor.STOMP_ACK_HEADER, "transaction"));
+    private static final byte[] HEARTBEAT = {'\n'};
+    private static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+    private final int requestedPort;
+    private final StompEncoder encoder = new StompEncoder();
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+    private final ConcurrentMap<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicLong connectionIds = new AtomicLong();
+    private final AtomicLong messageIds = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+    private int port;
+
+    /**
+     * Create a broker on the given port, or on any free port if 0.
+     */
+    public EmbeddedStompBroker(int port) {
+        this.requestedPort = port;
+    }
+
+    public int getPort() {
+        return this.port;
+    }
+
+    /**
+     * Return how many SEND frames the broker has received.
+     */
+    public long getReceivedCount() {
+        return this.received.get();
+    }
+
+    /**
+     * Return how many MESSAGE frames the broker has written to subscribers.
+     */
+    public long getDeliveredCount() {
+        return this.delivered.get();
+    }
+
+    public int getSubscriptionCount() {
+        return this.subscriptions.size();
+    }
+
+    public void start() {
+        this.bossGroup = new NioEventLoopGroup(1);
+        this.workerGroup = new NioEventLoopGroup();
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(this.bossGroup, this.workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        channel.pipeline().addLast(new StompConnection(connectionIds.incrementAndGet()));
+                    }
+                });
+        this.serverChannel = bootstrap.bind("127.0.0.1", this.requestedPort).syncUninterruptibly().channel();
+        this.port = ((InetSocketAddress) this.serverChannel.localAddress()).getPort();
+        logger.info("Embedded STOMP broker listening on port " + this.port);
+    }
+
+    public void stop() {
+        if (this.serverChannel != null) {
+            this.serverChannel.close().syncUninterruptibly();
+        }
+        if (this.bossGroup != null) {
+            this.bossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+            this.workerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+        this.subscriptions.clear();
+    }
+
+    private boolean matches(String pattern, String destination) {
+        return (this.pathMatcher.isPattern(pattern) ? this.pathMatcher.match(pattern, destination) :
+                pattern.equals(destination));
+    }
+
+    private void publish(StompHeaderAccessor send, byte[] payload) {
+        this.received.incrementAndGet();
+        String destination = send.getDestination();
+        if (destination == null) {
+            return;
+        }
+        for (Subscription subscription : this.subscriptions.values()) {
+            if (!matches(subscription.destination, destination)) {
+                continue;
+            }
+            StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.MESSAGE);
+            for (Map.Entry<String, List<String>> header : send.toNativeHeaderMap().entrySet()) {
+                if (!FRAME_HEADERS.contains(header.getKey()) && !header.getValue().isEmpty()) {
+                    headers.setNativeHeader(header.getKey(), header.getValue().get(0));
+                }
+            }
+            headers.setNativeHeader(StompHeaderAccessor.STOMP_DESTINATION_HEADER, destination);
+            headers.setNativeHeader(StompHeaderAccessor.STOMP_SUBSCRIPTION_HEADER, subscription.id);
+            headers.setNativeHeader(StompHeaderAccessor.STOMP_MESSAGE_ID_HEADER,
+                    String.valueOf(this.messageIds.incrementAndGet()));
+            // Counted first, so a subscriber that has the frame sees it counted
+            this.delivered.incrementAndGet();
+            subscription.connection.write(headers, payload);
+        }
+    }
+
+    private static class Subscription {
+        private final StompConnection connection;
+        private final String id;
+        private final String destination;
+
+        Subscription(StompConnection connection, String id, String destination) {
+            this.connection = connection;
+            this.id = id;
+            this.destination = destination;
+        }
+    }
+
+    private class StompConnection extends ChannelInboundHandlerAdapter {
+        private final String keyPrefix;
+        private final BufferingStompDecoder decoder = new BufferingStompDecoder(new StompDecoder(), MAX_FRAME_SIZE);
+        private Channel channel;
+        private ScheduledFuture<?> heartbeatTask;
+
+        StompConnection(long id) {
+            this.keyPrefix = id + ":";
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext context) {
+            this.channel = context.channel();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext context, Object msg) {
+            ByteBuf buf = (ByteBuf) msg;
+            ByteBuffer buffer = ByteBuffer.allocate(buf.readableBytes());
+            try {
+                buf.readBytes(buffer);
+            } finally {
+                buf.release();
+            }
+            buffer.flip();
+            for (Message<byte[]> frame : this.decoder.decode(buffer)) {
+                StompHeaderAccessor headers = StompHeaderAccessor.wrap(frame);
+                if (headers.getMessageType() != SimpMessageType.HEARTBEAT) {
+                    handle(headers, frame.getPayload());
+                }
+            }
+        }
+
+        private void handle(StompHeaderAccessor headers, byte[] payload) {
+            StompCommand command = headers.getCommand();
+            if (command == StompCommand.CONNECT || command == StompCommand.STOMP) {
+                connected(headers);
+            } else if (command == StompCommand.SUBSCRIBE) {
+                subscriptions.put(this.keyPrefix + headers.getSubscriptionId(),
+                        new Subscription(this, headers.getSubscriptionId(), headers.getDestination()));
+            } else if (command == StompCommand.UNSUBSCRIBE) {
+                subscriptions.remove(this.keyPrefix + headers.getSubscriptionId());
+            } else if (command == StompCommand.SEND) {
+                publish(headers, payload);
+            }
+            String receipt = headers.getReceipt();
+            if (receipt != null) {
+                StompHeaderAccessor receiptHeaders = StompHeaderAccessor.create(StompCommand.RECEIPT);
+                receiptHeaders.setNativeHeader(StompHeaderAccessor.STOMP_RECEIPT_ID_HEADER, receipt);
+                write(receiptHeaders, new byte[0]);
+            }
+            if (command == StompCommand.DISCONNECT) {
+                this.channel.flush();
+                this.channel.close();
+            }
+        }
+
+        /**
+         * Reply to a CONNECT frame. The broker sends heartbeats as often as
+         * the client asks for them and does not require any in return.
+         */
+        private void connected(StompHeaderAccessor headers) {
+            long[] heartbeat = headers.getHeartbeat();
+            long sendInterval = (heartbeat.length > 1) ? heartbeat[1] : 0;
+            StompHeaderAccessor connected = StompHeaderAccessor.create(StompCommand.CONNECTED);
+            connected.setNativeHeader(StompHeaderAccessor.STOMP_VERSION_HEADER, "1.2");
+            connected.setNativeHeader(StompHeaderAccessor.STOMP_HEARTBEAT_HEADER, sendInterval + ",0");
+            connected.setNativeHeader("server", "embedded");
+            write(connected, new byte[0]);
+            if (sendInterval > 0 && this.heartbeatTask == null) {
+                this.heartbeatTask = this.channel.eventLoop().scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        channel.writeAndFlush(Unpooled.wrappedBuffer(HEARTBEAT));
+                    }
+                }, sendInterval, sendInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void write(StompHeaderAccessor headers, byte[] payload) {
+            byte[] frame = encoder.encode(MessageBuilder.createMessage(payload, headers.getMessageHeaders()));
+            this.channel.writeAndFlush(Unpooled.wrappedBuffer(frame)).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext context) {
+            if (this.heartbeatTask != null) {
+                this.heartbeatTask.cancel(false);
+            }
+            for (String key : subscriptions.keySet()) {
+                if (key.startsWith(this.keyPrefix)) {
+                    subscriptions.remove(key);
+                }
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext context, Throwable cause) {
+            logger.debug("Closing STOMP connection " + context.channel(), cause);
+            context.close();
+        }
+    }
+}
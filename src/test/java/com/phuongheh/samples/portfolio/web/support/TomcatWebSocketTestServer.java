@@ -57,6 +57,7 @@ public class TomcatWebSocketTestServer implements WebSocketTestServer {
     @Override
     public void deployConfig(WebApplicationContext cxt) {
         this.context = this.tomcatServer.addContext("", System.getProperty("java.io.tmpdir"));
+        this.context.addApplicationListener(WsContextListener.class.getName());
         Tomcat.addServlet(context, "dispatcherServlet", new DispatcherServlet(cxt));
         this.context.addServletMappingDecoded("/", "dispatcherServlet");
     }
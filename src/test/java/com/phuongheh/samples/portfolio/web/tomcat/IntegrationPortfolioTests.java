@@ -1,6 +1,6 @@
 package com.phuongheh.samples.portfolio.web.tomcat;
 
-import com.phuongheh.samples.portfolio.PortfolioPosition;
+import com.phuongheh.samples.portfolio.PositionDelta;
 import com.phuongheh.samples.portfolio.config.DispatcherServletInitializer;
 import com.phuongheh.samples.portfolio.config.WebConfig;
 import com.phuongheh.samples.portfolio.config.WebSecurityInitializer;
@@ -55,6 +55,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class IntegrationPortfolioTests {
@@ -152,16 +153,17 @@ public class IntegrationPortfolioTests {
                 session.subscribe("/user/queue/position-updates", new StompFrameHandler() {
                     @Override
                     public Type getPayloadType(StompHeaders stompHeaders) {
-                        return PortfolioPosition.class;
+                        return PositionDelta.class;
                     }
 
                     @Override
                     public void handleFrame(StompHeaders stompHeaders, Object payload) {
-                        PortfolioPosition position = (PortfolioPosition) payload;
-                        logger.debug("Got" + position);
+                        PositionDelta delta = (PositionDelta) payload;
+                        logger.debug("Got" + delta);
                         try {
-                            assertEquals(75, position.getShares());
-                            assertEquals("Dell Inc.", position.getCompany());
+                            assertEquals(75, delta.getShares());
+                            assertEquals("DELL", delta.getTicker());
+                            assertTrue(delta.getSequence() > 0);
                         } catch (Throwable t) {
                             failure.set(t);
                         } finally {